@@ -0,0 +1,163 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.client;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * <p>Several queries to be executed together by {@link ClientRecommender#batch(BatchQuery)}, in one request
+ * per partition. Queries are added by calling methods that mirror those of {@link ClientRecommender}, and
+ * results are returned in the same order as {@link BatchResult}s.</p>
+ *
+ * <p>For example: {@code new BatchQuery().recommend(123L, 5).mostSimilarItems(new long[] {1L}, 3)}</p>
+ */
+public final class BatchQuery {
+
+  private final List<Query> queries;
+
+  public BatchQuery() {
+    queries = Lists.newArrayList();
+  }
+
+  /**
+   * Adds a query like {@link ClientRecommender#recommend(long, int)}.
+   */
+  public BatchQuery recommend(long userID, int howMany) {
+    return recommend(userID, howMany, false, null);
+  }
+
+  /**
+   * Adds a query like {@link ClientRecommender#recommend(long, int, boolean, String[])}.
+   */
+  public BatchQuery recommend(long userID, int howMany, boolean considerKnownItems, String[] rescorerParams) {
+    StringBuilder urlPath = new StringBuilder();
+    urlPath.append("/recommend/").append(userID);
+    ClientRecommender.appendCommonQueryParams(howMany, considerKnownItems, rescorerParams, urlPath);
+    queries.add(new Query(urlPath.toString(), userID, false, null));
+    return this;
+  }
+
+  /**
+   * Adds a query like {@link ClientRecommender#mostSimilarItems(long[], int)}.
+   */
+  public BatchQuery mostSimilarItems(long[] itemIDs, int howMany) {
+    return mostSimilarItems(itemIDs, howMany, null, null);
+  }
+
+  /**
+   * Adds a query like {@link ClientRecommender#mostSimilarItems(long[], int, String[], Long)}.
+   */
+  public BatchQuery mostSimilarItems(long[] itemIDs, int howMany, String[] rescorerParams, Long contextUserID) {
+    Preconditions.checkArgument(itemIDs.length > 0, "No items");
+    StringBuilder urlPath = new StringBuilder();
+    urlPath.append("/similarity");
+    for (long itemID : itemIDs) {
+      urlPath.append('/').append(itemID);
+    }
+    ClientRecommender.appendCommonQueryParams(howMany, false, rescorerParams, urlPath);
+    // Partition as ClientRecommender does for the individual request
+    long idToPartitionOn = contextUserID == null ? itemIDs[0] : contextUserID;
+    queries.add(new Query(urlPath.toString(), idToPartitionOn, false, itemIDs.clone()));
+    return this;
+  }
+
+  /**
+   * Adds a query like {@link ClientRecommender#estimatePreferences(long, long...)}.
+   */
+  public BatchQuery estimatePreferences(long userID, long... itemIDs) {
+    StringBuilder urlPath = new StringBuilder();
+    urlPath.append("/estimate/").append(userID);
+    for (long itemID : itemIDs) {
+      urlPath.append('/').append(itemID);
+    }
+    queries.add(new Query(urlPath.toString(), userID, true, null));
+    return this;
+  }
+
+  /**
+   * @return number of queries added so far
+   */
+  public int size() {
+    return queries.size();
+  }
+
+  Query get(int index) {
+    return queries.get(index);
+  }
+
+  /**
+   * One query in the batch.
+   */
+  static final class Query {
+
+    private final String path;
+    private final long unnormalizedPartition;
+    private final boolean estimate;
+    private final long[] itemIDs;
+
+    /**
+     * @param itemIDs items the query is about, if it is not about the user given by
+     *  {@code unnormalizedPartition}
+     */
+    private Query(String path, long unnormalizedPartition, boolean estimate, long[] itemIDs) {
+      this.path = path;
+      this.unnormalizedPartition = unnormalizedPartition;
+      this.estimate = estimate;
+      this.itemIDs = itemIDs;
+    }
+
+    /**
+     * @return path and query string of the equivalent individual request
+     */
+    String getPath() {
+      return path;
+    }
+
+    /**
+     * @return ID value that determines the partition which should answer this query
+     */
+    long getUnnormalizedPartition() {
+      return unnormalizedPartition;
+    }
+
+    /**
+     * @return true if the result is estimates rather than items
+     */
+    boolean isEstimate() {
+      return estimate;
+    }
+
+    /**
+     * @return new exception to report that the server can't find the user or items
+     */
+    TasteException newNotFound() {
+      if (itemIDs == null) {
+        return new NoSuchUserException(unnormalizedPartition);
+      }
+      return new NoSuchItemException(Arrays.toString(itemIDs));
+    }
+
+  }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.client;
+
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+
+/**
+ * The result of one query in a {@link BatchQuery}: either items or estimates, depending on the query,
+ * or the exception that the equivalent individual call to {@link ClientRecommender} would have thrown.
+ */
+public final class BatchResult {
+
+  private final List<RecommendedItem> items;
+  private final float[] estimates;
+  private final TasteException exception;
+
+  BatchResult(List<RecommendedItem> items, float[] estimates, TasteException exception) {
+    this.items = items;
+    this.estimates = estimates;
+    this.exception = exception;
+  }
+
+  /**
+   * @return items recommended, or most similar items, or {@code null} if the query was for estimates
+   *  or failed
+   */
+  public List<RecommendedItem> getItems() {
+    return items;
+  }
+
+  /**
+   * @return estimates, in the order of the item IDs queried, or {@code null} if the query was for
+   *  items or failed
+   */
+  public float[] getEstimates() {
+    return estimates;
+  }
+
+  /**
+   * @return exception describing why the query failed, or {@code null} if it succeeded
+   */
+  public TasteException getException() {
+    return exception;
+  }
+
+}
@@ -16,12 +16,16 @@
 
 package net.myrrix.client;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.Authenticator;
@@ -37,6 +41,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -75,6 +80,7 @@ import org.slf4j.LoggerFactory;
 
 import net.myrrix.common.collection.FastIDSet;
 import net.myrrix.common.io.IOUtils;
+import net.myrrix.common.IDPage;
 import net.myrrix.common.LangUtils;
 import net.myrrix.common.MyrrixRecommender;
 import net.myrrix.common.NotReadyException;
@@ -96,6 +102,9 @@ import net.myrrix.common.random.RandomUtils;
  *    running out of local sockets on the client side during load testing, but should not otherwise be set.</li>
  *   <li>{@code client.https.ignoreHost}: When using HTTPS, ignore the host specified in the certificate. This
  *    can make development easier, but must not be used in production.</li>
+ *   <li>{@code client.binary}: Requests lists of items and IDs in a compact binary encoding instead of CSV.
+ *    This saves parsing time and bytes for large responses, but requires a Serving Layer of version 1.0.2
+ *    or later.</li>
  * </ul>
  *
  * @author Sean Owen
@@ -108,6 +117,7 @@ public final class ClientRecommender implements MyrrixRecommender {
   private static final Splitter COMMA = Splitter.on(',');
   private static final String IGNORE_HOSTNAME_KEY = "client.https.ignoreHost";
   private static final String CONNECTION_CLOSE_KEY = "client.connection.close";
+  private static final String BINARY_KEY = "client.binary";
 
   private static final Map<String,String> INGEST_REQUEST_PROPS;
   static {
@@ -115,12 +125,20 @@ public final class ClientRecommender implements MyrrixRecommender {
     INGEST_REQUEST_PROPS.put(HttpHeaders.CONTENT_TYPE, MediaType.PLAIN_TEXT_UTF_8.toString());
     INGEST_REQUEST_PROPS.put(HttpHeaders.CONTENT_ENCODING, "gzip");
   }
+  private static final Map<String,String> BATCH_REQUEST_PROPS =
+      Collections.singletonMap(HttpHeaders.CONTENT_TYPE, MediaType.PLAIN_TEXT_UTF_8.toString());
+  private static final String BATCH_STATUS_HEADER = "X-Status";
+  private static final String NEXT_CURSOR_HEADER = "X-Myrrix-Next-Cursor";
   private static final String DESIRED_RESPONSE_CONTENT_TYPE = MediaType.CSV_UTF_8.withoutParameters().toString();
+  private static final String BINARY_CONTENT_TYPE = MediaType.OCTET_STREAM.toString();
+  private static final String DESIRED_BINARY_RESPONSE_CONTENT_TYPE =
+      BINARY_CONTENT_TYPE + ", " + DESIRED_RESPONSE_CONTENT_TYPE + ";q=0.5";
 
   private final MyrrixClientConfiguration config;
   private final boolean needAuthentication;
   private final boolean closeConnection;
   private final boolean ignoreHTTPSHost;
+  private final String acceptHeader;
   private final List<List<HostAndPort>> partitions;
 
   /**
@@ -153,6 +171,8 @@ public final class ClientRecommender implements MyrrixRecommender {
 
     closeConnection = Boolean.valueOf(System.getProperty(CONNECTION_CLOSE_KEY));
     ignoreHTTPSHost = Boolean.valueOf(System.getProperty(IGNORE_HOSTNAME_KEY));
+    acceptHeader = Boolean.valueOf(System.getProperty(BINARY_KEY)) ?
+        DESIRED_BINARY_RESPONSE_CONTENT_TYPE : DESIRED_RESPONSE_CONTENT_TYPE;
 
     partitions = config.getPartitions();
   }
@@ -259,7 +279,7 @@ public final class ClientRecommender implements MyrrixRecommender {
     connection.setDoOutput(doOutput);
     connection.setUseCaches(false);
     connection.setAllowUserInteraction(false);
-    connection.setRequestProperty(HttpHeaders.ACCEPT, DESIRED_RESPONSE_CONTENT_TYPE);
+    connection.setRequestProperty(HttpHeaders.ACCEPT, acceptHeader);
     if (closeConnection) {
       connection.setRequestProperty(HttpHeaders.CONNECTION, "close");
     }
@@ -597,6 +617,23 @@ public final class ClientRecommender implements MyrrixRecommender {
 
   private static List<RecommendedItem> consumeItems(URLConnection connection) throws IOException {
     List<RecommendedItem> result = Lists.newArrayList();
+    if (isBinary(connection)) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+      try {
+        while (true) {
+          long itemID;
+          try {
+            itemID = in.readLong();
+          } catch (EOFException ignored) {
+            break;
+          }
+          result.add(new GenericRecommendedItem(itemID, in.readFloat()));
+        }
+      } finally {
+        in.close();
+      }
+      return result;
+    }
     BufferedReader reader = IOUtils.bufferStream(connection.getInputStream());
     try {
       CharSequence line;
@@ -612,6 +649,14 @@ public final class ClientRecommender implements MyrrixRecommender {
     return result;
   }
 
+  /**
+   * @return true if the server chose to send the response in binary rather than CSV
+   */
+  private static boolean isBinary(URLConnection connection) {
+    String contentType = connection.getContentType();
+    return contentType != null && contentType.startsWith(BINARY_CONTENT_TYPE);
+  }
+
   /**
    * @param userIDs users for which recommendations are to be computed
    * @param howMany desired number of recommendations
@@ -949,6 +994,148 @@ public final class ClientRecommender implements MyrrixRecommender {
     throw savedException;
   }
 
+  /**
+   * Executes several queries at once. Queries are grouped by the partition that should answer them, and each
+   * group is sent in one request to that partition, which executes them concurrently.
+   *
+   * @param query queries to execute
+   * @return for each query, in order, its result, or the exception the equivalent individual call would
+   *  have thrown
+   * @throws TasteException if a partition could not be accessed at all
+   */
+  public List<BatchResult> batch(BatchQuery query) throws TasteException {
+    Map<Integer,List<Integer>> indicesByPartition = Maps.newTreeMap();
+    for (int i = 0; i < query.size(); i++) {
+      int partition = LangUtils.mod(query.get(i).getUnnormalizedPartition(), partitions.size());
+      List<Integer> indices = indicesByPartition.get(partition);
+      if (indices == null) {
+        indices = Lists.newArrayList();
+        indicesByPartition.put(partition, indices);
+      }
+      indices.add(i);
+    }
+    BatchResult[] results = new BatchResult[query.size()];
+    for (List<Integer> indices : indicesByPartition.values()) {
+      batchToPartition(query, indices, results);
+    }
+    return Arrays.asList(results);
+  }
+
+  private void batchToPartition(BatchQuery query, List<Integer> indices, BatchResult[] results)
+      throws TasteException {
+    TasteException savedException = null;
+    for (HostAndPort replica : choosePartitionAndReplicas(query.get(indices.get(0)).getUnnormalizedPartition())) {
+      HttpURLConnection connection = null;
+      try {
+        connection = buildConnectionToReplica(replica, "/batch", "POST", true, false, BATCH_REQUEST_PROPS);
+        Writer out = new OutputStreamWriter(connection.getOutputStream(), Charsets.UTF_8);
+        try {
+          for (int index : indices) {
+            out.write(query.get(index).getPath());
+            out.write('\n');
+          }
+        } finally {
+          out.close();
+        }
+        switch (connection.getResponseCode()) {
+          case HttpURLConnection.HTTP_OK:
+            consumeBatchResults(connection, query, indices, results);
+            return;
+          case HttpURLConnection.HTTP_UNAVAILABLE:
+            throw new NotReadyException();
+          default:
+            throw new TasteException(connection.getResponseCode() + " " + connection.getResponseMessage());
+        }
+      } catch (TasteException te) {
+        log.info("Can't access /batch at {}: ({})", replica, te.toString());
+        savedException = te;
+      } catch (IOException ioe) {
+        log.info("Can't access /batch at {}: ({})", replica, ioe.toString());
+        savedException = new TasteException(ioe);
+      } finally {
+        if (connection != null) {
+          connection.disconnect();
+        }
+      }
+    }
+    throw savedException;
+  }
+
+  /**
+   * Reads the {@code multipart/mixed} response to a batch request, with one part per query in order.
+   */
+  private static void consumeBatchResults(URLConnection connection,
+                                          BatchQuery query,
+                                          List<Integer> indices,
+                                          BatchResult[] results) throws IOException {
+    List<String> boundaries = MediaType.parse(connection.getContentType()).parameters().get("boundary");
+    if (boundaries.isEmpty()) {
+      throw new IOException("No boundary in " + connection.getContentType());
+    }
+    String delimiter = "--" + boundaries.get(0);
+    String statusHeaderPrefix = BATCH_STATUS_HEADER + ':';
+    int parts = 0;
+    BufferedReader reader = IOUtils.bufferStream(connection.getInputStream());
+    try {
+      String line;
+      do {
+        line = reader.readLine();
+      } while (line != null && !line.startsWith(delimiter));
+      while (line != null && !line.equals(delimiter + "--")) {
+        int status = -1;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+          if (line.regionMatches(true, 0, statusHeaderPrefix, 0, statusHeaderPrefix.length())) {
+            status = Integer.parseInt(line.substring(statusHeaderPrefix.length()).trim());
+          }
+        }
+        List<String> body = Lists.newArrayList();
+        while ((line = reader.readLine()) != null && !line.startsWith(delimiter)) {
+          if (!line.isEmpty()) {
+            body.add(line);
+          }
+        }
+        if (line == null || parts == indices.size()) {
+          throw new IOException("Incomplete or unexpected batch response");
+        }
+        int index = indices.get(parts++);
+        results[index] = toBatchResult(query.get(index), status, body);
+      }
+    } finally {
+      reader.close();
+    }
+    if (parts != indices.size()) {
+      throw new IOException("Expected " + indices.size() + " results but got " + parts);
+    }
+  }
+
+  private static BatchResult toBatchResult(BatchQuery.Query query, int status, List<String> body) {
+    switch (status) {
+      case HttpURLConnection.HTTP_OK:
+        if (query.isEstimate()) {
+          float[] estimates = new float[body.size()];
+          for (int i = 0; i < estimates.length; i++) {
+            estimates[i] = LangUtils.parseFloat(body.get(i));
+          }
+          return new BatchResult(null, estimates, null);
+        }
+        List<RecommendedItem> items = Lists.newArrayListWithCapacity(body.size());
+        for (String line : body) {
+          Iterator<String> tokens = COMMA.split(line).iterator();
+          long itemID = Long.parseLong(tokens.next());
+          float value = LangUtils.parseFloat(tokens.next());
+          items.add(new GenericRecommendedItem(itemID, value));
+        }
+        return new BatchResult(items, null, null);
+      case HttpURLConnection.HTTP_NOT_FOUND:
+        return new BatchResult(null, null, query.newNotFound());
+      case HttpURLConnection.HTTP_UNAVAILABLE:
+        return new BatchResult(null, null, new NotReadyException());
+      default:
+        String message = body.isEmpty() ? "" : body.get(0);
+        return new BatchResult(null, null, new TasteException(status + " " + message));
+    }
+  }
+
   @Override
   public void ingest(File file) throws TasteException {
     Reader reader = null;
@@ -1357,37 +1544,147 @@ public final class ClientRecommender implements MyrrixRecommender {
 
   private void getAllIDsFromPartition(int partition, boolean user, FastIDSet result) throws TasteException {
     String urlPath = '/' + (user ? "user" : "item") + "/allIDs";
-
     TasteException savedException = null;
     for (HostAndPort replica : partitions.get(partition)) {
-      HttpURLConnection connection = null;
       try {
-        connection = buildConnectionToReplica(replica, urlPath, "GET");
-        switch (connection.getResponseCode()) {
-          case HttpURLConnection.HTTP_OK:
-            consumeIDs(connection, result);
-            return;
-          case HttpURLConnection.HTTP_UNAVAILABLE:
-            throw new NotReadyException();
-          default:
-            throw new TasteException(connection.getResponseCode() + " " + connection.getResponseMessage());
-        }
+        getIDsFromReplica(replica, urlPath, result);
+        return;
       } catch (TasteException te) {
-        log.info("Can't access {} at {}: ({})", urlPath, replica, te.toString());
         savedException = te;
-      } catch (IOException ioe) {
-        log.info("Can't access {} at {}: ({})", urlPath, replica, ioe.toString());
-        savedException = new TasteException(ioe);
-      } finally {
-        if (connection != null) {
-          connection.disconnect();
-        }
       }
     }
     throw savedException;
   }
 
+  /**
+   * <p>Pages through user IDs in each partition in turn. The cursor of a page names the partition it came from,
+   * the replica that served it, and that replica's own cursor. Since a cursor only means something to the
+   * replica that returned it, later pages of a partition are read from the same replica, and paging fails
+   * if it can't be reached.</p>
+   *
+   * <p>In a distributed environment, an item ID may be listed once for each partition it is in, so item IDs
+   * may be listed more than once by {@link #getItemIDs(String, int)}.</p>
+   */
+  @Override
+  public IDPage getUserIDs(String cursor, int howMany) throws TasteException {
+    return getIDPage(cursor, howMany, true);
+  }
+
+  /**
+   * @see #getUserIDs(String, int)
+   */
+  @Override
+  public IDPage getItemIDs(String cursor, int howMany) throws TasteException {
+    return getIDPage(cursor, howMany, false);
+  }
+
+  private IDPage getIDPage(String cursor, int howMany, boolean user) throws TasteException {
+    Preconditions.checkArgument(howMany > 0, "Bad howMany: %s", howMany);
+    int partition = 0;
+    int replica = -1;
+    String partitionCursor = "";
+    if (cursor != null) {
+      int colon = cursor.indexOf(':');
+      Preconditions.checkArgument(colon > 0, "Bad cursor: %s", cursor);
+      partition = Integer.parseInt(cursor.substring(0, colon));
+      Preconditions.checkArgument(partition >= 0 && partition < partitions.size(), "Bad cursor: %s", cursor);
+      String replicaAndCursor = cursor.substring(colon + 1);
+      if (!replicaAndCursor.isEmpty()) {
+        int secondColon = replicaAndCursor.indexOf(':');
+        Preconditions.checkArgument(secondColon > 0, "Bad cursor: %s", cursor);
+        replica = Integer.parseInt(replicaAndCursor.substring(0, secondColon));
+        Preconditions.checkArgument(replica >= 0 && replica < partitions.get(partition).size(),
+                                    "Bad cursor: %s", cursor);
+        partitionCursor = replicaAndCursor.substring(secondColon + 1);
+      }
+    }
+
+    String urlPath = '/' + (user ? "user" : "item") + "/allIDs?howMany=" + howMany +
+        "&cursor=" + IOUtils.urlEncode(partitionCursor);
+    List<HostAndPort> replicas = partitions.get(partition);
+    FastIDSet ids = new FastIDSet(howMany);
+    String nextPartitionCursor;
+    if (replica >= 0) {
+      // Only this replica knows what the cursor means
+      nextPartitionCursor = getIDsFromReplica(replicas.get(replica), urlPath, ids);
+    } else {
+      // Starting the partition, so any replica will do
+      nextPartitionCursor = null;
+      TasteException savedException = null;
+      for (int i = 0; i < replicas.size(); i++) {
+        try {
+          nextPartitionCursor = getIDsFromReplica(replicas.get(i), urlPath, ids);
+          replica = i;
+          break;
+        } catch (TasteException te) {
+          savedException = te;
+        }
+      }
+      if (replica < 0) {
+        throw savedException;
+      }
+    }
+
+    String nextCursor;
+    if (nextPartitionCursor != null) {
+      nextCursor = partition + ":" + replica + ':' + nextPartitionCursor;
+    } else if (partition + 1 < partitions.size()) {
+      // Start on the next partition
+      nextCursor = (partition + 1) + ":";
+    } else {
+      nextCursor = null;
+    }
+    return new IDPage(ids, nextCursor);
+  }
+
+  /**
+   * @return value of the next page's cursor returned by the replica, or {@code null} if none
+   * @throws IllegalArgumentException if the replica rejects the request as bad, like for an invalid cursor
+   */
+  private String getIDsFromReplica(HostAndPort replica, String urlPath, FastIDSet result) throws TasteException {
+    HttpURLConnection connection = null;
+    try {
+      connection = buildConnectionToReplica(replica, urlPath, "GET");
+      switch (connection.getResponseCode()) {
+        case HttpURLConnection.HTTP_OK:
+          consumeIDs(connection, result);
+          return connection.getHeaderField(NEXT_CURSOR_HEADER);
+        case HttpURLConnection.HTTP_BAD_REQUEST:
+          throw new IllegalArgumentException(connection.getResponseMessage());
+        case HttpURLConnection.HTTP_UNAVAILABLE:
+          throw new NotReadyException();
+        default:
+          throw new TasteException(connection.getResponseCode() + " " + connection.getResponseMessage());
+      }
+    } catch (TasteException te) {
+      log.info("Can't access {} at {}: ({})", urlPath, replica, te.toString());
+      throw te;
+    } catch (IOException ioe) {
+      log.info("Can't access {} at {}: ({})", urlPath, replica, ioe.toString());
+      throw new TasteException(ioe);
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
   private static void consumeIDs(URLConnection connection, FastIDSet result) throws IOException {
+    if (isBinary(connection)) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+      try {
+        while (true) {
+          try {
+            result.add(in.readLong());
+          } catch (EOFException ignored) {
+            break;
+          }
+        }
+      } finally {
+        in.close();
+      }
+      return;
+    }
     BufferedReader reader = IOUtils.bufferStream(connection.getInputStream());
     try {
       String line;
@@ -1491,10 +1788,10 @@ public final class ClientRecommender implements MyrrixRecommender {
     throw savedException;
   }
 
-  private static void appendCommonQueryParams(int howMany,
-                                              boolean considerKnownItems,
-                                              String[] rescorerParams,
-                                              StringBuilder urlPath) {
+  static void appendCommonQueryParams(int howMany,
+                                      boolean considerKnownItems,
+                                      String[] rescorerParams,
+                                      StringBuilder urlPath) {
     urlPath.append("?howMany=").append(howMany);
     if (considerKnownItems) {
       urlPath.append("&considerKnownItems=true");
@@ -0,0 +1,142 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+import com.google.common.net.HttpHeaders;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.myrrix.common.IDPage;
+import net.myrrix.common.collection.FastIDSet;
+
+/**
+ * Tests that a client asking for binary responses gets the same results as one reading CSV, and that
+ * the server picks the response type the request's {@code Accept} header prefers.
+ */
+public final class BinaryEncodingTest extends AbstractClientTest {
+
+  private ClientRecommender textClient;
+
+  @Override
+  protected String getTestDataPath() {
+    return "testdata/grouplens100K";
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    System.setProperty("client.binary", "true");
+    try {
+      super.setUp();
+    } finally {
+      System.clearProperty("client.binary");
+    }
+    MyrrixClientConfiguration clientConfig = new MyrrixClientConfiguration();
+    clientConfig.setHost("localhost");
+    clientConfig.setPort(8090);
+    textClient = new ClientRecommender(clientConfig);
+  }
+
+  @Override
+  @After
+  public void tearDown() throws Exception {
+    textClient = null;
+    super.tearDown();
+  }
+
+  @Test
+  public void testItems() throws Exception {
+    ClientRecommender client = getClient();
+    List<RecommendedItem> recs = client.recommend(1L, 10);
+    assertEquals(10, recs.size());
+    assertEquals(textClient.recommend(1L, 10), recs);
+    assertEquals(textClient.mostSimilarItems(421L, 10), client.mostSimilarItems(421L, 10));
+    assertEquals(textClient.mostPopularItems(10), client.mostPopularItems(10));
+  }
+
+  @Test
+  public void testIDs() throws Exception {
+    ClientRecommender client = getClient();
+    FastIDSet itemIDs = client.getAllItemIDs();
+    assertEquals(1682, itemIDs.size());
+    assertSameIDs(textClient.getAllItemIDs(), itemIDs);
+
+    FastIDSet userIDs = new FastIDSet();
+    String cursor = null;
+    do {
+      IDPage page = client.getUserIDs(cursor, 100);
+      assertTrue(page.getIDs().size() <= 100);
+      userIDs.addAll(page.getIDs());
+      cursor = page.getNextCursor();
+    } while (cursor != null);
+    assertSameIDs(textClient.getAllUserIDs(), userIDs);
+  }
+
+  @Test
+  public void testAcceptQuality() throws Exception {
+    assertEquals("json", responseType(null));
+    assertEquals("json", responseType("text/csv;q=0.5, application/json"));
+    assertEquals("csv", responseType("application/json;q=0.2, text/csv;q=0.9"));
+    assertEquals("csv", responseType("application/octet-stream;q=0.1, text/csv"));
+    assertEquals("binary", responseType("application/octet-stream, application/json;q=0.5"));
+    assertEquals("binary", responseType("text/csv;q=0.5, application/octet-stream"));
+    // Of equally preferred types, the first listed wins
+    assertEquals("csv", responseType("text/csv, application/json"));
+    assertEquals("json", responseType("application/json, text/csv"));
+    assertEquals("json", responseType("image/png"));
+  }
+
+  private static void assertSameIDs(FastIDSet expected, FastIDSet actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.size(), expected.intersectionSize(actual));
+  }
+
+  /**
+   * @return "binary", "json" or "csv", according to the type of the response to a request for all item IDs
+   */
+  private static String responseType(String accept) throws IOException {
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL("http://localhost:8090/item/allIDs").openConnection();
+    if (accept != null) {
+      connection.setRequestProperty(HttpHeaders.ACCEPT, accept);
+    }
+    try {
+      assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+      String contentType = connection.getContentType();
+      if (contentType != null && contentType.startsWith("application/octet-stream")) {
+        return "binary";
+      }
+      InputStream in = connection.getInputStream();
+      try {
+        return in.read() == '[' ? "json" : "csv";
+      } finally {
+        in.close();
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+}
@@ -28,6 +28,7 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.myrrix.common.IDPage;
 import net.myrrix.common.collection.FastIDSet;
 
 public final class SimpleTest extends AbstractClientTest {
@@ -50,6 +51,26 @@ public final class SimpleTest extends AbstractClientTest {
     assertTrue(allItemIDs.contains(421L));
   }
 
+  @Test
+  public void testPagedIDs() throws Exception {
+    ClientRecommender client = getClient();
+    FastIDSet userIDs = new FastIDSet();
+    String cursor = null;
+    do {
+      IDPage page = client.getUserIDs(cursor, 100);
+      assertTrue(page.getIDs().size() <= 100);
+      userIDs.addAll(page.getIDs());
+      cursor = page.getNextCursor();
+    } while (cursor != null);
+    FastIDSet allUserIDs = client.getAllUserIDs();
+    assertEquals(allUserIDs.size(), userIDs.size());
+    assertEquals(allUserIDs.size(), allUserIDs.intersectionSize(userIDs));
+
+    IDPage page = client.getItemIDs(null, 10);
+    assertEquals(10, page.getIDs().size());
+    assertNotNull(page.getNextCursor());
+  }
+
   @Test
   public void testIngest() throws Exception {
     Reader reader = new StringReader("0,1\n0,2,3.0\n");
@@ -252,6 +273,30 @@ public final class SimpleTest extends AbstractClientTest {
     assertEquals(0.0f, client.estimatePreference(10L, 0L));
   }
   
+  @Test
+  public void testBatch() throws Exception {
+
+    ClientRecommender client = getClient();
+    BatchQuery query = new BatchQuery()
+        .recommend(1L, 3)
+        .estimatePreferences(10L, 90L, 91L, 92L)
+        .mostSimilarItems(new long[] {449L}, 5)
+        .recommend(0L, 3)
+        .recommend(1L, 3, true, null);
+    List<BatchResult> results = client.batch(query);
+    assertEquals(query.size(), results.size());
+
+    log.info("{}", results.get(0).getItems());
+
+    assertEquals(client.recommend(1L, 3), results.get(0).getItems());
+    assertNull(results.get(0).getException());
+    assertArrayEquals(client.estimatePreferences(10L, 90L, 91L, 92L), results.get(1).getEstimates());
+    assertEquals(client.mostSimilarItems(449L, 5), results.get(2).getItems());
+    assertTrue(results.get(3).getException() instanceof NoSuchUserException);
+    assertNull(results.get(3).getItems());
+    assertEquals(client.recommend(1L, 3, true, (String[]) null), results.get(4).getItems());
+  }
+
   @Test
   public void testEstimateForAnonymous() throws Exception {
     ClientRecommender client = getClient();
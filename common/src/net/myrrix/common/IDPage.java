@@ -0,0 +1,58 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common;
+
+import com.google.common.base.Preconditions;
+
+import net.myrrix.common.collection.FastIDSet;
+
+/**
+ * One page of IDs, as returned by {@link MyrrixRecommender#getUserIDs(String, int)} and
+ * {@link MyrrixRecommender#getItemIDs(String, int)}, with the cursor from which the next page may be read.
+ */
+public final class IDPage {
+
+  private final FastIDSet ids;
+  private final String nextCursor;
+
+  /**
+   * @param ids IDs in this page
+   * @param nextCursor cursor from which to read the next page, or {@code null} if this is the last page
+   */
+  public IDPage(FastIDSet ids, String nextCursor) {
+    Preconditions.checkNotNull(ids);
+    this.ids = ids;
+    this.nextCursor = nextCursor;
+  }
+
+  public FastIDSet getIDs() {
+    return ids;
+  }
+
+  /**
+   * @return cursor from which to read the next page, or {@code null} if this is the last page
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+  @Override
+  public String toString() {
+    return "IDPage[" + ids.size() + " IDs, next: " + nextCursor + ']';
+  }
+
+}
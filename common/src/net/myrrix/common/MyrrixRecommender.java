@@ -486,6 +486,24 @@ public interface MyrrixRecommender extends ItemBasedRecommender {
    */
   FastIDSet getAllItemIDs() throws TasteException;
 
+  /**
+   * Lists user IDs currently in the model one page at a time, without copying them all at once. Start with a
+   * {@code null} cursor, and read each next page with the previous page's {@link IDPage#getNextCursor()}, until
+   * it is {@code null}. IDs added or removed while paging may or may not be listed.
+   *
+   * @param cursor cursor from a previous page, or {@code null} to start
+   * @param howMany most IDs to return in the page
+   * @return page of user IDs
+   * @throws IllegalArgumentException if the cursor is invalid, or is no longer valid because the model has
+   *  changed too much since it was returned, in which case paging must start again
+   */
+  IDPage getUserIDs(String cursor, int howMany) throws TasteException;
+
+  /**
+   * Like {@link #getUserIDs(String, int)}, but lists item IDs.
+   */
+  IDPage getItemIDs(String cursor, int howMany) throws TasteException;
+
   /**
    * @return number of user clusters
    * @throws UnsupportedOperationException if not running in distributed mode, or not computing
@@ -0,0 +1,280 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.collection;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.impl.common.AbstractLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+
+import net.myrrix.common.random.RandomUtils;
+
+/**
+ * Like {@link FastByIDFloatMap}, but with {@code long} values. {@link #NULL} stands for "no value", and
+ * can't be stored.
+ */
+public final class FastByIDLongMap implements Serializable {
+
+  /** Value returned by {@link #get(long)} for a key with no value. */
+  public static final long NULL = Long.MIN_VALUE;
+
+  private static final double DEFAULT_LOAD_FACTOR = 1.25;
+  private static final int MAX_SIZE =
+      (int) (RandomUtils.MAX_INT_SMALLER_TWIN_PRIME / DEFAULT_LOAD_FACTOR);
+
+  /** Dummy object used to represent a key that has been removed. */
+  private static final long REMOVED = Long.MAX_VALUE;
+  private static final long KEY_NULL = Long.MIN_VALUE;
+
+  private long[] keys;
+  private long[] values;
+  private int numEntries;
+  private int numSlotsUsed;
+
+  public FastByIDLongMap() {
+    this(2);
+  }
+
+  public FastByIDLongMap(int size) {
+    Preconditions.checkArgument(size >= 0, "size must be at least 0");
+    Preconditions.checkArgument(size < MAX_SIZE, "size must be less than " + MAX_SIZE);
+    int hashSize = RandomUtils.nextTwinPrime((int) (DEFAULT_LOAD_FACTOR * size) + 1);
+    keys = new long[hashSize];
+    Arrays.fill(keys, KEY_NULL);
+    values = new long[hashSize];
+    Arrays.fill(values, NULL);
+  }
+
+  /**
+   * @see #findForAdd(long)
+   */
+  private int find(long key) {
+    int theHashCode = (int) key & 0x7FFFFFFF; // make sure it's positive
+    long[] keys = this.keys;
+    int hashSize = keys.length;
+    int jump = 1 + theHashCode % (hashSize - 2);
+    int index = theHashCode % hashSize;
+    long currentKey = keys[index];
+    while (currentKey != KEY_NULL && key != currentKey) {
+      index -= index < jump ? jump - hashSize : jump;
+      currentKey = keys[index];
+    }
+    return index;
+  }
+
+  /**
+   * @see #find(long)
+   */
+  private int findForAdd(long key) {
+    int theHashCode = (int) key & 0x7FFFFFFF; // make sure it's positive
+    long[] keys = this.keys;
+    int hashSize = keys.length;
+    int jump = 1 + theHashCode % (hashSize - 2);
+    int index = theHashCode % hashSize;
+    long currentKey = keys[index];
+    while (currentKey != KEY_NULL && currentKey != REMOVED && key != currentKey) {
+      index -= index < jump ? jump - hashSize : jump;
+      currentKey = keys[index];
+    }
+    if (currentKey != REMOVED) {
+      return index;
+    }
+    // If we're adding, it's here, but, the key might have a value already later
+    int addIndex = index;
+    while (currentKey != KEY_NULL && key != currentKey) {
+      index -= index < jump ? jump - hashSize : jump;
+      currentKey = keys[index];
+    }
+    return key == currentKey ? index : addIndex;
+  }
+
+  /**
+   * @return value for key, or {@link #NULL} if there is none
+   */
+  public long get(long key) {
+    if (key == KEY_NULL) {
+      return NULL;
+    }
+    return values[find(key)];
+  }
+
+  public int size() {
+    return numEntries;
+  }
+
+  public boolean isEmpty() {
+    return numEntries == 0;
+  }
+
+  public boolean containsKey(long key) {
+    return key != KEY_NULL && key != REMOVED && keys[find(key)] != KEY_NULL;
+  }
+
+  public void put(long key, long value) {
+    Preconditions.checkArgument(key != KEY_NULL && key != REMOVED);
+    Preconditions.checkArgument(value != NULL, "Bad value: %s", value);
+    // If less than half the slots are open, let's clear it up
+    if (numSlotsUsed * DEFAULT_LOAD_FACTOR >= keys.length) {
+      // If over half the slots used are actual entries, let's grow
+      if (numEntries * DEFAULT_LOAD_FACTOR >= numSlotsUsed) {
+        growAndRehash();
+      } else {
+        // Otherwise just rehash to clear REMOVED entries and don't grow
+        rehash();
+      }
+    }
+    int index = findForAdd(key);
+    long keyIndex = keys[index];
+    if (keyIndex == key) {
+      values[index] = value;
+    } else {
+      keys[index] = key;
+      values[index] = value;
+      numEntries++;
+      if (keyIndex == KEY_NULL) {
+        numSlotsUsed++;
+      }
+    }
+  }
+
+  public void remove(long key) {
+    if (key == KEY_NULL || key == REMOVED) {
+      return;
+    }
+    int index = find(key);
+    if (keys[index] != KEY_NULL) {
+      keys[index] = REMOVED;
+      numEntries--;
+      values[index] = NULL;
+    }
+  }
+
+  public void clear() {
+    numEntries = 0;
+    numSlotsUsed = 0;
+    Arrays.fill(keys, KEY_NULL);
+    Arrays.fill(values, NULL);
+  }
+
+  public LongPrimitiveIterator keySetIterator() {
+    return new KeyIterator();
+  }
+
+  public void rehash() {
+    rehash(RandomUtils.nextTwinPrime((int) (DEFAULT_LOAD_FACTOR * numEntries) + 1));
+  }
+
+  private void growAndRehash() {
+    Preconditions.checkState(keys.length * DEFAULT_LOAD_FACTOR < RandomUtils.MAX_INT_SMALLER_TWIN_PRIME,
+                             "Can't grow any more");
+    rehash(RandomUtils.nextTwinPrime((int) (DEFAULT_LOAD_FACTOR * keys.length) + 1));
+  }
+
+  private void rehash(int newHashSize) {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    numEntries = 0;
+    numSlotsUsed = 0;
+    keys = new long[newHashSize];
+    Arrays.fill(keys, KEY_NULL);
+    values = new long[newHashSize];
+    Arrays.fill(values, NULL);
+    int length = oldKeys.length;
+    for (int i = 0; i < length; i++) {
+      long key = oldKeys[i];
+      if (key != KEY_NULL && key != REMOVED) {
+        put(key, oldValues[i]);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    if (isEmpty()) {
+      return "{}";
+    }
+    StringBuilder result = new StringBuilder();
+    result.append('{');
+    for (int i = 0; i < keys.length; i++) {
+      long key = keys[i];
+      if (key != KEY_NULL && key != REMOVED) {
+        result.append(key).append('=').append(values[i]).append(',');
+      }
+    }
+    result.setCharAt(result.length() - 1, '}');
+    return result.toString();
+  }
+
+  private final class KeyIterator extends AbstractLongPrimitiveIterator {
+
+    private int position;
+    private int lastNext = -1;
+
+    @Override
+    public boolean hasNext() {
+      goToNext();
+      return position < keys.length;
+    }
+
+    @Override
+    public long nextLong() {
+      goToNext();
+      lastNext = position;
+      if (position >= keys.length) {
+        throw new NoSuchElementException();
+      }
+      return keys[position++];
+    }
+
+    @Override
+    public long peek() {
+      goToNext();
+      if (position >= keys.length) {
+        throw new NoSuchElementException();
+      }
+      return keys[position];
+    }
+
+    private void goToNext() {
+      int length = values.length;
+      while (position < length && values[position] == NULL) {
+        position++;
+      }
+    }
+
+    @Override
+    public void remove() {
+      if (lastNext >= values.length) {
+        throw new NoSuchElementException();
+      }
+      Preconditions.checkState(lastNext >= 0);
+      values[lastNext] = NULL;
+      keys[lastNext] = REMOVED;
+      numEntries--;
+    }
+
+    @Override
+    public void skip(int n) {
+      position += n;
+    }
+
+  }
+
+}
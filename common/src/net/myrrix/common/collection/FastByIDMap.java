@@ -56,6 +56,7 @@ public final class FastByIDMap<V> implements Serializable, Cloneable {
   V[] values;
   private int numEntries;
   private int numSlotsUsed;
+  private int layoutVersion;
 
   /** Creates a new  with default capacity. */
   public FastByIDMap() {
@@ -208,13 +209,74 @@ public final class FastByIDMap<V> implements Serializable, Cloneable {
   public void clear() {
     numEntries = 0;
     numSlotsUsed = 0;
+    // New arrays rather than filling the old ones, so that a KeySlots over them does not change
+    int hashSize = keys.length;
+    keys = new long[hashSize];
     Arrays.fill(keys, NULL);
-    Arrays.fill(values, null);
+    @SuppressWarnings("unchecked")
+    V[] theValues = (V[]) new Object[hashSize];
+    values = theValues;
+    layoutVersion++;
   }
   
   public LongPrimitiveIterator keySetIterator() {
     return new KeyIterator();
   }
+
+  /**
+   * @return number of slots in the hash table. This may stay the same when it is rehashed; see
+   *  {@link #getLayoutVersion()}
+   */
+  public int getNumSlots() {
+    return keys.length;
+  }
+
+  /**
+   * @return number that changes whenever keys may move to other slots, as when the table is rehashed or
+   *  cleared, even if {@link #getNumSlots()} does not
+   */
+  public int getLayoutVersion() {
+    return layoutVersion;
+  }
+
+  /**
+   * Adds keys to a set in the order of the slots they occupy in the hash table, from a given slot on. Keys can
+   * be read in pages this way, each starting from the slot where the last stopped, without copying them all at
+   * once. This is valid as long as {@link #getLayoutVersion()} is unchanged in between. Keys added or removed
+   * in between may or may not be read.
+   *
+   * @param fromSlot slot to start reading from
+   * @param maxKeys most keys to add
+   * @param excluded keys not to add, or {@code null}
+   * @param result set to add keys to
+   * @return slot after the last one read, which is {@link #getNumSlots()} if all have been read
+   */
+  public int getKeysFromSlot(int fromSlot, int maxKeys, FastIDSet excluded, FastIDSet result) {
+    return getKeysFromSlot(keys, fromSlot, maxKeys, excluded, result);
+  }
+
+  /**
+   * @return the keys as laid out in the table now, which can be read a page at a time from start to end
+   *  while the map changes
+   */
+  public KeySlots getKeySlots() {
+    return new KeySlots(keys);
+  }
+
+  private static int getKeysFromSlot(long[] keys, int fromSlot, int maxKeys, FastIDSet excluded, FastIDSet result) {
+    Preconditions.checkArgument(fromSlot >= 0 && fromSlot <= keys.length, "Bad fromSlot: %s", fromSlot);
+    Preconditions.checkArgument(maxKeys > 0, "Bad maxKeys: %s", maxKeys);
+    int slot = fromSlot;
+    int added = 0;
+    while (added < maxKeys && slot < keys.length) {
+      long key = keys[slot++];
+      if (key != NULL && key != REMOVED && (excluded == null || !excluded.contains(key))) {
+        result.add(key);
+        added++;
+      }
+    }
+    return slot;
+  }
   
   public Set<MapEntry<V>> entrySet() {
     return new EntrySet();
@@ -239,6 +301,7 @@ public final class FastByIDMap<V> implements Serializable, Cloneable {
     V[] oldValues = values;
     numEntries = 0;
     numSlotsUsed = 0;
+    layoutVersion++;
     keys = new long[newHashSize];
     Arrays.fill(keys, NULL);
 
@@ -460,6 +523,35 @@ public final class FastByIDMap<V> implements Serializable, Cloneable {
     
   }
 
+  /**
+   * <p>The keys of a {@link FastByIDMap} as laid out in its table at one time. A rehash, or clear, lays keys out
+   * in a new table and leaves the old one unchanged, so keys read from here in slot order are each read once,
+   * however the map is rehashed. Keys added or removed meanwhile may or may not be read, and a key removed and
+   * added back meanwhile may be read twice.</p>
+   *
+   * <p>Reads must not overlap changes to the map, as for other reads of the map.</p>
+   */
+  public static final class KeySlots {
+
+    private final long[] keys;
+
+    private KeySlots(long[] keys) {
+      this.keys = keys;
+    }
+
+    public int getNumSlots() {
+      return keys.length;
+    }
+
+    /**
+     * @see FastByIDMap#getKeysFromSlot(int, int, FastIDSet, FastIDSet)
+     */
+    public int getKeysFromSlot(int fromSlot, int maxKeys, FastIDSet excluded, FastIDSet result) {
+      return FastByIDMap.getKeysFromSlot(keys, fromSlot, maxKeys, excluded, result);
+    }
+
+  }
+
   public interface MapEntry<V> {
     long getKey();
     V getValue();
@@ -0,0 +1,316 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.io;
+
+import java.math.BigInteger;
+
+/**
+ * <p>Formats numbers as ASCII bytes directly into a {@code byte[]}, without creating a {@link String}.</p>
+ *
+ * <p>A {@code float} is written with the fewest decimal digits that still parse back to the same value,
+ * computed as in <a href="https://dl.acm.org/citation.cfm?id=3192369">"Ryū: fast float-to-string
+ * conversion"</a> by Ulf Adams. The layout is that of {@link Float#toString(float)}: plain decimal
+ * notation like {@code 0.53} or {@code 120.0} for magnitudes from 10<sup>-3</sup> up to 10<sup>7</sup>,
+ * and otherwise computerized scientific notation like {@code 1.5E-5}.</p>
+ */
+public final class AsciiNumbers {
+
+  /** Most bytes written for a {@code long}, as in {@code -9223372036854775808} */
+  public static final int MAX_LONG_LENGTH = 20;
+  /** Most bytes written for a {@code float}, as in {@code -1.17549435E-38} */
+  public static final int MAX_FLOAT_LENGTH = 15;
+
+  private static final int MANTISSA_BITS = 23;
+  private static final int EXPONENT_BIAS = 127;
+  private static final int POW5_BITCOUNT = 61;
+  private static final int POW5_INV_BITCOUNT = 59;
+
+  private static final byte[] LONG_MIN_VALUE = {
+      '-', '9', '2', '2', '3', '3', '7', '2', '0', '3', '6', '8', '5', '4', '7', '7', '5', '8', '0', '8'
+  };
+  private static final byte[] NAN = {'N', 'a', 'N'};
+  private static final byte[] INFINITY = {'I', 'n', 'f', 'i', 'n', 'i', 't', 'y'};
+
+  /** Top 61 bits of 5<sup>i</sup> */
+  private static final long[] POW5_SPLIT = new long[48];
+  /** 2<sup>floor(log2(5<sup>i</sup>)) + 59</sup> / 5<sup>i</sup>, rounded up */
+  private static final long[] POW5_INV_SPLIT = new long[32];
+  static {
+    for (int i = 0; i < POW5_SPLIT.length; i++) {
+      BigInteger pow = BigInteger.valueOf(5).pow(i);
+      int powBits = pow.bitLength();
+      POW5_SPLIT[i] = powBits > POW5_BITCOUNT ?
+          pow.shiftRight(powBits - POW5_BITCOUNT).longValue() :
+          pow.shiftLeft(POW5_BITCOUNT - powBits).longValue();
+      if (i < POW5_INV_SPLIT.length) {
+        POW5_INV_SPLIT[i] =
+            BigInteger.ONE.shiftLeft(powBits - 1 + POW5_INV_BITCOUNT).divide(pow).add(BigInteger.ONE).longValue();
+      }
+    }
+  }
+
+  private AsciiNumbers() {
+  }
+
+  /**
+   * @param value value to write
+   * @param buffer buffer to write into, with at least {@link #MAX_LONG_LENGTH} bytes free at {@code offset}
+   * @param offset where to start writing
+   * @return offset after the last byte written
+   */
+  public static int writeLong(long value, byte[] buffer, int offset) {
+    if (value == Long.MIN_VALUE) {
+      System.arraycopy(LONG_MIN_VALUE, 0, buffer, offset, LONG_MIN_VALUE.length);
+      return offset + LONG_MIN_VALUE.length;
+    }
+    if (value < 0) {
+      buffer[offset++] = '-';
+      value = -value;
+    }
+    int end = offset + digitCount(value);
+    int position = end;
+    do {
+      buffer[--position] = (byte) ('0' + (int) (value % 10));
+      value /= 10;
+    } while (value != 0);
+    return end;
+  }
+
+  /**
+   * @param value value to write
+   * @param buffer buffer to write into, with at least {@link #MAX_FLOAT_LENGTH} bytes free at {@code offset}
+   * @param offset where to start writing
+   * @return offset after the last byte written
+   */
+  public static int writeFloat(float value, byte[] buffer, int offset) {
+    if (Float.isNaN(value)) {
+      System.arraycopy(NAN, 0, buffer, offset, NAN.length);
+      return offset + NAN.length;
+    }
+    int bits = Float.floatToRawIntBits(value);
+    if (bits < 0) {
+      buffer[offset++] = '-';
+    }
+    if (Float.isInfinite(value)) {
+      System.arraycopy(INFINITY, 0, buffer, offset, INFINITY.length);
+      return offset + INFINITY.length;
+    }
+    int ieeeExponent = (bits >>> MANTISSA_BITS) & 0xFF;
+    int ieeeMantissa = bits & ((1 << MANTISSA_BITS) - 1);
+    if (ieeeExponent == 0 && ieeeMantissa == 0) {
+      buffer[offset++] = '0';
+      buffer[offset++] = '.';
+      buffer[offset++] = '0';
+      return offset;
+    }
+
+    // Shortest decimal output * 10^exponent in the rounding interval of the value
+    int e2;
+    long m2;
+    if (ieeeExponent == 0) {
+      e2 = 1 - EXPONENT_BIAS - MANTISSA_BITS - 2;
+      m2 = ieeeMantissa;
+    } else {
+      e2 = ieeeExponent - EXPONENT_BIAS - MANTISSA_BITS - 2;
+      m2 = (1L << MANTISSA_BITS) | ieeeMantissa;
+    }
+    boolean acceptBounds = (m2 & 1) == 0;
+    long mv = 4 * m2;
+    long mp = mv + 2;
+    int mmShift = ieeeMantissa != 0 || ieeeExponent <= 1 ? 1 : 0;
+    long mm = mv - 1 - mmShift;
+
+    long vr;
+    long vp;
+    long vm;
+    int e10;
+    boolean vmIsTrailingZeros = false;
+    boolean vrIsTrailingZeros = false;
+    int lastRemovedDigit = 0;
+    if (e2 >= 0) {
+      int q = log10Pow2(e2);
+      e10 = q;
+      int k = POW5_INV_BITCOUNT + pow5Bits(q) - 1;
+      int i = -e2 + q + k;
+      vr = mulShift(mv, POW5_INV_SPLIT[q], i);
+      vp = mulShift(mp, POW5_INV_SPLIT[q], i);
+      vm = mulShift(mm, POW5_INV_SPLIT[q], i);
+      if (q != 0 && (vp - 1) / 10 <= vm / 10) {
+        int l = POW5_INV_BITCOUNT + pow5Bits(q - 1) - 1;
+        lastRemovedDigit = (int) (mulShift(mv, POW5_INV_SPLIT[q - 1], -e2 + q - 1 + l) % 10);
+      }
+      if (q <= 9) {
+        if (mv % 5 == 0) {
+          vrIsTrailingZeros = isMultipleOfPowerOf5(mv, q);
+        } else if (acceptBounds) {
+          vmIsTrailingZeros = isMultipleOfPowerOf5(mm, q);
+        } else if (isMultipleOfPowerOf5(mp, q)) {
+          vp--;
+        }
+      }
+    } else {
+      int q = log10Pow5(-e2);
+      e10 = q + e2;
+      int i = -e2 - q;
+      int k = pow5Bits(i) - POW5_BITCOUNT;
+      int j = q - k;
+      vr = mulShift(mv, POW5_SPLIT[i], j);
+      vp = mulShift(mp, POW5_SPLIT[i], j);
+      vm = mulShift(mm, POW5_SPLIT[i], j);
+      if (q != 0 && (vp - 1) / 10 <= vm / 10) {
+        j = q - 1 - (pow5Bits(i + 1) - POW5_BITCOUNT);
+        lastRemovedDigit = (int) (mulShift(mv, POW5_SPLIT[i + 1], j) % 10);
+      }
+      if (q <= 1) {
+        vrIsTrailingZeros = true;
+        if (acceptBounds) {
+          vmIsTrailingZeros = mmShift == 1;
+        } else {
+          vp--;
+        }
+      } else if (q < 31) {
+        vrIsTrailingZeros = (mv & ((1L << (q - 1)) - 1)) == 0;
+      }
+    }
+
+    int removed = 0;
+    long output;
+    if (vmIsTrailingZeros || vrIsTrailingZeros) {
+      while (vp / 10 > vm / 10) {
+        vmIsTrailingZeros &= vm % 10 == 0;
+        vrIsTrailingZeros &= lastRemovedDigit == 0;
+        lastRemovedDigit = (int) (vr % 10);
+        vr /= 10;
+        vp /= 10;
+        vm /= 10;
+        removed++;
+      }
+      if (vmIsTrailingZeros) {
+        while (vm % 10 == 0) {
+          vrIsTrailingZeros &= lastRemovedDigit == 0;
+          lastRemovedDigit = (int) (vr % 10);
+          vr /= 10;
+          vp /= 10;
+          vm /= 10;
+          removed++;
+        }
+      }
+      if (vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0) {
+        // Round half to even
+        lastRemovedDigit = 4;
+      }
+      boolean roundUp = (vr == vm && (!acceptBounds || !vmIsTrailingZeros)) || lastRemovedDigit >= 5;
+      output = vr + (roundUp ? 1 : 0);
+    } else {
+      while (vp / 10 > vm / 10) {
+        lastRemovedDigit = (int) (vr % 10);
+        vr /= 10;
+        vp /= 10;
+        vm /= 10;
+        removed++;
+      }
+      output = vr + (vr == vm || lastRemovedDigit >= 5 ? 1 : 0);
+    }
+    return writeDigits(output, e10 + removed, buffer, offset);
+  }
+
+  /**
+   * Writes {@code digits * 10^exponent} in the layout of {@link Float#toString(float)}.
+   */
+  private static int writeDigits(long digits, int exponent, byte[] buffer, int offset) {
+    int length = digitCount(digits);
+    // Position of the decimal point relative to the first digit, in scientific notation
+    int scientificExponent = exponent + length - 1;
+    if (scientificExponent >= -3 && scientificExponent < 7) {
+      if (scientificExponent < 0) {
+        buffer[offset++] = '0';
+        buffer[offset++] = '.';
+        for (int i = -1; i > scientificExponent; i--) {
+          buffer[offset++] = '0';
+        }
+        return writeLong(digits, buffer, offset);
+      }
+      int integerDigits = scientificExponent + 1;
+      if (length <= integerDigits) {
+        offset = writeLong(digits, buffer, offset);
+        for (int i = length; i < integerDigits; i++) {
+          buffer[offset++] = '0';
+        }
+        buffer[offset++] = '.';
+        buffer[offset++] = '0';
+        return offset;
+      }
+      // Write all digits one place to the right, then move the integer part back over the gap
+      int end = writeLong(digits, buffer, offset + 1);
+      System.arraycopy(buffer, offset + 1, buffer, offset, integerDigits);
+      buffer[offset + integerDigits] = '.';
+      return end;
+    }
+    int end = writeLong(digits, buffer, offset + 1);
+    buffer[offset] = buffer[offset + 1];
+    buffer[offset + 1] = '.';
+    if (length == 1) {
+      buffer[end++] = '0';
+    }
+    buffer[end++] = 'E';
+    return writeLong(scientificExponent, buffer, end);
+  }
+
+  private static int digitCount(long value) {
+    int count = 1;
+    while (value >= 10) {
+      value /= 10;
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * @return (m * factor) >> shift, where m is less than 2<sup>32</sup> and shift is more than 32
+   */
+  private static long mulShift(long m, long factor, int shift) {
+    long factorLow = factor & 0xFFFFFFFFL;
+    long factorHigh = factor >>> 32;
+    long sum = ((m * factorLow) >>> 32) + m * factorHigh;
+    return sum >>> (shift - 32);
+  }
+
+  private static boolean isMultipleOfPowerOf5(long value, int p) {
+    int count = 0;
+    while (value > 0 && value % 5 == 0) {
+      value /= 5;
+      count++;
+    }
+    return count >= p;
+  }
+
+  /** @return ceil(log2(5^e)) for e in [0,3528] */
+  private static int pow5Bits(int e) {
+    return ((e * 1217359) >>> 19) + 1;
+  }
+
+  /** @return floor(log10(2^e)) for e in [0,1650] */
+  private static int log10Pow2(int e) {
+    return (e * 78913) >>> 18;
+  }
+
+  /** @return floor(log10(5^e)) for e in [0,2620] */
+  private static int log10Pow5(int e) {
+    return (e * 732923) >>> 20;
+  }
+
+}
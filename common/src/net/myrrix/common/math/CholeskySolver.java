@@ -0,0 +1,150 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.math;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * <p>Solves Ax = b for symmetric positive definite A by Cholesky decomposition, in place, in workspace
+ * owned by the instance. Solving many systems of the same size with one instance allocates nothing but the
+ * result. Instances are not thread-safe; use one per thread.</p>
+ *
+ * <p>The caller fills the lower triangle of A (including the diagonal) in {@link #getMatrix()}, and b in
+ * {@link #getVector()}, then calls {@link #solveDToF()}. If A is not positive definite, or is too close to
+ * singular to decompose reliably this way, no solution is returned and A is left as it was, so the caller
+ * can fall back to a more robust method like {@link MatrixUtils#getSolver(RealMatrix)}.</p>
+ */
+public final class CholeskySolver {
+
+  private final int dimension;
+  /** A, row-major. Lower triangle is overwritten with L; upper triangle keeps a copy of A. */
+  private final double[] a;
+  private final double[] b;
+  private final double[] diagonal;
+
+  /**
+   * @param dimension size n of the n x n systems to solve
+   */
+  public CholeskySolver(int dimension) {
+    Preconditions.checkArgument(dimension > 0, "dimension must be positive: %s", dimension);
+    this.dimension = dimension;
+    a = new double[dimension * dimension];
+    b = new double[dimension];
+    diagonal = new double[dimension];
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  /**
+   * @return workspace holding A, row-major, so that element (row,col) is at {@code row * n + col}.
+   *  Only elements with {@code col <= row} are read. After a successful solve, these hold the
+   *  decomposition, so must be set again before the next solve.
+   */
+  public double[] getMatrix() {
+    return a;
+  }
+
+  /**
+   * @return workspace holding b. After a successful solve, this holds x, so must be set again before the
+   *  next solve.
+   */
+  public double[] getVector() {
+    return b;
+  }
+
+  /**
+   * Solves Ax = b for A and b in the workspace.
+   *
+   * @return x, or {@code null} if A can't be decomposed reliably because it is not positive definite or is
+   *  near-singular; in that case {@link #getMatrix()} still holds A
+   */
+  public float[] solveDToF() {
+    int n = dimension;
+    double[] a = this.a;
+    double[] diagonal = this.diagonal;
+
+    // Save A in the upper triangle and diagonal copy, since the lower triangle becomes L
+    for (int row = 0; row < n; row++) {
+      int rowOffset = row * n;
+      for (int col = 0; col < row; col++) {
+        a[col * n + row] = a[rowOffset + col];
+      }
+      diagonal[row] = a[rowOffset + row];
+    }
+
+    if (!decompose()) {
+      restore();
+      return null;
+    }
+
+    // Solve Ly = b, then LT x = y, in place in b
+    double[] x = b;
+    JavaLinearSystemSolver.choleskySolve(a, n, x);
+
+    float[] result = new float[n];
+    for (int i = 0; i < n; i++) {
+      result[i] = (float) x[i];
+    }
+    return result;
+  }
+
+  /**
+   * @return a copy of A as a {@link RealMatrix}, with the upper triangle filled in from the lower
+   */
+  public RealMatrix getMatrixAsRealMatrix() {
+    int n = dimension;
+    double[][] data = new double[n][n];
+    for (int row = 0; row < n; row++) {
+      int rowOffset = row * n;
+      for (int col = 0; col <= row; col++) {
+        double value = a[rowOffset + col];
+        data[row][col] = value;
+        data[col][row] = value;
+      }
+    }
+    return new Array2DRowRealMatrix(data, false);
+  }
+
+  /**
+   * Overwrites the lower triangle of A with L such that L * LT = A.
+   *
+   * @return false if a pivot is not sufficiently positive, relative to the original diagonal element
+   */
+  private boolean decompose() {
+    return JavaLinearSystemSolver.choleskyDecompose(a, dimension, diagonal);
+  }
+
+  /**
+   * Copies A back into the lower triangle from the upper triangle and saved diagonal.
+   */
+  private void restore() {
+    int n = dimension;
+    double[] a = this.a;
+    for (int row = 0; row < n; row++) {
+      int rowOffset = row * n;
+      for (int col = 0; col < row; col++) {
+        a[rowOffset + col] = a[col * n + row];
+      }
+      a[rowOffset + row] = diagonal[row];
+    }
+  }
+
+}
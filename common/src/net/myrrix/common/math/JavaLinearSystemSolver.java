@@ -0,0 +1,344 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.math;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * <p>An implementation in plain Java, over matrices stored row-major in a flat {@code double[]}. A is
+ * decomposed by blocked Cholesky decomposition, which applies to the symmetric positive definite matrices
+ * that arise from least squares, like X'*X. Otherwise, it is decomposed by LU decomposition with partial
+ * pivoting. If A appears singular to both, {@link CommonsMathLinearSystemSolver} decides, and reports its
+ * apparent rank. This is much faster than {@link CommonsMathLinearSystemSolver} for the common case.</p>
+ *
+ * <p>{@link #solveSymmetricPositiveDefinite(double[], double[], int)} solves many small systems in one call.</p>
+ */
+public final class JavaLinearSystemSolver implements LinearSystemSolver {
+
+  /** Rows and columns per block in Cholesky decomposition */
+  private static final int BLOCK_SIZE = 64;
+
+  private final LinearSystemSolver fallback = new CommonsMathLinearSystemSolver();
+
+  @Override
+  public Solver getSolver(RealMatrix M) {
+    if (M == null) {
+      return null;
+    }
+    Preconditions.checkArgument(M.isSquare(), "Not square: %s x %s", M.getRowDimension(), M.getColumnDimension());
+    int n = M.getRowDimension();
+    double[] a = toRowMajor(M);
+    if (choleskyDecompose(a, n, new double[n])) {
+      return new CholeskyBasedSolver(a, n);
+    }
+    a = toRowMajor(M);
+    int[] pivots = new int[n];
+    if (luDecompose(a, pivots, n)) {
+      return new LUBasedSolver(a, pivots, n);
+    }
+    // Apparently singular; throws with its apparent rank, or has a better answer for a borderline case
+    return fallback.getSolver(M);
+  }
+
+  @Override
+  public boolean isNonSingular(RealMatrix M) {
+    try {
+      getSolver(M);
+    } catch (SolverException ignored) {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Solves many symmetric positive definite systems A<sub>i</sub> x<sub>i</sub> = b<sub>i</sub> of the same
+   * size, in place.
+   *
+   * @param matrices each A<sub>i</sub> in turn, row-major. Only the lower triangle, including the diagonal,
+   *  is read. Overwritten with its Cholesky decomposition, where solved.
+   * @param vectors each b<sub>i</sub> in turn. Overwritten with x<sub>i</sub>, where solved.
+   * @param dimension size n of each n x n system
+   * @return for each system, whether it was solved. If not, its matrix was not positive definite or was
+   *  near-singular, and its vector is left unchanged.
+   */
+  public static boolean[] solveSymmetricPositiveDefinite(double[] matrices, double[] vectors, int dimension) {
+    Preconditions.checkArgument(dimension > 0, "dimension must be positive: %s", dimension);
+    int count = vectors.length / dimension;
+    Preconditions.checkArgument(vectors.length == count * dimension, "Bad vectors length: %s", vectors.length);
+    int matrixSize = dimension * dimension;
+    Preconditions.checkArgument(matrices.length == count * matrixSize, "Bad matrices length: %s", matrices.length);
+    boolean[] solved = new boolean[count];
+    double[] a = new double[matrixSize];
+    double[] x = new double[dimension];
+    double[] diagonal = new double[dimension];
+    for (int i = 0; i < count; i++) {
+      System.arraycopy(matrices, i * matrixSize, a, 0, matrixSize);
+      if (choleskyDecompose(a, dimension, diagonal)) {
+        System.arraycopy(a, 0, matrices, i * matrixSize, matrixSize);
+        System.arraycopy(vectors, i * dimension, x, 0, dimension);
+        choleskySolve(a, dimension, x);
+        System.arraycopy(x, 0, vectors, i * dimension, dimension);
+        solved[i] = true;
+      }
+    }
+    return solved;
+  }
+
+  private static double[] toRowMajor(RealMatrix M) {
+    int n = M.getRowDimension();
+    double[] a = new double[n * n];
+    double[][] data = M.getData();
+    for (int row = 0; row < n; row++) {
+      System.arraycopy(data[row], 0, a, row * n, n);
+    }
+    return a;
+  }
+
+  /**
+   * Overwrites the lower triangle of A with L such that L * LT = A, one block of columns at a time: the
+   * diagonal block is decomposed, then the block of L below it is solved for, then that block's contribution
+   * is subtracted from the rest of the lower triangle. The inner loops run along rows, which are contiguous.
+   *
+   * @param diagonal workspace of length n, which receives the original diagonal of A
+   * @return false if a pivot is not sufficiently positive, relative to the original diagonal element
+   */
+  static boolean choleskyDecompose(double[] a, int n, double[] diagonal) {
+    for (int i = 0; i < n; i++) {
+      diagonal[i] = a[i * n + i];
+    }
+    for (int blockStart = 0; blockStart < n; blockStart += BLOCK_SIZE) {
+      int blockEnd = FastMath.min(blockStart + BLOCK_SIZE, n);
+
+      // Diagonal block, and the block of L below it
+      for (int j = blockStart; j < blockEnd; j++) {
+        int jOffset = j * n;
+        double pivot = a[jOffset + j];
+        for (int k = blockStart; k < j; k++) {
+          double ljk = a[jOffset + k];
+          pivot -= ljk * ljk;
+        }
+        if (!(pivot > LinearSystemSolver.SINGULARITY_THRESHOLD * FastMath.abs(diagonal[j]))) {
+          return false;
+        }
+        double ljj = FastMath.sqrt(pivot);
+        a[jOffset + j] = ljj;
+        for (int i = j + 1; i < n; i++) {
+          int iOffset = i * n;
+          double sum = a[iOffset + j];
+          for (int k = blockStart; k < j; k++) {
+            sum -= a[iOffset + k] * a[jOffset + k];
+          }
+          a[iOffset + j] = sum / ljj;
+        }
+      }
+
+      // Subtract this block's contribution from the rest of the lower triangle
+      for (int i = blockEnd; i < n; i++) {
+        int iOffset = i * n;
+        for (int j = blockEnd; j <= i; j++) {
+          int jOffset = j * n;
+          double sum = 0.0;
+          for (int k = blockStart; k < blockEnd; k++) {
+            sum += a[iOffset + k] * a[jOffset + k];
+          }
+          a[iOffset + j] -= sum;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Solves L * LT x = b in place in {@code x}, given L in the lower triangle of {@code l}.
+   */
+  static void choleskySolve(double[] l, int n, double[] x) {
+    for (int row = 0; row < n; row++) {
+      int rowOffset = row * n;
+      double sum = x[row];
+      for (int col = 0; col < row; col++) {
+        sum -= l[rowOffset + col] * x[col];
+      }
+      x[row] = sum / l[rowOffset + row];
+    }
+    for (int row = n - 1; row >= 0; row--) {
+      double sum = x[row];
+      for (int col = row + 1; col < n; col++) {
+        sum -= l[col * n + row] * x[col];
+      }
+      x[row] = sum / l[row * n + row];
+    }
+  }
+
+  /**
+   * Overwrites A with L and U such that L * U = P * A, where L has an implicit unit diagonal and
+   * P swaps rows as recorded in {@code pivots}.
+   *
+   * @return false if a pivot is small relative to the largest value in A
+   */
+  static boolean luDecompose(double[] a, int[] pivots, int n) {
+    double max = 0.0;
+    for (double value : a) {
+      max = FastMath.max(max, FastMath.abs(value));
+    }
+    double threshold = LinearSystemSolver.SINGULARITY_THRESHOLD * max;
+    for (int j = 0; j < n; j++) {
+      int pivotRow = j;
+      double pivotValue = FastMath.abs(a[j * n + j]);
+      for (int i = j + 1; i < n; i++) {
+        double value = FastMath.abs(a[i * n + j]);
+        if (value > pivotValue) {
+          pivotRow = i;
+          pivotValue = value;
+        }
+      }
+      if (!(pivotValue > threshold)) {
+        return false;
+      }
+      pivots[j] = pivotRow;
+      int jOffset = j * n;
+      if (pivotRow != j) {
+        int pivotOffset = pivotRow * n;
+        for (int col = 0; col < n; col++) {
+          double temp = a[jOffset + col];
+          a[jOffset + col] = a[pivotOffset + col];
+          a[pivotOffset + col] = temp;
+        }
+      }
+      double ujj = a[jOffset + j];
+      for (int i = j + 1; i < n; i++) {
+        int iOffset = i * n;
+        double lij = a[iOffset + j] / ujj;
+        a[iOffset + j] = lij;
+        if (lij != 0.0) {
+          for (int col = j + 1; col < n; col++) {
+            a[iOffset + col] -= lij * a[jOffset + col];
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Solves A x = b in place in {@code x}, given the result of {@link #luDecompose(double[], int[], int)}.
+   */
+  static void luSolve(double[] lu, int[] pivots, int n, double[] x) {
+    for (int row = 0; row < n; row++) {
+      int pivotRow = pivots[row];
+      if (pivotRow != row) {
+        double temp = x[row];
+        x[row] = x[pivotRow];
+        x[pivotRow] = temp;
+      }
+    }
+    for (int row = 0; row < n; row++) {
+      int rowOffset = row * n;
+      double sum = x[row];
+      for (int col = 0; col < row; col++) {
+        sum -= lu[rowOffset + col] * x[col];
+      }
+      x[row] = sum;
+    }
+    for (int row = n - 1; row >= 0; row--) {
+      int rowOffset = row * n;
+      double sum = x[row];
+      for (int col = row + 1; col < n; col++) {
+        sum -= lu[rowOffset + col] * x[col];
+      }
+      x[row] = sum / lu[rowOffset + row];
+    }
+  }
+
+  private static double[] toDouble(float[] b) {
+    double[] x = new double[b.length];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = b[i];
+    }
+    return x;
+  }
+
+  private static float[] toFloat(double[] x) {
+    float[] result = new float[x.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (float) x[i];
+    }
+    return result;
+  }
+
+  /**
+   * Solves using a Cholesky decomposition. Thread-safe, since solving allocates its own result.
+   */
+  private static final class CholeskyBasedSolver implements Solver {
+
+    private final double[] l;
+    private final int n;
+
+    private CholeskyBasedSolver(double[] l, int n) {
+      this.l = l;
+      this.n = n;
+    }
+
+    @Override
+    public float[] solveDToF(double[] b) {
+      double[] x = b.clone();
+      choleskySolve(l, n, x);
+      return toFloat(x);
+    }
+
+    @Override
+    public double[] solveFToD(float[] b) {
+      double[] x = toDouble(b);
+      choleskySolve(l, n, x);
+      return x;
+    }
+
+  }
+
+  /**
+   * Solves using an LU decomposition. Thread-safe, since solving allocates its own result.
+   */
+  private static final class LUBasedSolver implements Solver {
+
+    private final double[] lu;
+    private final int[] pivots;
+    private final int n;
+
+    private LUBasedSolver(double[] lu, int[] pivots, int n) {
+      this.lu = lu;
+      this.pivots = pivots;
+      this.n = n;
+    }
+
+    @Override
+    public float[] solveDToF(double[] b) {
+      double[] x = b.clone();
+      luSolve(lu, pivots, n, x);
+      return toFloat(x);
+    }
+
+    @Override
+    public double[] solveFToD(float[] b) {
+      double[] x = toDouble(b);
+      luSolve(lu, pivots, n, x);
+      return x;
+    }
+
+  }
+
+}
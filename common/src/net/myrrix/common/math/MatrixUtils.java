@@ -44,8 +44,19 @@ public final class MatrixUtils {
   private static final LinearSystemSolver MATRIX_INVERTER;
   static {
     MATRIX_DATA_FIELD = ClassUtils.loadField(Array2DRowRealMatrix.class, "data");
-    String lssClassName = Boolean.parseBoolean(System.getProperty("common.matrix.nativeMath", "false")) ?
-        "net.myrrix.common.math.JBlasLinearSystemSolver" : "net.myrrix.common.math.CommonsMathLinearSystemSolver";
+    String lssClassName;
+    if (Boolean.parseBoolean(System.getProperty("common.matrix.nativeMath", "false"))) {
+      lssClassName = "net.myrrix.common.math.JBlasLinearSystemSolver";
+    } else {
+      String solver = System.getProperty("common.matrix.solver", "java");
+      if ("java".equals(solver)) {
+        lssClassName = "net.myrrix.common.math.JavaLinearSystemSolver";
+      } else if ("commonsMath".equals(solver)) {
+        lssClassName = "net.myrrix.common.math.CommonsMathLinearSystemSolver";
+      } else {
+        throw new IllegalArgumentException("Bad common.matrix.solver: " + solver);
+      }
+    }
     MATRIX_INVERTER = ClassUtils.loadInstanceOf(lssClassName, LinearSystemSolver.class);
   }
 
@@ -59,7 +70,7 @@ public final class MatrixUtils {
    * @param column column to increment
    * @param value increment value
    * @param RbyRow matrix R to update, keyed by row
-   * @param RbyColumn matrix R to update, keyed by column
+   * @param RbyColumn matrix R to update, keyed by column; may be null if only {@code RbyRow} is kept
    */
   public static void addTo(long row,
                            long column,
@@ -67,7 +78,9 @@ public final class MatrixUtils {
                            FastByIDMap<FastByIDFloatMap> RbyRow,
                            FastByIDMap<FastByIDFloatMap> RbyColumn) {
     addToByRow(row, column, value, RbyRow);
-    addToByRow(column, row, value, RbyColumn);
+    if (RbyColumn != null) {
+      addToByRow(column, row, value, RbyColumn);
+    }
   }
 
   /**
@@ -97,14 +110,16 @@ public final class MatrixUtils {
    * @param row row to remove
    * @param column column to remove
    * @param RbyRow matrix R to update, keyed by row
-   * @param RbyColumn matrix R to update, keyed by column
+   * @param RbyColumn matrix R to update, keyed by column; may be null if only {@code RbyRow} is kept
    */
   public static void remove(long row,
                             long column,
                             FastByIDMap<FastByIDFloatMap> RbyRow,
                             FastByIDMap<FastByIDFloatMap> RbyColumn) {
     removeByRow(row, column, RbyRow);
-    removeByRow(column, row, RbyColumn);
+    if (RbyColumn != null) {
+      removeByRow(column, row, RbyColumn);
+    }
   }
   
   /**
@@ -0,0 +1,160 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.parallel;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>Limits the number of operations in progress at once, adjusting the limit to keep latency near what it is
+ * without load. Operations beyond the limit are refused right away rather than left to wait, so that a server
+ * under more load than it can handle still answers some requests quickly instead of all of them slowly.</p>
+ *
+ * <p>Latency is averaged over short windows of at least {@link #MIN_WINDOW_SAMPLES} operations. The lowest
+ * average seen estimates latency without load. Each window, the limit is scaled by the ratio of that
+ * latency, times {@link #LATENCY_TOLERANCE}, to the current latency, if lower than 1, so that it shrinks once
+ * requests start waiting on each other. It also grows by the square root of the limit, so that it can rise
+ * while latency is fine. It never grows when fewer than half the allowed operations were in progress, since
+ * then latency says nothing about a higher limit. Changes are smoothed, and the limit stays between a
+ * minimum and a maximum.</p>
+ *
+ * <p>The estimate of latency without load drifts slowly up toward current latency, so that it can follow a
+ * lasting change in workload. It drifts quickly when fewer than half the allowed operations were in progress,
+ * since latency then is latency without load, so that one fast window does not hold the limit down for long.
+ * This class is thread-safe.</p>
+ */
+public final class AdaptiveConcurrencyLimit {
+
+  static final int MIN_WINDOW_SAMPLES = 10;
+  private static final long MIN_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  /** Latency may be this many times the estimate without load before the limit shrinks */
+  static final double LATENCY_TOLERANCE = 2.0;
+  /** Limit never shrinks by more than this factor in one window */
+  private static final double MIN_GRADIENT = 0.5;
+  /** Weight of each window's new limit versus the old one */
+  private static final double SMOOTHING = 0.2;
+  /** Fraction of the way that the estimate of latency without load moves toward current latency each window */
+  private static final double NO_LOAD_LATENCY_DRIFT = 0.001;
+  /** Likewise, but when fewer than half the allowed operations were in progress */
+  private static final double IDLE_NO_LOAD_LATENCY_DRIFT = 0.1;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final AtomicInteger inFlight;
+  private volatile int limit;
+
+  // Guarded by this:
+  private double estimatedLimit;
+  private double noLoadLatencyNanos;
+  private long windowStartNanos;
+  private long windowLatencySumNanos;
+  private int windowSamples;
+  private int windowMaxInFlight;
+
+  /**
+   * @param initialLimit limit to start with
+   * @param minLimit lowest the limit may go
+   * @param maxLimit highest the limit may go
+   */
+  public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+    Preconditions.checkArgument(minLimit > 0, "Bad minLimit: %s", minLimit);
+    Preconditions.checkArgument(maxLimit >= minLimit, "Bad maxLimit: %s", maxLimit);
+    Preconditions.checkArgument(initialLimit >= minLimit && initialLimit <= maxLimit,
+                                "Bad initialLimit: %s", initialLimit);
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    inFlight = new AtomicInteger();
+    limit = initialLimit;
+    estimatedLimit = initialLimit;
+    windowStartNanos = System.nanoTime();
+  }
+
+  /**
+   * @return true if the operation may proceed, in which case {@link #release(long)} must be called when it
+   *  finishes; false if it should be refused
+   */
+  public boolean tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= limit) {
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @param latencyNanos how long the operation took
+   */
+  public void release(long latencyNanos) {
+    int wasInFlight = inFlight.getAndDecrement();
+    sample(latencyNanos, wasInFlight, System.nanoTime());
+  }
+
+  /**
+   * @return current limit on operations in progress
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return number of operations in progress
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  synchronized void sample(long latencyNanos, int wasInFlight, long nowNanos) {
+    windowLatencySumNanos += latencyNanos;
+    windowSamples++;
+    if (wasInFlight > windowMaxInFlight) {
+      windowMaxInFlight = wasInFlight;
+    }
+    if (windowSamples < MIN_WINDOW_SAMPLES || nowNanos - windowStartNanos < MIN_WINDOW_NANOS) {
+      return;
+    }
+
+    double latency = (double) windowLatencySumNanos / windowSamples;
+    boolean idle = windowMaxInFlight < estimatedLimit / 2.0;
+    if (noLoadLatencyNanos <= 0.0 || latency < noLoadLatencyNanos) {
+      noLoadLatencyNanos = latency;
+    } else {
+      double drift = idle ? IDLE_NO_LOAD_LATENCY_DRIFT : NO_LOAD_LATENCY_DRIFT;
+      noLoadLatencyNanos += (latency - noLoadLatencyNanos) * drift;
+    }
+
+    double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, LATENCY_TOLERANCE * noLoadLatencyNanos / latency));
+    double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+    if (idle) {
+      newLimit = Math.min(newLimit, estimatedLimit);
+    }
+    estimatedLimit = estimatedLimit * (1.0 - SMOOTHING) + newLimit * SMOOTHING;
+    estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit));
+    limit = (int) estimatedLimit;
+
+    windowStartNanos = nowNanos;
+    windowLatencySumNanos = 0L;
+    windowSamples = 0;
+    windowMaxInFlight = 0;
+  }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.parallel;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>A token bucket, which limits the rate of some operation while allowing bursts. It holds up to a given number
+ * of tokens, and is refilled at a constant rate. Each operation takes one token, and is refused if there is none.</p>
+ *
+ * <p>Tokens are added lazily when one is requested, so an idle bucket costs nothing. This class is thread-safe.</p>
+ */
+public final class TokenBucket {
+
+  private final double capacity;
+  private final double tokensPerNanosec;
+  private double tokens;
+  private long lastRefillNanos;
+
+  /**
+   * @param capacity maximum number of tokens held, which is the largest burst allowed. It starts full.
+   * @param tokensPerSecond rate at which tokens are added, which is the sustained rate allowed
+   */
+  public TokenBucket(double capacity, double tokensPerSecond) {
+    this(capacity, tokensPerSecond, System.nanoTime());
+  }
+
+  TokenBucket(double capacity, double tokensPerSecond, long nowNanos) {
+    Preconditions.checkArgument(capacity >= 1.0, "Bad capacity: %s", capacity);
+    Preconditions.checkArgument(tokensPerSecond > 0.0, "Bad tokensPerSecond: %s", tokensPerSecond);
+    this.capacity = capacity;
+    this.tokensPerNanosec = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+    tokens = capacity;
+    lastRefillNanos = nowNanos;
+  }
+
+  /**
+   * @return true if a token was available and was taken
+   */
+  public boolean tryAcquire() {
+    return tryAcquire(System.nanoTime());
+  }
+
+  synchronized boolean tryAcquire(long nowNanos) {
+    refill(nowNanos);
+    if (tokens >= 1.0) {
+      tokens -= 1.0;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return nanoseconds until a token will be available, or 0 if one is available now
+   */
+  public long getNanosUntilAvailable() {
+    return getNanosUntilAvailable(System.nanoTime());
+  }
+
+  synchronized long getNanosUntilAvailable(long nowNanos) {
+    refill(nowNanos);
+    return tokens >= 1.0 ? 0L : (long) Math.ceil((1.0 - tokens) / tokensPerNanosec);
+  }
+
+  private void refill(long nowNanos) {
+    long elapsed = nowNanos - lastRefillNanos;
+    if (elapsed > 0L) {
+      tokens = Math.min(capacity, tokens + elapsed * tokensPerNanosec);
+      lastRefillNanos = nowNanos;
+    }
+  }
+
+}
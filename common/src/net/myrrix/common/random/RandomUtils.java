@@ -139,6 +139,50 @@ public final class RandomUtils {
     return vector;
   }
 
+  /**
+   * @param dimensions dimensionality of resulting vectors
+   * @param random random number generator to use
+   * @return {@code dimensions} vectors of length 1 over the given number of dimensions, each orthogonal to
+   *   all the others, in an orientation chosen uniformly at random. Taking new vectors from such bases spreads
+   *   them out much like {@link #randomUnitVectorFarFrom(int, List, RandomGenerator)} does, but costs only
+   *   O(dimensions<sup>2</sup>) per vector and does not depend on how many vectors exist already.
+   */
+  public static float[][] randomOrthonormalVectors(int dimensions, RandomGenerator random) {
+    double[][] basis = new double[dimensions][dimensions];
+    float[][] vectors = new float[dimensions][dimensions];
+    for (int i = 0; i < dimensions; i++) {
+      double[] vector = basis[i];
+      double norm;
+      do {
+        for (int j = 0; j < dimensions; j++) {
+          vector[j] = random.nextGaussian();
+        }
+        // Modified Gram-Schmidt: remove the component along each earlier vector
+        for (int k = 0; k < i; k++) {
+          double[] other = basis[k];
+          double dot = 0.0;
+          for (int j = 0; j < dimensions; j++) {
+            dot += vector[j] * other[j];
+          }
+          for (int j = 0; j < dimensions; j++) {
+            vector[j] -= dot * other[j];
+          }
+        }
+        double total = 0.0;
+        for (int j = 0; j < dimensions; j++) {
+          total += vector[j] * vector[j];
+        }
+        norm = FastMath.sqrt(total);
+        // Almost never in the span of earlier vectors, but try again if nearly so
+      } while (!(norm > 1.0e-6));
+      for (int j = 0; j < dimensions; j++) {
+        vector[j] /= norm;
+        vectors[i][j] = (float) vector[j];
+      }
+    }
+    return vectors;
+  }
+
   /**
    * Finds next-largest "twin primes": numbers p and p+2 such that both are prime. Finds the smallest such p
    * such that the smaller twin, p, is greater than or equal to n. Returns p+2, the larger of the two twins.
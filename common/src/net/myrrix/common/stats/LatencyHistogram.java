@@ -0,0 +1,192 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.stats;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>A histogram of latencies in microseconds, from which quantiles like the 99th percentile can be read.
+ * Like an HDR histogram, buckets are log-linear: each power of two is split into {@link #SUB_BUCKETS}
+ * equal buckets, so any value is known to within about 3%, with fixed memory, from 1 microsecond to
+ * weeks. Values below {@link #SUB_BUCKETS} are exact. Larger values than the range are counted in the
+ * last bucket.</p>
+ *
+ * <p>Recording is lock-free and thread-safe. Reads while values are recorded see a slightly inconsistent,
+ * but still valid, histogram.</p>
+ */
+public final class LatencyHistogram implements Serializable {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  /** Values up to 2^(MAX_MAGNITUDE+1) - 1 microseconds, or about 25 days, are distinguished */
+  private static final int MAX_MAGNITUDE = 40;
+  static final int NUM_BUCKETS = SUB_BUCKETS * (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2);
+
+  private final AtomicLongArray counts;
+  private final AtomicLong count;
+  private final AtomicLong sumMicrosec;
+  private final AtomicLong maxMicrosec;
+
+  public LatencyHistogram() {
+    counts = new AtomicLongArray(NUM_BUCKETS);
+    count = new AtomicLong();
+    sumMicrosec = new AtomicLong();
+    maxMicrosec = new AtomicLong();
+  }
+
+  /**
+   * @param nanosec latency in nanoseconds
+   */
+  public void addNanosec(long nanosec) {
+    add(TimeUnit.NANOSECONDS.toMicros(nanosec));
+  }
+
+  /**
+   * @param microsec latency in microseconds
+   */
+  public void add(long microsec) {
+    long value = Math.max(0L, microsec);
+    counts.incrementAndGet(bucketIndex(value));
+    count.incrementAndGet();
+    sumMicrosec.addAndGet(value);
+    long max;
+    while ((max = maxMicrosec.get()) < value && !maxMicrosec.compareAndSet(max, value)) {
+      // retry
+    }
+  }
+
+  /**
+   * Adds all values recorded in another histogram to this one.
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      long otherCount = other.counts.get(i);
+      if (otherCount > 0L) {
+        counts.addAndGet(i, otherCount);
+      }
+    }
+    count.addAndGet(other.count.get());
+    sumMicrosec.addAndGet(other.sumMicrosec.get());
+    long otherMax = other.maxMicrosec.get();
+    long max;
+    while ((max = maxMicrosec.get()) < otherMax && !maxMicrosec.compareAndSet(max, otherMax)) {
+      // retry
+    }
+  }
+
+  /**
+   * Removes all values.
+   */
+  public void clear() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts.set(i, 0L);
+    }
+    count.set(0L);
+    sumMicrosec.set(0L);
+    maxMicrosec.set(0L);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return sum of all latencies in microseconds
+   */
+  public long getSum() {
+    return sumMicrosec.get();
+  }
+
+  /**
+   * @return mean latency in microseconds, or {@link Double#NaN} if there are no values
+   */
+  public double getMean() {
+    long theCount = count.get();
+    return theCount == 0L ? Double.NaN : (double) sumMicrosec.get() / theCount;
+  }
+
+  /**
+   * @return largest latency in microseconds, exactly, or 0 if there are no values
+   */
+  public long getMax() {
+    return maxMicrosec.get();
+  }
+
+  /**
+   * @param quantile quantile to compute, like 0.99 for the 99th percentile
+   * @return latency in microseconds at or below which that fraction of values are, to within the precision
+   *  of the buckets; 0 if there are no values
+   */
+  public long getQuantile(double quantile) {
+    Preconditions.checkArgument(quantile >= 0.0 && quantile <= 1.0, "Bad quantile: %s", quantile);
+    long[] snapshot = new long[NUM_BUCKETS];
+    long total = 0L;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      long bucketCount = counts.get(i);
+      snapshot[i] = bucketCount;
+      total += bucketCount;
+    }
+    if (total == 0L) {
+      return 0L;
+    }
+    long target = Math.max(1L, (long) Math.ceil(quantile * total));
+    long cumulative = 0L;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      cumulative += snapshot[i];
+      if (cumulative >= target) {
+        // Never report more than the actual max
+        return Math.min(highestValueInBucket(i), Math.max(maxMicrosec.get(), lowestValueInBucket(i)));
+      }
+    }
+    return maxMicrosec.get();
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    if (magnitude > MAX_MAGNITUDE) {
+      return NUM_BUCKETS - 1;
+    }
+    int shift = magnitude - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  static long lowestValueInBucket(int index) {
+    int group = index >>> SUB_BUCKET_BITS;
+    if (group == 0) {
+      return index;
+    }
+    int shift = group - 1;
+    return (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+  }
+
+  static long highestValueInBucket(int index) {
+    int group = index >>> SUB_BUCKET_BITS;
+    if (group == 0) {
+      return index;
+    }
+    return lowestValueInBucket(index) + (1L << (group - 1)) - 1L;
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.stats;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Records latencies in a {@link LatencyHistogram} of all time, and in histograms of recent intervals of
+ * {@link #INTERVAL_SEC} seconds. The recent histogram covers the last complete interval and the current one,
+ * so shows current tail latency, which the all-time histogram soon stops reflecting.</p>
+ *
+ * <p>Timers for internal operations may be registered by name with {@link #forName(String)}, and listed with
+ * {@link #getNamedTimers()}, so that they can be reported together. This class is thread-safe.</p>
+ */
+public final class LatencyTimer implements Serializable {
+
+  static final int INTERVAL_SEC = 60;
+  private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(INTERVAL_SEC);
+
+  private static final ConcurrentMap<String,LatencyTimer> NAMED_TIMERS =
+      new ConcurrentSkipListMap<String,LatencyTimer>();
+
+  private final long createdNanos;
+  private final LatencyHistogram allTime;
+  private volatile LatencyHistogram currentInterval;
+  private volatile LatencyHistogram lastInterval;
+  private volatile long currentIntervalStartNanos;
+
+  public LatencyTimer() {
+    createdNanos = System.nanoTime();
+    allTime = new LatencyHistogram();
+    currentInterval = new LatencyHistogram();
+    lastInterval = new LatencyHistogram();
+    currentIntervalStartNanos = createdNanos;
+  }
+
+  /**
+   * @param name name of an internal timer, like "recommend.scan"
+   * @return timer registered under that name, created if needed
+   */
+  public static LatencyTimer forName(String name) {
+    LatencyTimer timer = NAMED_TIMERS.get(name);
+    if (timer == null) {
+      timer = new LatencyTimer();
+      LatencyTimer existing = NAMED_TIMERS.putIfAbsent(name, timer);
+      if (existing != null) {
+        timer = existing;
+      }
+    }
+    return timer;
+  }
+
+  /**
+   * @return all timers registered with {@link #forName(String)}, by name
+   */
+  public static SortedMap<String,LatencyTimer> getNamedTimers() {
+    return Collections.unmodifiableSortedMap((SortedMap<String,LatencyTimer>) NAMED_TIMERS);
+  }
+
+  /**
+   * @param nanosec latency to record, in nanoseconds
+   */
+  public void addNanosec(long nanosec) {
+    maybeRoll(System.nanoTime());
+    long microsec = TimeUnit.NANOSECONDS.toMicros(nanosec);
+    allTime.add(microsec);
+    currentInterval.add(microsec);
+  }
+
+  /**
+   * @param startNanos value of {@link System#nanoTime()} when the timed operation started
+   */
+  public void addSince(long startNanos) {
+    addNanosec(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * @return histogram of all latencies recorded
+   */
+  public LatencyHistogram getAllTime() {
+    return allTime;
+  }
+
+  /**
+   * @return new histogram of latencies in the last complete interval and the current one
+   */
+  public LatencyHistogram getRecent() {
+    maybeRoll(System.nanoTime());
+    LatencyHistogram recent = new LatencyHistogram();
+    recent.add(lastInterval);
+    recent.add(currentInterval);
+    return recent;
+  }
+
+  /**
+   * @return seconds of time covered by {@link #getRecent()}
+   */
+  public double getRecentSeconds() {
+    long now = System.nanoTime();
+    maybeRoll(now);
+    long covered = Math.min(now - createdNanos, INTERVAL_NANOS + now - currentIntervalStartNanos);
+    return (double) covered / TimeUnit.SECONDS.toNanos(1);
+  }
+
+  private void maybeRoll(long nowNanos) {
+    if (nowNanos - currentIntervalStartNanos >= INTERVAL_NANOS) {
+      synchronized (this) {
+        long elapsed = nowNanos - currentIntervalStartNanos;
+        if (elapsed >= INTERVAL_NANOS) {
+          LatencyHistogram recycled = lastInterval;
+          recycled.clear();
+          if (elapsed >= 2 * INTERVAL_NANOS) {
+            // Nothing recorded in the last whole interval
+            currentInterval.clear();
+          }
+          lastInterval = currentInterval;
+          currentInterval = recycled;
+          currentIntervalStartNanos = nowNanos - elapsed % INTERVAL_NANOS;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.stats;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>Like {@link RunningStatisticsPerTime}, tracks count, mean, min and max of values over the last unit of
+ * time, but without locking, so that many threads can add values at once without waiting on each other.</p>
+ *
+ * <p>The time unit is divided into buckets of the next smaller unit, kept in a ring. Each bucket has a cell
+ * per stripe, and each thread adds to one stripe's cell, chosen by its ID. Readers combine all cells whose
+ * bucket is recent. A cell whose bucket has fallen out of the window is reset by the next writer to use it;
+ * writers that meet a cell being reset use another stripe's, so no value is lost.</p>
+ *
+ * <p>Cells are padded to their own cache line, so that writers on different stripes do not contend.
+ * This class is thread-safe. Reads while values are added may be slightly inconsistent.</p>
+ */
+public final class StripedRunningStatisticsPerTime implements Serializable {
+
+  private static final int MAX_STRIPES = 16;
+
+  // Offsets of fields in a cell, which is 8 longs, or 64 bytes, wide
+  private static final int EPOCH = 0;
+  private static final int COUNT = 1;
+  private static final int SUM = 2;
+  private static final int MIN = 3;
+  private static final int MAX = 4;
+  private static final int CELL_WIDTH = 8;
+
+  /** Marks a cell that a writer is resetting */
+  private static final long RESETTING = -1L;
+
+  private final long bucketTimeMS;
+  private final int numBuckets;
+  private final int stripeMask;
+  private final AtomicLongArray cells;
+
+  public StripedRunningStatisticsPerTime(TimeUnit timeUnit) {
+    this(timeUnit, Runtime.getRuntime().availableProcessors());
+  }
+
+  StripedRunningStatisticsPerTime(TimeUnit timeUnit, int minStripes) {
+    int timeUnitOrdinal = timeUnit.ordinal();
+    Preconditions.checkArgument(timeUnitOrdinal >= TimeUnit.MINUTES.ordinal(), "Unsupported time unit: %s", timeUnit);
+    Preconditions.checkArgument(minStripes > 0, "Bad minStripes: %s", minStripes);
+    TimeUnit subTimeUnit = TimeUnit.values()[timeUnitOrdinal - 1];
+    numBuckets = (int) subTimeUnit.convert(1, timeUnit);
+    bucketTimeMS = TimeUnit.MILLISECONDS.convert(1, subTimeUnit);
+
+    int numStripes = 1;
+    while (numStripes < minStripes && numStripes < MAX_STRIPES) {
+      numStripes <<= 1;
+    }
+    stripeMask = numStripes - 1;
+
+    cells = new AtomicLongArray(numBuckets * numStripes * CELL_WIDTH);
+    // Mark all cells as holding a bucket long gone
+    for (int cell = 0; cell < cells.length(); cell += CELL_WIDTH) {
+      cells.set(cell + EPOCH, Long.MIN_VALUE);
+    }
+  }
+
+  public void increment(double value) {
+    increment(value, System.currentTimeMillis());
+  }
+
+  void increment(double value, long nowMS) {
+    long epoch = nowMS / bucketTimeMS;
+    int stripe = (int) Thread.currentThread().getId();
+    while (true) {
+      int cell = cellIndex(epoch, stripe);
+      long cellEpoch = cells.get(cell + EPOCH);
+      if (cellEpoch == RESETTING) {
+        // Don't wait for it; use another stripe
+        stripe++;
+        continue;
+      }
+      if (cellEpoch < epoch) {
+        if (!cells.compareAndSet(cell + EPOCH, cellEpoch, RESETTING)) {
+          continue;
+        }
+        cells.set(cell + COUNT, 1L);
+        cells.set(cell + SUM, Double.doubleToRawLongBits(value));
+        cells.set(cell + MIN, Double.doubleToRawLongBits(value));
+        cells.set(cell + MAX, Double.doubleToRawLongBits(value));
+        cells.set(cell + EPOCH, epoch);
+        return;
+      }
+      // Else the cell is for this bucket, or rarely a later one if this thread stalled; either way add to it
+      cells.incrementAndGet(cell + COUNT);
+      addToSum(cell + SUM, value);
+      updateMin(cell + MIN, value);
+      updateMax(cell + MAX, value);
+      return;
+    }
+  }
+
+  public long getCount() {
+    return getCount(System.currentTimeMillis());
+  }
+
+  long getCount(long nowMS) {
+    long minEpoch = minRecentEpoch(nowMS);
+    long count = 0L;
+    for (int cell = 0; cell < cells.length(); cell += CELL_WIDTH) {
+      if (cells.get(cell + EPOCH) >= minEpoch) {
+        count += cells.get(cell + COUNT);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return mean of values over the last unit of time, or {@link Double#NaN} if there are none
+   */
+  public double getMean() {
+    return getMean(System.currentTimeMillis());
+  }
+
+  double getMean(long nowMS) {
+    long minEpoch = minRecentEpoch(nowMS);
+    long count = 0L;
+    double sum = 0.0;
+    for (int cell = 0; cell < cells.length(); cell += CELL_WIDTH) {
+      if (cells.get(cell + EPOCH) >= minEpoch) {
+        count += cells.get(cell + COUNT);
+        sum += Double.longBitsToDouble(cells.get(cell + SUM));
+      }
+    }
+    return count == 0L ? Double.NaN : sum / count;
+  }
+
+  /**
+   * @return least value over the last unit of time, or {@link Double#NaN} if there are none
+   */
+  public double getMin() {
+    return getMin(System.currentTimeMillis());
+  }
+
+  double getMin(long nowMS) {
+    long minEpoch = minRecentEpoch(nowMS);
+    double min = Double.NaN;
+    for (int cell = 0; cell < cells.length(); cell += CELL_WIDTH) {
+      if (cells.get(cell + EPOCH) >= minEpoch) {
+        double cellMin = Double.longBitsToDouble(cells.get(cell + MIN));
+        if (Double.isNaN(min) || cellMin < min) {
+          min = cellMin;
+        }
+      }
+    }
+    return min;
+  }
+
+  /**
+   * @return greatest value over the last unit of time, or {@link Double#NaN} if there are none
+   */
+  public double getMax() {
+    return getMax(System.currentTimeMillis());
+  }
+
+  double getMax(long nowMS) {
+    long minEpoch = minRecentEpoch(nowMS);
+    double max = Double.NaN;
+    for (int cell = 0; cell < cells.length(); cell += CELL_WIDTH) {
+      if (cells.get(cell + EPOCH) >= minEpoch) {
+        double cellMax = Double.longBitsToDouble(cells.get(cell + MAX));
+        if (Double.isNaN(max) || cellMax > max) {
+          max = cellMax;
+        }
+      }
+    }
+    return max;
+  }
+
+  /**
+   * @return earliest bucket still in the window; {@link #RESETTING} is always less
+   */
+  private long minRecentEpoch(long nowMS) {
+    return nowMS / bucketTimeMS - numBuckets + 1;
+  }
+
+  private int cellIndex(long epoch, int stripe) {
+    int bucket = (int) (epoch % numBuckets);
+    return ((bucket * (stripeMask + 1)) + (stripe & stripeMask)) * CELL_WIDTH;
+  }
+
+  private void addToSum(int index, double value) {
+    long bits;
+    do {
+      bits = cells.get(index);
+    } while (!cells.compareAndSet(index, bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + value)));
+  }
+
+  private void updateMin(int index, double value) {
+    long bits;
+    while (value < Double.longBitsToDouble(bits = cells.get(index)) &&
+           !cells.compareAndSet(index, bits, Double.doubleToRawLongBits(value))) {
+      // retry
+    }
+  }
+
+  private void updateMax(int index, double value) {
+    long bits;
+    while (value > Double.longBitsToDouble(bits = cells.get(index)) &&
+           !cells.compareAndSet(index, bits, Double.doubleToRawLongBits(value))) {
+      // retry
+    }
+  }
+
+}
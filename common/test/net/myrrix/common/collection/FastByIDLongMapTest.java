@@ -0,0 +1,101 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.collection;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.random.RandomManager;
+
+public final class FastByIDLongMapTest extends MyrrixTest {
+
+  @Test
+  public void testPutAndGet() {
+    FastByIDLongMap map = new FastByIDLongMap();
+    assertEquals(FastByIDLongMap.NULL, map.get(500000L));
+    map.put(500000L, -2L);
+    assertEquals(-2L, map.get(500000L));
+    map.put(500000L, Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, map.get(500000L));
+    assertEquals(1, map.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPutNull() {
+    new FastByIDLongMap().put(1L, FastByIDLongMap.NULL);
+  }
+
+  @Test
+  public void testRemove() {
+    FastByIDLongMap map = new FastByIDLongMap();
+    map.put(500000L, 2L);
+    map.remove(500000L);
+    assertEquals(0, map.size());
+    assertTrue(map.isEmpty());
+    assertFalse(map.containsKey(500000L));
+    assertEquals(FastByIDLongMap.NULL, map.get(500000L));
+  }
+
+  @Test
+  public void testKeySetIterator() {
+    FastByIDLongMap map = new FastByIDLongMap();
+    map.put(1L, 0L);
+    map.put(2L, 10L);
+    map.put(3L, 20L);
+    map.remove(2L);
+    FastIDSet keys = new FastIDSet();
+    LongPrimitiveIterator it = map.keySetIterator();
+    while (it.hasNext()) {
+      keys.add(it.nextLong());
+    }
+    assertEquals(2, keys.size());
+    assertTrue(keys.contains(1L));
+    assertTrue(keys.contains(3L));
+  }
+
+  @Test
+  public void testVersusHashMap() {
+    FastByIDLongMap actual = new FastByIDLongMap();
+    Map<Long, Long> expected = Maps.newHashMapWithExpectedSize(1000000);
+    RandomGenerator r = RandomManager.getRandom();
+    for (int i = 0; i < 1000000; i++) {
+      double d = r.nextDouble();
+      Long key = (long) r.nextInt(100);
+      if (d < 0.4) {
+        Long expectedValue = expected.get(key);
+        assertEquals(expectedValue == null ? FastByIDLongMap.NULL : expectedValue.longValue(), actual.get(key));
+      } else if (d < 0.7) {
+        long value = r.nextLong();
+        if (value != FastByIDLongMap.NULL) {
+          expected.put(key, value);
+          actual.put(key, value);
+        }
+      } else {
+        expected.remove(key);
+        actual.remove(key);
+      }
+      assertEquals(expected.size(), actual.size());
+      assertEquals(expected.isEmpty(), actual.isEmpty());
+    }
+  }
+
+}
@@ -126,7 +126,84 @@ public final class FastByIDMapTest extends MyrrixTest {
     assertEquals("buzz", map.get(47L));
   }
   
-  
+  @Test
+  public void testGetKeysFromSlot() {
+    FastByIDMap<String> map = new FastByIDMap<String>();
+    for (long key = 1L; key <= 1000L; key++) {
+      map.put(key, "foo");
+    }
+    map.remove(500L);
+    FastIDSet excluded = new FastIDSet();
+    excluded.add(7L);
+
+    int numSlots = map.getNumSlots();
+    FastIDSet result = new FastIDSet();
+    int slot = 0;
+    int pages = 0;
+    while (slot < numSlots) {
+      int sizeBefore = result.size();
+      slot = map.getKeysFromSlot(slot, 100, excluded, result);
+      assertTrue(result.size() - sizeBefore <= 100);
+      pages++;
+    }
+    assertEquals(numSlots, slot);
+    assertEquals(10, pages);
+    assertEquals(998, result.size());
+    assertFalse(result.contains(7L));
+    assertFalse(result.contains(500L));
+    assertTrue(result.contains(1L));
+    assertTrue(result.contains(1000L));
+  }
+
+  @Test
+  public void testLayoutVersion() {
+    FastByIDMap<String> map = new FastByIDMap<String>(1000);
+    for (long key = 1L; key <= 1000L; key++) {
+      map.put(key, "foo");
+    }
+    int numSlots = map.getNumSlots();
+    int layoutVersion = map.getLayoutVersion();
+    map.put(1L, "bar");
+    map.remove(2L);
+    assertEquals(layoutVersion, map.getLayoutVersion());
+    // Same size of table, but keys may have moved
+    map.rehash();
+    assertEquals(numSlots, map.getNumSlots());
+    assertFalse(layoutVersion == map.getLayoutVersion());
+    layoutVersion = map.getLayoutVersion();
+    map.clear();
+    assertFalse(layoutVersion == map.getLayoutVersion());
+  }
+
+  @Test
+  public void testKeySlotsAcrossRehash() {
+    FastByIDMap<String> map = new FastByIDMap<String>();
+    for (long key = 1L; key <= 1000L; key++) {
+      map.put(key, "foo");
+    }
+    FastByIDMap.KeySlots keySlots = map.getKeySlots();
+    FastIDSet result = new FastIDSet();
+    int slot = keySlots.getKeysFromSlot(0, 500, null, result);
+    int numRead = result.size();
+    // Grows, so rehashes
+    int layoutVersion = map.getLayoutVersion();
+    for (long key = 1001L; key <= 5000L; key++) {
+      map.put(key, "foo");
+    }
+    assertFalse(layoutVersion == map.getLayoutVersion());
+    while (slot < keySlots.getNumSlots()) {
+      FastIDSet page = new FastIDSet();
+      slot = keySlots.getKeysFromSlot(slot, 100, null, page);
+      numRead += page.size();
+      result.addAll(page);
+    }
+    // Keys added before the rehash may be read, but none is read twice, and none is missed
+    assertEquals(numRead, result.size());
+    for (long key = 1L; key <= 1000L; key++) {
+      assertTrue(result.contains(key));
+    }
+  }
+
   private static FastByIDMap<String> buildTestFastMap() {
     FastByIDMap<String> map = new FastByIDMap<String>();
     map.put(500000L, "alpha");
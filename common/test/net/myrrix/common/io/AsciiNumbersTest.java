@@ -0,0 +1,100 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.io;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.random.RandomManager;
+
+public final class AsciiNumbersTest extends MyrrixTest {
+
+  @Test
+  public void testLong() {
+    long[] values = { 0L, 1L, -1L, 9L, 10L, -10L, 123456789L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1 };
+    for (long value : values) {
+      assertEquals(Long.toString(value), formatLong(value));
+    }
+    RandomGenerator random = RandomManager.getRandom();
+    for (int i = 0; i < 100000; i++) {
+      long value = random.nextLong() >> random.nextInt(64);
+      assertEquals(Long.toString(value), formatLong(value));
+    }
+  }
+
+  @Test
+  public void testFloatLayout() {
+    assertEquals("0.0", formatFloat(0.0f));
+    assertEquals("-0.0", formatFloat(-0.0f));
+    assertEquals("1.0", formatFloat(1.0f));
+    assertEquals("-2.5", formatFloat(-2.5f));
+    assertEquals("0.53", formatFloat(0.53f));
+    assertEquals("120.0", formatFloat(120.0f));
+    assertEquals("0.001", formatFloat(0.001f));
+    assertEquals("9.0E-4", formatFloat(0.0009f));
+    assertEquals("1234567.0", formatFloat(1234567.0f));
+    assertEquals("1.0E7", formatFloat(1.0e7f));
+    assertEquals("1.5E-5", formatFloat(1.5e-5f));
+    assertEquals("3.4028235E38", formatFloat(Float.MAX_VALUE));
+    // Shortest, but not Float.toString()'s 1.4E-45
+    assertEquals("1.0E-45", formatFloat(Float.MIN_VALUE));
+    assertEquals("NaN", formatFloat(Float.NaN));
+    assertEquals("Infinity", formatFloat(Float.POSITIVE_INFINITY));
+    assertEquals("-Infinity", formatFloat(Float.NEGATIVE_INFINITY));
+  }
+
+  @Test
+  public void testFloatRoundTrip() {
+    RandomGenerator random = RandomManager.getRandom();
+    for (int i = 0; i < 1000000; i++) {
+      float value = Float.intBitsToFloat(random.nextInt());
+      if (Float.isNaN(value)) {
+        continue;
+      }
+      String formatted = formatFloat(value);
+      assertEquals(formatted, Float.floatToIntBits(value), Float.floatToIntBits(Float.parseFloat(formatted)));
+      // Never more digits than Float.toString(), which round-trips but is not always shortest
+      assertTrue(formatted, significantDigits(formatted) <= significantDigits(Float.toString(value)));
+    }
+    for (int i = 0; i < 100000; i++) {
+      float value = random.nextFloat();
+      assertEquals(value, Float.parseFloat(formatFloat(value)));
+    }
+  }
+
+  private static String formatLong(long value) {
+    byte[] buffer = new byte[AsciiNumbers.MAX_LONG_LENGTH];
+    int end = AsciiNumbers.writeLong(value, buffer, 0);
+    return new String(buffer, 0, end, Charsets.US_ASCII);
+  }
+
+  private static String formatFloat(float value) {
+    byte[] buffer = new byte[AsciiNumbers.MAX_FLOAT_LENGTH + 1];
+    int end = AsciiNumbers.writeFloat(value, buffer, 1);
+    return new String(buffer, 1, end - 1, Charsets.US_ASCII);
+  }
+
+  private static int significantDigits(String formatted) {
+    int exponent = formatted.indexOf('E');
+    String mantissa = exponent < 0 ? formatted : formatted.substring(0, exponent);
+    String digits = mantissa.replace("-", "").replace(".", "").replaceFirst("^0+", "").replaceFirst("0+$", "");
+    return digits.length();
+  }
+
+}
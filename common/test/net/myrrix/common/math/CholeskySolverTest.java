@@ -0,0 +1,105 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.math;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.random.RandomManager;
+
+/**
+ * Tests {@link CholeskySolver}.
+ */
+public final class CholeskySolverTest extends MyrrixTest {
+
+  @Test
+  public void testSolveMatchesGeneralSolver() {
+    RandomGenerator random = RandomManager.getRandom();
+    int dimension = 20;
+    CholeskySolver solver = new CholeskySolver(dimension);
+    // Reuse the same solver, as a caller would
+    for (int trial = 0; trial < 10; trial++) {
+      RealMatrix A = randomPositiveDefiniteMatrix(dimension, random);
+      double[] b = new double[dimension];
+      for (int i = 0; i < dimension; i++) {
+        b[i] = random.nextGaussian();
+      }
+      float[] expected = MatrixUtils.getSolver(A).solveDToF(b);
+
+      fillLowerTriangle(A, solver.getMatrix());
+      System.arraycopy(b, 0, solver.getVector(), 0, dimension);
+      float[] actual = solver.solveDToF();
+      assertNotNull(actual);
+      for (int i = 0; i < dimension; i++) {
+        assertEquals(expected[i], actual[i], 1.0e-4f * Math.max(1.0f, Math.abs(expected[i])));
+      }
+    }
+  }
+
+  @Test
+  public void testNotPositiveDefinite() {
+    // Symmetric, but with eigenvalues 3 and -1
+    RealMatrix A = new Array2DRowRealMatrix(new double[][] {{1.0, 2.0}, {2.0, 1.0}});
+    CholeskySolver solver = new CholeskySolver(2);
+    fillLowerTriangle(A, solver.getMatrix());
+    solver.getVector()[0] = 1.0;
+    solver.getVector()[1] = 1.0;
+    assertNull(solver.solveDToF());
+    // A is as it was
+    RealMatrix restored = solver.getMatrixAsRealMatrix();
+    for (int row = 0; row < 2; row++) {
+      assertArrayEquals(A.getRow(row), restored.getRow(row));
+    }
+    assertArrayEquals(new double[] {1.0, 1.0}, solver.getVector());
+  }
+
+  @Test
+  public void testSingular() {
+    RealMatrix A = new Array2DRowRealMatrix(new double[][] {{1.0, 1.0}, {1.0, 1.0}});
+    CholeskySolver solver = new CholeskySolver(2);
+    fillLowerTriangle(A, solver.getMatrix());
+    assertNull(solver.solveDToF());
+  }
+
+  private static void fillLowerTriangle(RealMatrix A, double[] to) {
+    int n = A.getRowDimension();
+    for (int row = 0; row < n; row++) {
+      for (int col = 0; col <= row; col++) {
+        to[row * n + col] = A.getEntry(row, col);
+      }
+    }
+  }
+
+  private static RealMatrix randomPositiveDefiniteMatrix(int dimension, RandomGenerator random) {
+    // MT * M + I is symmetric positive definite
+    RealMatrix M = new Array2DRowRealMatrix(dimension, dimension);
+    for (int row = 0; row < dimension; row++) {
+      for (int col = 0; col < dimension; col++) {
+        M.setEntry(row, col, random.nextGaussian());
+      }
+    }
+    RealMatrix A = M.transpose().multiply(M);
+    for (int i = 0; i < dimension; i++) {
+      A.addToEntry(i, i, 1.0);
+    }
+    return A;
+  }
+
+}
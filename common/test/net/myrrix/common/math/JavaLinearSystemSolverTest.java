@@ -0,0 +1,152 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.math;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.random.RandomManager;
+
+/**
+ * Tests {@link JavaLinearSystemSolver}.
+ */
+public final class JavaLinearSystemSolverTest extends MyrrixTest {
+
+  private final LinearSystemSolver solver = new JavaLinearSystemSolver();
+  private final LinearSystemSolver commonsMath = new CommonsMathLinearSystemSolver();
+
+  @Test
+  public void testPositiveDefiniteMatchesCommonsMath() {
+    RandomGenerator random = RandomManager.getRandom();
+    // Larger than one block
+    for (int dimension : new int[] {1, 10, 150}) {
+      RealMatrix A = randomPositiveDefiniteMatrix(dimension, random);
+      assertSameSolution(A, random);
+    }
+  }
+
+  @Test
+  public void testIndefiniteMatchesCommonsMath() {
+    RandomGenerator random = RandomManager.getRandom();
+    RealMatrix A = randomSymmetricMatrix(50, random);
+    assertSameSolution(A, random);
+  }
+
+  @Test(expected = SingularMatrixSolverException.class)
+  public void testSingular() {
+    solver.getSolver(new Array2DRowRealMatrix(new double[][] {{1.0, 1.0}, {1.0, 1.0}}));
+  }
+
+  @Test
+  public void testIsNonSingular() {
+    assertFalse(solver.isNonSingular(new Array2DRowRealMatrix(new double[][] {{1.0, 1.0}, {1.0, 1.0}})));
+    assertTrue(solver.isNonSingular(new Array2DRowRealMatrix(new double[][] {{1.0, 2.0}, {2.0, 1.0}})));
+  }
+
+  @Test
+  public void testSolveBatch() {
+    RandomGenerator random = RandomManager.getRandom();
+    int dimension = 8;
+    int count = 20;
+    double[] matrices = new double[count * dimension * dimension];
+    double[] vectors = new double[count * dimension];
+    RealMatrix[] As = new RealMatrix[count];
+    double[][] bs = new double[count][];
+    for (int i = 0; i < count; i++) {
+      // Every other one is not positive definite
+      As[i] = i % 2 == 0 ?
+          randomPositiveDefiniteMatrix(dimension, random) :
+          new Array2DRowRealMatrix(dimension, dimension).scalarAdd(-1.0);
+      bs[i] = randomVector(dimension, random);
+      for (int row = 0; row < dimension; row++) {
+        System.arraycopy(As[i].getRow(row), 0, matrices, (i * dimension + row) * dimension, dimension);
+      }
+      System.arraycopy(bs[i], 0, vectors, i * dimension, dimension);
+    }
+
+    boolean[] solved = JavaLinearSystemSolver.solveSymmetricPositiveDefinite(matrices, vectors, dimension);
+
+    for (int i = 0; i < count; i++) {
+      assertEquals(i % 2 == 0, solved[i]);
+      double[] expected = i % 2 == 0 ? commonsMath.getSolver(As[i]).solveFToD(toFloat(bs[i])) : bs[i];
+      for (int j = 0; j < dimension; j++) {
+        assertEquals(expected[j], vectors[i * dimension + j], 1.0e-4 * Math.max(1.0, Math.abs(expected[j])));
+      }
+    }
+  }
+
+  private void assertSameSolution(RealMatrix A, RandomGenerator random) {
+    int dimension = A.getRowDimension();
+    double[] b = randomVector(dimension, random);
+    float[] expected = commonsMath.getSolver(A).solveDToF(b);
+    float[] actual = solver.getSolver(A).solveDToF(b);
+    double[] actualD = solver.getSolver(A).solveFToD(toFloat(b));
+    for (int i = 0; i < dimension; i++) {
+      assertEquals(expected[i], actual[i], 1.0e-3f * Math.max(1.0f, Math.abs(expected[i])));
+      assertEquals(expected[i], actualD[i], 1.0e-3f * Math.max(1.0f, Math.abs(expected[i])));
+    }
+  }
+
+  private static float[] toFloat(double[] values) {
+    float[] result = new float[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = (float) values[i];
+    }
+    return result;
+  }
+
+  private static double[] randomVector(int dimension, RandomGenerator random) {
+    double[] b = new double[dimension];
+    for (int i = 0; i < dimension; i++) {
+      // Exactly representable as float, so that solveFToD sees the same vector
+      b[i] = (float) random.nextGaussian();
+    }
+    return b;
+  }
+
+  static RealMatrix randomPositiveDefiniteMatrix(int dimension, RandomGenerator random) {
+    // MT * M + I is symmetric positive definite
+    RealMatrix M = new Array2DRowRealMatrix(dimension, dimension);
+    for (int row = 0; row < dimension; row++) {
+      for (int col = 0; col < dimension; col++) {
+        M.setEntry(row, col, random.nextGaussian());
+      }
+    }
+    RealMatrix A = M.transpose().multiply(M);
+    for (int i = 0; i < dimension; i++) {
+      A.addToEntry(i, i, 1.0);
+    }
+    return A;
+  }
+
+  static RealMatrix randomSymmetricMatrix(int dimension, RandomGenerator random) {
+    RealMatrix symmetric = new Array2DRowRealMatrix(dimension, dimension);
+    for (int j = 0; j < dimension; j++) {
+      symmetric.setEntry(j, j, random.nextDouble());
+      for (int k = j + 1; k < dimension; k++) {
+        double d = random.nextDouble();
+        symmetric.setEntry(j, k, d);
+        symmetric.setEntry(k, j, d);
+      }
+    }
+    return symmetric;
+  }
+
+}
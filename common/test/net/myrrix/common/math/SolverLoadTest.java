@@ -51,6 +51,35 @@ public final class SolverLoadTest extends MyrrixTest {
     log.info("{}ms elapsed", elapsedMS);
     assertTrue(elapsedMS < 300 * iterations);
   }
+
+  @Test
+  public void testCompareToCommonsMath() {
+    RandomGenerator random = RandomManager.getRandom();
+    // Sizes of X'*X or Y'*Y for typical numbers of features
+    for (int dimension : new int[] {50, 200, 500}) {
+      RealMatrix positiveDefinite = JavaLinearSystemSolverTest.randomPositiveDefiniteMatrix(dimension, random);
+      RealMatrix symmetric = JavaLinearSystemSolverTest.randomSymmetricMatrix(dimension, random);
+      long javaPD = timeSolvers(new JavaLinearSystemSolver(), positiveDefinite);
+      long commonsPD = timeSolvers(new CommonsMathLinearSystemSolver(), positiveDefinite);
+      long javaSymmetric = timeSolvers(new JavaLinearSystemSolver(), symmetric);
+      long commonsSymmetric = timeSolvers(new CommonsMathLinearSystemSolver(), symmetric);
+      log.info("{} x {}: positive definite {}ms vs {}ms for Commons Math; indefinite {}ms vs {}ms",
+               dimension, dimension, javaPD, commonsPD, javaSymmetric, commonsSymmetric);
+    }
+  }
+
+  private static long timeSolvers(LinearSystemSolver solver, RealMatrix M) {
+    // Warm up
+    for (int i = 0; i < 3; i++) {
+      solver.getSolver(M);
+    }
+    Stopwatch stopwatch = new Stopwatch().start();
+    int iterations = 10;
+    for (int i = 0; i < iterations; i++) {
+      solver.getSolver(M);
+    }
+    return stopwatch.stop().elapsed(TimeUnit.MILLISECONDS);
+  }
   
   private static RealMatrix randomSymmetricMatrix(int dimension) {
     RandomGenerator random = RandomManager.getRandom();
@@ -0,0 +1,115 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.parallel;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+
+public final class AdaptiveConcurrencyLimitTest extends MyrrixTest {
+
+  private static final long MSEC = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void testAcquire() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10);
+    assertTrue(limit.tryAcquire());
+    assertTrue(limit.tryAcquire());
+    assertFalse(limit.tryAcquire());
+    assertEquals(2, limit.getInFlight());
+    limit.release(MSEC);
+    assertEquals(1, limit.getInFlight());
+    assertTrue(limit.tryAcquire());
+  }
+
+  @Test
+  public void testGrowsWhenSaturatedAndFast() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+    long now = System.nanoTime();
+    for (int window = 1; window <= 200; window++) {
+      now += 200 * MSEC;
+      runWindow(limit, MSEC, limit.getLimit(), now);
+    }
+    assertEquals(100, limit.getLimit());
+  }
+
+  @Test
+  public void testDoesNotGrowWhenIdle() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+    long now = System.nanoTime();
+    for (int window = 1; window <= 50; window++) {
+      now += 200 * MSEC;
+      runWindow(limit, MSEC, 2, now);
+    }
+    assertEquals(10, limit.getLimit());
+  }
+
+  @Test
+  public void testShrinksWhenSlow() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(50, 5, 100);
+    long now = System.nanoTime();
+    now += 200 * MSEC;
+    runWindow(limit, MSEC, 50, now);
+    // Latency well beyond tolerance of that without load
+    for (int window = 1; window <= 50; window++) {
+      now += 200 * MSEC;
+      runWindow(limit, 10 * MSEC, limit.getLimit(), now);
+    }
+    assertEquals(5, limit.getLimit());
+  }
+
+  @Test
+  public void testToleratesSomeLatency() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(50, 5, 100);
+    long now = System.nanoTime();
+    now += 200 * MSEC;
+    runWindow(limit, MSEC, 50, now);
+    for (int window = 1; window <= 50; window++) {
+      now += 200 * MSEC;
+      runWindow(limit, (long) (AdaptiveConcurrencyLimit.LATENCY_TOLERANCE * MSEC), limit.getLimit(), now);
+    }
+    assertTrue(limit.getLimit() >= 50);
+  }
+
+  @Test
+  public void testFollowsLatencyWhenIdle() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(50, 5, 100);
+    long now = System.nanoTime();
+    now += 200 * MSEC;
+    runWindow(limit, MSEC, 50, now);
+    // Slower from now on, but without load
+    for (int window = 1; window <= 50; window++) {
+      now += 200 * MSEC;
+      runWindow(limit, 10 * MSEC, 2, now);
+    }
+    // So the same latency under load is not a reason to shrink
+    for (int window = 1; window <= 50; window++) {
+      now += 200 * MSEC;
+      runWindow(limit, 10 * MSEC, limit.getLimit(), now);
+    }
+    assertTrue(limit.getLimit() >= 50);
+  }
+
+  private static void runWindow(AdaptiveConcurrencyLimit limit, long latencyNanos, int inFlight, long now) {
+    for (int i = 0; i < AdaptiveConcurrencyLimit.MIN_WINDOW_SAMPLES; i++) {
+      limit.sample(latencyNanos, inFlight, now);
+    }
+  }
+
+}
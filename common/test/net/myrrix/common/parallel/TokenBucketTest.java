@@ -0,0 +1,69 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.parallel;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+
+public final class TokenBucketTest extends MyrrixTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testBurst() {
+    long now = System.nanoTime();
+    TokenBucket bucket = new TokenBucket(3.0, 1.0, now);
+    assertTrue(bucket.tryAcquire(now));
+    assertTrue(bucket.tryAcquire(now));
+    assertTrue(bucket.tryAcquire(now));
+    assertFalse(bucket.tryAcquire(now));
+    assertEquals(SECOND, bucket.getNanosUntilAvailable(now));
+  }
+
+  @Test
+  public void testRefill() {
+    long now = System.nanoTime();
+    TokenBucket bucket = new TokenBucket(2.0, 4.0, now);
+    assertTrue(bucket.tryAcquire(now));
+    assertTrue(bucket.tryAcquire(now));
+    assertFalse(bucket.tryAcquire(now + SECOND / 8));
+    assertTrue(bucket.getNanosUntilAvailable(now + SECOND / 8) > 0L);
+    assertEquals(0L, bucket.getNanosUntilAvailable(now + SECOND / 4));
+    assertTrue(bucket.tryAcquire(now + SECOND / 4));
+    assertFalse(bucket.tryAcquire(now + SECOND / 4));
+  }
+
+  @Test
+  public void testCapacity() {
+    long now = System.nanoTime();
+    TokenBucket bucket = new TokenBucket(2.0, 10.0, now);
+    // A long idle time fills it only to capacity
+    long later = now + 100 * SECOND;
+    assertTrue(bucket.tryAcquire(later));
+    assertTrue(bucket.tryAcquire(later));
+    assertFalse(bucket.tryAcquire(later));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadRate() {
+    new TokenBucket(1.0, 0.0);
+  }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.random;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.math.SimpleVectorMath;
+
+/**
+ * Tests {@link RandomUtils}.
+ */
+public final class RandomUtilsTest extends MyrrixTest {
+
+  @Test
+  public void testOrthonormalVectors() {
+    RandomGenerator random = RandomManager.getRandom();
+    for (int dimensions : new int[] {1, 2, 10, 50}) {
+      float[][] vectors = RandomUtils.randomOrthonormalVectors(dimensions, random);
+      assertEquals(dimensions, vectors.length);
+      for (int i = 0; i < dimensions; i++) {
+        assertEquals(dimensions, vectors[i].length);
+        assertEquals(1.0, SimpleVectorMath.norm(vectors[i]), 1.0e-5);
+        for (int j = 0; j < i; j++) {
+          assertEquals(0.0, SimpleVectorMath.dot(vectors[i], vectors[j]), 1.0e-5);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testOrthonormalVectorsDiffer() {
+    RandomGenerator random = RandomManager.getRandom();
+    float[][] first = RandomUtils.randomOrthonormalVectors(10, random);
+    float[][] second = RandomUtils.randomOrthonormalVectors(10, random);
+    assertTrue(Math.abs(SimpleVectorMath.dot(first[0], second[0])) < 0.999);
+  }
+
+}
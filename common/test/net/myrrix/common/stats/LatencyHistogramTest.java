@@ -0,0 +1,104 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.stats;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.random.RandomManager;
+
+public final class LatencyHistogramTest extends MyrrixTest {
+
+  @Test
+  public void testBuckets() {
+    int lastIndex = -1;
+    for (long value = 0L; value < 100000L; value++) {
+      int index = LatencyHistogram.bucketIndex(value);
+      assertTrue(index == lastIndex || index == lastIndex + 1);
+      assertTrue(LatencyHistogram.lowestValueInBucket(index) <= value);
+      assertTrue(LatencyHistogram.highestValueInBucket(index) >= value);
+      lastIndex = index;
+    }
+    for (int index = 0; index < LatencyHistogram.NUM_BUCKETS; index++) {
+      assertEquals(index, LatencyHistogram.bucketIndex(LatencyHistogram.lowestValueInBucket(index)));
+      assertEquals(index, LatencyHistogram.bucketIndex(LatencyHistogram.highestValueInBucket(index)));
+    }
+    assertEquals(LatencyHistogram.NUM_BUCKETS - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0L, histogram.getCount());
+    assertTrue(Double.isNaN(histogram.getMean()));
+    assertEquals(0L, histogram.getQuantile(0.99));
+  }
+
+  @Test
+  public void testSmallValuesExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= LatencyHistogram.SUB_BUCKETS; i++) {
+      histogram.add(i);
+    }
+    assertEquals(LatencyHistogram.SUB_BUCKETS, histogram.getCount());
+    assertEquals(LatencyHistogram.SUB_BUCKETS / 2, histogram.getQuantile(0.5));
+    assertEquals(LatencyHistogram.SUB_BUCKETS, histogram.getQuantile(1.0));
+    assertEquals(LatencyHistogram.SUB_BUCKETS, histogram.getMax());
+    assertEquals((LatencyHistogram.SUB_BUCKETS + 1) / 2.0, histogram.getMean());
+  }
+
+  @Test
+  public void testQuantiles() {
+    RandomGenerator random = RandomManager.getRandom();
+    LatencyHistogram histogram = new LatencyHistogram();
+    long[] values = new long[100000];
+    for (int i = 0; i < values.length; i++) {
+      // Long-tailed, like latencies
+      values[i] = (long) Math.exp(5.0 + 2.0 * random.nextGaussian());
+      histogram.add(values[i]);
+    }
+    Arrays.sort(values);
+    for (double quantile : new double[] {0.5, 0.9, 0.95, 0.99, 0.999}) {
+      long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+      long approximate = histogram.getQuantile(quantile);
+      assertTrue(approximate >= exact);
+      assertTrue(approximate <= exact * (1.0 + 1.0 / LatencyHistogram.SUB_BUCKETS));
+    }
+    assertEquals(values[values.length - 1], histogram.getMax());
+    assertEquals(values[values.length - 1], histogram.getQuantile(1.0));
+  }
+
+  @Test
+  public void testAddHistogram() {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    a.add(10L);
+    b.add(1000L);
+    b.add(2000L);
+    a.add(b);
+    assertEquals(3L, a.getCount());
+    assertEquals(2000L, a.getMax());
+    assertEquals(10L, a.getQuantile(0.3));
+    a.clear();
+    assertEquals(0L, a.getCount());
+    assertEquals(0L, a.getQuantile(0.5));
+  }
+
+}
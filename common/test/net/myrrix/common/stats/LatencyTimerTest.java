@@ -0,0 +1,46 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.stats;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+
+public final class LatencyTimerTest extends MyrrixTest {
+
+  @Test
+  public void testRecord() {
+    LatencyTimer timer = new LatencyTimer();
+    timer.addNanosec(TimeUnit.MILLISECONDS.toNanos(3));
+    timer.addNanosec(TimeUnit.MILLISECONDS.toNanos(5));
+    assertEquals(2L, timer.getAllTime().getCount());
+    LatencyHistogram recent = timer.getRecent();
+    assertEquals(2L, recent.getCount());
+    assertEquals(5000L, recent.getMax());
+    assertTrue(timer.getRecentSeconds() <= LatencyTimer.INTERVAL_SEC);
+  }
+
+  @Test
+  public void testNamed() {
+    LatencyTimer timer = LatencyTimer.forName("test.timer");
+    assertSame(timer, LatencyTimer.forName("test.timer"));
+    assertSame(timer, LatencyTimer.getNamedTimers().get("test.timer"));
+  }
+
+}
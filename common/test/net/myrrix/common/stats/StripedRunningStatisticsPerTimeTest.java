@@ -0,0 +1,125 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.common.stats;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+
+public final class StripedRunningStatisticsPerTimeTest extends MyrrixTest {
+
+  @Test
+  public void testInit() {
+    StripedRunningStatisticsPerTime perTime = new StripedRunningStatisticsPerTime(TimeUnit.MINUTES);
+    assertTrue(Double.isNaN(perTime.getMin()));
+    assertTrue(Double.isNaN(perTime.getMax()));
+    assertTrue(Double.isNaN(perTime.getMean()));
+    assertEquals(0L, perTime.getCount());
+  }
+
+  @Test
+  public void testOneBucket() {
+    StripedRunningStatisticsPerTime perTime = new StripedRunningStatisticsPerTime(TimeUnit.MINUTES);
+    perTime.increment(1.2);
+    assertEquals(1.2, perTime.getMin());
+    assertEquals(1.2, perTime.getMax());
+    assertEquals(1.2, perTime.getMean());
+    assertEquals(1L, perTime.getCount());
+  }
+
+  @Test
+  public void testRoll() {
+    StripedRunningStatisticsPerTime perTime = new StripedRunningStatisticsPerTime(TimeUnit.MINUTES, 4);
+    long start = 1000000000L;
+    perTime.increment(1.2, start);
+
+    assertEquals(1.2, perTime.getMin(start));
+    assertEquals(1.2, perTime.getMax(start));
+    assertEquals(1.2, perTime.getMean(start));
+    assertEquals(1L, perTime.getCount(start));
+
+    perTime.increment(2.0, start + 2000L);
+
+    assertEquals(1.2, perTime.getMin(start + 2000L));
+    assertEquals(2.0, perTime.getMax(start + 2000L));
+    assertEquals(1.6, perTime.getMean(start + 2000L));
+    assertEquals(2L, perTime.getCount(start + 2000L));
+
+    long later = start + 61000L;
+    assertEquals(2.0, perTime.getMin(later));
+    assertEquals(2.0, perTime.getMax(later));
+    assertEquals(2.0, perTime.getMean(later));
+    assertEquals(1L, perTime.getCount(later));
+
+    // Reuses the first value's bucket
+    perTime.increment(3.0, start + 60000L);
+    assertEquals(2.0, perTime.getMin(later));
+    assertEquals(3.0, perTime.getMax(later));
+    assertEquals(2.5, perTime.getMean(later));
+    assertEquals(2L, perTime.getCount(later));
+
+    later = start + 121000L;
+    assertTrue(Double.isNaN(perTime.getMin(later)));
+    assertTrue(Double.isNaN(perTime.getMax(later)));
+    assertTrue(Double.isNaN(perTime.getMean(later)));
+    assertEquals(0L, perTime.getCount(later));
+  }
+
+  @Test
+  public void testConcurrent() throws Exception {
+    final StripedRunningStatisticsPerTime perTime = new StripedRunningStatisticsPerTime(TimeUnit.MINUTES, 2);
+    final int numThreads = 8;
+    final int perThread = 100000;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      Collection<Callable<Object>> tasks = Lists.newArrayListWithCapacity(numThreads);
+      for (int i = 0; i < numThreads; i++) {
+        final int thread = i;
+        tasks.add(new Callable<Object>() {
+          @Override
+          public Object call() {
+            // Crosses many bucket boundaries, making writers race to reset cells
+            long start = 1000000000L;
+            for (int j = 0; j < perThread; j++) {
+              perTime.increment(thread, start + j / 10);
+            }
+            return null;
+          }
+        });
+      }
+      for (Future<Object> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    long end = 1000000000L + perThread / 10;
+    assertEquals((long) numThreads * perThread, perTime.getCount(end));
+    assertEquals(0.0, perTime.getMin(end));
+    assertEquals(numThreads - 1.0, perTime.getMax(end));
+    assertEquals((numThreads - 1) / 2.0, perTime.getMean(end));
+  }
+
+}
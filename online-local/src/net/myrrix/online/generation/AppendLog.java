@@ -0,0 +1,398 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.generation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.myrrix.common.io.Varint;
+
+/**
+ * <p>A binary log of new input, written in the local input directory. Each record has a one-byte type
+ * ({@link #PREFERENCE}, {@link #ITEM_TAG}, {@link #USER_TAG} or {@link #REMOVE}), user and item ID as
+ * signed variable-length longs, and, except for removes, the value as a 4-byte {@code float}. Tags are
+ * recorded by their hashed ID. Files start with {@link #MAGIC} and end in {@link #SUFFIX}.</p>
+ *
+ * <p>Callers of {@link #append(byte, long, long, float)} claim a slot in a ring buffer without locking.
+ * A single writer thread drains all records published so far and writes them to the file at once
+ * ("group commit"). What happens then depends on {@code model.local.appendLog.syncPolicy}:</p>
+ *
+ * <ul>
+ *   <li>{@code NONE} (default): each group commit is written to the OS, and synced only on roll and close</li>
+ *   <li>{@code BACKGROUND}: each group commit is also synced to disk, but callers don't wait for it</li>
+ *   <li>{@code DURABLE}: like {@code BACKGROUND}, but {@code append} returns only once its record is synced</li>
+ * </ul>
+ *
+ * <p>The ring buffer holds {@code model.local.appendLog.bufferSize} records (default 65536).</p>
+ */
+final class AppendLog implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(AppendLog.class);
+
+  /** Starts every log file. */
+  static final int MAGIC = 0x4D594C47; // "MYLG"
+  /** Suffix of log files. */
+  static final String SUFFIX = ".binlog";
+
+  static final byte PREFERENCE = 0;
+  /** "User" is really an item tag. */
+  static final byte ITEM_TAG = 1;
+  /** "Item" is really a user tag. */
+  static final byte USER_TAG = 2;
+  static final byte REMOVE = 3;
+
+  enum SyncPolicy {
+    NONE,
+    BACKGROUND,
+    DURABLE,
+  }
+
+  private static final SyncPolicy SYNC_POLICY =
+      SyncPolicy.valueOf(System.getProperty("model.local.appendLog.syncPolicy", SyncPolicy.NONE.name()));
+  private static final int BUFFER_SIZE =
+      Integer.parseInt(System.getProperty("model.local.appendLog.bufferSize", "65536"));
+  static {
+    Preconditions.checkArgument(BUFFER_SIZE > 0 && Integer.bitCount(BUFFER_SIZE) == 1,
+                                "Bad model.local.appendLog.bufferSize: %s", BUFFER_SIZE);
+  }
+
+  private static final long WRITER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long APPENDER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  /** Set in {@link #nextSequence} once closed; sequences claimed after that are refused */
+  private static final long CLOSED = 1L << 62;
+
+  private final File file;
+  private final SyncPolicy syncPolicy;
+  private final int mask;
+  private final byte[] types;
+  private final long[] userIDs;
+  private final long[] itemIDs;
+  private final float[] values;
+  /** Sequence number of the record last published in each slot */
+  private final AtomicLongArray published;
+  /** Next sequence number to claim, plus {@link #CLOSED} once closed */
+  private final AtomicLong nextSequence;
+  /** Sequence number that was next to claim when closed; all records before it are written */
+  private volatile long closeSequence;
+  /** All records before this have been taken out of the ring buffer */
+  private volatile long consumed;
+  /** All records before this have been written, and synced as the policy requires */
+  private volatile long committed;
+  private volatile boolean writerParked;
+  private volatile IOException failure;
+  private volatile boolean closing;
+  private volatile File rollTo;
+  private long rollUpTo;
+  private boolean rolled;
+  private final Object commitLock;
+  private final Thread writerThread;
+
+  // Only used by writer thread
+  private FileOutputStream out;
+  private long recordsInFile;
+  private final ByteArrayOutputStream batchBytes;
+  private final DataOutputStream batchOut;
+
+  /**
+   * @param file file to log to; if it exists, it is overwritten
+   */
+  AppendLog(File file) throws IOException {
+    this(file, SYNC_POLICY, BUFFER_SIZE);
+  }
+
+  AppendLog(File file, SyncPolicy syncPolicy, int bufferSize) throws IOException {
+    Preconditions.checkArgument(bufferSize > 0 && Integer.bitCount(bufferSize) == 1,
+                                "Buffer size must be a power of 2: %s", bufferSize);
+    this.file = file;
+    this.syncPolicy = syncPolicy;
+    mask = bufferSize - 1;
+    types = new byte[bufferSize];
+    userIDs = new long[bufferSize];
+    itemIDs = new long[bufferSize];
+    values = new float[bufferSize];
+    published = new AtomicLongArray(bufferSize);
+    for (int i = 0; i < bufferSize; i++) {
+      published.set(i, -1L);
+    }
+    nextSequence = new AtomicLong();
+    commitLock = new Object();
+    batchBytes = new ByteArrayOutputStream(1 << 16);
+    batchOut = new DataOutputStream(batchBytes);
+    openFile();
+    writerThread = new Thread(new Writer(), "AppendLog-" + file.getName());
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * @param type one of {@link #PREFERENCE}, {@link #ITEM_TAG}, {@link #USER_TAG} or {@link #REMOVE}
+   * @param userID user ID, or hashed item tag
+   * @param itemID item ID, or hashed user tag
+   * @param value association strength; ignored for {@link #REMOVE}
+   * @throws IOException if the log has failed or was closed
+   */
+  void append(byte type, long userID, long itemID, float value) throws IOException {
+    if (failure != null) {
+      throw new IOException("Append log failed", failure);
+    }
+    // Claiming decides whether this record is before or after the close, atomically
+    long sequence = nextSequence.getAndIncrement();
+    if ((sequence & CLOSED) != 0) {
+      throw new IOException("Append log is closed");
+    }
+    int capacity = mask + 1;
+    while (sequence - consumed >= capacity) {
+      // Full; wait for writer to catch up. The sequence is claimed, so it must be published even if closing.
+      if (failure != null) {
+        throw new IOException("Append log failed", failure);
+      }
+      wakeWriter();
+      LockSupport.parkNanos(this, APPENDER_PARK_NANOS);
+    }
+    int slot = (int) sequence & mask;
+    types[slot] = type;
+    userIDs[slot] = userID;
+    itemIDs[slot] = itemID;
+    values[slot] = value;
+    published.set(slot, sequence); // Volatile write makes the slot visible to the writer
+    if (writerParked) {
+      wakeWriter();
+    }
+    if (syncPolicy == SyncPolicy.DURABLE) {
+      awaitCommitted(sequence + 1);
+    }
+  }
+
+  /**
+   * Waits until everything appended so far has been written to the OS, or synced if the policy requires.
+   */
+  void flush() throws IOException {
+    awaitCommitted(nextSequence.get() & ~CLOSED);
+  }
+
+  /**
+   * Finishes the current log file with everything appended so far and starts a new one. The finished file
+   * is moved to the given location if it contains any records, or else it is discarded.
+   *
+   * @param rolledFile where to move the current log file
+   * @return true iff the log file had records and was moved
+   */
+  synchronized boolean roll(File rolledFile) throws IOException {
+    checkUsable();
+    synchronized (commitLock) {
+      rollTo = rolledFile;
+      rollUpTo = nextSequence.get() & ~CLOSED;
+      rolled = false;
+    }
+    wakeWriter();
+    synchronized (commitLock) {
+      while (rollTo != null) {
+        checkUsable();
+        try {
+          commitLock.wait(TimeUnit.NANOSECONDS.toMillis(WRITER_PARK_NANOS));
+        } catch (InterruptedException ie) {
+          throw new IOException(ie);
+        }
+      }
+      return rolled;
+    }
+  }
+
+  /**
+   * Writes everything appended so far and closes the file. The file is deleted if it has no records.
+   * Appends that claimed a sequence number before this are written; later ones fail.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closing) {
+      return;
+    }
+    closeSequence = nextSequence.getAndAdd(CLOSED);
+    closing = true; // Written after closeSequence, so the writer sees the final value
+    wakeWriter();
+    try {
+      writerThread.join();
+    } catch (InterruptedException ie) {
+      throw new IOException(ie);
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void checkUsable() throws IOException {
+    if (failure != null) {
+      throw new IOException("Append log failed", failure);
+    }
+    if (closing) {
+      throw new IOException("Append log is closed");
+    }
+  }
+
+  private void wakeWriter() {
+    LockSupport.unpark(writerThread);
+  }
+
+  private void awaitCommitted(long sequence) throws IOException {
+    if (committed >= sequence) {
+      return;
+    }
+    wakeWriter();
+    synchronized (commitLock) {
+      while (committed < sequence) {
+        if (failure != null) {
+          throw new IOException("Append log failed", failure);
+        }
+        try {
+          commitLock.wait(TimeUnit.NANOSECONDS.toMillis(WRITER_PARK_NANOS));
+        } catch (InterruptedException ie) {
+          throw new IOException(ie);
+        }
+      }
+    }
+  }
+
+  private void openFile() throws IOException {
+    out = new FileOutputStream(file, false);
+    DataOutputStream header = new DataOutputStream(out);
+    header.writeInt(MAGIC);
+    header.flush();
+    recordsInFile = 0;
+  }
+
+  private void closeFile() throws IOException {
+    out.getFD().sync();
+    out.close();
+    out = null;
+  }
+
+  private final class Writer implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          boolean wroteAny = writeBatch();
+          File theRollTo;
+          long theRollUpTo;
+          synchronized (commitLock) {
+            commitLock.notifyAll();
+            theRollTo = rollTo;
+            theRollUpTo = rollUpTo;
+          }
+          if (theRollTo != null && committed >= theRollUpTo) {
+            boolean moved = doRoll(theRollTo);
+            synchronized (commitLock) {
+              rolled = moved;
+              rollTo = null;
+              commitLock.notifyAll();
+            }
+            continue;
+          }
+          if (closing && committed >= closeSequence) {
+            boolean hadRecords = recordsInFile > 0;
+            closeFile();
+            if (!hadRecords && file.exists() && !file.delete()) {
+              log.warn("Could not delete {}", file);
+            }
+            return;
+          }
+          if (!wroteAny) {
+            writerParked = true;
+            // Check again after advertising that the writer is about to park, to not miss a wake up
+            if (published.get((int) consumed & mask) != consumed && rollTo == null && !closing) {
+              LockSupport.parkNanos(this, WRITER_PARK_NANOS);
+            }
+            writerParked = false;
+          }
+        }
+      } catch (IOException ioe) {
+        log.warn("Append log failed; new data can't be recorded", ioe);
+        failure = ioe;
+      } catch (RuntimeException re) {
+        log.warn("Append log failed; new data can't be recorded", re);
+        failure = new IOException(re);
+      } finally {
+        synchronized (commitLock) {
+          commitLock.notifyAll();
+        }
+      }
+    }
+
+    /**
+     * @return true if any records were written
+     */
+    private boolean writeBatch() throws IOException {
+      long sequence = consumed;
+      long start = sequence;
+      int capacity = mask + 1;
+      batchBytes.reset();
+      while (sequence - start < capacity) {
+        int slot = (int) sequence & mask;
+        if (published.get(slot) != sequence) {
+          break;
+        }
+        byte type = types[slot];
+        batchOut.writeByte(type);
+        Varint.writeSignedVarLong(userIDs[slot], batchOut);
+        Varint.writeSignedVarLong(itemIDs[slot], batchOut);
+        if (type != REMOVE) {
+          batchOut.writeFloat(values[slot]);
+        }
+        sequence++;
+      }
+      if (sequence == start) {
+        return false;
+      }
+      // Slots can be reused now that their content is copied out
+      consumed = sequence;
+      batchOut.flush();
+      batchBytes.writeTo(out);
+      if (syncPolicy != SyncPolicy.NONE) {
+        out.getFD().sync();
+      }
+      recordsInFile += sequence - start;
+      committed = sequence;
+      return true;
+    }
+
+    private boolean doRoll(File rolledFile) throws IOException {
+      boolean hadRecords = recordsInFile > 0;
+      closeFile();
+      if (hadRecords) {
+        Files.move(file, rolledFile);
+      }
+      openFile();
+      return hadRecords;
+    }
+
+  }
+
+}
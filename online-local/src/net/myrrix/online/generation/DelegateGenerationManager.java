@@ -19,8 +19,6 @@ package net.myrrix.online.generation;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectStreamException;
-import java.io.Writer;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -29,7 +27,10 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.Lock;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.mahout.cf.taste.model.IDMigrator;
@@ -45,8 +46,11 @@ import net.myrrix.common.collection.FastByIDFloatMap;
 import net.myrrix.common.collection.FastByIDMap;
 import net.myrrix.common.collection.FastIDSet;
 import net.myrrix.common.io.IOUtils;
+import net.myrrix.common.stats.LatencyTimer;
+import net.myrrix.online.factorizer.CompressedSparseMatrix;
 import net.myrrix.online.factorizer.MatrixFactorizer;
 import net.myrrix.online.factorizer.als.AlternatingLeastSquares;
+import net.myrrix.online.factorizer.als.ConjugateGradientAlternatingLeastSquares;
 
 /**
  * <p>Manages one generation of the underlying recommender model. Input is read from a local file system,
@@ -67,18 +71,53 @@ public final class DelegateGenerationManager implements GenerationManager {
                                 "Bad model.local.writesBetweenRebuild: %s", WRITES_BETWEEN_REBUILD);
   }
 
+  /**
+   * If true, rebuilds after the first recompute only the parts of the model affected by new input,
+   * starting from the current model, with a full rebuild after {@link #INCREMENTAL_REBUILDS_BETWEEN_FULL}
+   * incremental ones, or once {@link #INCREMENTAL_MAX_DRIFT} of users and items have been recomputed.
+   */
+  private static final boolean INCREMENTAL =
+      Boolean.parseBoolean(System.getProperty("model.local.incremental", "false"));
+  private static final int INCREMENTAL_REBUILDS_BETWEEN_FULL;
+  private static final double INCREMENTAL_MAX_DRIFT;
+  static {
+    INCREMENTAL_REBUILDS_BETWEEN_FULL =
+        Integer.parseInt(System.getProperty("model.local.incremental.rebuildsBetweenFull", "10"));
+    Preconditions.checkArgument(INCREMENTAL_REBUILDS_BETWEEN_FULL >= 0,
+                                "Bad model.local.incremental.rebuildsBetweenFull: %s",
+                                INCREMENTAL_REBUILDS_BETWEEN_FULL);
+    INCREMENTAL_MAX_DRIFT = Double.parseDouble(System.getProperty("model.local.incremental.maxDrift", "0.1"));
+    Preconditions.checkArgument(INCREMENTAL_MAX_DRIFT > 0.0 && INCREMENTAL_MAX_DRIFT <= 1.0,
+                                "Bad model.local.incremental.maxDrift: %s", INCREMENTAL_MAX_DRIFT);
+  }
+
+  private static final LatencyTimer REBUILD_TIMER = LatencyTimer.forName("rebuild");
+  private static final LatencyTimer REBUILD_READ_TIMER = LatencyTimer.forName("rebuild.read");
+  private static final LatencyTimer REBUILD_FACTORIZE_TIMER = LatencyTimer.forName("rebuild.factorize");
+  private static final LatencyTimer REBUILD_LOAD_TIMER = LatencyTimer.forName("rebuild.load");
+
   private final File inputDir;
-  private final File modelFile;
+  private final GenerationSnapshots snapshots;
+  private final InputSnapshot inputSnapshot;
   private final File appendFile;
-  private Writer appender;
+  private final File checkpointFile;
+  private final AppendLog appender;
   private Generation currentGeneration;
   private final FastIDSet recentlyActiveUsers;
   private final FastIDSet recentlyActiveItems;
+  /** Users and items with new input since the last refresh started; guarded by this */
+  private FastIDSet changedUsers;
+  private FastIDSet changedItems;
+  /** Incremental rebuilds allowed before the next full one; only accessed by the refresh thread */
+  private int incrementalRebuildsUntilFull;
+  /** Users and items recomputed by incremental rebuilds since the last full one */
+  private long changedSinceFull;
   private final IDMigrator hasher;
   private final GenerationLoader loader;  
   private int countdownToRebuild;
   private final ExecutorService refreshExecutor;
   private final Semaphore refreshSemaphore;
+  private final ExecutorService inputSnapshotExecutor;
 
   /**
    * @param localInputDir local work directory from which input is read,
@@ -112,11 +151,17 @@ public final class DelegateGenerationManager implements GenerationManager {
       throw new FileNotFoundException(inputDir.toString());
     }
 
-    modelFile = new File(inputDir, "model.bin.gz");
-    appendFile = new File(inputDir, "append.bin.gz");
+    snapshots = new GenerationSnapshots(inputDir);
+    inputSnapshot = new InputSnapshot(inputDir);
+    appendFile = new File(inputDir, "append" + AppendLog.SUFFIX);
+    checkpointFile = new File(inputDir, "als.checkpoint.bin");
+    recoverAppendFiles();
+    appender = new AppendLog(appendFile);
 
     recentlyActiveUsers = new FastIDSet();
     recentlyActiveItems = new FastIDSet();
+    changedUsers = new FastIDSet();
+    changedItems = new FastIDSet();
     hasher = new OneWayMigrator();
     
     loader = new GenerationLoader(recentlyActiveUsers, recentlyActiveItems, this);
@@ -125,6 +170,8 @@ public final class DelegateGenerationManager implements GenerationManager {
     refreshExecutor = Executors.newSingleThreadExecutor(
         new ThreadFactoryBuilder().setDaemon(true).setNameFormat("LocalGenerationManager-%d").build());
     refreshSemaphore = new Semaphore(1);
+    inputSnapshotExecutor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("LocalInputSnapshot-%d").build());
     refresh();
   }
 
@@ -148,45 +195,42 @@ public final class DelegateGenerationManager implements GenerationManager {
 
   @Override
   public void append(long userID, long itemID, float value, boolean bulk) throws IOException {
-    StringBuilder line = new StringBuilder(32);
-    line.append(userID).append(',').append(itemID).append(',').append(value).append('\n');
-    doAppend(line, userID, itemID, bulk);
+    doAppend(AppendLog.PREFERENCE, userID, itemID, value, bulk);
   }
   
   @Override
   public void appendUserTag(long userID, String tag, float value, boolean bulk) throws IOException {
-    StringBuilder line = new StringBuilder(32);
-    line.append(userID).append(",\"").append(tag).append("\",").append(value).append('\n');
     long itemID = hasher.toLongID(tag);
-    doAppend(line, userID, itemID, bulk);
+    doAppend(AppendLog.USER_TAG, userID, itemID, value, bulk);
   }
   
   @Override
   public void appendItemTag(String tag, long itemID, float value, boolean bulk) throws IOException {
-    StringBuilder line = new StringBuilder(32);
-    line.append('"').append(tag).append("\",").append(itemID).append(',').append(value).append('\n');
     long userID = hasher.toLongID(tag);
-    doAppend(line, userID, itemID, bulk);
+    doAppend(AppendLog.ITEM_TAG, userID, itemID, value, bulk);
   }
 
   @Override
   public void remove(long userID, long itemID, boolean bulk) throws IOException {
-    StringBuilder line = new StringBuilder(32);
-    line.append(userID).append(',').append(itemID).append(",\n");
-    doAppend(line, userID, itemID, bulk);
+    doAppend(AppendLog.REMOVE, userID, itemID, Float.NaN, bulk);
   }
   
-  private synchronized void doAppend(CharSequence line, long userID, long itemID, boolean bulk) throws IOException {
-    if (appender != null) {
-      appender.append(line);
+  private void doAppend(byte type, long userID, long itemID, float value, boolean bulk) throws IOException {
+    // Doesn't need the lock below
+    appender.append(type, userID, itemID, value);
+    synchronized (this) {
+      recentlyActiveUsers.add(userID);
+      recentlyActiveItems.add(itemID);
+      if (INCREMENTAL) {
+        changedUsers.add(userID);
+        changedItems.add(itemID);
+      }
+      maybeRefresh(bulk);
     }
-    recentlyActiveUsers.add(userID);
-    recentlyActiveItems.add(itemID);
-    maybeRefresh(bulk);
   }
 
   @Override
-  public synchronized void bulkDone() throws IOException {
+  public void bulkDone() throws IOException {
     appender.flush();
     maybeRefresh(false);
   }
@@ -198,23 +242,46 @@ public final class DelegateGenerationManager implements GenerationManager {
     }
   }
 
-  private synchronized void closeAppender() throws IOException {
-    if (appender != null) {
-      try {
-        appender.close(); // Want to know of output stream close failed -- maybe failed to write
-      } catch (IOException ioe) {
-        // But proceed anyway with what was written
-        log.warn("Failed to close appender cleanly", ioe);
+  /**
+   * Moves data logged so far into a new input file, named like "[timestamp].binlog", and continues
+   * logging into an empty file.
+   *
+   * @return the new input file, or {@code null} if nothing had been logged
+   */
+  private File rollAppender() throws IOException {
+    File rolledFile = new File(inputDir, System.currentTimeMillis() + AppendLog.SUFFIX);
+    if (!appender.roll(rolledFile)) {
+      log.info("Append log has no new data");
+      return null;
+    }
+    return rolledFile;
+  }
+
+  /**
+   * Moves aside logged data left by an unclean shutdown, including in the older gzipped CSV format.
+   */
+  private void recoverAppendFiles() throws IOException {
+    // An empty log, with just a header, would only change the input version and so invalidate a checkpoint
+    if (appendFile.exists() && appendFile.length() <= 4L) {
+      if (!appendFile.delete()) {
+        log.warn("Could not delete {}", appendFile);
       }
-      if (appendFile.exists()) {
-        if (IOUtils.isGZIPFileEmpty(appendFile)) {
-          log.info("File appears to have no data, deleting: {}", appendFile);
-          if (!appendFile.delete()) {
-            log.warn("Could not delete {}", appendFile);
-          }
-        } else {
-          Files.move(appendFile, new File(inputDir, System.currentTimeMillis() + ".csv.gz"));
+    }
+    if (appendFile.exists()) {
+      File rolledFile = new File(inputDir, System.currentTimeMillis() + AppendLog.SUFFIX);
+      log.info("Recovering {} as {}", appendFile, rolledFile);
+      Files.move(appendFile, rolledFile);
+    }
+    File oldAppendFile = new File(inputDir, "append.bin.gz");
+    if (oldAppendFile.exists()) {
+      if (IOUtils.isGZIPFileEmpty(oldAppendFile)) {
+        if (!oldAppendFile.delete()) {
+          log.warn("Could not delete {}", oldAppendFile);
         }
+      } else {
+        File rolledFile = new File(inputDir, System.currentTimeMillis() + ".csv.gz");
+        log.info("Recovering {} as {}", oldAppendFile, rolledFile);
+        Files.move(oldAppendFile, rolledFile);
       }
     }
   }
@@ -222,19 +289,16 @@ public final class DelegateGenerationManager implements GenerationManager {
   @Override
   public void close() throws IOException {
     ExecutorUtils.shutdownNowAndAwait(refreshExecutor);
-    closeAppender();
+    ExecutorUtils.shutdownNowAndAwait(inputSnapshotExecutor);
+    try {
+      rollAppender();
+    } finally {
+      appender.close();
+    }
   }
 
   @Override
   public synchronized void refresh() {
-    try {
-      if (appender != null) {
-        appender.flush();
-      }
-    } catch (IOException e) {
-      log.warn("Exception while flushing", e);
-    }
-
     if (refreshSemaphore.tryAcquire()) {
       refreshExecutor.submit(new RefreshCallable());
     } else {
@@ -247,61 +311,61 @@ public final class DelegateGenerationManager implements GenerationManager {
     return currentGeneration;
   }
 
-  /**
-   * Reads an existing model file from a file, or null if it is valid but out of date, needing rebuild.
-   *
-   * @see #saveModel(Generation, File)
-   */
-  private Generation readModel() throws IOException {
-    log.info("Reading model from {}", modelFile);
-    try {
-      return GenerationSerializer.readGeneration(modelFile);
-    } catch (ObjectStreamException ose) {
-      log.warn("Model file was not readable, rebuilding", ose);
-      return null;
+  private final class WriteInputSnapshotCallable implements Callable<Void> {
+
+    private final File[] inputFiles;
+    private final CompressedSparseMatrix R;
+    private final FastByIDMap<FastByIDFloatMap> removedByRow;
+    private final FastIDSet itemTagIDs;
+    private final FastIDSet userTagIDs;
+
+    private WriteInputSnapshotCallable(File[] inputFiles,
+                                       CompressedSparseMatrix R,
+                                       FastByIDMap<FastByIDFloatMap> removedByRow,
+                                       FastIDSet itemTagIDs,
+                                       FastIDSet userTagIDs) {
+      this.inputFiles = inputFiles;
+      this.R = R;
+      this.removedByRow = removedByRow;
+      this.itemTagIDs = itemTagIDs;
+      this.userTagIDs = userTagIDs;
     }
-  }
 
-  /**
-   * Saves a model (as a {@link Generation} to a given file.
-   *
-   * @see #readModel()
-   */
-  private static void saveModel(Generation generation, File modelFile) throws IOException {
-
-    File newModelFile = File.createTempFile(DelegateGenerationManager.class.getSimpleName(), ".bin.gz");
-    log.info("Writing model to {}", newModelFile);
-
-    try {
-      GenerationSerializer.writeGeneration(generation, newModelFile);
-    } catch (IOException ioe) {
-      if (newModelFile.exists() && !newModelFile.delete()) {
-        log.warn("Could not delete {}", newModelFile);
+    @Override
+    public Void call() {
+      try {
+        inputSnapshot.write(inputFiles, R, removedByRow, itemTagIDs, userTagIDs);
+      } catch (Throwable t) {
+        log.warn("Unable to write input snapshot", t);
       }
-      throw ioe;
-    }
-
-    log.info("Done, moving into place at {}", modelFile);
-    if (modelFile.exists() && !modelFile.delete()) {
-      log.warn("Could not delete old {}", modelFile);
+      return null;
     }
-    Files.move(newModelFile, modelFile);
   }
 
   private final class RefreshCallable implements Callable<Void> {
     @Override
     public Void call() {
+      long start = System.nanoTime();
       try {
 
+        // Taken before the input is rolled, so that all of its input is in the files read below
+        FastIDSet changedUserIDs;
+        FastIDSet changedItemIDs;
         synchronized (DelegateGenerationManager.this) {
-          closeAppender();
-          // A small buffer is needed here, but GZIPOutputStream already provides a substantial native buffer
-          appender = IOUtils.buildGZIPWriter(appendFile);
+          changedUserIDs = changedUsers;
+          changedItemIDs = changedItems;
+          changedUsers = new FastIDSet();
+          changedItems = new FastIDSet();
         }
+        // Unless this rebuild succeeds, what changed is lost, so the next must be full
+        int allowedIncrementalRebuilds = incrementalRebuildsUntilFull;
+        incrementalRebuildsUntilFull = 0;
+
+        File rolledFile = rollAppender();
 
         try {
-          if (currentGeneration == null && modelFile.exists()) {
-            currentGeneration = readModel();
+          if (currentGeneration == null && snapshots.exists()) {
+            currentGeneration = snapshots.read();
           }
           
           Generation theCurrentGeneration = currentGeneration;
@@ -326,20 +390,53 @@ public final class DelegateGenerationManager implements GenerationManager {
           } else {
             knownItemIDs = new FastByIDMap<FastIDSet>(10000);
           }
+          // R is read only by row; the compact form made from it is all that is kept
           FastByIDMap<FastByIDFloatMap> RbyRow = new FastByIDMap<FastByIDFloatMap>(10000);
-          FastByIDMap<FastByIDFloatMap> RbyColumn = new FastByIDMap<FastByIDFloatMap>(10000);
           FastIDSet itemTagIDs = new FastIDSet(1000);
           FastIDSet userTagIDs = new FastIDSet(1000);
-          InputFilesReader.readInputFiles(knownItemIDs, RbyRow, RbyColumn, itemTagIDs, userTagIDs, inputDir);
+          long readStart = System.nanoTime();
+          File[] inputFiles = InputFilesReader.listInputFiles(inputDir);
+          List<File> newInputFiles =
+              inputSnapshot.read(knownItemIDs, RbyRow, null, itemTagIDs, userTagIDs, inputFiles);
+          InputFilesReader.readInputFiles(knownItemIDs, RbyRow, null, itemTagIDs, userTagIDs, newInputFiles);
+          FastByIDMap<FastByIDFloatMap> removedByRow = InputFilesReader.removeSmall(RbyRow, null);
+          CompressedSparseMatrix R = CompressedSparseMatrix.fromRows(RbyRow);
+          // Release the hash table form before building the model
+          RbyRow = null;
+          REBUILD_READ_TIMER.addSince(readStart);
+          if (!newInputFiles.isEmpty()) {
+            // R is immutable, so can be written while the model is built
+            inputSnapshotExecutor.submit(
+                new WriteInputSnapshotCallable(inputFiles, R, removedByRow, itemTagIDs, userTagIDs));
+          }
       
-          if (!RbyRow.isEmpty() && !RbyColumn.isEmpty()) {
+          if (R.getNumRows() > 0 && R.getNumColumns() > 0) {
+            boolean incremental = false;
+            if (INCREMENTAL && allowedIncrementalRebuilds > 0) {
+              long changed = changedUserIDs.size() + changedItemIDs.size();
+              double drift = (double) (changedSinceFull + changed) / (R.getNumRows() + R.getNumColumns());
+              if (hasInputFromElsewhere(newInputFiles, rolledFile)) {
+                // Only appended input is recorded as changed; other files could touch any row
+                log.info("New input files besides the append log; rebuilding fully");
+              } else if (drift > INCREMENTAL_MAX_DRIFT) {
+                log.info("Input has drifted too far since the last full rebuild ({}); rebuilding fully", drift);
+              } else {
+                incremental = true;
+                changedSinceFull += changed;
+              }
+            }
             // Compute latest generation:
             MatrixFactorizer als;
             Generation latestGeneration;
+            long factorizeStart = System.nanoTime();
             // Repeat with fewer features if fails to build:
             while (true) {
               try {
-                als = runFactorization(theCurrentGeneration, RbyRow, RbyColumn);                
+                if (incremental) {
+                  als = runFactorization(theCurrentGeneration, R, changedUserIDs, changedItemIDs, 0L);
+                } else {
+                  als = runFactorization(theCurrentGeneration, R, null, null, inputVersion(inputFiles, R));
+                }
                 latestGeneration = new Generation(knownItemIDs, als.getX(), als.getY(), itemTagIDs, userTagIDs);
                 break;
               } catch (SingularMatrixSolverException smse) {
@@ -351,12 +448,22 @@ public final class DelegateGenerationManager implements GenerationManager {
                 log.warn("Could not build model with {} features; setting model.features down to {}", 
                          currentFeatures, fewerFeatures);
                 System.setProperty("model.features", Integer.toString(fewerFeatures));
+                incremental = false;
               }
             }
+            REBUILD_FACTORIZE_TIMER.addSince(factorizeStart);
+            if (incremental) {
+              incrementalRebuildsUntilFull = allowedIncrementalRebuilds - 1;
+            } else {
+              incrementalRebuildsUntilFull = INCREMENTAL_REBUILDS_BETWEEN_FULL;
+              changedSinceFull = 0;
+            }
+            long loadStart = System.nanoTime();
             // Save it:
-            saveModel(latestGeneration, modelFile);
+            snapshots.save(latestGeneration);
             // Merge into potentially live current generation:
             loader.loadModel(theCurrentGeneration, als.getX(), als.getY(), knownItemIDs, itemTagIDs, userTagIDs);
+            REBUILD_LOAD_TIMER.addSince(loadStart);
           }
       
           int numItems = theCurrentGeneration.getNumItems();
@@ -366,6 +473,7 @@ public final class DelegateGenerationManager implements GenerationManager {
           } else {
             currentGeneration = theCurrentGeneration;
           }
+          REBUILD_TIMER.addSince(start);
           
         } catch (OutOfMemoryError oome) {
           log.warn("Increase heap size with -Xmx, decrease new generation size with larger " +
@@ -385,9 +493,16 @@ public final class DelegateGenerationManager implements GenerationManager {
       return null;
     }
 
+    /**
+     * @param changedUserIDs if not null, only users and items affected by these and {@code changedItemIDs}
+     *  are recomputed, starting from the current generation
+     * @param inputVersion identifies the input, so that a full computation can resume from a checkpoint
+     */
     private MatrixFactorizer runFactorization(Generation currentGeneration,
-                                              FastByIDMap<FastByIDFloatMap> rbyRow,
-                                              FastByIDMap<FastByIDFloatMap> rbyColumn) throws IOException {
+                                              CompressedSparseMatrix R,
+                                              FastIDSet changedUserIDs,
+                                              FastIDSet changedItemIDs,
+                                              long inputVersion) throws IOException {
       log.info("Building factorization...");
   
       int features = readNumFeatures();
@@ -403,29 +518,43 @@ public final class DelegateGenerationManager implements GenerationManager {
       String maxIterationsString = 
           System.getProperty("model.iterations.max", 
                              Integer.toString(AlternatingLeastSquares.DEFAULT_MAX_ITERATIONS));    
-      MatrixFactorizer als = new AlternatingLeastSquares(rbyRow, 
-                                                         rbyColumn, 
-                                                         features, 
-                                                         Double.parseDouble(iterationsConvergenceString),
-                                                         Integer.parseInt(maxIterationsString));
+      double iterationsConvergence = Double.parseDouble(iterationsConvergenceString);
+      int maxIterations = Integer.parseInt(maxIterationsString);
+      // "direct" solves each row exactly; "conjugateGradient" is faster for many features
+      String solver = System.getProperty("model.als.solver", "direct");
+      MatrixFactorizer als;
+      if ("conjugateGradient".equals(solver)) {
+        String stepsString = 
+            System.getProperty("model.als.conjugateGradient.steps",
+                               Integer.toString(ConjugateGradientAlternatingLeastSquares.DEFAULT_STEPS));
+        als = new ConjugateGradientAlternatingLeastSquares(R,
+                                                           features,
+                                                           iterationsConvergence,
+                                                           maxIterations,
+                                                           Integer.parseInt(stepsString));
+      } else {
+        Preconditions.checkArgument("direct".equals(solver), "Bad model.als.solver: %s", solver);
+        als = new AlternatingLeastSquares(R, features, iterationsConvergence, maxIterations);
+      }
   
       if (currentGeneration != null) {
         FastByIDMap<float[]> previousY = currentGeneration.getY();
         if (previousY != null) {
-          FastByIDMap<float[]> previousYClone;
-          Lock yLock = currentGeneration.getYLock().readLock();
-          yLock.lock();
-          try {
-            previousYClone = new FastByIDMap<float[]>(previousY.size());
-            for (FastByIDMap.MapEntry<float[]> entry : previousY.entrySet()) {
-              previousYClone.put(entry.getKey(), entry.getValue().clone());
-            }
-          } finally {
-            yLock.unlock();
+          als.setPreviousY(cloneMatrix(previousY, currentGeneration.getYLock().readLock()));
+        }
+        if (changedUserIDs != null) {
+          FastByIDMap<float[]> previousX = currentGeneration.getX();
+          if (previousX != null) {
+            als.setPreviousX(cloneMatrix(previousX, currentGeneration.getXLock().readLock()));
           }
-          als.setPreviousY(previousYClone);
+          log.info("Recomputing incrementally for {} changed users and {} changed items",
+                   changedUserIDs.size(), changedItemIDs.size());
+          als.setChangedIDs(changedUserIDs, changedItemIDs);
         }
       }
+      if (changedUserIDs == null) {
+        als.setCheckpoint(checkpointFile, inputVersion);
+      }
   
       try {
         als.call();
@@ -439,6 +568,53 @@ public final class DelegateGenerationManager implements GenerationManager {
       return als;
     }
 
+    /**
+     * @return hash of the name, size and modification time of each input file except the live append log,
+     *  and the size of R, which changes when any of the input does
+     */
+    private long inputVersion(File[] inputFiles, CompressedSparseMatrix R) {
+      Hasher versionHasher = Hashing.md5().newHasher();
+      for (File inputFile : inputFiles) {
+        if (!inputFile.equals(appendFile)) {
+          versionHasher.putString(inputFile.getName(), Charsets.UTF_8);
+          versionHasher.putLong(inputFile.length());
+          versionHasher.putLong(inputFile.lastModified());
+        }
+      }
+      versionHasher.putInt(R.getNumRows());
+      versionHasher.putInt(R.getNumColumns());
+      versionHasher.putInt(R.getNumValues());
+      return versionHasher.hash().asLong();
+    }
+
+    /**
+     * @param newInputFiles input files not yet in the input snapshot
+     * @param rolledFile append log rolled for this refresh, or {@code null} if none
+     * @return true if any new input file is not the append log rolled for this refresh, so that its rows
+     *  were never recorded as changed
+     */
+    private boolean hasInputFromElsewhere(Iterable<File> newInputFiles, File rolledFile) {
+      for (File newInputFile : newInputFiles) {
+        if (!newInputFile.equals(rolledFile)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private FastByIDMap<float[]> cloneMatrix(FastByIDMap<float[]> M, Lock lock) {
+      lock.lock();
+      try {
+        FastByIDMap<float[]> clone = new FastByIDMap<float[]>(M.size());
+        for (FastByIDMap.MapEntry<float[]> entry : M.entrySet()) {
+          clone.put(entry.getKey(), entry.getValue().clone());
+        }
+        return clone;
+      } finally {
+        lock.unlock();
+      }
+    }
+
     private int readNumFeatures() {
       String featuresString = System.getProperty("model.features");
       return featuresString == null ? MatrixFactorizer.DEFAULT_FEATURES : Integer.parseInt(featuresString);
@@ -100,6 +100,7 @@ final class GenerationLoader {
     
     log.info("Recomputing generation state...");
     currentGeneration.recomputeState();
+    currentGeneration.bumpVersion();
     
     log.info("All model elements loaded, {} users and {} items", 
              currentGeneration.getNumUsers(), currentGeneration.getNumItems());
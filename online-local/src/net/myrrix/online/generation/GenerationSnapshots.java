@@ -0,0 +1,533 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.generation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.io.PatternFilenameFilter;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.myrrix.common.LangUtils;
+import net.myrrix.common.collection.FastByIDLongMap;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.collection.FastIDSet;
+import net.myrrix.common.io.IOUtils;
+
+/**
+ * <p>Manages the model saved in a local directory. The model is saved as a full snapshot, {@code model.bin.gz},
+ * followed by any number of delta snapshots, {@code model.delta.[n].bin.gz}. A delta contains only the rows of X
+ * and Y, and the known item IDs, that changed since the previous save, plus the IDs of those that were removed.
+ * Reading the model reads the full snapshot and applies deltas in order.</p>
+ *
+ * <p>A full snapshot is written instead of a delta when there is no full snapshot yet, after
+ * {@code model.local.deltasBetweenFullSave} deltas (default 10; 0 disables deltas), or when more than
+ * {@code model.local.maxDeltaFraction} (default 0.5) of all rows changed. Writing a full snapshot compacts
+ * away all prior deltas.</p>
+ *
+ * <p>To find what changed, a 64-bit hash of each row is remembered as of the last save, in a
+ * {@link FastByIDLongMap}. Rows are updated in place, so a hash of the contents, and not a reference,
+ * is needed. With 64 bits the chance that a changed row keeps its hash, and is left out of a delta,
+ * is negligible.</p>
+ */
+final class GenerationSnapshots {
+
+  private static final Logger log = LoggerFactory.getLogger(GenerationSnapshots.class);
+
+  private static final int DELTAS_BETWEEN_FULL_SAVE =
+      Integer.parseInt(System.getProperty("model.local.deltasBetweenFullSave", "10"));
+  private static final double MAX_DELTA_FRACTION =
+      Double.parseDouble(System.getProperty("model.local.maxDeltaFraction", "0.5"));
+  static {
+    Preconditions.checkArgument(DELTAS_BETWEEN_FULL_SAVE >= 0,
+                                "Bad model.local.deltasBetweenFullSave: %s", DELTAS_BETWEEN_FULL_SAVE);
+    Preconditions.checkArgument(MAX_DELTA_FRACTION >= 0.0 && MAX_DELTA_FRACTION <= 1.0,
+                                "Bad model.local.maxDeltaFraction: %s", MAX_DELTA_FRACTION);
+  }
+
+  private static final Pattern DELTA_FILE_PATTERN = Pattern.compile("model\\.delta\\.([0-9]+)\\.bin\\.gz");
+  private static final int DELTA_MAGIC = 0x4D594444; // "MYDD"
+  private static final int NULL_COUNT = -1;
+
+  private final File inputDir;
+  private final File modelFile;
+  private FastByIDLongMap savedXHashes;
+  private FastByIDLongMap savedYHashes;
+  private FastByIDLongMap savedKnownItemIDsHashes;
+  private int numDeltas;
+
+  GenerationSnapshots(File inputDir) {
+    this.inputDir = inputDir;
+    this.modelFile = new File(inputDir, "model.bin.gz");
+  }
+
+  boolean exists() {
+    return modelFile.exists();
+  }
+
+  /**
+   * Reads the last full snapshot and applies all later deltas.
+   *
+   * @return {@link Generation} that was saved, or null if it is not readable and needs a rebuild
+   * @see #save(Generation)
+   */
+  Generation read() throws IOException {
+    log.info("Reading model from {}", modelFile);
+    Generation base;
+    try {
+      base = GenerationSerializer.readGeneration(modelFile);
+    } catch (ObjectStreamException ose) {
+      log.warn("Model file was not readable, rebuilding", ose);
+      return null;
+    }
+
+    FastByIDMap<FastIDSet> knownItemIDs = base.getKnownItemIDs();
+    FastByIDMap<float[]> X = base.getX();
+    FastByIDMap<float[]> Y = base.getY();
+    FastIDSet itemTagIDs = base.getItemTagIDs();
+    FastIDSet userTagIDs = base.getUserTagIDs();
+    List<IDCluster> userClusters = base.getUserClusters();
+    List<IDCluster> itemClusters = base.getItemClusters();
+
+    File[] deltaFiles = listDeltaFiles();
+    int applied = 0;
+    for (File deltaFile : deltaFiles) {
+      if (deltaFile.lastModified() < modelFile.lastModified()) {
+        // Left over from before the current full snapshot was written by something else
+        log.info("Deleting delta older than model: {}", deltaFile);
+        if (!deltaFile.delete()) {
+          log.warn("Could not delete {}", deltaFile);
+        }
+        continue;
+      }
+      log.info("Applying model delta {}", deltaFile);
+      DataInputStream in =
+          new DataInputStream(new BufferedInputStream(IOUtils.openMaybeDecompressing(deltaFile)));
+      try {
+        if (in.readInt() != DELTA_MAGIC) {
+          log.warn("Model delta {} was not readable, rebuilding", deltaFile);
+          return null;
+        }
+        readRowsDelta(X, in);
+        readRowsDelta(Y, in);
+        knownItemIDs = readKnownItemIDsDelta(knownItemIDs, in);
+        itemTagIDs = readIDSet(in);
+        userTagIDs = readIDSet(in);
+        userClusters = readClusters(in);
+        itemClusters = readClusters(in);
+      } finally {
+        in.close();
+      }
+      applied++;
+    }
+
+    Generation generation;
+    if (applied == 0) {
+      generation = base;
+    } else {
+      generation =
+          new Generation(knownItemIDs, X, Y, itemTagIDs, userTagIDs, userClusters, itemClusters);
+    }
+    rememberAll(generation);
+    numDeltas = applied;
+    return generation;
+  }
+
+  /**
+   * Saves a {@link Generation}, either as a full snapshot or as a delta from the last one.
+   *
+   * @see #read()
+   */
+  void save(Generation generation) throws IOException {
+    if (savedXHashes == null || DELTAS_BETWEEN_FULL_SAVE == 0 || numDeltas >= DELTAS_BETWEEN_FULL_SAVE ||
+        !modelFile.exists()) {
+      saveFull(generation);
+      return;
+    }
+
+    FastByIDMap<FastIDSet> knownItemIDs = generation.getKnownItemIDs();
+    if ((knownItemIDs == null) != (savedKnownItemIDsHashes == null)) {
+      // Switched on or off since the last save; not representable as a delta
+      saveFull(generation);
+      return;
+    }
+
+    FastByIDLongMap changedX = findChangedRows(generation.getX(), savedXHashes);
+    FastByIDLongMap changedY = findChangedRows(generation.getY(), savedYHashes);
+    FastByIDLongMap changedKnownItemIDs =
+        knownItemIDs == null ? null : findChangedIDSets(knownItemIDs, savedKnownItemIDsHashes);
+
+    long numRows = generation.getX().size() + generation.getY().size();
+    long numChanged = changedX.size() + changedY.size();
+    if (knownItemIDs != null) {
+      numRows += knownItemIDs.size();
+      numChanged += changedKnownItemIDs.size();
+    }
+    if (numChanged > MAX_DELTA_FRACTION * numRows) {
+      log.info("{} of {} rows changed; saving full model", numChanged, numRows);
+      saveFull(generation);
+      return;
+    }
+
+    FastIDSet removedX = findRemovedRows(generation.getX(), savedXHashes);
+    FastIDSet removedY = findRemovedRows(generation.getY(), savedYHashes);
+    FastIDSet removedKnownItemIDs =
+        knownItemIDs == null ? null : findRemovedRows(knownItemIDs, savedKnownItemIDsHashes);
+
+    File newDeltaFile = File.createTempFile(GenerationSnapshots.class.getSimpleName(), ".bin.gz");
+    log.info("Writing model delta ({} X rows, {} Y rows changed) to {}",
+             changedX.size(), changedY.size(), newDeltaFile);
+
+    try {
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(IOUtils.buildGZIPOutputStream(newDeltaFile)));
+      try {
+        out.writeInt(DELTA_MAGIC);
+        writeRowsDelta(generation.getX(), changedX, removedX, out);
+        writeRowsDelta(generation.getY(), changedY, removedY, out);
+        writeKnownItemIDsDelta(knownItemIDs, changedKnownItemIDs, removedKnownItemIDs, out);
+        writeIDSet(generation.getItemTagIDs(), out);
+        writeIDSet(generation.getUserTagIDs(), out);
+        writeClusters(generation.getUserClusters(), out);
+        writeClusters(generation.getItemClusters(), out);
+      } finally {
+        out.close();
+      }
+    } catch (IOException ioe) {
+      if (newDeltaFile.exists() && !newDeltaFile.delete()) {
+        log.warn("Could not delete {}", newDeltaFile);
+      }
+      throw ioe;
+    }
+
+    File deltaFile = new File(inputDir, "model.delta." + (numDeltas + 1) + ".bin.gz");
+    log.info("Done, moving into place at {}", deltaFile);
+    Files.move(newDeltaFile, deltaFile);
+    numDeltas++;
+
+    updateHashes(savedXHashes, changedX, removedX);
+    updateHashes(savedYHashes, changedY, removedY);
+    if (changedKnownItemIDs != null) {
+      updateHashes(savedKnownItemIDsHashes, changedKnownItemIDs, removedKnownItemIDs);
+    }
+  }
+
+  private void saveFull(Generation generation) throws IOException {
+
+    File newModelFile = File.createTempFile(GenerationSnapshots.class.getSimpleName(), ".bin.gz");
+    log.info("Writing model to {}", newModelFile);
+
+    try {
+      GenerationSerializer.writeGeneration(generation, newModelFile);
+    } catch (IOException ioe) {
+      if (newModelFile.exists() && !newModelFile.delete()) {
+        log.warn("Could not delete {}", newModelFile);
+      }
+      throw ioe;
+    }
+
+    // Deltas apply to the old full snapshot, so go first. Losing them leaves an older but consistent model.
+    for (File deltaFile : listDeltaFiles()) {
+      if (!deltaFile.delete()) {
+        log.warn("Could not delete old {}", deltaFile);
+      }
+    }
+
+    log.info("Done, moving into place at {}", modelFile);
+    if (modelFile.exists() && !modelFile.delete()) {
+      log.warn("Could not delete old {}", modelFile);
+    }
+    Files.move(newModelFile, modelFile);
+
+    rememberAll(generation);
+    numDeltas = 0;
+  }
+
+  private File[] listDeltaFiles() {
+    FilenameFilter deltaFilter = new PatternFilenameFilter(DELTA_FILE_PATTERN);
+    File[] deltaFiles = inputDir.listFiles(deltaFilter);
+    if (deltaFiles == null) {
+      return new File[0];
+    }
+    Arrays.sort(deltaFiles, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        long aNumber = deltaNumber(a);
+        long bNumber = deltaNumber(b);
+        return aNumber < bNumber ? -1 : aNumber > bNumber ? 1 : 0;
+      }
+    });
+    return deltaFiles;
+  }
+
+  private static long deltaNumber(File deltaFile) {
+    Matcher m = DELTA_FILE_PATTERN.matcher(deltaFile.getName());
+    Preconditions.checkState(m.matches());
+    return Long.parseLong(m.group(1));
+  }
+
+  private void rememberAll(Generation generation) {
+    savedXHashes = hashRows(generation.getX());
+    savedYHashes = hashRows(generation.getY());
+    FastByIDMap<FastIDSet> knownItemIDs = generation.getKnownItemIDs();
+    if (knownItemIDs == null) {
+      savedKnownItemIDsHashes = null;
+    } else {
+      savedKnownItemIDsHashes = new FastByIDLongMap(knownItemIDs.size());
+      for (FastByIDMap.MapEntry<FastIDSet> entry : knownItemIDs.entrySet()) {
+        savedKnownItemIDsHashes.put(entry.getKey(), hashIDSet(entry.getValue()));
+      }
+    }
+  }
+
+  private static FastByIDLongMap hashRows(FastByIDMap<float[]> M) {
+    FastByIDLongMap hashes = new FastByIDLongMap(M.size());
+    for (FastByIDMap.MapEntry<float[]> entry : M.entrySet()) {
+      hashes.put(entry.getKey(), hashRow(entry.getValue()));
+    }
+    return hashes;
+  }
+
+  private static FastByIDLongMap findChangedRows(FastByIDMap<float[]> M, FastByIDLongMap savedHashes) {
+    FastByIDLongMap changed = new FastByIDLongMap();
+    for (FastByIDMap.MapEntry<float[]> entry : M.entrySet()) {
+      long id = entry.getKey();
+      long hash = hashRow(entry.getValue());
+      if (savedHashes.get(id) != hash) { // Also true when absent, since that is NULL
+        changed.put(id, hash);
+      }
+    }
+    return changed;
+  }
+
+  private static FastByIDLongMap findChangedIDSets(FastByIDMap<FastIDSet> M, FastByIDLongMap savedHashes) {
+    FastByIDLongMap changed = new FastByIDLongMap();
+    for (FastByIDMap.MapEntry<FastIDSet> entry : M.entrySet()) {
+      long id = entry.getKey();
+      long hash = hashIDSet(entry.getValue());
+      if (savedHashes.get(id) != hash) {
+        changed.put(id, hash);
+      }
+    }
+    return changed;
+  }
+
+  private static FastIDSet findRemovedRows(FastByIDMap<?> M, FastByIDLongMap savedHashes) {
+    FastIDSet removed = new FastIDSet();
+    LongPrimitiveIterator it = savedHashes.keySetIterator();
+    while (it.hasNext()) {
+      long id = it.nextLong();
+      if (!M.containsKey(id)) {
+        removed.add(id);
+      }
+    }
+    return removed;
+  }
+
+  private static void updateHashes(FastByIDLongMap savedHashes, FastByIDLongMap changed, FastIDSet removed) {
+    LongPrimitiveIterator changedIt = changed.keySetIterator();
+    while (changedIt.hasNext()) {
+      long id = changedIt.nextLong();
+      savedHashes.put(id, changed.get(id));
+    }
+    LongPrimitiveIterator it = removed.iterator();
+    while (it.hasNext()) {
+      savedHashes.remove(it.nextLong());
+    }
+  }
+
+  static long hashRow(float[] vector) {
+    long hash = vector.length;
+    for (float f : vector) {
+      hash = mix(hash ^ Float.floatToRawIntBits(f));
+    }
+    return storableHash(hash);
+  }
+
+  static long hashIDSet(FastIDSet ids) {
+    // Must not depend on iteration order, which depends on the set's history
+    long hash = ids.size();
+    LongPrimitiveIterator it = ids.iterator();
+    while (it.hasNext()) {
+      hash += mix(it.nextLong());
+    }
+    return storableHash(mix(hash));
+  }
+
+  /**
+   * Murmur3's 64-bit finalizer; every input bit affects every output bit.
+   */
+  private static long mix(long x) {
+    x ^= x >>> 33;
+    x *= 0xFF51AFD7ED558CCDL;
+    x ^= x >>> 33;
+    x *= 0xC4CEB9FE1A85EC53L;
+    x ^= x >>> 33;
+    return x;
+  }
+
+  /**
+   * @return hash, but never {@link FastByIDLongMap#NULL}, which can't be stored
+   */
+  private static long storableHash(long hash) {
+    return hash == FastByIDLongMap.NULL ? 0L : hash;
+  }
+
+  private static void writeRowsDelta(FastByIDMap<float[]> M,
+                                     FastByIDLongMap changed,
+                                     FastIDSet removed,
+                                     DataOutputStream out) throws IOException {
+    out.writeInt(changed.size());
+    LongPrimitiveIterator it = changed.keySetIterator();
+    while (it.hasNext()) {
+      long id = it.nextLong();
+      float[] features = M.get(id);
+      out.writeLong(id);
+      out.writeInt(features.length);
+      for (float f : features) {
+        Preconditions.checkState(LangUtils.isFinite(f));
+        out.writeFloat(f);
+      }
+    }
+    writeIDSet(removed, out);
+  }
+
+  private static void readRowsDelta(FastByIDMap<float[]> M, DataInputStream in) throws IOException {
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      long id = in.readLong();
+      float[] features = new float[in.readInt()];
+      for (int j = 0; j < features.length; j++) {
+        float f = in.readFloat();
+        Preconditions.checkState(LangUtils.isFinite(f));
+        features[j] = f;
+      }
+      M.put(id, features);
+    }
+    LongPrimitiveIterator it = readIDSet(in).iterator();
+    while (it.hasNext()) {
+      M.remove(it.nextLong());
+    }
+  }
+
+  private static void writeKnownItemIDsDelta(FastByIDMap<FastIDSet> knownItemIDs,
+                                             FastByIDLongMap changed,
+                                             FastIDSet removed,
+                                             DataOutputStream out) throws IOException {
+    if (knownItemIDs == null) {
+      out.writeInt(NULL_COUNT);
+      return;
+    }
+    out.writeInt(changed.size());
+    LongPrimitiveIterator it = changed.keySetIterator();
+    while (it.hasNext()) {
+      long id = it.nextLong();
+      out.writeLong(id);
+      writeIDSet(knownItemIDs.get(id), out);
+    }
+    writeIDSet(removed, out);
+  }
+
+  private static FastByIDMap<FastIDSet> readKnownItemIDsDelta(FastByIDMap<FastIDSet> knownItemIDs,
+                                                              DataInputStream in) throws IOException {
+    int count = in.readInt();
+    if (count == NULL_COUNT) {
+      return null;
+    }
+    if (knownItemIDs == null) {
+      knownItemIDs = new FastByIDMap<FastIDSet>(count);
+    }
+    for (int i = 0; i < count; i++) {
+      long id = in.readLong();
+      knownItemIDs.put(id, readIDSet(in));
+    }
+    LongPrimitiveIterator it = readIDSet(in).iterator();
+    while (it.hasNext()) {
+      knownItemIDs.remove(it.nextLong());
+    }
+    return knownItemIDs;
+  }
+
+  private static FastIDSet readIDSet(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    FastIDSet ids = new FastIDSet(count);
+    for (int i = 0; i < count; i++) {
+      ids.add(in.readLong());
+    }
+    return ids;
+  }
+
+  private static void writeIDSet(FastIDSet ids, DataOutputStream out) throws IOException {
+    if (ids == null) {
+      out.writeInt(0);
+    } else {
+      out.writeInt(ids.size());
+      LongPrimitiveIterator it = ids.iterator();
+      while (it.hasNext()) {
+        out.writeLong(it.nextLong());
+      }
+    }
+  }
+
+  private static List<IDCluster> readClusters(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    List<IDCluster> clusters = Lists.newArrayListWithCapacity(count);
+    for (int i = 0; i < count; i++) {
+      FastIDSet members = readIDSet(in);
+      float[] centroid = new float[in.readInt()];
+      for (int j = 0; j < centroid.length; j++) {
+        centroid[j] = in.readFloat();
+      }
+      clusters.add(new IDCluster(members, centroid));
+    }
+    return clusters;
+  }
+
+  private static void writeClusters(Collection<IDCluster> clusters, DataOutputStream out) throws IOException {
+    if (clusters == null) {
+      out.writeInt(0);
+    } else {
+      out.writeInt(clusters.size());
+      for (IDCluster cluster : clusters) {
+        writeIDSet(cluster.getMembers(), out);
+        float[] centroid = cluster.getCentroid();
+        out.writeInt(centroid.length);
+        for (float f : centroid) {
+          out.writeFloat(f);
+        }
+      }
+    }
+  }
+
+}
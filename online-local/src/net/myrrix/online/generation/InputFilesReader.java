@@ -16,15 +16,31 @@
 
 package net.myrrix.online.generation;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.io.PatternFilenameFilter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.math3.util.FastMath;
 import org.apache.mahout.cf.taste.model.IDMigrator;
 import org.slf4j.Logger;
@@ -36,11 +52,12 @@ import net.myrrix.common.collection.FastByIDFloatMap;
 import net.myrrix.common.collection.FastByIDMap;
 import net.myrrix.common.collection.FastIDSet;
 import net.myrrix.common.io.InvertedFilenameFilter;
+import net.myrrix.common.io.Varint;
 import net.myrrix.common.iterator.FileLineIterable;
-import net.myrrix.common.math.MatrixUtils;
+import net.myrrix.common.parallel.ExecutorUtils;
 
 /**
- * Reads input files into the "R" matrix representation.
+ * Reads input files, in CSV format or written by {@link AppendLog}, into the "R" matrix representation.
  * 
  * @author Sean Owen
  */
@@ -58,6 +75,17 @@ final class InputFilesReader {
   private static final float ZERO_THRESHOLD =
       Float.parseFloat(System.getProperty("model.decay.zeroThreshold", "0.0001"));
 
+  /**
+   * Number of input files parsed at once; defaults to {@code model.threads}, or else the number of cores.
+   */
+  private static final int READ_THREADS;
+  static {
+    String threadsString = System.getProperty("model.local.readThreads", System.getProperty("model.threads"));
+    READ_THREADS =
+        threadsString == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threadsString);
+    Preconditions.checkArgument(READ_THREADS > 0, "Bad model.local.readThreads: %s", READ_THREADS);
+  }
+
   private InputFilesReader() {
   }
 
@@ -67,147 +95,256 @@ final class InputFilesReader {
                              FastIDSet itemTagIDs,
                              FastIDSet userTagIDs,
                              File inputDir) throws IOException {
+    readInputFiles(knownItemIDs, rbyRow, rbyColumn, itemTagIDs, userTagIDs,
+                   Arrays.asList(listInputFiles(inputDir)));
+    removeSmall(rbyRow, rbyColumn);
+  }
 
-    FilenameFilter csvFilter = new PatternFilenameFilter(".+\\.csv(\\.(zip|gz))?");
+  /**
+   * @return input files in the directory, oldest first
+   */
+  static File[] listInputFiles(File inputDir) {
+
+    FilenameFilter inputFilter = new PatternFilenameFilter(".+(\\.csv(\\.(zip|gz))?|\\" + AppendLog.SUFFIX + ")");
 
-    File[] otherFiles = inputDir.listFiles(new InvertedFilenameFilter(csvFilter));
+    File[] otherFiles = inputDir.listFiles(new InvertedFilenameFilter(inputFilter));
     if (otherFiles != null) {
       for (File otherFile : otherFiles) {
         log.info("Skipping file {}", otherFile.getName());
       }
     }
 
-    File[] inputFiles = inputDir.listFiles(csvFilter);
-    if (inputFiles == null) {
+    File[] inputFiles = inputDir.listFiles(inputFilter);
+    if (inputFiles == null || inputFiles.length == 0) {
       log.info("No input files in {}", inputDir);
-      return;
+      return new File[0];
     }
     Arrays.sort(inputFiles, ByLastModifiedComparator.INSTANCE);
+    return inputFiles;
+  }
+
+  /**
+   * Reads the given input files, in order, adding to what the arguments already contain. Near-zero values
+   * are not removed; see {@link #removeSmall(FastByIDMap, FastByIDMap)}. {@code rbyColumn} may be null,
+   * to build only R by row.
+   */
+  static void readInputFiles(FastByIDMap<FastIDSet> knownItemIDs,
+                             FastByIDMap<FastByIDFloatMap> rbyRow,
+                             FastByIDMap<FastByIDFloatMap> rbyColumn,
+                             FastIDSet itemTagIDs,
+                             FastIDSet userTagIDs,
+                             List<File> inputFiles) throws IOException {
+    if (inputFiles.isEmpty()) {
+      return;
+    }
+
+    int numThreads = FastMath.min(READ_THREADS, inputFiles.size());
+    log.info("Reading {} input files using {} threads", inputFiles.size(), numThreads);
+    ExecutorService executor = Executors.newFixedThreadPool(
+        numThreads, new ThreadFactoryBuilder().setNameFormat("InputFilesReader-%d").setDaemon(true).build());
+
+    // Files are parsed in parallel, but merged in order. At most a few parsed files wait to be merged.
+    AtomicInteger badLines = new AtomicInteger();
+    Queue<Future<PartialInput>> pending = new ArrayDeque<Future<PartialInput>>(2 * numThreads);
+    Iterator<File> filesToSubmit = inputFiles.iterator();
+    int data = 0;
+    try {
+      while (pending.size() < 2 * numThreads && filesToSubmit.hasNext()) {
+        pending.add(executor.submit(new ReadInputFileCallable(filesToSubmit.next(), badLines)));
+      }
+      while (!pending.isEmpty()) {
+        PartialInput partial = pending.remove().get();
+        if (filesToSubmit.hasNext()) {
+          pending.add(executor.submit(new ReadInputFileCallable(filesToSubmit.next(), badLines)));
+        }
+        partial.mergeInto(knownItemIDs, rbyRow, rbyColumn, itemTagIDs, userTagIDs);
+        data += partial.getData();
+      }
+    } catch (InterruptedException ie) {
+      throw new IOException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      Throwables.propagateIfPossible(cause);
+      throw new IOException(cause);
+    } finally {
+      ExecutorUtils.shutdownNowAndAwait(executor);
+    }
+    log.info("Read {} data", data);
+  }
+
+  private static final class ReadInputFileCallable implements Callable<PartialInput> {
+
+    private final File inputFile;
+    private final AtomicInteger badLines;
+
+    private ReadInputFileCallable(File inputFile, AtomicInteger badLines) {
+      this.inputFile = inputFile;
+      this.badLines = badLines;
+    }
+
+    @Override
+    public PartialInput call() throws IOException {
+      log.info("Reading {}", inputFile);
+      PartialInput partial = new PartialInput();
+      if (inputFile.getName().endsWith(AppendLog.SUFFIX)) {
+        readAppendLog(inputFile, partial);
+      } else {
+        readCSV(inputFile, partial, badLines);
+      }
+      return partial;
+    }
+  }
+
+  private static void readCSV(File inputFile, PartialInput partial, AtomicInteger badLines) throws IOException {
 
     IDMigrator hash = new OneWayMigrator();
 
     int lines = 0;
-    int badLines = 0;
-    for (File inputFile : inputFiles) {
-      log.info("Reading {}", inputFile);
-      for (String line : new FileLineIterable(inputFile)) {
-        
-        if (badLines > 100) { // Crude check
-          throw new IOException("Too many bad lines; aborting");
-        }
-        
-        lines++;
-        
-        if (line.isEmpty() || line.charAt(0) == '#') {
-          continue;
-        }
-        
-        Iterator<String> it = COMMA.split(line).iterator();
+    for (String line : new FileLineIterable(inputFile)) {
 
-        long userID;
-        boolean userIsTag;
-        long itemID;
-        boolean itemIsTag;
-        float value;
-        try {
-          
-          String userIDString = it.next();
-          userIsTag = userIDString.startsWith("\"");
-          if (userIsTag) {
-            userID = hash.toLongID(userIDString.substring(1, userIDString.length() - 1));
-          } else {
-            userID = Long.parseLong(userIDString);
-          }
-          
-          String itemIDString = it.next();
-          itemIsTag = itemIDString.startsWith("\"");
-          if (itemIsTag) {
-            itemID = hash.toLongID(itemIDString.substring(1, itemIDString.length() - 1));
-          } else {
-            itemID = Long.parseLong(itemIDString);            
-          }
-          
-          if (it.hasNext()) {
-            String valueToken = it.next();
-            value = valueToken.isEmpty() ? Float.NaN : LangUtils.parseFloat(valueToken);
-          } else {
-            value = 1.0f;
-          }
+      if (badLines.get() > 100) { // Crude check
+        throw new IOException("Too many bad lines; aborting");
+      }
 
-        } catch (NoSuchElementException ignored) {
-          log.warn("Ignoring line with too few columns: '{}'", line);
-          badLines++;
-          continue;
-        } catch (IllegalArgumentException iae) { // includes NumberFormatException
-          if (lines == 1) {
-            log.info("Ignoring header line: '{}'", line);
-          } else {
-            log.warn("Ignoring unparseable line: '{}'", line);
-            badLines++;
-          }
-          continue;
-        }
+      lines++;
 
-        if (userIsTag && itemIsTag) {
-          log.warn("Two tags not allowed: '{}'", line);
-          badLines++;
-          continue;
-        }
+      if (line.isEmpty() || line.charAt(0) == '#') {
+        continue;
+      }
+
+      Iterator<String> it = COMMA.split(line).iterator();
 
+      long userID;
+      boolean userIsTag;
+      long itemID;
+      boolean itemIsTag;
+      float value;
+      try {
+
+        String userIDString = it.next();
+        userIsTag = userIDString.startsWith("\"");
         if (userIsTag) {
-          itemTagIDs.add(userID);
+          userID = hash.toLongID(userIDString.substring(1, userIDString.length() - 1));
+        } else {
+          userID = Long.parseLong(userIDString);
         }
-        
+
+        String itemIDString = it.next();
+        itemIsTag = itemIDString.startsWith("\"");
         if (itemIsTag) {
-          userTagIDs.add(itemID);
+          itemID = hash.toLongID(itemIDString.substring(1, itemIDString.length() - 1));
+        } else {
+          itemID = Long.parseLong(itemIDString);
         }
-        
-        if (Float.isNaN(value)) {
-          // Remove, not set
-          MatrixUtils.remove(userID, itemID, rbyRow, rbyColumn);
+
+        if (it.hasNext()) {
+          String valueToken = it.next();
+          value = valueToken.isEmpty() ? Float.NaN : LangUtils.parseFloat(valueToken);
         } else {
-          MatrixUtils.addTo(userID, itemID, value, rbyRow, rbyColumn);
+          value = 1.0f;
         }
 
-        if (knownItemIDs != null) {
-          FastIDSet itemIDs = knownItemIDs.get(userID);
-          if (Float.isNaN(value)) {
-            // Remove, not set
-            if (itemIDs != null) {
-              itemIDs.remove(itemID);
-              if (itemIDs.isEmpty()) {
-                knownItemIDs.remove(userID);
-              }
-            }
-          } else {
-            if (itemIDs == null) {
-              itemIDs = new FastIDSet();
-              knownItemIDs.put(userID, itemIDs);
-            }
-            itemIDs.add(itemID);
-          }
+      } catch (NoSuchElementException ignored) {
+        log.warn("Ignoring line with too few columns: '{}'", line);
+        badLines.incrementAndGet();
+        continue;
+      } catch (IllegalArgumentException iae) { // includes NumberFormatException
+        if (lines == 1) {
+          log.info("Ignoring header line: '{}'", line);
+        } else {
+          log.warn("Ignoring unparseable line: '{}'", line);
+          badLines.incrementAndGet();
         }
+        continue;
+      }
+
+      if (userIsTag && itemIsTag) {
+        log.warn("Two tags not allowed: '{}'", line);
+        badLines.incrementAndGet();
+        continue;
+      }
 
-        if (lines % 1000000 == 0) {
-          log.info("Finished {} lines", lines);
+      partial.add(userID, userIsTag, itemID, itemIsTag, value);
+
+      if (lines % 1000000 == 0) {
+        log.info("Finished {} lines of {}", lines, inputFile);
+      }
+    }
+  }
+
+  /**
+   * Reads a file written by {@link AppendLog}.
+   */
+  private static void readAppendLog(File inputFile, PartialInput partial) throws IOException {
+    int records = 0;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inputFile)));
+    try {
+      if (in.readInt() != AppendLog.MAGIC) {
+        throw new IOException("Not an append log: " + inputFile);
+      }
+      int type;
+      while ((type = in.read()) >= 0) {
+        long userID;
+        long itemID;
+        float value;
+        try {
+          userID = Varint.readSignedVarLong(in);
+          itemID = Varint.readSignedVarLong(in);
+          value = type == AppendLog.REMOVE ? Float.NaN : in.readFloat();
+        } catch (EOFException ignored) {
+          // Record was cut off, as by a crash while writing
+          log.warn("Ignoring incomplete last record in {}", inputFile);
+          break;
+        }
+        partial.add(userID, type == AppendLog.ITEM_TAG, itemID, type == AppendLog.USER_TAG, value);
+        if (++records % 1000000 == 0) {
+          log.info("Finished {} records of {}", records, inputFile);
         }
       }
+    } catch (EOFException ignored) {
+      log.warn("Ignoring empty or truncated file {}", inputFile);
+    } finally {
+      in.close();
     }
-    
+  }
+
+  /**
+   * Removes near-zero values from R. {@code rbyColumn} may be null.
+   *
+   * @return the removed entries, keyed by row
+   */
+  static FastByIDMap<FastByIDFloatMap> removeSmall(FastByIDMap<FastByIDFloatMap> rbyRow,
+                                                   FastByIDMap<FastByIDFloatMap> rbyColumn) {
     log.info("Pruning near-zero entries");
-    removeSmall(rbyRow);
-    removeSmall(rbyColumn);    
+    FastByIDMap<FastByIDFloatMap> removed = removeSmall(rbyRow);
+    if (rbyColumn != null) {
+      removeSmall(rbyColumn);
+    }
+    return removed;
   }
-  
-  private static void removeSmall(FastByIDMap<FastByIDFloatMap> matrix) {
+
+  private static FastByIDMap<FastByIDFloatMap> removeSmall(FastByIDMap<FastByIDFloatMap> matrix) {
+    FastByIDMap<FastByIDFloatMap> removed = new FastByIDMap<FastByIDFloatMap>();
     for (FastByIDMap.MapEntry<FastByIDFloatMap> entry : matrix.entrySet()) {
       for (Iterator<FastByIDFloatMap.MapEntry> it = entry.getValue().entrySet().iterator(); it.hasNext();) {
         FastByIDFloatMap.MapEntry entry2 = it.next();
-        if (FastMath.abs(entry2.getValue()) < ZERO_THRESHOLD) {
+        float value = entry2.getValue();
+        if (FastMath.abs(value) < ZERO_THRESHOLD) {
+          long rowID = entry.getKey();
+          FastByIDFloatMap removedInRow = removed.get(rowID);
+          if (removedInRow == null) {
+            removedInRow = new FastByIDFloatMap();
+            removed.put(rowID, removedInRow);
+          }
+          removedInRow.put(entry2.getKey(), value);
           it.remove();
         }
       }
     }
+    return removed;
   }
 
 }
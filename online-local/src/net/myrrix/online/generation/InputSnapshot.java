@@ -0,0 +1,277 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.generation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.myrrix.common.collection.FastByIDFloatMap;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.collection.FastIDSet;
+import net.myrrix.online.factorizer.CompressedSparseMatrix;
+import net.myrrix.online.factorizer.IDIndex;
+
+/**
+ * <p>Manages a compacted copy of the "R" matrix built from input files in the local input directory,
+ * so that a rebuild need only read input files that have appeared since. The snapshot records the name,
+ * length and modification time of each input file it covers. If any of those has since changed or gone
+ * away, the snapshot is ignored and all input is read again.</p>
+ *
+ * <p>Only R, by row, and tag IDs are stored. Known item IDs are exactly the columns present in each row,
+ * so are recreated from R. The file is an uncompressed sequence of fixed-size values, which is much faster
+ * to load than parsing the equivalent input.</p>
+ */
+final class InputSnapshot {
+
+  private static final Logger log = LoggerFactory.getLogger(InputSnapshot.class);
+
+  private static final int MAGIC = 0x4D594953; // "MYIS"
+
+  private final File snapshotFile;
+
+  InputSnapshot(File inputDir) {
+    this.snapshotFile = new File(inputDir, "input.snapshot.bin");
+  }
+
+  /**
+   * Loads the snapshot, if it exists and is still valid for the given input files.
+   * {@code rbyColumn} may be null, to load only R by row.
+   *
+   * @param inputFiles all current input files, oldest first
+   * @return input files not covered by the snapshot, in the given order; these must still be read
+   */
+  List<File> read(FastByIDMap<FastIDSet> knownItemIDs,
+                  FastByIDMap<FastByIDFloatMap> rbyRow,
+                  FastByIDMap<FastByIDFloatMap> rbyColumn,
+                  FastIDSet itemTagIDs,
+                  FastIDSet userTagIDs,
+                  File[] inputFiles) throws IOException {
+    List<File> allInputFiles = Arrays.asList(inputFiles);
+    if (!snapshotFile.exists()) {
+      return allInputFiles;
+    }
+
+    log.info("Reading input snapshot {}", snapshotFile);
+    Map<String,File> filesByName = Maps.newHashMapWithExpectedSize(inputFiles.length);
+    for (File inputFile : inputFiles) {
+      filesByName.put(inputFile.getName(), inputFile);
+    }
+
+    int numCovered;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 1 << 16));
+    try {
+
+      if (in.readInt() != MAGIC) {
+        log.warn("Ignoring unrecognized input snapshot {}", snapshotFile);
+        return allInputFiles;
+      }
+
+      numCovered = in.readInt();
+      for (int i = 0; i < numCovered; i++) {
+        String name = in.readUTF();
+        long length = in.readLong();
+        long lastModified = in.readLong();
+        File inputFile = filesByName.remove(name);
+        if (inputFile == null || inputFile.length() != length || inputFile.lastModified() != lastModified) {
+          log.info("Input file {} changed since input snapshot; reading all input", name);
+          return allInputFiles;
+        }
+      }
+
+      try {
+        readTagIDs(in, itemTagIDs);
+        readTagIDs(in, userTagIDs);
+        readR(in, knownItemIDs, rbyRow, rbyColumn);
+      } catch (IOException ioe) {
+        log.warn("Could not read input snapshot; reading all input", ioe);
+        if (knownItemIDs != null) {
+          knownItemIDs.clear();
+        }
+        rbyRow.clear();
+        if (rbyColumn != null) {
+          rbyColumn.clear();
+        }
+        itemTagIDs.clear();
+        userTagIDs.clear();
+        return allInputFiles;
+      }
+
+    } finally {
+      in.close();
+    }
+
+    // Files left in filesByName are not covered
+    List<File> newInputFiles = new ArrayList<File>(filesByName.size());
+    for (File inputFile : inputFiles) {
+      if (filesByName.containsKey(inputFile.getName())) {
+        newInputFiles.add(inputFile);
+      }
+    }
+    log.info("Input snapshot covers {} input files; {} are newer", numCovered, newInputFiles.size());
+    return newInputFiles;
+  }
+
+  private static void readTagIDs(DataInputStream in, FastIDSet tagIDs) throws IOException {
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      tagIDs.add(in.readLong());
+    }
+  }
+
+  private static void readR(DataInputStream in,
+                            FastByIDMap<FastIDSet> knownItemIDs,
+                            FastByIDMap<FastByIDFloatMap> rbyRow,
+                            FastByIDMap<FastByIDFloatMap> rbyColumn) throws IOException {
+    int numRows = in.readInt();
+    for (int i = 0; i < numRows; i++) {
+      long rowID = in.readLong();
+      int count = in.readInt();
+      FastByIDFloatMap row = new FastByIDFloatMap(count);
+      FastIDSet knownItemIDsForRow = knownItemIDs == null ? null : new FastIDSet(count);
+      for (int j = 0; j < count; j++) {
+        long columnID = in.readLong();
+        float value = in.readFloat();
+        row.put(columnID, value);
+        if (knownItemIDsForRow != null) {
+          knownItemIDsForRow.add(columnID);
+        }
+        if (rbyColumn != null) {
+          FastByIDFloatMap column = rbyColumn.get(columnID);
+          if (column == null) {
+            column = new FastByIDFloatMap();
+            rbyColumn.put(columnID, column);
+          }
+          column.put(rowID, value);
+        }
+      }
+      rbyRow.put(rowID, row);
+      if (knownItemIDsForRow != null) {
+        knownItemIDs.put(rowID, knownItemIDsForRow);
+      }
+    }
+  }
+
+  /**
+   * Writes a new snapshot, replacing any existing one. The arguments are only read.
+   *
+   * @param inputFiles input files whose content is reflected in the arguments
+   * @param R R, in compact form, which may have had near-zero values removed
+   * @param removedByRow near-zero values that were removed from {@code R}; they are still written so
+   *  that R is exactly as read, and known items can be recreated
+   */
+  void write(File[] inputFiles,
+             CompressedSparseMatrix R,
+             FastByIDMap<FastByIDFloatMap> removedByRow,
+             FastIDSet itemTagIDs,
+             FastIDSet userTagIDs) throws IOException {
+    File tempFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+    log.info("Writing input snapshot covering {} input files", inputFiles.length);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+    boolean ok = false;
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(inputFiles.length);
+      for (File inputFile : inputFiles) {
+        out.writeUTF(inputFile.getName());
+        out.writeLong(inputFile.length());
+        out.writeLong(inputFile.lastModified());
+      }
+      writeTagIDs(out, itemTagIDs);
+      writeTagIDs(out, userTagIDs);
+
+      // Rows only in removedByRow had all their values removed
+      IDIndex rowIDs = R.getRowIDs();
+      int numRows = rowIDs.size();
+      LongPrimitiveIterator it = removedByRow.keySetIterator();
+      while (it.hasNext()) {
+        if (rowIDs.indexOf(it.nextLong()) < 0) {
+          numRows++;
+        }
+      }
+      out.writeInt(numRows);
+      for (int row = 0; row < rowIDs.size(); row++) {
+        long rowID = rowIDs.idAt(row);
+        FastByIDFloatMap removed = removedByRow.get(rowID);
+        out.writeLong(rowID);
+        out.writeInt(R.getRowSize(row) + (removed == null ? 0 : removed.size()));
+        writeEntries(out, R, row);
+        if (removed != null) {
+          writeEntries(out, removed);
+        }
+      }
+      for (FastByIDMap.MapEntry<FastByIDFloatMap> entry : removedByRow.entrySet()) {
+        long rowID = entry.getKey();
+        if (rowIDs.indexOf(rowID) < 0) {
+          out.writeLong(rowID);
+          out.writeInt(entry.getValue().size());
+          writeEntries(out, entry.getValue());
+        }
+      }
+      ok = true;
+    } finally {
+      out.close();
+      if (!ok && !tempFile.delete()) {
+        log.warn("Could not delete {}", tempFile);
+      }
+    }
+    Files.move(tempFile, snapshotFile);
+    log.info("Wrote input snapshot {}", snapshotFile);
+  }
+
+  private static void writeTagIDs(DataOutputStream out, FastIDSet tagIDs) throws IOException {
+    out.writeInt(tagIDs.size());
+    LongPrimitiveIterator it = tagIDs.iterator();
+    while (it.hasNext()) {
+      out.writeLong(it.nextLong());
+    }
+  }
+
+  private static void writeEntries(DataOutputStream out, CompressedSparseMatrix R, int row) throws IOException {
+    IDIndex columnIDs = R.getColumnIDs();
+    int[] columnIndices = R.getColumnIndices();
+    float[] values = R.getValues();
+    int end = R.getRowStart(row + 1);
+    for (int i = R.getRowStart(row); i < end; i++) {
+      out.writeLong(columnIDs.idAt(columnIndices[i]));
+      out.writeFloat(values[i]);
+    }
+  }
+
+  private static void writeEntries(DataOutputStream out, FastByIDFloatMap entries) throws IOException {
+    for (FastByIDFloatMap.MapEntry entry : entries.entrySet()) {
+      out.writeLong(entry.getKey());
+      out.writeFloat(entry.getValue());
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.generation;
+
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+
+import net.myrrix.common.collection.FastByIDFloatMap;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.collection.FastIDSet;
+import net.myrrix.common.math.MatrixUtils;
+
+/**
+ * <p>The net effect of one input file on "R", which can be computed independently of other files and then
+ * applied on top of the result of all earlier files with {@link #mergeInto(FastByIDMap, FastByIDMap,
+ * FastByIDMap, FastIDSet, FastIDSet)}.</p>
+ *
+ * <p>Every user-item entry touched by the file ends up either incremented by some amount, or removed and
+ * then possibly incremented, since adds before a remove don't matter. So, this records which entries were
+ * removed, and what was added to each entry after its last remove.</p>
+ */
+final class PartialInput {
+
+  private final FastByIDMap<FastIDSet> removedByRow;
+  private final FastByIDMap<FastByIDFloatMap> addedByRow;
+  private final FastIDSet itemTagIDs;
+  private final FastIDSet userTagIDs;
+  private int data;
+
+  PartialInput() {
+    removedByRow = new FastByIDMap<FastIDSet>();
+    addedByRow = new FastByIDMap<FastByIDFloatMap>();
+    itemTagIDs = new FastIDSet();
+    userTagIDs = new FastIDSet();
+  }
+
+  /**
+   * @return number of data passed to {@link #add(long, boolean, long, boolean, float)}
+   */
+  int getData() {
+    return data;
+  }
+
+  /**
+   * @param value amount to add, or {@link Float#NaN} to remove the entry
+   */
+  void add(long userID, boolean userIsTag, long itemID, boolean itemIsTag, float value) {
+    data++;
+
+    if (userIsTag) {
+      itemTagIDs.add(userID);
+    }
+
+    if (itemIsTag) {
+      userTagIDs.add(itemID);
+    }
+
+    if (Float.isNaN(value)) {
+      // Remove, not set
+      FastByIDFloatMap added = addedByRow.get(userID);
+      if (added != null) {
+        added.remove(itemID);
+        if (added.isEmpty()) {
+          addedByRow.remove(userID);
+        }
+      }
+      FastIDSet removed = removedByRow.get(userID);
+      if (removed == null) {
+        removed = new FastIDSet();
+        removedByRow.put(userID, removed);
+      }
+      removed.add(itemID);
+    } else {
+      FastByIDFloatMap added = addedByRow.get(userID);
+      if (added == null) {
+        added = new FastByIDFloatMap();
+        addedByRow.put(userID, added);
+      }
+      added.increment(itemID, value);
+    }
+  }
+
+  /**
+   * Applies this file's data on top of the given data, which reflects all earlier files.
+   */
+  void mergeInto(FastByIDMap<FastIDSet> knownItemIDs,
+                 FastByIDMap<FastByIDFloatMap> rbyRow,
+                 FastByIDMap<FastByIDFloatMap> rbyColumn,
+                 FastIDSet allItemTagIDs,
+                 FastIDSet allUserTagIDs) {
+
+    allItemTagIDs.addAll(itemTagIDs);
+    allUserTagIDs.addAll(userTagIDs);
+
+    for (FastByIDMap.MapEntry<FastIDSet> entry : removedByRow.entrySet()) {
+      long userID = entry.getKey();
+      FastIDSet knownItemIDsForUser = knownItemIDs == null ? null : knownItemIDs.get(userID);
+      LongPrimitiveIterator it = entry.getValue().iterator();
+      while (it.hasNext()) {
+        long itemID = it.nextLong();
+        MatrixUtils.remove(userID, itemID, rbyRow, rbyColumn);
+        if (knownItemIDsForUser != null) {
+          knownItemIDsForUser.remove(itemID);
+        }
+      }
+      if (knownItemIDsForUser != null && knownItemIDsForUser.isEmpty()) {
+        knownItemIDs.remove(userID);
+      }
+    }
+
+    for (FastByIDMap.MapEntry<FastByIDFloatMap> entry : addedByRow.entrySet()) {
+      long userID = entry.getKey();
+      FastIDSet knownItemIDsForUser = null;
+      if (knownItemIDs != null) {
+        knownItemIDsForUser = knownItemIDs.get(userID);
+        if (knownItemIDsForUser == null) {
+          knownItemIDsForUser = new FastIDSet();
+          knownItemIDs.put(userID, knownItemIDsForUser);
+        }
+      }
+      for (FastByIDFloatMap.MapEntry entry2 : entry.getValue().entrySet()) {
+        long itemID = entry2.getKey();
+        MatrixUtils.addTo(userID, itemID, entry2.getValue(), rbyRow, rbyColumn);
+        if (knownItemIDsForUser != null) {
+          knownItemIDsForUser.add(itemID);
+        }
+      }
+    }
+  }
+
+}
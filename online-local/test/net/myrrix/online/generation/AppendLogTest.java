@@ -0,0 +1,192 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.generation;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.collection.FastIDSet;
+import net.myrrix.common.io.Varint;
+
+public final class AppendLogTest extends MyrrixTest {
+
+  private static final int NUM_THREADS = 4;
+  private static final long IDS_PER_THREAD = 1000000L;
+
+  @Test
+  public void testAppendAndClose() throws Exception {
+    File file = new File(getTestTempDir(), "append" + AppendLog.SUFFIX);
+    AppendLog appendLog = new AppendLog(file, AppendLog.SyncPolicy.NONE, 16);
+    for (int i = 0; i < 100; i++) {
+      appendLog.append(AppendLog.PREFERENCE, 1L, i, 1.0f);
+    }
+    appendLog.append(AppendLog.REMOVE, 1L, 0L, Float.NaN);
+    appendLog.close();
+    assertEquals(101, readRecords(file, new FastIDSet()));
+    try {
+      appendLog.append(AppendLog.PREFERENCE, 1L, 100L, 1.0f);
+      fail();
+    } catch (IOException ioe) {
+      // good
+    }
+  }
+
+  @Test
+  public void testEmptyLogDeleted() throws Exception {
+    File file = new File(getTestTempDir(), "append" + AppendLog.SUFFIX);
+    AppendLog appendLog = new AppendLog(file, AppendLog.SyncPolicy.NONE, 16);
+    assertFalse(appendLog.roll(new File(getTestTempDir(), "rolled" + AppendLog.SUFFIX)));
+    appendLog.close();
+    assertFalse(file.exists());
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentAppendRollClose() throws Exception {
+    File dir = getTestTempDir();
+    File file = new File(dir, "append" + AppendLog.SUFFIX);
+    // Small buffer, so that appenders often find it full
+    final AppendLog appendLog = new AppendLog(file, AppendLog.SyncPolicy.NONE, 16);
+
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    List<Future<Long>> futures = Lists.newArrayListWithCapacity(NUM_THREADS);
+    for (int i = 0; i < NUM_THREADS; i++) {
+      final long userID = i;
+      futures.add(executor.submit(new Callable<Long>() {
+        @Override
+        public Long call() {
+          long appended = 0;
+          try {
+            while (appended < IDS_PER_THREAD) {
+              appendLog.append(AppendLog.PREFERENCE, userID, appended, 1.0f);
+              appended++;
+            }
+          } catch (IOException ioe) {
+            // Closed
+          }
+          return appended;
+        }
+      }));
+    }
+
+    List<File> rolledFiles = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      Thread.sleep(5L);
+      File rolledFile = new File(dir, "rolled-" + i + AppendLog.SUFFIX);
+      if (appendLog.roll(rolledFile)) {
+        rolledFiles.add(rolledFile);
+      }
+    }
+    appendLog.close();
+
+    long totalAppended = 0;
+    for (Future<Long> future : futures) {
+      totalAppended += future.get();
+    }
+    executor.shutdown();
+
+    // Every append that returned normally is in exactly one file
+    FastIDSet seen = new FastIDSet();
+    long totalRead = 0;
+    for (File rolledFile : rolledFiles) {
+      totalRead += readRecords(rolledFile, seen);
+    }
+    if (file.exists()) {
+      totalRead += readRecords(file, seen);
+    }
+    assertEquals(totalAppended, totalRead);
+    assertEquals(totalAppended, seen.size());
+  }
+
+  @Test(timeout = 60000)
+  public void testRepeatedCloseWhileAppending() throws Exception {
+    File dir = getTestTempDir();
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      for (int round = 0; round < 200; round++) {
+        File file = new File(dir, "append-" + round + AppendLog.SUFFIX);
+        final AppendLog appendLog = new AppendLog(file, AppendLog.SyncPolicy.NONE, 4);
+        List<Future<Long>> futures = Lists.newArrayListWithCapacity(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; i++) {
+          final long userID = i;
+          futures.add(executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+              long appended = 0;
+              try {
+                while (true) {
+                  appendLog.append(AppendLog.PREFERENCE, userID, appended, 1.0f);
+                  appended++;
+                }
+              } catch (IOException ioe) {
+                // Closed
+              }
+              return appended;
+            }
+          }));
+        }
+        Thread.yield();
+        appendLog.close();
+        long totalAppended = 0;
+        for (Future<Long> future : futures) {
+          totalAppended += future.get();
+        }
+        long totalRead = file.exists() ? readRecords(file, new FastIDSet()) : 0;
+        assertEquals(totalAppended, totalRead);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * @param seen collects user and item ID of each record
+   * @return number of records read
+   */
+  private static int readRecords(File file, FastIDSet seen) throws IOException {
+    int records = 0;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      assertEquals(AppendLog.MAGIC, in.readInt());
+      int type;
+      while ((type = in.read()) >= 0) {
+        long userID = Varint.readSignedVarLong(in);
+        long itemID = Varint.readSignedVarLong(in);
+        if (type != AppendLog.REMOVE) {
+          in.readFloat();
+        }
+        seen.add(userID * IDS_PER_THREAD + itemID);
+        records++;
+      }
+    } finally {
+      in.close();
+    }
+    return records;
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.generation;
+
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.collection.FastIDSet;
+
+public final class GenerationLoaderTest extends MyrrixTest {
+
+  @Test
+  public void testLoadBumpsVersion() {
+    FastByIDMap<float[]> X = new FastByIDMap<float[]>();
+    X.put(1L, new float[] {1.0f, 0.0f});
+    X.put(2L, new float[] {0.0f, 1.0f});
+    FastByIDMap<float[]> Y = new FastByIDMap<float[]>();
+    Y.put(10L, new float[] {1.0f, 0.0f});
+    Y.put(11L, new float[] {0.0f, 1.0f});
+    FastByIDMap<FastIDSet> knownItemIDs = new FastByIDMap<FastIDSet>();
+    Generation generation = new Generation(knownItemIDs, X, Y);
+    long version = generation.getVersion();
+
+    FastByIDMap<float[]> newX = new FastByIDMap<float[]>();
+    newX.put(1L, new float[] {2.0f, 0.0f});
+    newX.put(2L, new float[] {0.0f, 2.0f});
+    FastByIDMap<float[]> newY = new FastByIDMap<float[]>();
+    newY.put(10L, new float[] {3.0f, 0.0f});
+    newY.put(11L, new float[] {0.0f, 3.0f});
+    FastByIDMap<FastIDSet> newKnownItemIDs = new FastByIDMap<FastIDSet>();
+    FastIDSet known = new FastIDSet();
+    known.add(10L);
+    newKnownItemIDs.put(2L, known);
+
+    GenerationLoader loader = new GenerationLoader(new FastIDSet(), new FastIDSet(), new Object());
+    loader.loadModel(generation, newX, newY, newKnownItemIDs, new FastIDSet(), new FastIDSet());
+
+    assertTrue(generation.getVersion() > version);
+    assertEquals(2, generation.getX().size());
+    assertEquals(2.0f, generation.getX().get(1L)[0]);
+    assertEquals(3.0f, generation.getY().get(10L)[0]);
+    assertTrue(generation.getKnownItemIDs().get(2L).contains(10L));
+  }
+
+}
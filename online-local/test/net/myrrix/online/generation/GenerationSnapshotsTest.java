@@ -0,0 +1,207 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.generation;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.collection.FastIDSet;
+import net.myrrix.common.random.RandomManager;
+
+public final class GenerationSnapshotsTest extends MyrrixTest {
+
+  private static final int NUM_ROWS = 20;
+  private static final int FEATURES = 5;
+
+  @Test
+  public void testSaveAndReadFull() throws Exception {
+    File dir = getTestTempDir();
+    Generation generation = buildGeneration();
+    GenerationSnapshots snapshots = new GenerationSnapshots(dir);
+    assertFalse(snapshots.exists());
+    snapshots.save(generation);
+    assertTrue(snapshots.exists());
+    assertEquals(0, countDeltaFiles(dir));
+    assertSameModel(generation, new GenerationSnapshots(dir).read());
+  }
+
+  @Test
+  public void testSaveAndReadDeltas() throws Exception {
+    File dir = getTestTempDir();
+    Generation generation = buildGeneration();
+    GenerationSnapshots snapshots = new GenerationSnapshots(dir);
+    snapshots.save(generation);
+
+    // Changed in place, as fold-in does, by the smallest possible amount
+    float[] xRow = generation.getX().get(3L);
+    xRow[2] = Math.nextUp(xRow[2]);
+    generation.getY().put(100L, new float[] {1.0f, 2.0f, 3.0f, 4.0f, 5.0f});
+    generation.getY().remove(5L);
+    generation.getKnownItemIDs().get(7L).add(100L);
+    snapshots.save(generation);
+    assertEquals(1, countDeltaFiles(dir));
+
+    generation.getX().remove(4L);
+    generation.getKnownItemIDs().remove(4L);
+    snapshots.save(generation);
+    assertEquals(2, countDeltaFiles(dir));
+
+    Generation read = new GenerationSnapshots(dir).read();
+    assertSameModel(generation, read);
+    assertTrue(Arrays.equals(xRow, read.getX().get(3L)));
+  }
+
+  @Test
+  public void testUnchangedWritesEmptyDelta() throws Exception {
+    File dir = getTestTempDir();
+    Generation generation = buildGeneration();
+    GenerationSnapshots snapshots = new GenerationSnapshots(dir);
+    snapshots.save(generation);
+    File modelFile = new File(dir, "model.bin.gz");
+    long modelLength = modelFile.length();
+    snapshots.save(generation);
+    File deltaFile = new File(dir, "model.delta.1.bin.gz");
+    assertTrue(deltaFile.exists());
+    assertTrue(deltaFile.length() < modelLength);
+    assertSameModel(generation, new GenerationSnapshots(dir).read());
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    File dir = getTestTempDir();
+    Generation generation = buildGeneration();
+    GenerationSnapshots snapshots = new GenerationSnapshots(dir);
+    snapshots.save(generation);
+    // Default of 10 deltas between full saves
+    for (int i = 1; i <= 10; i++) {
+      generation.getX().get(i)[0] += 1.0f;
+      snapshots.save(generation);
+      assertEquals(i, countDeltaFiles(dir));
+    }
+    generation.getX().get(11L)[0] += 1.0f;
+    snapshots.save(generation);
+    assertEquals(0, countDeltaFiles(dir));
+    assertSameModel(generation, new GenerationSnapshots(dir).read());
+
+    // Deltas start again after compaction
+    generation.getX().get(12L)[0] += 1.0f;
+    snapshots.save(generation);
+    assertEquals(1, countDeltaFiles(dir));
+    assertSameModel(generation, new GenerationSnapshots(dir).read());
+  }
+
+  @Test
+  public void testManyChangesSavesFull() throws Exception {
+    File dir = getTestTempDir();
+    Generation generation = buildGeneration();
+    GenerationSnapshots snapshots = new GenerationSnapshots(dir);
+    snapshots.save(generation);
+    for (int i = 0; i < NUM_ROWS; i++) {
+      generation.getX().get(i)[0] += 1.0f;
+      generation.getY().get(i)[0] += 1.0f;
+    }
+    snapshots.save(generation);
+    assertEquals(0, countDeltaFiles(dir));
+    assertSameModel(generation, new GenerationSnapshots(dir).read());
+  }
+
+  @Test
+  public void testRowHash() {
+    float[] row = {1.0f, 2.0f, 3.0f};
+    long hash = GenerationSnapshots.hashRow(row);
+    assertEquals(hash, GenerationSnapshots.hashRow(row.clone()));
+    assertFalse(hash == GenerationSnapshots.hashRow(new float[] {2.0f, 1.0f, 3.0f}));
+    assertFalse(hash == GenerationSnapshots.hashRow(new float[] {1.0f, 2.0f, Math.nextUp(3.0f)}));
+    assertFalse(hash == GenerationSnapshots.hashRow(new float[] {1.0f, 2.0f, 3.0f, 0.0f}));
+  }
+
+  @Test
+  public void testIDSetHashIgnoresOrder() {
+    FastIDSet a = new FastIDSet();
+    FastIDSet b = new FastIDSet(1000);
+    for (long id = 0; id < 100; id++) {
+      a.add(id);
+      b.add(99L - id);
+    }
+    long hash = GenerationSnapshots.hashIDSet(a);
+    assertEquals(hash, GenerationSnapshots.hashIDSet(b));
+    b.remove(50L);
+    assertFalse(hash == GenerationSnapshots.hashIDSet(b));
+  }
+
+  private static Generation buildGeneration() {
+    RandomGenerator random = RandomManager.getRandom();
+    FastByIDMap<float[]> X = new FastByIDMap<float[]>();
+    FastByIDMap<float[]> Y = new FastByIDMap<float[]>();
+    FastByIDMap<FastIDSet> knownItemIDs = new FastByIDMap<FastIDSet>();
+    for (long id = 0; id < NUM_ROWS; id++) {
+      X.put(id, randomRow(random));
+      Y.put(id, randomRow(random));
+      FastIDSet known = new FastIDSet();
+      known.add(id);
+      known.add((id + 1) % NUM_ROWS);
+      knownItemIDs.put(id, known);
+    }
+    return new Generation(knownItemIDs, X, Y);
+  }
+
+  private static float[] randomRow(RandomGenerator random) {
+    float[] row = new float[FEATURES];
+    for (int i = 0; i < row.length; i++) {
+      row[i] = (float) random.nextGaussian();
+    }
+    return row;
+  }
+
+  private static int countDeltaFiles(File dir) {
+    int count = 0;
+    for (String name : dir.list()) {
+      if (name.startsWith("model.delta.")) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static void assertSameModel(Generation expected, Generation actual) {
+    assertNotNull(actual);
+    assertSameRows(expected.getX(), actual.getX());
+    assertSameRows(expected.getY(), actual.getY());
+    FastByIDMap<FastIDSet> expectedKnown = expected.getKnownItemIDs();
+    FastByIDMap<FastIDSet> actualKnown = actual.getKnownItemIDs();
+    assertEquals(expectedKnown.size(), actualKnown.size());
+    for (FastByIDMap.MapEntry<FastIDSet> entry : expectedKnown.entrySet()) {
+      FastIDSet actualIDs = actualKnown.get(entry.getKey());
+      assertNotNull(actualIDs);
+      assertEquals(entry.getValue().size(), actualIDs.size());
+      assertEquals(entry.getValue().size(), entry.getValue().intersectionSize(actualIDs));
+    }
+  }
+
+  private static void assertSameRows(FastByIDMap<float[]> expected, FastByIDMap<float[]> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (FastByIDMap.MapEntry<float[]> entry : expected.entrySet()) {
+      assertTrue(Arrays.equals(entry.getValue(), actual.get(entry.getKey())));
+    }
+  }
+
+}
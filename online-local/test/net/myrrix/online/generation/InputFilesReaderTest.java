@@ -0,0 +1,122 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.generation;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.collection.FastByIDFloatMap;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.collection.FastIDSet;
+
+public final class InputFilesReaderTest extends MyrrixTest {
+
+  private static final int NUM_FILES = 20;
+
+  static {
+    // Parse several files at once even on one core, before InputFilesReader reads this
+    System.setProperty("model.local.readThreads", "4");
+  }
+
+  @Test
+  public void testMergesInOrder() throws Exception {
+    File dir = getTestTempDir();
+    List<File> inputFiles = Lists.newArrayListWithCapacity(NUM_FILES);
+    for (int i = 0; i < NUM_FILES; i++) {
+      StringBuilder data = new StringBuilder();
+      // Each file replaces user 1's value for item 100
+      data.append("1,100,\n");
+      data.append("1,100,").append(i + 1).append('\n');
+      // Each file adds to user 2's value for item 200
+      data.append("2,200,1.0\n");
+      // Each file moves user 3 from the previous file's item to its own
+      if (i > 0) {
+        data.append("3,").append(i - 1).append(",\n");
+      }
+      data.append("3,").append(i).append(",1.0\n");
+      File inputFile = new File(dir, i + ".csv");
+      Files.write(data, inputFile, Charsets.UTF_8);
+      inputFiles.add(inputFile);
+    }
+
+    FastByIDMap<FastIDSet> knownItemIDs = new FastByIDMap<FastIDSet>();
+    FastByIDMap<FastByIDFloatMap> rbyRow = new FastByIDMap<FastByIDFloatMap>();
+    FastByIDMap<FastByIDFloatMap> rbyColumn = new FastByIDMap<FastByIDFloatMap>();
+    InputFilesReader.readInputFiles(knownItemIDs, rbyRow, rbyColumn, new FastIDSet(), new FastIDSet(), inputFiles);
+
+    assertEquals(3, rbyRow.size());
+    assertEquals((float) NUM_FILES, rbyRow.get(1L).get(100L));
+    assertEquals((float) NUM_FILES, rbyRow.get(2L).get(200L));
+    assertEquals(1, rbyRow.get(3L).size());
+    assertEquals(1.0f, rbyRow.get(3L).get(NUM_FILES - 1));
+    assertEquals(3, rbyColumn.size());
+    assertNull(rbyColumn.get(0L));
+    assertEquals(1.0f, rbyColumn.get(NUM_FILES - 1).get(3L));
+    assertEquals(1, knownItemIDs.get(3L).size());
+    assertTrue(knownItemIDs.get(3L).contains(NUM_FILES - 1));
+  }
+
+  @Test
+  public void testRemoveThenAdd() throws Exception {
+    File dir = getTestTempDir();
+    File first = new File(dir, "first.csv");
+    Files.write("1,10,2.0\n1,11,1.0\n1,12,1.0\n2,10,1.0\n", first, Charsets.UTF_8);
+
+    File second = new File(dir, "second" + AppendLog.SUFFIX);
+    AppendLog appendLog = new AppendLog(second, AppendLog.SyncPolicy.NONE, 16);
+    // Added, removed and added again within the file: only the last add counts
+    appendLog.append(AppendLog.PREFERENCE, 1L, 10L, 5.0f);
+    appendLog.append(AppendLog.REMOVE, 1L, 10L, Float.NaN);
+    appendLog.append(AppendLog.PREFERENCE, 1L, 10L, 1.5f);
+    // Removed here, and added again in the next file
+    appendLog.append(AppendLog.REMOVE, 1L, 11L, Float.NaN);
+    // User 2's only item
+    appendLog.append(AppendLog.REMOVE, 2L, 10L, Float.NaN);
+    // Not removed at all, so adds to the earlier file's value
+    appendLog.append(AppendLog.PREFERENCE, 1L, 12L, 1.0f);
+    appendLog.close();
+
+    File third = new File(dir, "third.csv");
+    Files.write("1,11,4.0\n1,12,1.0\n", third, Charsets.UTF_8);
+
+    FastByIDMap<FastIDSet> knownItemIDs = new FastByIDMap<FastIDSet>();
+    FastByIDMap<FastByIDFloatMap> rbyRow = new FastByIDMap<FastByIDFloatMap>();
+    FastByIDMap<FastByIDFloatMap> rbyColumn = new FastByIDMap<FastByIDFloatMap>();
+    InputFilesReader.readInputFiles(knownItemIDs, rbyRow, rbyColumn, new FastIDSet(), new FastIDSet(),
+                                    Arrays.asList(first, second, third));
+
+    assertEquals(1, rbyRow.size());
+    FastByIDFloatMap user1 = rbyRow.get(1L);
+    assertEquals(3, user1.size());
+    assertEquals(1.5f, user1.get(10L));
+    assertEquals(4.0f, user1.get(11L));
+    assertEquals(3.0f, user1.get(12L));
+    assertEquals(1, rbyColumn.get(10L).size());
+    assertEquals(1.5f, rbyColumn.get(10L).get(1L));
+    assertEquals(1, knownItemIDs.size());
+    assertEquals(3, knownItemIDs.get(1L).size());
+    assertNull(knownItemIDs.get(2L));
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.generation;
+
+import java.io.File;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.collection.FastByIDFloatMap;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.collection.FastIDSet;
+import net.myrrix.common.math.MatrixUtils;
+import net.myrrix.online.factorizer.CompressedSparseMatrix;
+
+public final class InputSnapshotTest extends MyrrixTest {
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    File dir = getTestTempDir();
+    File inputFile = new File(dir, "input.csv");
+    Files.write("1,10,2.0\n", inputFile, Charsets.UTF_8);
+    File[] inputFiles = { inputFile };
+
+    FastByIDMap<FastByIDFloatMap> RbyRow = new FastByIDMap<FastByIDFloatMap>();
+    MatrixUtils.addTo(1L, 10L, 2.0f, RbyRow, null);
+    MatrixUtils.addTo(1L, 11L, 0.00001f, RbyRow, null);
+    MatrixUtils.addTo(2L, 10L, -1.0f, RbyRow, null);
+    MatrixUtils.addTo(2L, 12L, 3.0f, RbyRow, null);
+    // All of row 3 is near zero
+    MatrixUtils.addTo(3L, 12L, 0.00002f, RbyRow, null);
+    FastByIDMap<FastByIDFloatMap> removedByRow = InputFilesReader.removeSmall(RbyRow, null);
+    assertEquals(2, removedByRow.size());
+    MatrixUtils.remove(3L, 12L, RbyRow, null);
+    CompressedSparseMatrix R = CompressedSparseMatrix.fromRows(RbyRow);
+
+    FastIDSet itemTagIDs = new FastIDSet();
+    itemTagIDs.add(1L);
+    FastIDSet userTagIDs = new FastIDSet();
+    userTagIDs.add(12L);
+    InputSnapshot snapshot = new InputSnapshot(dir);
+    snapshot.write(inputFiles, R, removedByRow, itemTagIDs, userTagIDs);
+
+    FastByIDMap<FastIDSet> knownItemIDs = new FastByIDMap<FastIDSet>();
+    FastByIDMap<FastByIDFloatMap> readRbyRow = new FastByIDMap<FastByIDFloatMap>();
+    FastByIDMap<FastByIDFloatMap> readRbyColumn = new FastByIDMap<FastByIDFloatMap>();
+    FastIDSet readItemTagIDs = new FastIDSet();
+    FastIDSet readUserTagIDs = new FastIDSet();
+    List<File> newInputFiles =
+        snapshot.read(knownItemIDs, readRbyRow, readRbyColumn, readItemTagIDs, readUserTagIDs, inputFiles);
+    assertTrue(newInputFiles.isEmpty());
+
+    // Everything as read, including near-zero values
+    assertEquals(3, readRbyRow.size());
+    assertEquals(2.0f, readRbyRow.get(1L).get(10L));
+    assertEquals(0.00001f, readRbyRow.get(1L).get(11L));
+    assertEquals(-1.0f, readRbyRow.get(2L).get(10L));
+    assertEquals(3.0f, readRbyRow.get(2L).get(12L));
+    assertEquals(0.00002f, readRbyRow.get(3L).get(12L));
+    assertEquals(3, readRbyColumn.size());
+    assertEquals(2, readRbyColumn.get(12L).size());
+    assertEquals(3, knownItemIDs.size());
+    assertEquals(2, knownItemIDs.get(1L).size());
+    assertTrue(readItemTagIDs.contains(1L));
+    assertTrue(readUserTagIDs.contains(12L));
+  }
+
+  @Test
+  public void testChangedInputIgnored() throws Exception {
+    File dir = getTestTempDir();
+    File inputFile = new File(dir, "input.csv");
+    Files.write("1,10,2.0\n", inputFile, Charsets.UTF_8);
+    File[] inputFiles = { inputFile };
+    FastByIDMap<FastByIDFloatMap> RbyRow = new FastByIDMap<FastByIDFloatMap>();
+    MatrixUtils.addTo(1L, 10L, 2.0f, RbyRow, null);
+    InputSnapshot snapshot = new InputSnapshot(dir);
+    snapshot.write(inputFiles, CompressedSparseMatrix.fromRows(RbyRow),
+                   new FastByIDMap<FastByIDFloatMap>(), new FastIDSet(), new FastIDSet());
+
+    Files.append("1,11,1.0\n", inputFile, Charsets.UTF_8);
+    FastByIDMap<FastByIDFloatMap> readRbyRow = new FastByIDMap<FastByIDFloatMap>();
+    List<File> newInputFiles =
+        snapshot.read(null, readRbyRow, null, new FastIDSet(), new FastIDSet(), inputFiles);
+    assertEquals(1, newInputFiles.size());
+    assertTrue(readRbyRow.isEmpty());
+  }
+
+}
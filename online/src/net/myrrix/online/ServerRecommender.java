@@ -39,6 +39,7 @@ import java.util.concurrent.locks.ReadWriteLock;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Lists;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -66,12 +67,15 @@ import net.myrrix.common.MutableRecommendedItem;
 import net.myrrix.common.collection.FastByIDFloatMap;
 import net.myrrix.common.collection.FastIDSet;
 import net.myrrix.common.io.IOUtils;
+import net.myrrix.common.IDPage;
 import net.myrrix.common.LangUtils;
 import net.myrrix.common.MyrrixRecommender;
 import net.myrrix.common.NotReadyException;
 import net.myrrix.common.TopN;
 import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.stats.LatencyTimer;
 import net.myrrix.online.candidate.CandidateFilter;
+import net.myrrix.online.factorizer.sgd.StreamingFactorizer;
 import net.myrrix.common.math.SimpleVectorMath;
 import net.myrrix.online.generation.Generation;
 import net.myrrix.online.generation.GenerationManager;
@@ -100,11 +104,19 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
   // Only temporary
   private static final double BIG_FOLDIN_THRESHOLD =
       Double.parseDouble(System.getProperty("model.foldin.bigThreshold", "10000.0"));
+  /** If true, new data updates the model by {@link StreamingFactorizer} instead of by folding in */
+  private static final boolean STREAMING = Boolean.parseBoolean(System.getProperty("model.streaming", "false"));
+
+  private static final LatencyTimer RECOMMEND_SCAN_TIMER = LatencyTimer.forName("recommend.scan");
+  private static final LatencyTimer SIMILARITY_SCAN_TIMER = LatencyTimer.forName("similarity.scan");
+  private static final LatencyTimer LOCK_WAIT_TIMER = LatencyTimer.forName("lock.wait");
+  private static final LatencyTimer FOLD_IN_TIMER = LatencyTimer.forName("foldIn");
 
   private final GenerationManager generationManager;
   private final int numCores;
   private final ReloadingReference<ExecutorService> executor;
   private final IDMigrator tagHasher;
+  private final StreamingFactorizer streamingFactorizer;
 
   /**
    * Calls {@link #ServerRecommender(String, String, File, int, ReloadingReference)} for simple local mode,
@@ -153,6 +165,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
       }
     });
     tagHasher = new OneWayMigrator();
+    streamingFactorizer = STREAMING ? new StreamingFactorizer() : null;
   }
 
   public String getBucket() {
@@ -310,6 +323,9 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
 
   @Override
   public void close() throws IOException {
+    if (streamingFactorizer != null) {
+      streamingFactorizer.close();
+    }
     generationManager.close();
     ExecutorService executorService = executor.maybeGet();
     if (executorService != null) {
@@ -376,7 +392,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
 
     Lock xLock = generation.getXLock().readLock();
     List<float[]> userFeatures = Lists.newArrayListWithCapacity(userIDs.length);
-    xLock.lock();
+    lockTimed(xLock);
     try {
       for (long userID : userIDs) {
         float[] theUserFeatures = X.get(userID);
@@ -398,7 +414,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
     FastIDSet usersKnownItemIDs = null;
     if (!considerKnownItems) {
       Lock knownItemLock = generation.getKnownItemLock().readLock();
-      knownItemLock.lock();
+      lockTimed(knownItemLock);
       try {
         for (long userID : userIDs) {
           FastIDSet theKnownItemIDs = knownItemIDs.get(userID);
@@ -426,7 +442,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
 
     float[][] userFeaturesArray = userFeatures.toArray(new float[userFeatures.size()][]);
     Lock yLock = generation.getYLock().readLock();
-    yLock.lock();
+    lockTimed(yLock);
     try {
       return multithreadedTopN(userFeaturesArray,
                                usersKnownItemIDs,
@@ -447,6 +463,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
                                                   final int howMany,
                                                   CandidateFilter candidateFilter) {
 
+    long start = System.nanoTime();
     Collection<Iterator<FastByIDMap.MapEntry<float[]>>> candidateIterators =
         candidateFilter.getCandidateIterator(userFeatures);
 
@@ -504,7 +521,18 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
 
     }
 
-    return TopN.selectTopNFromQueue(topN, howMany);
+    List<RecommendedItem> result = TopN.selectTopNFromQueue(topN, howMany);
+    RECOMMEND_SCAN_TIMER.addSince(start);
+    return result;
+  }
+
+  /**
+   * Locks, recording how long it took to acquire the lock.
+   */
+  private static void lockTimed(Lock lock) {
+    long start = System.nanoTime();
+    lock.lock();
+    LOCK_WAIT_TIMER.addSince(start);
   }
 
   @Override
@@ -545,7 +573,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
 
     Generation generation = getCurrentGeneration();    
     Lock yLock = generation.getYLock().readLock();    
-    yLock.lock();
+    lockTimed(yLock);
     try {
       return multithreadedTopN(anonymousFeaturesAsArray,
                                userKnownItemIDs,
@@ -767,7 +795,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
     setPreference(userID, itemID, value, false);
   }
 
-  public void setPreference(long userID, long itemID, float value, boolean bulk) {
+  public void setPreference(final long userID, final long itemID, float value, boolean bulk) {
 
     // Record datum
     try {
@@ -776,7 +804,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
       log.warn("Could not append datum; continuing", ioe);
     }
 
-    Generation generation;
+    final Generation generation;
     try {
       generation = getCurrentGeneration();
     } catch (NotReadyException nre) {
@@ -784,7 +812,8 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
       return;
     }
 
-    float[] userFeatures = getFeatures(userID, generation.getX(), generation.getXLock());
+    final long start = System.nanoTime();
+    final float[] userFeatures = getFeatures(userID, generation.getX(), generation.getXLock());
 
     boolean newItem;
     Lock yReadLock = generation.getYLock().readLock();
@@ -798,9 +827,19 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
       generation.getCandidateFilter().addItem(itemID);
     }
     
-    float[] itemFeatures = getFeatures(itemID, generation.getY(), generation.getYLock());
+    final float[] itemFeatures = getFeatures(itemID, generation.getY(), generation.getYLock());
 
-    updateFeatures(userFeatures, itemFeatures, value, generation);
+    learn(userFeatures, itemFeatures, value, generation, new Runnable() {
+      @Override
+      public void run() {
+        // Only now do the vectors reflect the new datum
+        updateClusters(userID, userFeatures, generation.getUserClusters(),
+                       generation.getUserClustersLock().readLock());
+        updateClusters(itemID, itemFeatures, generation.getItemClusters(),
+                       generation.getItemClustersLock().readLock());
+        FOLD_IN_TIMER.addSince(start);
+      }
+    });
 
     FastByIDMap<FastIDSet> knownItemIDs = generation.getKnownItemIDs();
     if (knownItemIDs != null) {
@@ -831,14 +870,13 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
       }
     }
     
-    updateClusters(userID, userFeatures, generation.getUserClusters(), generation.getUserClustersLock().readLock());
-    updateClusters(itemID, itemFeatures, generation.getItemClusters(), generation.getItemClustersLock().readLock());
+    generation.bumpVersion();
   }
   
   private static float[] getFeatures(long id, FastByIDMap<float[]> matrix, ReadWriteLock lock) {
     float[] features;
     Lock readLock = lock.readLock();
-    readLock.lock();
+    lockTimed(readLock);
     try {
       features = matrix.get(id);
       if (features == null) {
@@ -847,7 +885,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
           features = new float[numFeatures];
           Lock writeLock = lock.writeLock();
           readLock.unlock();
-          writeLock.lock();
+          lockTimed(writeLock);
           try {
             matrix.put(id, features);
           } finally {
@@ -862,6 +900,25 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
     return features;
   }
   
+  /**
+   * Queues the new datum for {@link StreamingFactorizer} if it's in use and not backed up, and otherwise
+   * folds it in immediately with {@link #updateFeatures(float[], float[], float, Generation)}.
+   *
+   * @param afterUpdate run once the vectors have been updated, which may be later, in another thread
+   */
+  private void learn(float[] userFeatures,
+                     float[] itemFeatures,
+                     float value,
+                     Generation generation,
+                     Runnable afterUpdate) {
+    if (userFeatures != null && itemFeatures != null && streamingFactorizer != null &&
+        streamingFactorizer.offer(generation, userFeatures, itemFeatures, value, afterUpdate)) {
+      return;
+    }
+    updateFeatures(userFeatures, itemFeatures, value, generation);
+    afterUpdate.run();
+  }
+
   private static void updateFeatures(float[] userFeatures, float[] itemFeatures, float value, Generation generation) {
     if (userFeatures == null || itemFeatures == null) {
       return;
@@ -1070,6 +1127,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
 
     }
 
+    generation.bumpVersion();
   }
   
   @Override
@@ -1082,7 +1140,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
     setUserTag(userID, tag, value, false);
   }
 
-  public void setUserTag(long userID, String tag, float value, boolean bulk) {
+  public void setUserTag(final long userID, String tag, float value, boolean bulk) {
     Preconditions.checkNotNull(tag);    
     Preconditions.checkArgument(!tag.isEmpty());
     // Record datum
@@ -1092,7 +1150,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
       log.warn("Could not append datum; continuing", ioe);
     }
 
-    Generation generation;
+    final Generation generation;
     try {
       generation = getCurrentGeneration();
     } catch (NotReadyException nre) {
@@ -1111,11 +1169,17 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
       userTagWriteLock.unlock();
     }
 
-    float[] userFeatures = getFeatures(userID, generation.getX(), generation.getXLock());
+    final float[] userFeatures = getFeatures(userID, generation.getX(), generation.getXLock());
     float[] tagFeatures = getFeatures(tagID, generation.getY(), generation.getYLock());
-    updateFeatures(userFeatures, tagFeatures, value, generation);
+    learn(userFeatures, tagFeatures, value, generation, new Runnable() {
+      @Override
+      public void run() {
+        updateClusters(userID, userFeatures, generation.getUserClusters(),
+                       generation.getUserClustersLock().readLock());
+      }
+    });
 
-    updateClusters(userID, userFeatures, generation.getUserClusters(), generation.getUserClustersLock().readLock());
+    generation.bumpVersion();
   }
 
   @Override
@@ -1128,7 +1192,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
     setItemTag(tag, itemID, value, false);
   }
   
-  public void setItemTag(String tag, long itemID, float value, boolean bulk) {
+  public void setItemTag(String tag, final long itemID, float value, boolean bulk) {
     Preconditions.checkNotNull(tag);    
     Preconditions.checkArgument(!tag.isEmpty());
     // Record datum
@@ -1138,7 +1202,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
       log.warn("Could not append datum; continuing", ioe);
     }
 
-    Generation generation;
+    final Generation generation;
     try {
       generation = getCurrentGeneration();
     } catch (NotReadyException nre) {
@@ -1158,10 +1222,16 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
     }
     
     float[] tagFeatures = getFeatures(tagID, generation.getX(), generation.getXLock());
-    float[] itemFeatures = getFeatures(itemID, generation.getY(), generation.getYLock());
-    updateFeatures(tagFeatures, itemFeatures, value, generation);
+    final float[] itemFeatures = getFeatures(itemID, generation.getY(), generation.getYLock());
+    learn(tagFeatures, itemFeatures, value, generation, new Runnable() {
+      @Override
+      public void run() {
+        updateClusters(itemID, itemFeatures, generation.getItemClusters(),
+                       generation.getItemClustersLock().readLock());
+      }
+    });
 
-    updateClusters(itemID, itemFeatures, generation.getItemClusters(), generation.getItemClustersLock().readLock());  
+    generation.bumpVersion();
   }
 
   /**
@@ -1186,7 +1256,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
     FastByIDMap<float[]> Y = generation.getY();
 
     Lock yLock = generation.getYLock().readLock();
-    yLock.lock();
+    lockTimed(yLock);
     try {
 
       float[] itemFeatures = Y.get(itemID);
@@ -1194,12 +1264,16 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
         throw new NoSuchItemException(itemID);
       }
 
-      return TopN.selectTopN(new MostSimilarItemIterator(Y.entrySet().iterator(),
-                                                         generation.getUserTagIDs(),
-                                                         new long[] { itemID },
-                                                         new float[][] { itemFeatures },
-                                                         rescorer),
-                             howMany);
+      long start = System.nanoTime();
+      List<RecommendedItem> result =
+          TopN.selectTopN(new MostSimilarItemIterator(Y.entrySet().iterator(),
+                                                      generation.getUserTagIDs(),
+                                                      new long[] { itemID },
+                                                      new float[][] { itemFeatures },
+                                                      rescorer),
+                          howMany);
+      SIMILARITY_SCAN_TIMER.addSince(start);
+      return result;
     } finally {
       yLock.unlock();
     }
@@ -1238,7 +1312,7 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
     FastByIDMap<float[]> Y = generation.getY();
 
     Lock yLock = generation.getYLock().readLock();
-    yLock.lock();
+    lockTimed(yLock);
     try {
 
       List<float[]> itemFeatures = Lists.newArrayListWithCapacity(itemIDs.length);
@@ -1253,12 +1327,16 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
       }
       float[][] itemFeaturesArray = itemFeatures.toArray(new float[itemFeatures.size()][]);
 
-      return TopN.selectTopN(new MostSimilarItemIterator(Y.entrySet().iterator(), 
-                                                         generation.getUserTagIDs(),
-                                                         itemIDs, 
-                                                         itemFeaturesArray, 
-                                                         rescorer),
-                             howMany);
+      long start = System.nanoTime();
+      List<RecommendedItem> result =
+          TopN.selectTopN(new MostSimilarItemIterator(Y.entrySet().iterator(),
+                                                      generation.getUserTagIDs(),
+                                                      itemIDs,
+                                                      itemFeaturesArray,
+                                                      rescorer),
+                          howMany);
+      SIMILARITY_SCAN_TIMER.addSince(start);
+      return result;
     } finally {
       yLock.unlock();
     }
@@ -1436,6 +1514,105 @@ public final class ServerRecommender implements MyrrixRecommender, Closeable {
     }
   }
 
+  @Override
+  public IDPage getUserIDs(String cursor, int howMany) throws NotReadyException {
+    Generation generation = getCurrentGeneration();
+    return getIDPageFromKeys(generation.getX(), generation.getXLock().readLock(), generation.getItemTagIDs(),
+                             cursor, howMany);
+  }
+
+  @Override
+  public IDPage getItemIDs(String cursor, int howMany) throws NotReadyException {
+    Generation generation = getCurrentGeneration();
+    return getIDPageFromKeys(generation.getY(), generation.getYLock().readLock(), generation.getUserTagIDs(),
+                             cursor, howMany);
+  }
+
+  /**
+   * A cursor is of the form {@code numSlots.layoutVersion.slot}: the size of the map's table and its
+   * {@link FastByIDMap#getLayoutVersion()} when it was returned, and the slot to continue from. If the table
+   * has been rehashed since, slots have moved and the cursor can't be used.
+   */
+  private static IDPage getIDPageFromKeys(FastByIDMap<float[]> map,
+                                          Lock readLock,
+                                          FastIDSet tagIDs,
+                                          String cursor,
+                                          int howMany) {
+    Preconditions.checkArgument(howMany > 0, "Bad howMany: %s", howMany);
+    readLock.lock();
+    try {
+      String layout = map.getNumSlots() + "." + map.getLayoutVersion() + '.';
+      int fromSlot = 0;
+      if (cursor != null && !cursor.isEmpty()) {
+        int lastDot = cursor.lastIndexOf('.');
+        Preconditions.checkArgument(lastDot > 0, "Bad cursor: %s", cursor);
+        Preconditions.checkArgument(cursor.substring(0, lastDot + 1).equals(layout),
+                                    "Cursor no longer valid since model changed; start again: %s", cursor);
+        fromSlot = Integer.parseInt(cursor.substring(lastDot + 1));
+        Preconditions.checkArgument(fromSlot >= 0 && fromSlot <= map.getNumSlots(), "Bad cursor: %s", cursor);
+      }
+      FastIDSet ids = new FastIDSet(howMany);
+      int nextSlot = map.getKeysFromSlot(fromSlot, howMany, tagIDs, ids);
+      return new IDPage(ids, nextSlot < map.getNumSlots() ? layout + nextSlot : null);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Like {@link #getUserIDs(String, int)}, reads all user IDs a page at a time, but from the table as laid out
+   * at the start, so that a rehash meanwhile does not make IDs be skipped or repeated. The old table is kept
+   * until done, if it is replaced.
+   *
+   * @param pageSize most IDs to return in each page
+   * @return pages of user IDs, each read as it is requested
+   */
+  public Iterator<FastIDSet> getUserIDPages(int pageSize) throws NotReadyException {
+    Generation generation = getCurrentGeneration();
+    return getIDPagesFromKeys(generation.getX(), generation.getXLock().readLock(), generation.getItemTagIDs(),
+                              pageSize);
+  }
+
+  /**
+   * @see #getUserIDPages(int)
+   */
+  public Iterator<FastIDSet> getItemIDPages(int pageSize) throws NotReadyException {
+    Generation generation = getCurrentGeneration();
+    return getIDPagesFromKeys(generation.getY(), generation.getYLock().readLock(), generation.getUserTagIDs(),
+                              pageSize);
+  }
+
+  private static Iterator<FastIDSet> getIDPagesFromKeys(FastByIDMap<float[]> map,
+                                                        final Lock readLock,
+                                                        final FastIDSet tagIDs,
+                                                        final int pageSize) {
+    Preconditions.checkArgument(pageSize > 0, "Bad pageSize: %s", pageSize);
+    final FastByIDMap.KeySlots keySlots;
+    readLock.lock();
+    try {
+      keySlots = map.getKeySlots();
+    } finally {
+      readLock.unlock();
+    }
+    return new AbstractIterator<FastIDSet>() {
+      private int slot;
+      @Override
+      protected FastIDSet computeNext() {
+        if (slot >= keySlots.getNumSlots()) {
+          return endOfData();
+        }
+        FastIDSet ids = new FastIDSet(pageSize);
+        readLock.lock();
+        try {
+          slot = keySlots.getKeysFromSlot(slot, pageSize, tagIDs, ids);
+        } finally {
+          readLock.unlock();
+        }
+        return ids;
+      }
+    };
+  }
+
   @Override
   public int getNumUserClusters() throws NotReadyException {
     Generation generation = getCurrentGeneration();
@@ -0,0 +1,177 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.factorizer;
+
+import com.google.common.base.Preconditions;
+
+import net.myrrix.common.collection.FastByIDFloatMap;
+import net.myrrix.common.collection.FastByIDMap;
+
+/**
+ * <p>An immutable sparse matrix in compressed sparse row (CSR) form. Rows and columns are identified by
+ * dense indices, which map to and from {@code long} IDs through an {@link IDIndex} for each.
+ * The values of row {@code r} are in {@code getValues()[i]} for {@code i} from {@code getRowStart(r)}
+ * (inclusive) to {@code getRowStart(r+1)} (exclusive), and {@code getColumnIndices()[i]} is the column
+ * of each.</p>
+ *
+ * <p>Each value is stored once, in three flat arrays, rather than in a hash table per row.
+ * {@link #transpose()} gives the same matrix in compressed sparse column (CSC) form, as the CSR form of
+ * the transpose.</p>
+ */
+public final class CompressedSparseMatrix {
+
+  private final IDIndex rowIDs;
+  private final IDIndex columnIDs;
+  private final int[] rowStarts;
+  private final int[] columnIndices;
+  private final float[] values;
+
+  private CompressedSparseMatrix(IDIndex rowIDs,
+                                 IDIndex columnIDs,
+                                 int[] rowStarts,
+                                 int[] columnIndices,
+                                 float[] values) {
+    this.rowIDs = rowIDs;
+    this.columnIDs = columnIDs;
+    this.rowStarts = rowStarts;
+    this.columnIndices = columnIndices;
+    this.values = values;
+  }
+
+  /**
+   * @param R matrix to convert, keyed by row then column ID
+   * @return the same matrix in CSR form. Rows are indexed in the order {@code R} iterates over them.
+   */
+  public static CompressedSparseMatrix fromRows(FastByIDMap<FastByIDFloatMap> R) {
+    long numValues = 0;
+    for (FastByIDMap.MapEntry<FastByIDFloatMap> entry : R.entrySet()) {
+      numValues += entry.getValue().size();
+    }
+    Preconditions.checkArgument(numValues <= Integer.MAX_VALUE, "Too many values: %s", numValues);
+
+    IDIndex rowIDs = new IDIndex(R.size());
+    IDIndex columnIDs = new IDIndex();
+    int[] rowStarts = new int[R.size() + 1];
+    int[] columnIndices = new int[(int) numValues];
+    float[] values = new float[(int) numValues];
+
+    int i = 0;
+    for (FastByIDMap.MapEntry<FastByIDFloatMap> entry : R.entrySet()) {
+      int row = rowIDs.add(entry.getKey());
+      rowStarts[row] = i;
+      for (FastByIDFloatMap.MapEntry entry2 : entry.getValue().entrySet()) {
+        columnIndices[i] = columnIDs.add(entry2.getKey());
+        values[i] = entry2.getValue();
+        i++;
+      }
+    }
+    rowStarts[rowIDs.size()] = i;
+
+    return new CompressedSparseMatrix(rowIDs, columnIDs, rowStarts, columnIndices, values);
+  }
+
+  /**
+   * @return the transpose of this matrix in CSR form, which is this matrix in CSC form. Row and column
+   *  {@link IDIndex}es are shared with this matrix, swapped. Within each row, values are ordered by column.
+   */
+  public CompressedSparseMatrix transpose() {
+    int numColumns = columnIDs.size();
+    int numValues = values.length;
+
+    // Count values per column, then turn counts into start offsets
+    int[] columnStarts = new int[numColumns + 1];
+    for (int column : columnIndices) {
+      columnStarts[column + 1]++;
+    }
+    for (int column = 0; column < numColumns; column++) {
+      columnStarts[column + 1] += columnStarts[column];
+    }
+
+    int[] nextInColumn = new int[numColumns];
+    System.arraycopy(columnStarts, 0, nextInColumn, 0, numColumns);
+    int[] rowIndices = new int[numValues];
+    float[] transposedValues = new float[numValues];
+    int numRows = rowIDs.size();
+    for (int row = 0; row < numRows; row++) {
+      for (int i = rowStarts[row]; i < rowStarts[row + 1]; i++) {
+        int j = nextInColumn[columnIndices[i]]++;
+        rowIndices[j] = row;
+        transposedValues[j] = values[i];
+      }
+    }
+
+    return new CompressedSparseMatrix(columnIDs, rowIDs, columnStarts, rowIndices, transposedValues);
+  }
+
+  /**
+   * @return IDs of rows, by row index
+   */
+  public IDIndex getRowIDs() {
+    return rowIDs;
+  }
+
+  /**
+   * @return IDs of columns, by column index
+   */
+  public IDIndex getColumnIDs() {
+    return columnIDs;
+  }
+
+  public int getNumRows() {
+    return rowIDs.size();
+  }
+
+  public int getNumColumns() {
+    return columnIDs.size();
+  }
+
+  /**
+   * @return number of values stored, which is also the length of {@link #getColumnIndices()}
+   *  and {@link #getValues()}
+   */
+  public int getNumValues() {
+    return values.length;
+  }
+
+  /**
+   * @param row row index, from 0 to {@link #getNumRows()} inclusive
+   * @return position in {@link #getColumnIndices()} and {@link #getValues()} where the row's values
+   *  start, which is also where the previous row's values end
+   */
+  public int getRowStart(int row) {
+    return rowStarts[row];
+  }
+
+  public int getRowSize(int row) {
+    return rowStarts[row + 1] - rowStarts[row];
+  }
+
+  /**
+   * @return column index of each value. The array is not copied, and must not be modified.
+   */
+  public int[] getColumnIndices() {
+    return columnIndices;
+  }
+
+  /**
+   * @return all values, row by row. The array is not copied, and must not be modified.
+   */
+  public float[] getValues() {
+    return values;
+  }
+
+}
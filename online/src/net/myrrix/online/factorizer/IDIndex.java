@@ -0,0 +1,152 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.factorizer;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.util.FastMath;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+
+/**
+ * <p>A dictionary that assigns each distinct {@code long} ID a dense index, 0, 1, 2, ..., in the order
+ * in which IDs are added. This lets vectors and matrix rows be stored in arrays instead of hash tables.</p>
+ *
+ * <p>This class is not thread-safe for writes, but may be read concurrently once built.</p>
+ */
+public final class IDIndex {
+
+  private long[] ids;
+  /** Open-addressed hash table of index + 1 into {@link #ids}; 0 marks an empty slot. */
+  private int[] table;
+  private int size;
+
+  public IDIndex() {
+    this(16);
+  }
+
+  /**
+   * @param expectedSize number of IDs expected to be added
+   */
+  public IDIndex(int expectedSize) {
+    Preconditions.checkArgument(expectedSize >= 0, "expectedSize must be at least 0: %s", expectedSize);
+    ids = new long[FastMath.max(expectedSize, 1)];
+    table = new int[tableSizeFor(ids.length)];
+  }
+
+  /**
+   * @return number of distinct IDs added
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return index of the given ID, or -1 if not present
+   */
+  public int indexOf(long id) {
+    int[] table = this.table;
+    int mask = table.length - 1;
+    for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+      int entry = table[slot];
+      if (entry == 0) {
+        return -1;
+      }
+      if (ids[entry - 1] == id) {
+        return entry - 1;
+      }
+    }
+  }
+
+  /**
+   * @return index of the given ID, which is newly assigned the next index if not already present
+   */
+  public int add(long id) {
+    int mask = table.length - 1;
+    int slot = hash(id) & mask;
+    while (true) {
+      int entry = table[slot];
+      if (entry == 0) {
+        break;
+      }
+      if (ids[entry - 1] == id) {
+        return entry - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, grow(size));
+    }
+    int index = size++;
+    ids[index] = id;
+    if (2 * size > table.length) {
+      rehash();
+    } else {
+      table[slot] = index + 1;
+    }
+    return index;
+  }
+
+  /**
+   * @return ID with the given index
+   */
+  public long idAt(int index) {
+    Preconditions.checkElementIndex(index, size);
+    return ids[index];
+  }
+
+  /**
+   * @return all IDs, in index order
+   */
+  public LongPrimitiveIterator iterator() {
+    return new LongPrimitiveArrayIterator(size == ids.length ? ids : Arrays.copyOf(ids, size));
+  }
+
+  private void rehash() {
+    int[] newTable = new int[tableSizeFor(grow(size))];
+    int mask = newTable.length - 1;
+    for (int index = 0; index < size; index++) {
+      int slot = hash(ids[index]) & mask;
+      while (newTable[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      newTable[slot] = index + 1;
+    }
+    table = newTable;
+  }
+
+  private static int hash(long id) {
+    int h = (int) (id ^ (id >>> 32));
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return power of 2 at least twice the argument, so the table is at most half full
+   */
+  private static int tableSizeFor(int capacity) {
+    return Integer.highestOneBit(FastMath.max(capacity, 1)) << 2;
+  }
+
+  private static int grow(int size) {
+    int newSize = size + (size >> 1) + 1;
+    Preconditions.checkState(newSize > size, "Too many IDs");
+    return newSize;
+  }
+
+}
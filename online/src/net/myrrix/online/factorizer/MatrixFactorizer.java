@@ -16,10 +16,12 @@
 
 package net.myrrix.online.factorizer;
 
+import java.io.File;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
 import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.collection.FastIDSet;
 
 /**
  * Implementations of this interface can factor a matrix into two matrices {@code X} and {@code Y},
@@ -60,6 +62,26 @@ public interface MatrixFactorizer extends Callable<Void> {
    */
   void setPreviousY(FastByIDMap<float[]> previousY);
 
+  /**
+   * Recompute only the rows of {@code X} and {@code Y} for the given IDs, and for their immediate neighbors
+   * in the input, starting from the initial state set by {@link #setPreviousX(FastByIDMap)} and
+   * {@link #setPreviousY(FastByIDMap)}. Other rows are kept as they are. May be ignored, in which case
+   * everything is recomputed.
+   *
+   * @param changedRowIDs IDs of rows (users) whose input has changed
+   * @param changedColumnIDs IDs of columns (items) whose input has changed
+   */
+  void setChangedIDs(FastIDSet changedRowIDs, FastIDSet changedColumnIDs);
+
+  /**
+   * Periodically save intermediate results to the given file while running, and first resume from results
+   * saved there, if they were saved for the same version of the input. May be ignored.
+   *
+   * @param checkpointFile file to save intermediate results to
+   * @param inputVersion identifies the current input
+   */
+  void setCheckpoint(File checkpointFile, long inputVersion);
+
   /**
    * Typically called after {@link #call()} has finished.
    *
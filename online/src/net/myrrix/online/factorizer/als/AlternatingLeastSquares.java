@@ -16,6 +16,9 @@
 
 package net.myrrix.online.factorizer.als;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -23,20 +26,20 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
-import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.random.RandomGenerator;
 import org.apache.commons.math3.util.FastMath;
-import org.apache.commons.math3.util.Pair;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.myrrix.common.parallel.ExecutorUtils;
+import net.myrrix.common.math.CholeskySolver;
 import net.myrrix.common.math.SimpleVectorMath;
 import net.myrrix.common.random.RandomManager;
 import net.myrrix.common.random.RandomUtils;
@@ -45,7 +48,10 @@ import net.myrrix.common.stats.JVMEnvironment;
 import net.myrrix.common.LangUtils;
 import net.myrrix.common.collection.FastByIDFloatMap;
 import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.collection.FastIDSet;
 import net.myrrix.common.math.MatrixUtils;
+import net.myrrix.online.factorizer.CompressedSparseMatrix;
+import net.myrrix.online.factorizer.IDIndex;
 import net.myrrix.online.factorizer.MatrixFactorizer;
 
 /**
@@ -56,9 +62,24 @@ import net.myrrix.online.factorizer.MatrixFactorizer;
  * <p>This implementation varies in some small details; it does not use the same mechanism for explaining ratings
  * for example and seeds the initial Y differently.</p>
  *
- * <p>Note that in this implementation, matrices are sparse and are implemented with a {@link FastByIDMap} of
- * {@link FastByIDFloatMap} so as to be able to use {@code long} keys. In many cases, a tall, skinny matrix is
- * needed (sparse rows, dense columns). This is represented with {@link FastByIDMap} of {@code float[]}.</p>
+ * <p>Note that in this implementation, the input R is held as a {@link CompressedSparseMatrix}, once by row
+ * and once by column, in which {@code long} IDs are mapped to dense indices. While iterating, X and Y are
+ * tall, skinny matrices (sparse rows, dense columns) held as {@link DenseFactors}, addressed by the same
+ * indices, and only converted to a {@link FastByIDMap} of {@code float[]} at the end.</p>
+ *
+ * <p>Given the previous X and Y and the IDs whose input changed, with
+ * {@link #setChangedIDs(FastIDSet, FastIDSet)}, this runs incrementally instead: only rows for changed IDs,
+ * their immediate neighbors in R, and IDs with no previous value are recomputed, for a small fixed number of
+ * iterations set by {@code model.als.incremental.iterations}. The rest of X and Y are kept as they were.</p>
+ *
+ * <p>Given a checkpoint file with {@link #setCheckpoint(File, long)}, X and Y are saved to it every
+ * {@code model.als.checkpointInterval} iterations, and a later computation over the same input resumes from
+ * the last one saved. The file is deleted once iteration finishes.</p>
+ *
+ * <p>If {@code model.als.freezeThreshold} is positive, rows of X or Y whose vectors changed by less than
+ * this fraction of their length in the last iteration, and whose neighbors in R also did, are frozen and
+ * not recomputed until a neighbor changes again. A value like 0.001 skips much of the work of later
+ * iterations, when most rows have settled.</p>
  *
  * @author Sean Owen
  * @since 1.0
@@ -73,16 +94,35 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
   public static final double DEFAULT_LAMBDA = 0.1;
   public static final double DEFAULT_CONVERGENCE_THRESHOLD = 0.001;
   public static final int DEFAULT_MAX_ITERATIONS = 30;
+  /** Default number of iterations when recomputing incrementally. */
+  public static final int DEFAULT_INCREMENTAL_ITERATIONS = 2;
+  /** Default number of iterations between checkpoints. */
+  public static final int DEFAULT_CHECKPOINT_INTERVAL = 5;
+  /** Default for {@code model.als.freezeThreshold}; rows are not frozen by default. */
+  public static final double DEFAULT_FREEZE_THRESHOLD = 0.0;
 
-  private static final int WORK_UNIT_SIZE = 100;
+  /** Rows are divided into about this many chunks per thread, so that threads finish at about the same time */
+  private static final int CHUNKS_PER_THREAD = 8;
+  /** Minimum cost of a chunk of rows, in values of R; see {@link #computeChunkStarts(CompressedSparseMatrix, int[])} */
+  private static final long MIN_CHUNK_COST = 10000;
   private static final int NUM_USER_ITEMS_TO_TEST_CONVERGENCE = 100;
   
   private static final long LOG_INTERVAL = 100000;
   private static final int MAX_FAR_FROM_VECTORS = 100000;
+  /**
+   * How new rows of Y are initialized: "orthonormal" takes them from random orthonormal bases, and
+   * "farFrom" chooses each to be far from a sample of up to {@link #MAX_FAR_FROM_VECTORS} existing rows,
+   * which is much slower. Compare with the number of iterations logged at the end.
+   */
+  private static final String INITIAL_Y = System.getProperty("model.als.initialY", "orthonormal");
+  static {
+    Preconditions.checkArgument("orthonormal".equals(INITIAL_Y) || "farFrom".equals(INITIAL_Y),
+                                "Bad model.als.initialY: %s", INITIAL_Y);
+  }
   
   // This will cause the ALS algorithm to reconstruction the input matrix R, rather than the
   // matrix P = R > 0 . Don't use this unless you understand it!
-  private static final boolean RECONSTRUCT_R_MATRIX = 
+  private static final boolean DEFAULT_RECONSTRUCT_R_MATRIX =
       Boolean.parseBoolean(System.getProperty("model.reconstructRMatrix", "false"));
   // Causes the loss function to exclude entries for any input pairs that do not appear in the
   // input and are implicitly 0
@@ -90,14 +130,33 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
   private static final boolean LOSS_IGNORES_UNSPECIFIED = 
       Boolean.parseBoolean(System.getProperty("model.lossIgnoresUnspecified", "false"));
 
-  private final FastByIDMap<FastByIDFloatMap> RbyRow;
-  private final FastByIDMap<FastByIDFloatMap> RbyColumn;
+  private final CompressedSparseMatrix RbyRow;
+  private final CompressedSparseMatrix RbyColumn;
   private final int features;
   private final double estimateErrorConvergenceThreshold;
   private final int maxIterations;
+  private final int conjugateGradientSteps;
   private FastByIDMap<float[]> X;
   private FastByIDMap<float[]> Y;
+  private FastByIDMap<float[]> previousX;
   private FastByIDMap<float[]> previousY;
+  private FastIDSet changedRowIDs;
+  private FastIDSet changedColumnIDs;
+  private File checkpointFile;
+  private long inputVersion;
+  private boolean reconstructRMatrix;
+  /** X during iteration, by row index of {@link #RbyRow} */
+  private DenseFactors denseX;
+  /** Y during iteration, by row index of {@link #RbyColumn}, followed by rows in {@link #extraYIDs} */
+  private DenseFactors denseY;
+  /** IDs of rows in the initial Y that are not in R, which are carried along unchanged */
+  private long[] extraYIDs;
+  private int numThreads;
+  private int iterationsRun;
+  /** Relative change in each row of {@link #denseX} when last computed, if tracked */
+  private float[] xMovement;
+  /** Relative change in each row of {@link #denseY} when last computed, if tracked */
+  private float[] yMovement;
 
   /**
    * Uses default number of feature and convergence threshold.
@@ -123,7 +182,8 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
 
   /**
    * @param RbyRow the input R matrix, indexed by row
-   * @param RbyColumn the input R matrix, indexed by column
+   * @param RbyColumn the input R matrix, indexed by column. This is not used, as the same is derived from
+   *   {@code RbyRow}; it may be discarded once this is constructed.
    * @param features number of features, must be positive
    * @param estimateErrorConvergenceThreshold when the average absolute difference in estimated user-item
    *   scores falls below this threshold between iterations, iterations will stop
@@ -134,16 +194,48 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
                                  int features,
                                  double estimateErrorConvergenceThreshold,
                                  int maxIterations) {
-    Preconditions.checkNotNull(RbyRow);
+    this(CompressedSparseMatrix.fromRows(Preconditions.checkNotNull(RbyRow)),
+         features,
+         estimateErrorConvergenceThreshold,
+         maxIterations);
     Preconditions.checkNotNull(RbyColumn);
+  }
+
+  /**
+   * @param RbyRow the input R matrix, indexed by row
+   * @param features number of features, must be positive
+   * @param estimateErrorConvergenceThreshold when the average absolute difference in estimated user-item
+   *   scores falls below this threshold between iterations, iterations will stop
+   * @param maxIterations caps the number of iterations run. If non-positive, there is no cap.
+   */
+  public AlternatingLeastSquares(CompressedSparseMatrix RbyRow,
+                                 int features,
+                                 double estimateErrorConvergenceThreshold,
+                                 int maxIterations) {
+    this(RbyRow, features, estimateErrorConvergenceThreshold, maxIterations, 0);
+  }
+
+  /**
+   * @param conjugateGradientSteps if positive, each row's system is solved approximately with this many
+   *   steps of conjugate gradient, starting from the row's previous value, instead of directly
+   * @see ConjugateGradientAlternatingLeastSquares
+   */
+  AlternatingLeastSquares(CompressedSparseMatrix RbyRow,
+                          int features,
+                          double estimateErrorConvergenceThreshold,
+                          int maxIterations,
+                          int conjugateGradientSteps) {
+    Preconditions.checkNotNull(RbyRow);
     Preconditions.checkArgument(features > 0, "features must be positive: %s", features);
     Preconditions.checkArgument(estimateErrorConvergenceThreshold > 0.0 && estimateErrorConvergenceThreshold < 1.0,
                                 "threshold must be in (0,1): %s", estimateErrorConvergenceThreshold);
     this.RbyRow = RbyRow;
-    this.RbyColumn = RbyColumn;
+    this.RbyColumn = RbyRow.transpose();
     this.features = features;
     this.estimateErrorConvergenceThreshold = estimateErrorConvergenceThreshold;
     this.maxIterations = maxIterations;
+    this.conjugateGradientSteps = conjugateGradientSteps;
+    this.reconstructRMatrix = DEFAULT_RECONSTRUCT_R_MATRIX;
   }
 
   @Override
@@ -157,11 +249,14 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
   }
 
   /**
-   * Does nothing.
+   * Sets the initial state of X, which is only used when computing incrementally.
+   * Call before {@link #call()}.
+   *
+   * @see #setChangedIDs(FastIDSet, FastIDSet)
    */
   @Override
   public void setPreviousX(FastByIDMap<float[]> previousX) {
-    // do nothing
+    this.previousX = previousX;
   }
 
   /**
@@ -173,18 +268,77 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
     this.previousY = previousY;
   }
 
+  /**
+   * Causes {@link #call()} to compute incrementally, if previous X and Y with the same number of features
+   * are also set. Call before {@link #call()}.
+   */
   @Override
-  public Void call() throws ExecutionException, InterruptedException {
+  public void setChangedIDs(FastIDSet changedRowIDs, FastIDSet changedColumnIDs) {
+    this.changedRowIDs = changedRowIDs;
+    this.changedColumnIDs = changedColumnIDs;
+  }
 
-    X = new FastByIDMap<float[]>(RbyRow.size());
+  /**
+   * Causes {@link #call()} to save its progress periodically to the given file, and to resume from it first
+   * if it holds progress saved for the same input. Call before {@link #call()}. Not used when computing
+   * incrementally.
+   *
+   * @param checkpointFile file to save progress to
+   * @param inputVersion identifies the input; progress saved for any other version is ignored
+   */
+  @Override
+  public void setCheckpoint(File checkpointFile, long inputVersion) {
+    this.checkpointFile = checkpointFile;
+    this.inputVersion = inputVersion;
+  }
 
+  /**
+   * Overrides {@code model.reconstructRMatrix} for this computation. Call before {@link #call()}.
+   *
+   * @param reconstructRMatrix if true, reconstructs the input matrix R rather than P = R &gt; 0
+   */
+  void setReconstructRMatrix(boolean reconstructRMatrix) {
+    this.reconstructRMatrix = reconstructRMatrix;
+  }
+
+  @Override
+  public Void call() throws ExecutionException, InterruptedException {
+
+    boolean incremental = changedRowIDs != null && changedColumnIDs != null &&
+        hasFeatures(previousX) && hasFeatures(previousY);
+    Checkpoint checkpoint = null;
+    if (checkpointFile != null && !incremental) {
+      checkpoint = Checkpoint.read(checkpointFile, inputVersion, features);
+      if (checkpoint != null) {
+        log.info("Resuming from checkpoint after iteration {}", checkpoint.getIterationNumber());
+        previousY = checkpoint.getY();
+      }
+    }
     boolean randomY = previousY == null || previousY.isEmpty();
-    Y = constructInitialY(previousY);
+    boolean[] solveColumn = null;
+    if (incremental) {
+      // Must note which columns are new before the initial Y is filled in
+      solveColumn = new boolean[RbyColumn.getNumRows()];
+      markMissing(RbyColumn.getRowIDs(), previousY, solveColumn);
+    } else if (changedRowIDs != null) {
+      log.info("No previous X and Y with {} features; recomputing all", features);
+    }
+    initDenseFactors(constructInitialY(previousY));
+    if (checkpoint != null) {
+      IDIndex userIDs = RbyRow.getRowIDs();
+      FastByIDMap<float[]> checkpointX = checkpoint.getX();
+      for (int user = 0; user < userIDs.size(); user++) {
+        float[] vector = checkpointX.get(userIDs.idAt(user));
+        if (vector != null) {
+          denseX.setRow(user, vector);
+        }
+      }
+    }
 
     // This will be used to compute rows/columns in parallel during iteration
 
     String threadsString = System.getProperty("model.threads");
-    int numThreads =
+    numThreads =
         threadsString == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threadsString);
     ExecutorService executor =
         Executors.newFixedThreadPool(numThreads,
@@ -196,41 +350,86 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
     if (!Boolean.parseBoolean(System.getProperty("model.als.iterate", "true"))) {
       // Just figure X from Y and stop
       try {
-        iterateXFromY(executor);
+        iterateXFromY(executor, null);
       } finally {
         ExecutorUtils.shutdownNowAndAwait(executor);        
+        copyDenseFactorsOut();
       }
       return null;      
     }
 
+    if (incremental) {
+      try {
+        iterateIncrementally(executor, solveColumn);
+      } finally {
+        ExecutorUtils.shutdownNowAndAwait(executor);
+        copyDenseFactorsOut();
+      }
+      return null;
+    }
+
     RandomGenerator random = RandomManager.getRandom();
     long[] testUserIDs = RandomUtils.chooseAboutNFromStream(NUM_USER_ITEMS_TO_TEST_CONVERGENCE, 
-                                                            RbyRow.keySetIterator(), 
-                                                            RbyRow.size(), 
+                                                            RbyRow.getRowIDs().iterator(),
+                                                            RbyRow.getNumRows(),
                                                             random);
     long[] testItemIDs = RandomUtils.chooseAboutNFromStream(NUM_USER_ITEMS_TO_TEST_CONVERGENCE, 
-                                                            RbyColumn.keySetIterator(), 
-                                                            RbyColumn.size(), 
+                                                            RbyColumn.getRowIDs().iterator(),
+                                                            RbyColumn.getNumRows(),
                                                             random);
-    double[][] estimates = new double[testUserIDs.length][testItemIDs.length];
-    if (!X.isEmpty()) {
-      for (int i = 0; i < testUserIDs.length; i++) {
-        for (int j = 0; j < testItemIDs.length; j++) {
-          estimates[i][j] = SimpleVectorMath.dot(X.get(testUserIDs[i]), Y.get(testItemIDs[j])); 
+    int[] testUserIndices = indicesOf(testUserIDs, RbyRow.getRowIDs());
+    int[] testItemIndices = indicesOf(testItemIDs, RbyColumn.getRowIDs());
+    double[][] estimates = new double[testUserIndices.length][testItemIndices.length];
+    if (checkpoint != null) {
+      for (int i = 0; i < testUserIndices.length; i++) {
+        for (int j = 0; j < testItemIndices.length; j++) {
+          estimates[i][j] = denseX.dot(testUserIndices[i], denseY, testItemIndices[j]);
         }
       }
     }
-    // Otherwise X is empty because it's the first ever iteration. Estimates can be left at initial 0 value
+    // Otherwise X is not computed yet, so estimates can be left at initial 0 value
+
+    int checkpointInterval = 0;
+    if (checkpointFile != null) {
+      String intervalString = System.getProperty("model.als.checkpointInterval",
+                                                 Integer.toString(DEFAULT_CHECKPOINT_INTERVAL));
+      checkpointInterval = Integer.parseInt(intervalString);
+      Preconditions.checkArgument(checkpointInterval > 0, "Bad model.als.checkpointInterval: %s", intervalString);
+    }
+
+    String freezeThresholdString = System.getProperty("model.als.freezeThreshold",
+                                                      Double.toString(DEFAULT_FREEZE_THRESHOLD));
+    double freezeThreshold = LangUtils.parseDouble(freezeThresholdString);
+    Preconditions.checkArgument(freezeThreshold >= 0.0, "Bad model.als.freezeThreshold: %s", freezeThreshold);
+    if (freezeThreshold > 0.0) {
+      // No row may be frozen until it has been solved at least once in this computation
+      xMovement = new float[RbyRow.getNumRows()];
+      Arrays.fill(xMovement, Float.POSITIVE_INFINITY);
+      yMovement = new float[RbyColumn.getNumRows()];
+      Arrays.fill(yMovement, Float.POSITIVE_INFINITY);
+    }
 
     try {
-      int iterationNumber = 0;
+      int iterationNumber = checkpoint == null ? 0 : checkpoint.getIterationNumber();
+      int[] rowsToSolve = null;
+      int[] columnsToSolve;
       while (true) {
-        iterateXFromY(executor);
-        iterateYFromX(executor);
+        iterateXFromY(executor, rowsToSolve);
+        if (freezeThreshold > 0.0) {
+          columnsToSolve = unfrozenRows(RbyColumn, yMovement, xMovement, freezeThreshold);
+        } else {
+          columnsToSolve = null;
+        }
+        iterateYFromX(executor, columnsToSolve);
+        if (freezeThreshold > 0.0) {
+          rowsToSolve = unfrozenRows(RbyRow, xMovement, yMovement, freezeThreshold);
+          log.info("{} of {} X rows and {} of {} Y rows still changing",
+                   rowsToSolve.length, xMovement.length, columnsToSolve.length, yMovement.length);
+        }
         DoubleWeightedMean averageAbsoluteEstimateDiff = new DoubleWeightedMean();
-        for (int i = 0; i < testUserIDs.length; i++) {
-          for (int j = 0; j < testItemIDs.length; j++) {
-            double newValue = SimpleVectorMath.dot(X.get(testUserIDs[i]), Y.get(testItemIDs[j]));            
+        for (int i = 0; i < testUserIndices.length; i++) {
+          for (int j = 0; j < testItemIndices.length; j++) {
+            double newValue = denseX.dot(testUserIndices[i], denseY, testItemIndices[j]);
             double oldValue = estimates[i][j];
             estimates[i][j] = newValue;
             averageAbsoluteEstimateDiff.increment(FastMath.abs(newValue - oldValue), FastMath.max(0.0, newValue));
@@ -254,13 +453,227 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
           log.info("Converged");          
           break;
         }
+        if (rowsToSolve != null && rowsToSolve.length == 0 && columnsToSolve.length == 0) {
+          log.info("All rows frozen");
+          break;
+        }
+        if (checkpointInterval > 0 && iterationNumber % checkpointInterval == 0) {
+          writeCheckpoint(iterationNumber);
+        }
+      }
+      iterationsRun = iterationNumber;
+      log.info("Finished after {} iterations, starting from {} initial Y", iterationNumber, INITIAL_Y);
+      if (checkpointFile != null && checkpointFile.exists() && !checkpointFile.delete()) {
+        log.warn("Could not delete {}", checkpointFile);
       }
     } finally {
       ExecutorUtils.shutdownNowAndAwait(executor);
+      // Even if interrupted, leave X and Y as computed so far
+      copyDenseFactorsOut();
+      xMovement = null;
+      yMovement = null;
     }
     return null;
   }
 
+  /**
+   * @param R R, by row or by column
+   * @param movement relative change in each row of the factor matrix corresponding to R's rows
+   * @param neighborMovement relative change in each row of the other factor matrix
+   * @param threshold rows that changed less than this, and whose neighbors did too, are frozen
+   * @return indices of rows that are not frozen
+   */
+  private static int[] unfrozenRows(CompressedSparseMatrix R,
+                                    float[] movement,
+                                    float[] neighborMovement,
+                                    double threshold) {
+    int[] columnIndices = R.getColumnIndices();
+    boolean[] solve = new boolean[movement.length];
+    for (int row = 0; row < movement.length; row++) {
+      if (!(movement[row] < threshold)) {
+        solve[row] = true;
+        continue;
+      }
+      for (int i = R.getRowStart(row); i < R.getRowStart(row + 1); i++) {
+        if (!(neighborMovement[columnIndices[i]] < threshold)) {
+          solve[row] = true;
+          break;
+        }
+      }
+    }
+    return indicesOfTrue(solve);
+  }
+
+  /**
+   * @return number of iterations run by the last full computation, including any before a checkpoint it
+   *  resumed from
+   */
+  int getIterationsRun() {
+    return iterationsRun;
+  }
+
+  private void writeCheckpoint(int iterationNumber) {
+    try {
+      Checkpoint.write(checkpointFile, inputVersion, iterationNumber,
+                       denseX, RbyRow.getRowIDs(), denseY, RbyColumn.getRowIDs(), extraYIDs);
+      log.info("Saved checkpoint after iteration {}", iterationNumber);
+    } catch (IOException ioe) {
+      // Not fatal; just can't resume from here
+      log.warn("Unable to write checkpoint {}", checkpointFile, ioe);
+    }
+  }
+
+  /**
+   * Recomputes only rows affected by changed IDs, for a fixed number of iterations.
+   *
+   * @param solveColumn columns of R already known to need computing, because they have no previous value
+   */
+  private void iterateIncrementally(ExecutorService executor, boolean[] solveColumn)
+      throws ExecutionException, InterruptedException {
+
+    String iterationsString = System.getProperty("model.als.incremental.iterations",
+                                                 Integer.toString(DEFAULT_INCREMENTAL_ITERATIONS));
+    int iterations = Integer.parseInt(iterationsString);
+    Preconditions.checkArgument(iterations > 0, "Bad model.als.incremental.iterations: %s", iterations);
+
+    IDIndex userIDs = RbyRow.getRowIDs();
+    IDIndex itemIDs = RbyColumn.getRowIDs();
+    boolean[] solveRow = new boolean[userIDs.size()];
+    markMissing(userIDs, previousX, solveRow);
+    for (int user = 0; user < solveRow.length; user++) {
+      if (!solveRow[user]) {
+        denseX.setRow(user, previousX.get(userIDs.idAt(user)));
+      }
+    }
+
+    markChanged(changedRowIDs, userIDs, solveRow);
+    markChanged(changedColumnIDs, itemIDs, solveColumn);
+    // Neighbors of changed rows and columns are affected too
+    boolean[] changedRow = solveRow.clone();
+    boolean[] changedColumn = solveColumn.clone();
+    markNeighbors(RbyRow, changedRow, solveColumn);
+    markNeighbors(RbyColumn, changedColumn, solveRow);
+
+    int[] rowsToSolve = indicesOfTrue(solveRow);
+    int[] columnsToSolve = indicesOfTrue(solveColumn);
+    log.info("Incrementally recomputing {} of {} X rows and {} of {} Y rows",
+             rowsToSolve.length, solveRow.length, columnsToSolve.length, solveColumn.length);
+
+    for (int iterationNumber = 1; iterationNumber <= iterations; iterationNumber++) {
+      iterateXFromY(executor, rowsToSolve);
+      iterateYFromX(executor, columnsToSolve);
+      log.info("Finished incremental iteration {}", iterationNumber);
+    }
+  }
+
+  private boolean hasFeatures(FastByIDMap<float[]> M) {
+    return M != null && !M.isEmpty() && M.entrySet().iterator().next().getValue().length == features;
+  }
+
+  private static void markMissing(IDIndex ids, FastByIDMap<float[]> M, boolean[] marks) {
+    for (int i = 0; i < marks.length; i++) {
+      if (!M.containsKey(ids.idAt(i))) {
+        marks[i] = true;
+      }
+    }
+  }
+
+  private static void markChanged(FastIDSet changedIDs, IDIndex ids, boolean[] marks) {
+    LongPrimitiveIterator it = changedIDs.iterator();
+    while (it.hasNext()) {
+      int index = ids.indexOf(it.nextLong());
+      if (index >= 0) {
+        marks[index] = true;
+      }
+    }
+  }
+
+  /**
+   * Marks every column of R that has a value in a marked row.
+   */
+  private static void markNeighbors(CompressedSparseMatrix R, boolean[] rowMarks, boolean[] columnMarks) {
+    int[] columnIndices = R.getColumnIndices();
+    for (int row = 0; row < rowMarks.length; row++) {
+      if (rowMarks[row]) {
+        for (int i = R.getRowStart(row); i < R.getRowStart(row + 1); i++) {
+          columnMarks[columnIndices[i]] = true;
+        }
+      }
+    }
+  }
+
+  private static int[] indicesOfTrue(boolean[] marks) {
+    int count = 0;
+    for (boolean mark : marks) {
+      if (mark) {
+        count++;
+      }
+    }
+    int[] indices = new int[count];
+    int i = 0;
+    for (int index = 0; index < marks.length; index++) {
+      if (marks[index]) {
+        indices[i++] = index;
+      }
+    }
+    return indices;
+  }
+
+  private static int[] indicesOf(long[] ids, IDIndex index) {
+    int[] indices = new int[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      indices[i] = index.indexOf(ids[i]);
+    }
+    return indices;
+  }
+
+  /**
+   * Copies the initial Y into {@link #denseY}, and allocates {@link #denseX}.
+   */
+  private void initDenseFactors(FastByIDMap<float[]> initialY) {
+    IDIndex itemIDs = RbyColumn.getRowIDs();
+    int numItems = itemIDs.size();
+    long[] extraIDs = new long[initialY.size()];
+    int numExtra = 0;
+    for (FastByIDMap.MapEntry<float[]> entry : initialY.entrySet()) {
+      long id = entry.getKey();
+      if (itemIDs.indexOf(id) < 0) {
+        extraIDs[numExtra++] = id;
+      }
+    }
+    extraYIDs = Arrays.copyOf(extraIDs, numExtra);
+    denseY = new DenseFactors(numItems + numExtra, features);
+    for (int item = 0; item < numItems; item++) {
+      denseY.setRow(item, initialY.get(itemIDs.idAt(item)));
+    }
+    for (int i = 0; i < numExtra; i++) {
+      denseY.setRow(numItems + i, initialY.get(extraYIDs[i]));
+    }
+    denseX = new DenseFactors(RbyRow.getNumRows(), features);
+  }
+
+  /**
+   * Sets {@link #X} and {@link #Y} from {@link #denseX} and {@link #denseY}, which are then released.
+   */
+  private void copyDenseFactorsOut() {
+    IDIndex userIDs = RbyRow.getRowIDs();
+    X = new FastByIDMap<float[]>(userIDs.size());
+    for (int user = 0; user < userIDs.size(); user++) {
+      X.put(userIDs.idAt(user), denseX.getRow(user));
+    }
+    IDIndex itemIDs = RbyColumn.getRowIDs();
+    int numItems = itemIDs.size();
+    Y = new FastByIDMap<float[]>(numItems + extraYIDs.length);
+    for (int item = 0; item < numItems; item++) {
+      Y.put(itemIDs.idAt(item), denseY.getRow(item));
+    }
+    for (int i = 0; i < extraYIDs.length; i++) {
+      Y.put(extraYIDs[i], denseY.getRow(numItems + i));
+    }
+    denseX = null;
+    denseY = null;
+  }
+
   private FastByIDMap<float[]> constructInitialY(FastByIDMap<float[]> previousY) {
 
     RandomGenerator random = RandomManager.getRandom();
@@ -269,7 +682,7 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
     if (previousY == null || previousY.isEmpty()) {
       // Common case: have to start from scratch
       log.info("Starting from new, random Y matrix");      
-      randomY = new FastByIDMap<float[]>(RbyColumn.size());
+      randomY = new FastByIDMap<float[]>(RbyColumn.getNumRows());
       
     } else {
       
@@ -308,23 +721,39 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
       }
     }
     
-    List<float[]> recentVectors = Lists.newArrayList();
-    for (FastByIDMap.MapEntry<float[]> entry : randomY.entrySet()) {
-      if (recentVectors.size() >= MAX_FAR_FROM_VECTORS) {
-        break;
+    boolean farFrom = "farFrom".equals(INITIAL_Y);
+    List<float[]> recentVectors = null;
+    if (farFrom) {
+      recentVectors = Lists.newArrayList();
+      for (FastByIDMap.MapEntry<float[]> entry : randomY.entrySet()) {
+        if (recentVectors.size() >= MAX_FAR_FROM_VECTORS) {
+          break;
+        }
+        recentVectors.add(entry.getValue());
       }
-      recentVectors.add(entry.getValue());
     }
-    LongPrimitiveIterator it = RbyColumn.keySetIterator();
+    // Each new vector is orthogonal to the others from the same basis
+    float[][] basis = null;
+    int nextInBasis = 0;
+    LongPrimitiveIterator it = RbyColumn.getRowIDs().iterator();
     long count = 0;
     while (it.hasNext()) {
       long id = it.nextLong();
       if (!randomY.containsKey(id)) {
-        float[] vector = RandomUtils.randomUnitVectorFarFrom(features, recentVectors, random);
-        randomY.put(id, vector);
-        if (recentVectors.size() < MAX_FAR_FROM_VECTORS) {
-          recentVectors.add(vector);
+        float[] vector;
+        if (farFrom) {
+          vector = RandomUtils.randomUnitVectorFarFrom(features, recentVectors, random);
+          if (recentVectors.size() < MAX_FAR_FROM_VECTORS) {
+            recentVectors.add(vector);
+          }
+        } else {
+          if (basis == null || nextInBasis == basis.length) {
+            basis = RandomUtils.randomOrthonormalVectors(features, random);
+            nextInBasis = 0;
+          }
+          vector = basis[nextInBasis++];
         }
+        randomY.put(id, vector);
       }
       if (++count % LOG_INTERVAL == 0) {
         log.info("Computed {} initial Y rows", count);
@@ -336,146 +765,227 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
 
   /**
    * Runs one iteration to compute X from Y.
+   *
+   * @param rowsToSolve indices of rows of X to compute, or {@code null} to compute all
    */
-  private void iterateXFromY(ExecutorService executor) throws ExecutionException, InterruptedException {
-
-    RealMatrix YTY = MatrixUtils.transposeTimesSelf(Y);
-    Collection<Future<?>> futures = Lists.newArrayList();
-    addWorkers(RbyRow, Y, YTY, X, executor, futures);
-
-    int count = 0;
-    long total = 0;
-    for (Future<?> f : futures) {
-      f.get();
-      count += WORK_UNIT_SIZE;
-      if (count >= LOG_INTERVAL) {
-        total += count;
-        JVMEnvironment env = new JVMEnvironment();
-        log.info("{} X/tag rows computed ({}MB heap)", total, env.getUsedMemoryMB());
-        if (env.getPercentUsedMemory() > 95) {
-          log.warn("Memory is low. Increase heap size with -Xmx, decrease new generation size with larger " +
-                   "-XX:NewRatio value, and/or use -XX:+UseCompressedOops");
-        }
-        count = 0;
-      }
-    }
+  private void iterateXFromY(ExecutorService executor, int[] rowsToSolve)
+      throws ExecutionException, InterruptedException {
+    computeRows(RbyRow, denseY, denseX, xMovement, rowsToSolve, "X/tag", executor);
   }
 
   /**
    * Runs one iteration to compute Y from X.
+   *
+   * @param rowsToSolve indices of rows of Y to compute, or {@code null} to compute all
    */
-  private void iterateYFromX(ExecutorService executor) throws ExecutionException, InterruptedException {
-
-    RealMatrix XTX = MatrixUtils.transposeTimesSelf(X);
-    Collection<Future<?>> futures = Lists.newArrayList();
-    addWorkers(RbyColumn, X, XTX, Y, executor, futures);
+  private void iterateYFromX(ExecutorService executor, int[] rowsToSolve)
+      throws ExecutionException, InterruptedException {
+    computeRows(RbyColumn, denseX, denseY, yMovement, rowsToSolve, "Y/tag", executor);
+  }
 
-    int count = 0;
-    long total = 0;
+  /**
+   * Computes rows of MTags from M, with one {@link Worker} per thread. Each repeatedly claims the next chunk
+   * of rows until none are left, and writes only the rows in its chunks, so needs no locking.
+   *
+   * @param movement if not {@code null}, receives the relative change in each row of MTags computed
+   */
+  private void computeRows(CompressedSparseMatrix R,
+                           DenseFactors M,
+                           DenseFactors MTags,
+                           float[] movement,
+                           int[] rowsToSolve,
+                           String rowsName,
+                           ExecutorService executor) throws ExecutionException, InterruptedException {
+    double[] MTM = M.transposeTimesSelf();
+    int[] chunkStarts = computeChunkStarts(R, rowsToSolve);
+    AtomicInteger nextChunk = new AtomicInteger();
+    AtomicLong rowsComputed = new AtomicLong();
+    Collection<Future<?>> futures = Lists.newArrayListWithCapacity(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      futures.add(executor.submit(new Worker(features, R, M, MTM, MTags, movement, conjugateGradientSteps,
+                                             reconstructRMatrix, rowsToSolve, chunkStarts, nextChunk,
+                                             rowsComputed, rowsName)));
+    }
     for (Future<?> f : futures) {
       f.get();
-      count += WORK_UNIT_SIZE;
-      if (count >= LOG_INTERVAL) {
-        total += count;
-        JVMEnvironment env = new JVMEnvironment();
-        log.info("{} Y/tag rows computed ({}MB heap)", total, env.getUsedMemoryMB());
-        if (env.getPercentUsedMemory() > 95) {
-          log.warn("Memory is low. Increase heap size with -Xmx, decrease new generation size with larger " +
-                   "-XX:NewRatio value, and/or use -XX:+UseCompressedOops");
-        }
-        count = 0;
-      }
     }
   }
 
-  private void addWorkers(FastByIDMap<FastByIDFloatMap> R,
-                          FastByIDMap<float[]> M,
-                          RealMatrix MTM, 
-                          FastByIDMap<float[]> MTags,
-                          ExecutorService executor,                          
-                          Collection<Future<?>> futures) {
-    if (R != null) {
-      List<Pair<Long, FastByIDFloatMap>> workUnit = Lists.newArrayListWithCapacity(WORK_UNIT_SIZE);
-      for (FastByIDMap.MapEntry<FastByIDFloatMap> entry : R.entrySet()) {
-        workUnit.add(new Pair<Long,FastByIDFloatMap>(entry.getKey(), entry.getValue()));
-        if (workUnit.size() == WORK_UNIT_SIZE) {
-          futures.add(executor.submit(new Worker(features, M, MTM, MTags, workUnit)));
-          workUnit = Lists.newArrayListWithCapacity(WORK_UNIT_SIZE);
-        }
+  /**
+   * Divides rows to compute into chunks of about equal cost, where a row costs its number of values in R,
+   * plus the number of features to account for solving for it. Rows vary widely in number of values, so
+   * chunks with equal numbers of rows could take very different amounts of time.
+   *
+   * @return positions in {@code rowsToSolve}, or in rows of R if it is {@code null}, at which each chunk
+   *  starts, followed by the number of rows to compute
+   */
+  private int[] computeChunkStarts(CompressedSparseMatrix R, int[] rowsToSolve) {
+    int numRows = rowsToSolve == null ? R.getNumRows() : rowsToSolve.length;
+    long totalCost = 0;
+    for (int position = 0; position < numRows; position++) {
+      int row = rowsToSolve == null ? position : rowsToSolve[position];
+      totalCost += R.getRowSize(row) + features;
+    }
+    long chunkCost = FastMath.max(MIN_CHUNK_COST, totalCost / ((long) numThreads * CHUNKS_PER_THREAD));
+    // Every chunk but the last costs at least chunkCost
+    int[] chunkStarts = new int[(int) (totalCost / chunkCost) + 2];
+    int numChunks = 0;
+    long cost = 0;
+    for (int position = 0; position < numRows; position++) {
+      if (cost == 0) {
+        chunkStarts[numChunks++] = position;
       }
-      if (!workUnit.isEmpty()) {
-        futures.add(executor.submit(new Worker(features, M, MTM, MTags, workUnit)));
+      int row = rowsToSolve == null ? position : rowsToSolve[position];
+      cost += R.getRowSize(row) + features;
+      if (cost >= chunkCost) {
+        cost = 0;
       }
     }
+    chunkStarts[numChunks] = numRows;
+    return Arrays.copyOf(chunkStarts, numChunks + 1);
   }
 
   private static final class Worker implements Callable<Void> {
 
     private final int features;
-    private final FastByIDMap<float[]> Y;
-    private final RealMatrix YTY;
-    private final FastByIDMap<float[]> X;
-    private final Iterable<Pair<Long, FastByIDFloatMap>> workUnit;
+    private final CompressedSparseMatrix R;
+    private final DenseFactors Y;
+    private final double[] YTY;
+    private final DenseFactors X;
+    private final float[] movement;
+    private final int conjugateGradientSteps;
+    private final boolean reconstructRMatrix;
+    private final int[] rowsToSolve;
+    private final int[] chunkStarts;
+    private final AtomicInteger nextChunk;
+    private final AtomicLong rowsComputed;
+    private final String rowsName;
 
     private Worker(int features,
-                   FastByIDMap<float[]> Y,
-                   RealMatrix YTY,
-                   FastByIDMap<float[]> X,
-                   Iterable<Pair<Long, FastByIDFloatMap>> workUnit) {
+                   CompressedSparseMatrix R,
+                   DenseFactors Y,
+                   double[] YTY,
+                   DenseFactors X,
+                   float[] movement,
+                   int conjugateGradientSteps,
+                   boolean reconstructRMatrix,
+                   int[] rowsToSolve,
+                   int[] chunkStarts,
+                   AtomicInteger nextChunk,
+                   AtomicLong rowsComputed,
+                   String rowsName) {
       this.features = features;
+      this.R = R;
       this.Y = Y;
       this.YTY = YTY;
       this.X = X;
-      this.workUnit = workUnit;
+      this.movement = movement;
+      this.conjugateGradientSteps = conjugateGradientSteps;
+      this.reconstructRMatrix = reconstructRMatrix;
+      this.rowsToSolve = rowsToSolve;
+      this.chunkStarts = chunkStarts;
+      this.nextChunk = nextChunk;
+      this.rowsComputed = rowsComputed;
+      this.rowsName = rowsName;
     }
 
     @Override
     public Void call() {
+      // Reused, with its workspace, for all rows this computes
+      CholeskySolver solver = new CholeskySolver(features);
+      double[][] cgWorkspace = conjugateGradientSteps > 0 ? new double[5][features] : null;
+      float[] previousRow = movement == null ? null : new float[features];
+      int numChunks = chunkStarts.length - 1;
+      int chunk;
+      while ((chunk = nextChunk.getAndIncrement()) < numChunks) {
+        int start = chunkStarts[chunk];
+        int end = chunkStarts[chunk + 1];
+        computeRows(start, end, solver, cgWorkspace, previousRow);
+        logProgress(end - start);
+      }
+      return null;
+    }
+
+    private void logProgress(int count) {
+      long before = rowsComputed.getAndAdd(count);
+      long after = before + count;
+      if (after / LOG_INTERVAL > before / LOG_INTERVAL) {
+        JVMEnvironment env = new JVMEnvironment();
+        log.info("{} {} rows computed ({}MB heap)", after, rowsName, env.getUsedMemoryMB());
+        if (env.getPercentUsedMemory() > 95) {
+          log.warn("Memory is low. Increase heap size with -Xmx, decrease new generation size with larger " +
+                   "-XX:NewRatio value, and/or use -XX:+UseCompressedOops");
+        }
+      }
+    }
+
+    /**
+     * Computes rows at positions {@code start} (inclusive) to {@code end} (exclusive) of rowsToSolve,
+     * or of all rows if it is {@code null}.
+     */
+    private void computeRows(int start,
+                             int end,
+                             CholeskySolver solver,
+                             double[][] cgWorkspace,
+                             float[] previousRow) {
       double alpha = getAlpha();
       double lambda = getLambda() * alpha;
       int features = this.features;
-      // Each worker has a batch of rows to compute:
-      for (Pair<Long,FastByIDFloatMap> work : workUnit) {
+      int[] columnIndices = R.getColumnIndices();
+      float[] values = R.getValues();
+      // Wu and YTCupu live in the solver's workspace. Only the lower triangle of Wu is computed.
+      double[] WuData = solver.getMatrix();
+      double[] YTCupu = solver.getVector();
+      for (int position = start; position < end; position++) {
+        int rowIndex = rowsToSolve == null ? position : rowsToSolve[position];
 
         // Row (column) in original R matrix containing total association value. For simplicity we will
         // talk about users and rows only in the comments and variables. It's symmetric for columns / items.
-        // This is Ru:
-        FastByIDFloatMap ru = work.getSecond();
+        // This is Ru, the values from rowStart to rowEnd:
+        int rowStart = R.getRowStart(rowIndex);
+        int rowEnd = R.getRowStart(rowIndex + 1);
+
+        if (previousRow != null) {
+          System.arraycopy(X.getPage(rowIndex), X.getOffset(rowIndex), previousRow, 0, features);
+        }
+
+        if (conjugateGradientSteps > 0) {
+          // Starts from, and overwrites, xu from the previous iteration
+          solveByConjugateGradient(rowIndex, rowStart, rowEnd, alpha, lambda, cgWorkspace);
+          recordMovement(rowIndex, previousRow);
+          continue;
+        }
 
         // Start computing Wu = (YT*Cu*Y + lambda*I) = (YT*Y + YT*(Cu-I)*Y + lambda*I),
         // by first starting with a copy of YT * Y. Or, a variant on YT * Y, if LOSS_IGNORES_UNSPECIFIED is set
-        RealMatrix Wu = 
-            LOSS_IGNORES_UNSPECIFIED ? 
-            partialTransposeTimesSelf(Y, YTY.getRowDimension(), ru.keySetIterator()) : 
-            YTY.copy();
-
-        double[][] WuData = MatrixUtils.accessMatrixDataDirectly(Wu);
-        double[] YTCupu = new double[features];
+        if (LOSS_IGNORES_UNSPECIFIED) {
+          partialTransposeTimesSelf(Y, features, columnIndices, rowStart, rowEnd, WuData);
+        } else {
+          System.arraycopy(YTY, 0, WuData, 0, WuData.length);
+        }
+        Arrays.fill(YTCupu, 0.0);
 
-        for (FastByIDFloatMap.MapEntry entry : ru.entrySet()) {
+        for (int i = rowStart; i < rowEnd; i++) {
 
-          double xu = entry.getValue();
+          double xu = values[i];
 
-          float[] vector = Y.get(entry.getKey());
-          if (vector == null) {
-            log.warn("No vector for {}. This should not happen. Continuing...", entry.getKey());
-            continue;
-          }
+          int column = columnIndices[i];
+          float[] vector = Y.getPage(column);
+          int offset = Y.getOffset(column);
 
           // Wu and YTCupu
-          if (RECONSTRUCT_R_MATRIX) {
+          if (reconstructRMatrix) {
             for (int row = 0; row < features; row++) {
-              YTCupu[row] += xu * vector[row];
+              YTCupu[row] += xu * vector[offset + row];
             }
           } else {
             double cu = 1.0 + alpha * FastMath.abs(xu);            
             for (int row = 0; row < features; row++) {
-              float vectorAtRow = vector[row];
+              float vectorAtRow = vector[offset + row];
               double rowValue = vectorAtRow * (cu - 1.0);
-              double[] WuDataRow = WuData[row];              
-              for (int col = 0; col < features; col++) {
-                WuDataRow[col] += rowValue * vector[col];
-                //Wu.addToEntry(row, col, rowValue * vector[col]);
+              int rowOffset = row * features;
+              for (int col = 0; col <= row; col++) {
+                WuData[rowOffset + col] += rowValue * vector[offset + col];
               }
               if (xu > 0.0) {
                 YTCupu[row] += vectorAtRow * cu;
@@ -485,22 +995,177 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
 
         }
 
-        double lambdaTimesCount = lambda * ru.size();
+        double lambdaTimesCount = lambda * (rowEnd - rowStart);
         for (int x = 0; x < features; x++) {
-          WuData[x][x] += lambdaTimesCount;          
-          //Wu.addToEntry(x, x, lambdaTimesCount);
+          WuData[x * features + x] += lambdaTimesCount;
         }
 
-        float[] xu = MatrixUtils.getSolver(Wu).solveDToF(YTCupu);
-
-        // Store result:
-        synchronized (X) {
-          X.put(work.getFirst(), xu);
+        float[] xu = solver.solveDToF();
+        if (xu == null) {
+          // Not safely positive definite; the general solver handles this, or reports how it's singular
+          xu = MatrixUtils.getSolver(solver.getMatrixAsRealMatrix()).solveDToF(YTCupu);
         }
 
+        X.setRow(rowIndex, xu);
+        recordMovement(rowIndex, previousRow);
+
         // Process is identical for computing Y from X. Swap X in for Y, Y for X, i for u, etc.
       }
-      return null;
+    }
+
+    /**
+     * Records how much a row changed from {@code previousRow}, relative to its previous length, if tracking.
+     */
+    private void recordMovement(int rowIndex, float[] previousRow) {
+      if (previousRow == null) {
+        return;
+      }
+      float[] page = X.getPage(rowIndex);
+      int offset = X.getOffset(rowIndex);
+      double diffSquared = 0.0;
+      double previousSquared = 0.0;
+      for (int i = 0; i < features; i++) {
+        double previous = previousRow[i];
+        double diff = page[offset + i] - previous;
+        diffSquared += diff * diff;
+        previousSquared += previous * previous;
+      }
+      // Infinite if the row was previously 0
+      movement[rowIndex] = (float) FastMath.sqrt(diffSquared / previousSquared);
+    }
+
+    /**
+     * Approximately solves Wu * xu = YT*Cu*pu with a few steps of conjugate gradient, starting from the
+     * current xu, which is then overwritten. Wu = YT*Y + YT*(Cu-I)*Y + lambda*I is not formed; Wu * v is
+     * computed as YT*Y * v plus a sum over only the items in Ru.
+     *
+     * @param workspace 5 vectors of length features to compute in
+     */
+    private void solveByConjugateGradient(int rowIndex,
+                                          int rowStart,
+                                          int rowEnd,
+                                          double alpha,
+                                          double lambda,
+                                          double[][] workspace) {
+      int features = this.features;
+      int[] columnIndices = R.getColumnIndices();
+      float[] values = R.getValues();
+      double[] x = workspace[0];
+      double[] r = workspace[1];
+      double[] p = workspace[2];
+      double[] Ap = workspace[3];
+      double[] b = workspace[4];
+
+      // b = YT*Cu*pu
+      Arrays.fill(b, 0.0);
+      for (int i = rowStart; i < rowEnd; i++) {
+        double xui = values[i];
+        double factor;
+        if (reconstructRMatrix) {
+          factor = xui;
+        } else if (xui > 0.0) {
+          factor = 1.0 + alpha * FastMath.abs(xui);
+        } else {
+          continue;
+        }
+        int column = columnIndices[i];
+        float[] vector = Y.getPage(column);
+        int offset = Y.getOffset(column);
+        for (int row = 0; row < features; row++) {
+          b[row] += factor * vector[offset + row];
+        }
+      }
+
+      float[] xu = X.getPage(rowIndex);
+      int xuOffset = X.getOffset(rowIndex);
+      for (int row = 0; row < features; row++) {
+        x[row] = xu[xuOffset + row];
+      }
+
+      // r = b - Wu*x, p = r
+      multiplyByWu(x, rowStart, rowEnd, alpha, lambda, Ap);
+      double rDotR = 0.0;
+      for (int row = 0; row < features; row++) {
+        double rAtRow = b[row] - Ap[row];
+        r[row] = rAtRow;
+        p[row] = rAtRow;
+        rDotR += rAtRow * rAtRow;
+      }
+
+      for (int step = 0; step < conjugateGradientSteps && rDotR > 0.0; step++) {
+        multiplyByWu(p, rowStart, rowEnd, alpha, lambda, Ap);
+        double pDotAp = 0.0;
+        for (int row = 0; row < features; row++) {
+          pDotAp += p[row] * Ap[row];
+        }
+        if (!(pDotAp > 0.0)) {
+          break;
+        }
+        double stepSize = rDotR / pDotAp;
+        double newRDotR = 0.0;
+        for (int row = 0; row < features; row++) {
+          x[row] += stepSize * p[row];
+          double rAtRow = r[row] - stepSize * Ap[row];
+          r[row] = rAtRow;
+          newRDotR += rAtRow * rAtRow;
+        }
+        double beta = newRDotR / rDotR;
+        for (int row = 0; row < features; row++) {
+          p[row] = r[row] + beta * p[row];
+        }
+        rDotR = newRDotR;
+      }
+
+      for (int row = 0; row < features; row++) {
+        xu[xuOffset + row] = (float) x[row];
+      }
+    }
+
+    /**
+     * Computes Wu * v into {@code out}.
+     */
+    private void multiplyByWu(double[] v, int rowStart, int rowEnd, double alpha, double lambda, double[] out) {
+      int features = this.features;
+      int[] columnIndices = R.getColumnIndices();
+      float[] values = R.getValues();
+      if (LOSS_IGNORES_UNSPECIFIED) {
+        Arrays.fill(out, 0.0);
+      } else {
+        double[] YTY = this.YTY;
+        for (int row = 0; row < features; row++) {
+          int rowOffset = row * features;
+          double sum = 0.0;
+          for (int col = 0; col < features; col++) {
+            sum += YTY[rowOffset + col] * v[col];
+          }
+          out[row] = sum;
+        }
+      }
+      for (int i = rowStart; i < rowEnd; i++) {
+        // Weight of yi * yiT in Wu, beyond what YT*Y contributes
+        double weight = LOSS_IGNORES_UNSPECIFIED ? 1.0 : 0.0;
+        if (!reconstructRMatrix) {
+          weight += alpha * FastMath.abs(values[i]);
+        }
+        if (weight == 0.0) {
+          continue;
+        }
+        int column = columnIndices[i];
+        float[] vector = Y.getPage(column);
+        int offset = Y.getOffset(column);
+        double dot = 0.0;
+        for (int row = 0; row < features; row++) {
+          dot += vector[offset + row] * v[row];
+        }
+        double scaledDot = weight * dot;
+        for (int row = 0; row < features; row++) {
+          out[row] += scaledDot * vector[offset + row];
+        }
+      }
+      double lambdaTimesCount = lambda * (rowEnd - rowStart);
+      for (int row = 0; row < features; row++) {
+        out[row] += lambdaTimesCount * v[row];
+      }
     }
 
     private static double getAlpha() {
@@ -514,28 +1179,31 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
     }
 
     /**
-     * Like {@link MatrixUtils#transposeTimesSelf(FastByIDMap)}, but instead of computing MT * M, 
+     * Like {@link DenseFactors#transposeTimesSelf()}, but instead of computing MT * M, 
      * it computes MT * C * M, where C is a diagonal matrix of 1s and 0s. This is like pretending some
-     * rows of M are 0.
+     * rows of M are 0. Only the lower triangle of the result is computed, row-major, into {@code result}.
      * 
-     * @see MatrixUtils#transposeTimesSelf(FastByIDMap) 
+     * @see DenseFactors#transposeTimesSelf()
      * @see #LOSS_IGNORES_UNSPECIFIED
      */
-    private static RealMatrix partialTransposeTimesSelf(FastByIDMap<float[]> M, 
-                                                        int dimension, 
-                                                        LongPrimitiveIterator keys) {
-      RealMatrix result = new Array2DRowRealMatrix(dimension, dimension);
-      while (keys.hasNext()) {
-        long key = keys.next();
-        float[] vector = M.get(key);
+    private static void partialTransposeTimesSelf(DenseFactors M,
+                                                  int dimension,
+                                                  int[] indices,
+                                                  int start,
+                                                  int end,
+                                                  double[] result) {
+      Arrays.fill(result, 0.0);
+      for (int i = start; i < end; i++) {
+        float[] vector = M.getPage(indices[i]);
+        int offset = M.getOffset(indices[i]);
         for (int row = 0; row < dimension; row++) {
-          float rowValue = vector[row];
-          for (int col = 0; col < dimension; col++) {
-            result.addToEntry(row, col, rowValue * vector[col]);
+          float rowValue = vector[offset + row];
+          int rowOffset = row * dimension;
+          for (int col = 0; col <= row; col++) {
+            result[rowOffset + col] += rowValue * vector[offset + col];
           }
         }
       }
-      return result;
     }
 
   }
@@ -0,0 +1,188 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.factorizer.als;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.online.factorizer.IDIndex;
+
+/**
+ * <p>X and Y as of the end of some iteration of {@link AlternatingLeastSquares}, saved so that a computation
+ * over the same input can resume from there instead of starting over. The file is written in a simple binary
+ * format: a magic number, the version of the input it was computed from, the number of features and
+ * iterations, and then the rows of X and of Y as an ID followed by its feature values.</p>
+ *
+ * <p>A new checkpoint is written to a temporary file first and then moved into place, so that an
+ * interrupted write never leaves a partial checkpoint behind.</p>
+ */
+final class Checkpoint {
+
+  private static final Logger log = LoggerFactory.getLogger(Checkpoint.class);
+
+  private static final int MAGIC = 0x4D594350; // "MYCP"
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final int iterationNumber;
+  private final FastByIDMap<float[]> X;
+  private final FastByIDMap<float[]> Y;
+
+  private Checkpoint(int iterationNumber, FastByIDMap<float[]> X, FastByIDMap<float[]> Y) {
+    this.iterationNumber = iterationNumber;
+    this.X = X;
+    this.Y = Y;
+  }
+
+  /**
+   * @return number of iterations that had finished when this was saved
+   */
+  int getIterationNumber() {
+    return iterationNumber;
+  }
+
+  FastByIDMap<float[]> getX() {
+    return X;
+  }
+
+  FastByIDMap<float[]> getY() {
+    return Y;
+  }
+
+  /**
+   * @param file checkpoint file to read
+   * @param inputVersion version of the current input
+   * @param features current number of features
+   * @return checkpoint saved in the file, or {@code null} if there is none, it can't be read, or it was
+   *  saved for a different input version or number of features
+   */
+  static Checkpoint read(File file, long inputVersion, int features) {
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+      try {
+        if (in.readInt() != MAGIC) {
+          log.warn("Ignoring checkpoint {} which is not in the expected format", file);
+          return null;
+        }
+        long savedInputVersion = in.readLong();
+        int savedFeatures = in.readInt();
+        if (savedInputVersion != inputVersion || savedFeatures != features) {
+          log.info("Ignoring checkpoint {} for different input or features", file);
+          return null;
+        }
+        int iterationNumber = in.readInt();
+        FastByIDMap<float[]> X = readMatrix(in, features);
+        FastByIDMap<float[]> Y = readMatrix(in, features);
+        return new Checkpoint(iterationNumber, X, Y);
+      } finally {
+        in.close();
+      }
+    } catch (EOFException ignored) {
+      log.warn("Ignoring incomplete checkpoint {}", file);
+      return null;
+    } catch (IOException ioe) {
+      log.warn("Unable to read checkpoint {}", file, ioe);
+      return null;
+    }
+  }
+
+  private static FastByIDMap<float[]> readMatrix(DataInputStream in, int features) throws IOException {
+    int numRows = in.readInt();
+    FastByIDMap<float[]> M = new FastByIDMap<float[]>(numRows);
+    for (int i = 0; i < numRows; i++) {
+      long id = in.readLong();
+      float[] vector = new float[features];
+      for (int j = 0; j < features; j++) {
+        vector[j] = in.readFloat();
+      }
+      M.put(id, vector);
+    }
+    return M;
+  }
+
+  /**
+   * @param file checkpoint file to write, replacing any existing one
+   * @param inputVersion version of the input X and Y were computed from
+   * @param iterationNumber number of iterations finished
+   * @param X X, with rows indexed by {@code xIDs}
+   * @param xIDs IDs of the rows of X
+   * @param Y Y, with rows indexed by {@code yIDs} and then {@code extraYIDs}
+   * @param yIDs IDs of the first rows of Y
+   * @param extraYIDs IDs of the remaining rows of Y
+   */
+  static void write(File file,
+                    long inputVersion,
+                    int iterationNumber,
+                    DenseFactors X,
+                    IDIndex xIDs,
+                    DenseFactors Y,
+                    IDIndex yIDs,
+                    long[] extraYIDs) throws IOException {
+    File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+    boolean ok = false;
+    try {
+      out.writeInt(MAGIC);
+      out.writeLong(inputVersion);
+      out.writeInt(X.getFeatures());
+      out.writeInt(iterationNumber);
+      out.writeInt(xIDs.size());
+      for (int row = 0; row < xIDs.size(); row++) {
+        writeRow(out, xIDs.idAt(row), X, row);
+      }
+      out.writeInt(yIDs.size() + extraYIDs.length);
+      for (int row = 0; row < yIDs.size(); row++) {
+        writeRow(out, yIDs.idAt(row), Y, row);
+      }
+      for (int i = 0; i < extraYIDs.length; i++) {
+        writeRow(out, extraYIDs[i], Y, yIDs.size() + i);
+      }
+      ok = true;
+    } finally {
+      out.close();
+      if (!ok && !tempFile.delete()) {
+        log.warn("Could not delete {}", tempFile);
+      }
+    }
+    Files.move(tempFile, file);
+  }
+
+  private static void writeRow(DataOutputStream out, long id, DenseFactors M, int row) throws IOException {
+    out.writeLong(id);
+    float[] page = M.getPage(row);
+    int offset = M.getOffset(row);
+    for (int i = 0; i < M.getFeatures(); i++) {
+      out.writeFloat(page[offset + i]);
+    }
+  }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.factorizer.als;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * <p>A dense matrix of feature vectors, one row per dense index, used to hold X and Y while
+ * {@link AlternatingLeastSquares} iterates. Rows are stored contiguously in {@code float[]} pages rather
+ * than as one array per row in a hash table. Row {@code r} occupies {@code features} values of
+ * {@code getPage(r)} starting at {@code getOffset(r)}. Pages hold a power-of-two number of rows so that
+ * large matrices don't exceed the maximum size of an array.</p>
+ *
+ * <p>Rows may be written concurrently by different threads as long as no two threads write the same row
+ * and no thread reads a row while another writes it.</p>
+ */
+final class DenseFactors {
+
+  /** Pages are sized to hold at most about this many values. */
+  private static final int MAX_PAGE_SIZE_SHIFT = 24;
+
+  private final int numRows;
+  private final int features;
+  private final int rowsPerPageShift;
+  private final int rowInPageMask;
+  private final float[][] pages;
+
+  DenseFactors(int numRows, int features) {
+    this(numRows, features, rowsPerPageShiftFor(features));
+  }
+
+  DenseFactors(int numRows, int features, int rowsPerPageShift) {
+    Preconditions.checkArgument(numRows >= 0, "numRows must be at least 0: %s", numRows);
+    Preconditions.checkArgument(features > 0, "features must be positive: %s", features);
+    Preconditions.checkArgument(rowsPerPageShift >= 0 && rowsPerPageShift < 31,
+                                "Bad rowsPerPageShift: %s", rowsPerPageShift);
+    this.numRows = numRows;
+    this.features = features;
+    this.rowsPerPageShift = rowsPerPageShift;
+    int rowsPerPage = 1 << rowsPerPageShift;
+    rowInPageMask = rowsPerPage - 1;
+    int numPages = (int) (((long) numRows + rowsPerPage - 1) >> rowsPerPageShift);
+    pages = new float[numPages][];
+    for (int page = 0; page < numPages; page++) {
+      int rowsInPage = FastMath.min(rowsPerPage, numRows - (page << rowsPerPageShift));
+      pages[page] = new float[rowsInPage * features];
+    }
+  }
+
+  private static int rowsPerPageShiftFor(int features) {
+    int shift = MAX_PAGE_SIZE_SHIFT;
+    while (shift > 0 && (1L << shift) * features > (1L << MAX_PAGE_SIZE_SHIFT)) {
+      shift--;
+    }
+    return shift;
+  }
+
+  int getNumRows() {
+    return numRows;
+  }
+
+  int getFeatures() {
+    return features;
+  }
+
+  /**
+   * @return the array holding the given row
+   */
+  float[] getPage(int row) {
+    return pages[row >>> rowsPerPageShift];
+  }
+
+  /**
+   * @return where the given row starts in {@link #getPage(int)}
+   */
+  int getOffset(int row) {
+    return (row & rowInPageMask) * features;
+  }
+
+  /**
+   * @return a copy of the given row
+   */
+  float[] getRow(int row) {
+    float[] result = new float[features];
+    System.arraycopy(getPage(row), getOffset(row), result, 0, features);
+    return result;
+  }
+
+  void setRow(int row, float[] vector) {
+    System.arraycopy(vector, 0, getPage(row), getOffset(row), features);
+  }
+
+  /**
+   * @return dot product of a row of this matrix with a row of another with the same number of features
+   */
+  double dot(int row, DenseFactors other, int otherRow) {
+    float[] page = getPage(row);
+    int offset = getOffset(row);
+    float[] otherPage = other.getPage(otherRow);
+    int otherOffset = other.getOffset(otherRow);
+    double dot = 0.0;
+    for (int i = 0; i < features; i++) {
+      dot += page[offset + i] * otherPage[otherOffset + i];
+    }
+    return dot;
+  }
+
+  /**
+   * @return MT * M, as a features x features matrix, row-major
+   */
+  double[] transposeTimesSelf() {
+    int features = this.features;
+    double[] result = new double[features * features];
+    for (float[] page : pages) {
+      for (int offset = 0; offset < page.length; offset += features) {
+        for (int row = 0; row < features; row++) {
+          double rowValue = page[offset + row];
+          int rowOffset = row * features;
+          for (int col = 0; col <= row; col++) {
+            result[rowOffset + col] += rowValue * page[offset + col];
+          }
+        }
+      }
+    }
+    // Fill in upper triangle from lower
+    for (int row = 0; row < features; row++) {
+      for (int col = 0; col < row; col++) {
+        result[col * features + row] = result[row * features + col];
+      }
+    }
+    return result;
+  }
+
+}
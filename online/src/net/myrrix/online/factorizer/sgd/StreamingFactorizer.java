@@ -0,0 +1,310 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.factorizer.sgd;
+
+import java.io.Closeable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.util.FastMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.myrrix.common.LangUtils;
+import net.myrrix.common.parallel.ExecutorUtils;
+import net.myrrix.common.random.RandomManager;
+import net.myrrix.common.random.RandomUtils;
+import net.myrrix.online.factorizer.als.AlternatingLeastSquares;
+import net.myrrix.online.generation.Generation;
+
+/**
+ * <p>Updates the user and item feature vectors of the current {@link Generation} in place as new input
+ * arrives, by stochastic gradient descent on the same implicit-feedback loss that
+ * {@link AlternatingLeastSquares} minimizes. Each new datum nudges its user and item vectors so that their
+ * dot product moves towards 1 (or 0, for a negative value), weighted by the datum's confidence, and nudges
+ * the user vector away from a few other recently seen items, which stand in for the many items the user
+ * has not interacted with.</p>
+ *
+ * <p>Updates are queued and applied by background threads. As in
+ * <a href="http://arxiv.org/abs/1106.5730">Hogwild!</a>, threads write vectors without locking; since each
+ * update touches only a few vectors, collisions are rare and do little harm. The next {@link Generation}
+ * computed by {@link AlternatingLeastSquares} replaces these vectors entirely, so that any drift from the
+ * exact solution is periodically corrected.</p>
+ *
+ * <p>Settings are read from system properties:</p>
+ *
+ * <ul>
+ *   <li>{@code model.streaming.learningRate}: step size (default 0.05)</li>
+ *   <li>{@code model.streaming.lambda}: regularization strength (default 0.01)</li>
+ *   <li>{@code model.streaming.negativeSamples}: recently seen items to push each user away from
+ *    (default 3)</li>
+ *   <li>{@code model.streaming.threads}: number of threads applying updates (default 1)</li>
+ *   <li>{@code model.streaming.queueSize}: maximum number of updates waiting (default 100000)</li>
+ *   <li>{@code model.als.alpha}: as for {@link AlternatingLeastSquares}</li>
+ * </ul>
+ */
+public final class StreamingFactorizer implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(StreamingFactorizer.class);
+
+  private static final int RECENT_ITEMS_SIZE = 1000;
+  /** Scale of the random vector given to a new item rated by a new user, when there is nothing else to go on */
+  private static final double NEW_VECTOR_SCALE = 0.1;
+
+  private final double learningRate;
+  private final double lambda;
+  private final double alpha;
+  private final int negativeSamples;
+  private final BlockingQueue<Update> queue;
+  private final ExecutorService executor;
+  private final AtomicReferenceArray<float[]> recentItems;
+  private final AtomicLong recentItemsCount;
+  private volatile Generation recentItemsGeneration;
+  private final AtomicLong updateCount;
+
+  public StreamingFactorizer() {
+    learningRate = Double.parseDouble(System.getProperty("model.streaming.learningRate", "0.05"));
+    Preconditions.checkArgument(learningRate > 0.0, "Bad model.streaming.learningRate: %s", learningRate);
+    lambda = Double.parseDouble(System.getProperty("model.streaming.lambda", "0.01"));
+    Preconditions.checkArgument(lambda >= 0.0, "Bad model.streaming.lambda: %s", lambda);
+    String alphaProperty = System.getProperty("model.als.alpha");
+    alpha = alphaProperty == null ? AlternatingLeastSquares.DEFAULT_ALPHA : LangUtils.parseDouble(alphaProperty);
+    negativeSamples = Integer.parseInt(System.getProperty("model.streaming.negativeSamples", "3"));
+    Preconditions.checkArgument(negativeSamples >= 0, "Bad model.streaming.negativeSamples: %s", negativeSamples);
+    int numThreads = Integer.parseInt(System.getProperty("model.streaming.threads", "1"));
+    Preconditions.checkArgument(numThreads > 0, "Bad model.streaming.threads: %s", numThreads);
+    int queueSize = Integer.parseInt(System.getProperty("model.streaming.queueSize", "100000"));
+    Preconditions.checkArgument(queueSize > 0, "Bad model.streaming.queueSize: %s", queueSize);
+
+    queue = new LinkedBlockingQueue<Update>(queueSize);
+    recentItems = new AtomicReferenceArray<float[]>(RECENT_ITEMS_SIZE);
+    recentItemsCount = new AtomicLong();
+    updateCount = new AtomicLong();
+    executor = Executors.newFixedThreadPool(
+        numThreads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("StreamingFactorizer-%d").build());
+    for (int i = 0; i < numThreads; i++) {
+      executor.submit(new UpdateWorker());
+    }
+    log.info("Updating model continuously with {} threads, learning rate {}", numThreads, learningRate);
+  }
+
+  /**
+   * @param generation {@link Generation} that the vectors belong to
+   * @param userFeatures user's feature vector, which will be updated
+   * @param itemFeatures item's feature vector, which will be updated
+   * @param value strength of the user-item association
+   * @param afterUpdate if not {@code null}, run by the thread that applies the update, once it is applied
+   * @return true if the update was queued, or false if too many updates are waiting already, in which case
+   *  the caller should update the vectors some other way
+   */
+  public boolean offer(Generation generation,
+                       float[] userFeatures,
+                       float[] itemFeatures,
+                       float value,
+                       Runnable afterUpdate) {
+    return queue.offer(new Update(generation, userFeatures, itemFeatures, value, afterUpdate));
+  }
+
+  /**
+   * @return number of updates applied so far
+   */
+  public long getUpdateCount() {
+    return updateCount.get();
+  }
+
+  /**
+   * Applies one update immediately, in the calling thread.
+   */
+  void update(Generation generation,
+              float[] userFeatures,
+              float[] itemFeatures,
+              float value,
+              RandomGenerator random) {
+    int features = userFeatures.length;
+    Preconditions.checkArgument(itemFeatures.length == features,
+                                "Bad item vector length: %s", itemFeatures.length);
+
+    if (generation != recentItemsGeneration) {
+      resetRecentItems(generation);
+    }
+
+    double[] x = toDouble(userFeatures);
+    double[] y = toDouble(itemFeatures);
+    if (isZero(x) && isZero(y)) {
+      // New user and new item; start the item somewhere random so that the gradient isn't 0
+      float[] randomVector = RandomUtils.randomUnitVector(features, random);
+      for (int i = 0; i < features; i++) {
+        y[i] = NEW_VECTOR_SCALE * randomVector[i];
+      }
+    }
+
+    double[] newX = x.clone();
+    double[] newY = y.clone();
+    double confidence = 1.0 + alpha * FastMath.abs(value);
+    double target = value > 0.0f ? 1.0 : 0.0;
+    double error = target - dot(x, y);
+    double step = learningRate * confidence * error;
+    for (int i = 0; i < features; i++) {
+      newX[i] += step * y[i] - learningRate * lambda * x[i];
+      newY[i] += step * x[i] - learningRate * lambda * y[i];
+    }
+
+    long recentCount = FastMath.min(recentItemsCount.get(), RECENT_ITEMS_SIZE);
+    if (recentCount > 0) {
+      for (int sample = 0; sample < negativeSamples; sample++) {
+        float[] negative = recentItems.get(random.nextInt((int) recentCount));
+        if (negative == null || negative == itemFeatures || negative.length != features) {
+          continue;
+        }
+        // Implicitly, this user's association with the other item is 0 with confidence 1
+        double negativeStep = -learningRate * dot(x, negative);
+        for (int i = 0; i < features; i++) {
+          newX[i] += negativeStep * negative[i];
+        }
+      }
+    }
+
+    if (!isFinite(newX) || !isFinite(newY)) {
+      log.warn("Skipping update that diverged; reduce model.streaming.learningRate?");
+      return;
+    }
+    for (int i = 0; i < features; i++) {
+      userFeatures[i] = (float) newX[i];
+      itemFeatures[i] = (float) newY[i];
+    }
+    recentItems.set((int) (recentItemsCount.getAndIncrement() % RECENT_ITEMS_SIZE), itemFeatures);
+    updateCount.incrementAndGet();
+    generation.bumpVersion();
+  }
+
+  private synchronized void resetRecentItems(Generation generation) {
+    if (generation != recentItemsGeneration) {
+      // Vectors from an old Generation are no longer in use
+      for (int i = 0; i < RECENT_ITEMS_SIZE; i++) {
+        recentItems.set(i, null);
+      }
+      recentItemsCount.set(0);
+      recentItemsGeneration = generation;
+    }
+  }
+
+  private static double[] toDouble(float[] vector) {
+    double[] result = new double[vector.length];
+    for (int i = 0; i < vector.length; i++) {
+      result[i] = vector[i];
+    }
+    return result;
+  }
+
+  private static boolean isZero(double[] vector) {
+    for (double d : vector) {
+      if (d != 0.0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isFinite(double[] vector) {
+    for (double d : vector) {
+      if (!LangUtils.isFinite(d)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static double dot(double[] x, double[] y) {
+    double dot = 0.0;
+    for (int i = 0; i < x.length; i++) {
+      dot += x[i] * y[i];
+    }
+    return dot;
+  }
+
+  private static double dot(double[] x, float[] y) {
+    double dot = 0.0;
+    for (int i = 0; i < x.length; i++) {
+      dot += x[i] * y[i];
+    }
+    return dot;
+  }
+
+  @Override
+  public void close() {
+    ExecutorUtils.shutdownNowAndAwait(executor);
+    if (!queue.isEmpty()) {
+      log.info("Discarding {} pending updates", queue.size());
+    }
+  }
+
+  private static final class Update {
+
+    private final Generation generation;
+    private final float[] userFeatures;
+    private final float[] itemFeatures;
+    private final float value;
+    private final Runnable afterUpdate;
+
+    private Update(Generation generation,
+                   float[] userFeatures,
+                   float[] itemFeatures,
+                   float value,
+                   Runnable afterUpdate) {
+      this.generation = generation;
+      this.userFeatures = userFeatures;
+      this.itemFeatures = itemFeatures;
+      this.value = value;
+      this.afterUpdate = afterUpdate;
+    }
+
+  }
+
+  private final class UpdateWorker implements Callable<Void> {
+
+    @Override
+    public Void call() {
+      RandomGenerator random = RandomManager.getRandom();
+      try {
+        while (true) {
+          Update next = queue.take();
+          try {
+            update(next.generation, next.userFeatures, next.itemFeatures, next.value, random);
+            if (next.afterUpdate != null) {
+              next.afterUpdate.run();
+            }
+          } catch (RuntimeException re) {
+            log.warn("Unexpected error while updating model; continuing", re);
+          }
+        }
+      } catch (InterruptedException ignored) {
+        // Shutting down
+      }
+      return null;
+    }
+
+  }
+
+}
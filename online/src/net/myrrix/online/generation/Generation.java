@@ -17,6 +17,7 @@
 package net.myrrix.online.generation;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -52,6 +53,10 @@ import net.myrrix.online.candidate.CandidateFilterFactory;
  *   <li>clusters of user IDs (in distributed mode), with centroids</li>
  * </ul>
  *
+ * <p>Each generation also has a version, which increases whenever its data changes, including when new
+ * data is folded in, and which is always greater than any version of an earlier generation. Responses computed
+ * from a generation can be cached and validated with it.</p>
+ *
  * @author Sean Owen
  * @since 1.0
  * @see net.myrrix.online.factorizer.MatrixFactorizer
@@ -62,6 +67,8 @@ public final class Generation {
   
   public static final String NO_KNOWN_ITEMS_KEY = "model.noKnownItems";
 
+  private static final AtomicLong LAST_VERSION = new AtomicLong();
+
   private final FastByIDMap<FastIDSet> knownItemIDs;
   private final FastByIDMap<FastIDSet> knownUserIDs;
   private final FastByIDMap<float[]> X;
@@ -79,6 +86,9 @@ public final class Generation {
   private final ReadWriteLock knownUserLock;
   private final ReadWriteLock userClustersLock;
   private final ReadWriteLock itemClustersLock;
+  private final AtomicLong version;
+  private volatile long lastModified;
+  private volatile boolean lastModifiedAmbiguous;
   
   public Generation(FastByIDMap<FastIDSet> knownItemIDs, 
                     FastByIDMap<float[]> X, 
@@ -126,7 +136,9 @@ public final class Generation {
     this.knownUserLock = null; // Not used yet
     this.userClustersLock = new ReentrantReadWriteLock();
     this.itemClustersLock = new ReentrantReadWriteLock();
+    this.version = new AtomicLong();
     recomputeState();
+    bumpVersion();
   }
 
   void recomputeState() {
@@ -242,6 +254,46 @@ public final class Generation {
     return itemClusters;
   }
 
+  /**
+   * @return version of this generation's data, which increases whenever it changes
+   */
+  public long getVersion() {
+    return version.get();
+  }
+
+  /**
+   * @return time, in milliseconds since the epoch, at which this generation's data last changed
+   */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return true if the data changed more than once in the second of {@link #getLastModified()}, so that a
+   *  time to the second, as in HTTP, can't say whether it describes the last change or an earlier one
+   */
+  public boolean isLastModifiedAmbiguous() {
+    return lastModifiedAmbiguous;
+  }
+
+  /**
+   * Records that this generation's data has changed, giving it a new, greater {@link #getVersion()}.
+   * Call after making the change, so that a response computed from older data is never given the new version.
+   */
+  public void bumpVersion() {
+    synchronized (version) {
+      long now = System.currentTimeMillis();
+      // Set first, so that a reader never sees the new time without it
+      lastModifiedAmbiguous = now / 1000L == lastModified / 1000L;
+      lastModified = now;
+    }
+    long newVersion = LAST_VERSION.incrementAndGet();
+    long current;
+    while ((current = version.get()) < newVersion && !version.compareAndSet(current, newVersion)) {
+      // retry
+    }
+  }
+
   public CandidateFilter getCandidateFilter() {
     return candidateFilter;
   }
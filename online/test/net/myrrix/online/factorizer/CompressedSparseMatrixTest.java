@@ -0,0 +1,97 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.factorizer;
+
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.collection.FastByIDFloatMap;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.math.MatrixUtils;
+
+public final class CompressedSparseMatrixTest extends MyrrixTest {
+
+  @Test
+  public void testIDIndex() {
+    IDIndex index = new IDIndex(1);
+    for (long id = 0; id < 10000; id++) {
+      assertEquals((int) id, index.add(id * 31 - 5000));
+    }
+    assertEquals(10000, index.size());
+    assertEquals(17, index.add(17 * 31 - 5000));
+    assertEquals(10000, index.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i * 31L - 5000, index.idAt(i));
+      assertEquals(i, index.indexOf(i * 31L - 5000));
+    }
+    assertEquals(-1, index.indexOf(1L));
+  }
+
+  @Test
+  public void testFromRowsAndTranspose() {
+    FastByIDMap<FastByIDFloatMap> byRow = new FastByIDMap<FastByIDFloatMap>();
+    FastByIDMap<FastByIDFloatMap> byCol = new FastByIDMap<FastByIDFloatMap>();
+    MatrixUtils.addTo(100L, 7L, 1.0f, byRow, byCol);
+    MatrixUtils.addTo(100L, 8L, 2.0f, byRow, byCol);
+    MatrixUtils.addTo(200L, 8L, 3.0f, byRow, byCol);
+    MatrixUtils.addTo(300L, 9L, -4.0f, byRow, byCol);
+    MatrixUtils.addTo(300L, 7L, 5.0f, byRow, byCol);
+
+    CompressedSparseMatrix csr = CompressedSparseMatrix.fromRows(byRow);
+    assertEquals(3, csr.getNumRows());
+    assertEquals(3, csr.getNumColumns());
+    assertEquals(5, csr.getNumValues());
+    assertSameAs(byRow, csr);
+
+    CompressedSparseMatrix csc = csr.transpose();
+    assertEquals(3, csc.getNumRows());
+    assertEquals(3, csc.getNumColumns());
+    assertSame(csr.getRowIDs(), csc.getColumnIDs());
+    assertSame(csr.getColumnIDs(), csc.getRowIDs());
+    assertSameAs(byCol, csc);
+
+    // Transposed rows are ordered by column index
+    int[] columnIndices = csc.getColumnIndices();
+    for (int row = 0; row < csc.getNumRows(); row++) {
+      for (int i = csc.getRowStart(row) + 1; i < csc.getRowStart(row + 1); i++) {
+        assertTrue(columnIndices[i - 1] < columnIndices[i]);
+      }
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    CompressedSparseMatrix csr = CompressedSparseMatrix.fromRows(new FastByIDMap<FastByIDFloatMap>());
+    assertEquals(0, csr.getNumRows());
+    assertEquals(0, csr.getNumValues());
+    assertEquals(0, csr.transpose().getNumRows());
+  }
+
+  private static void assertSameAs(FastByIDMap<FastByIDFloatMap> expected, CompressedSparseMatrix actual) {
+    assertEquals(expected.size(), actual.getNumRows());
+    for (int row = 0; row < actual.getNumRows(); row++) {
+      FastByIDFloatMap expectedRow = expected.get(actual.getRowIDs().idAt(row));
+      assertNotNull(expectedRow);
+      assertEquals(expectedRow.size(), actual.getRowSize(row));
+      for (int i = actual.getRowStart(row); i < actual.getRowStart(row + 1); i++) {
+        long columnID = actual.getColumnIDs().idAt(actual.getColumnIndices()[i]);
+        assertEquals(expectedRow.get(columnID), actual.getValues()[i]);
+      }
+    }
+  }
+
+}
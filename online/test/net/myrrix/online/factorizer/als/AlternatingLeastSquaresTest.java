@@ -20,7 +20,6 @@ import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.math3.linear.RealMatrix;
-import org.junit.After;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +27,6 @@ import org.slf4j.LoggerFactory;
 import net.myrrix.common.MyrrixTest;
 import net.myrrix.common.collection.FastByIDFloatMap;
 import net.myrrix.common.collection.FastByIDMap;
-import net.myrrix.online.factorizer.MatrixFactorizer;
 import net.myrrix.common.math.MatrixUtils;
 
 public final class AlternatingLeastSquaresTest extends MyrrixTest {
@@ -56,6 +54,26 @@ public final class AlternatingLeastSquaresTest extends MyrrixTest {
         product.getRow(4));
   }
   
+  @Test
+  public void testIterationsRun() throws Exception {
+    FastByIDMap<FastByIDFloatMap> byRow = new FastByIDMap<FastByIDFloatMap>();
+    FastByIDMap<FastByIDFloatMap> byCol = new FastByIDMap<FastByIDFloatMap>();
+    MatrixUtils.addTo(0, 1, 2.0f, byRow, byCol);
+    MatrixUtils.addTo(1, 2, 4.0f, byRow, byCol);
+    MatrixUtils.addTo(2, 0, 1.0f, byRow, byCol);
+    MatrixUtils.addTo(2, 1, 3.0f, byRow, byCol);
+
+    // Never converges, so runs to the limit
+    AlternatingLeastSquares als = new AlternatingLeastSquares(byRow, byCol, 2, Double.MIN_VALUE, 3);
+    als.call();
+    assertEquals(3, als.getIterationsRun());
+
+    // Converges as soon as allowed, which is not after the first iteration from a random Y
+    als = new AlternatingLeastSquares(byRow, byCol, 2, 0.99, 10);
+    als.call();
+    assertEquals(2, als.getIterationsRun());
+  }
+
   @Test
   public void testALSPredictingR() throws Exception {
     RealMatrix product = buildTestXYTProduct(true);
@@ -77,16 +95,7 @@ public final class AlternatingLeastSquaresTest extends MyrrixTest {
         product.getRow(4));
   }
   
-  @Override
-  @After
-  public void tearDown() throws Exception {
-    System.clearProperty("model.reconstructRMatrix");    
-    super.tearDown();
-  }
-
   private static RealMatrix buildTestXYTProduct(boolean reconstructR) throws ExecutionException, InterruptedException {
-    System.setProperty("model.reconstructRMatrix", Boolean.toString(reconstructR));
-    
     FastByIDMap<FastByIDFloatMap> byRow = new FastByIDMap<FastByIDFloatMap>();
     FastByIDMap<FastByIDFloatMap> byCol = new FastByIDMap<FastByIDFloatMap>();
     // Octave: R = [ 0 2 3 1 0 ; 0 0 4 5 0 ; 1 0 0 0 2 ; 3 0 1 0 5 ; 0 2 2 2 0 ]
@@ -112,7 +121,8 @@ public final class AlternatingLeastSquaresTest extends MyrrixTest {
     previousY.put(3L, new float[] {0.2f, 0.2f});
     previousY.put(4L, new float[] {0.5f, 0.4f});
 
-    MatrixFactorizer als = new AlternatingLeastSquares(byRow, byCol, 2, 0.0001, 40);
+    AlternatingLeastSquares als = new AlternatingLeastSquares(byRow, byCol, 2, 0.0001, 40);
+    als.setReconstructRMatrix(reconstructR);
     als.setPreviousY(previousY);
     als.call();
 
@@ -0,0 +1,110 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.factorizer.als;
+
+import java.io.File;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.collection.FastByIDFloatMap;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.math.MatrixUtils;
+import net.myrrix.online.factorizer.CompressedSparseMatrix;
+import net.myrrix.online.factorizer.IDIndex;
+
+public final class CheckpointTest extends MyrrixTest {
+
+  @Test
+  public void testWriteRead() throws Exception {
+    IDIndex xIDs = new IDIndex();
+    xIDs.add(5L);
+    xIDs.add(-3L);
+    DenseFactors X = new DenseFactors(2, 2);
+    X.setRow(0, new float[] {1.0f, 2.0f});
+    X.setRow(1, new float[] {-1.0f, 0.5f});
+    IDIndex yIDs = new IDIndex();
+    yIDs.add(7L);
+    DenseFactors Y = new DenseFactors(2, 2);
+    Y.setRow(0, new float[] {3.0f, 4.0f});
+    Y.setRow(1, new float[] {0.0f, -2.0f});
+
+    File file = new File(getTestTempDir(), "checkpoint.bin");
+    Checkpoint.write(file, 42L, 7, X, xIDs, Y, yIDs, new long[] {8L});
+
+    assertNull(Checkpoint.read(file, 43L, 2));
+    assertNull(Checkpoint.read(file, 42L, 3));
+    Checkpoint checkpoint = Checkpoint.read(file, 42L, 2);
+    assertNotNull(checkpoint);
+    assertEquals(7, checkpoint.getIterationNumber());
+    assertEquals(2, checkpoint.getX().size());
+    assertArrayEquals(new float[] {1.0f, 2.0f}, checkpoint.getX().get(5L));
+    assertArrayEquals(new float[] {-1.0f, 0.5f}, checkpoint.getX().get(-3L));
+    assertEquals(2, checkpoint.getY().size());
+    assertArrayEquals(new float[] {3.0f, 4.0f}, checkpoint.getY().get(7L));
+    assertArrayEquals(new float[] {0.0f, -2.0f}, checkpoint.getY().get(8L));
+    assertNull(Checkpoint.read(new File(getTestTempDir(), "missing.bin"), 42L, 2));
+  }
+
+  @Test
+  public void testResume() throws Exception {
+    FastByIDMap<FastByIDFloatMap> byRow = new FastByIDMap<FastByIDFloatMap>();
+    FastByIDMap<FastByIDFloatMap> byCol = new FastByIDMap<FastByIDFloatMap>();
+    MatrixUtils.addTo(0L, 0L, 1.0f, byRow, byCol);
+    MatrixUtils.addTo(0L, 1L, 2.0f, byRow, byCol);
+    MatrixUtils.addTo(1L, 1L, 1.0f, byRow, byCol);
+    MatrixUtils.addTo(1L, 2L, 3.0f, byRow, byCol);
+    MatrixUtils.addTo(2L, 0L, 2.0f, byRow, byCol);
+    MatrixUtils.addTo(2L, 2L, 1.0f, byRow, byCol);
+    CompressedSparseMatrix R = CompressedSparseMatrix.fromRows(byRow);
+
+    AlternatingLeastSquares full = new AlternatingLeastSquares(R, 2, 0.0001, 40);
+    full.call();
+    int fullIterations = full.getIterationsRun();
+    assertTrue(fullIterations > 1 && fullIterations <= 40);
+    RealMatrix expected = MatrixUtils.multiplyXYT(full.getX(), full.getY());
+
+    // Save the finished state, as if interrupted at iteration 39 of 40
+    File file = new File(getTestTempDir(), "checkpoint.bin");
+    CompressedSparseMatrix RbyColumn = R.transpose();
+    DenseFactors X = new DenseFactors(R.getNumRows(), 2);
+    for (int row = 0; row < R.getNumRows(); row++) {
+      X.setRow(row, full.getX().get(R.getRowIDs().idAt(row)));
+    }
+    DenseFactors Y = new DenseFactors(RbyColumn.getNumRows(), 2);
+    for (int row = 0; row < RbyColumn.getNumRows(); row++) {
+      Y.setRow(row, full.getY().get(RbyColumn.getRowIDs().idAt(row)));
+    }
+    Checkpoint.write(file, 1L, 39, X, R.getRowIDs(), Y, RbyColumn.getRowIDs(), new long[0]);
+
+    AlternatingLeastSquares resumed = new AlternatingLeastSquares(R, 2, 0.0001, 40);
+    resumed.setCheckpoint(file, 1L);
+    resumed.call();
+    // Counts the iterations before the checkpoint too
+    assertEquals(40, resumed.getIterationsRun());
+    RealMatrix actual = MatrixUtils.multiplyXYT(resumed.getX(), resumed.getY());
+    for (int row = 0; row < expected.getRowDimension(); row++) {
+      for (int col = 0; col < expected.getColumnDimension(); col++) {
+        assertEquals(expected.getEntry(row, col), actual.getEntry(row, col), 0.001);
+      }
+    }
+    // Finished, so no longer needed
+    assertFalse(file.exists());
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.factorizer.als;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.collection.FastByIDFloatMap;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.math.MatrixUtils;
+import net.myrrix.online.factorizer.CompressedSparseMatrix;
+import net.myrrix.online.factorizer.MatrixFactorizer;
+
+public final class ConjugateGradientAlternatingLeastSquaresTest extends MyrrixTest {
+
+  @Test
+  public void testSameAsDirect() throws Exception {
+    FastByIDMap<FastByIDFloatMap> byRow = new FastByIDMap<FastByIDFloatMap>();
+    FastByIDMap<FastByIDFloatMap> byCol = new FastByIDMap<FastByIDFloatMap>();
+    // Octave: R = [ 0 2 3 1 0 ; 0 0 4 5 0 ; 1 0 0 0 2 ; 3 0 1 0 5 ; 0 2 2 2 0 ]
+    MatrixUtils.addTo(0, 1, 2.0f, byRow, byCol);
+    MatrixUtils.addTo(0, 2,  3.0f, byRow, byCol);
+    MatrixUtils.addTo(0, 3,  1.0f, byRow, byCol);
+    MatrixUtils.addTo(1, 2,  4.0f, byRow, byCol);
+    MatrixUtils.addTo(1, 3,  5.0f, byRow, byCol);
+    MatrixUtils.addTo(2, 0,  1.0f, byRow, byCol);
+    MatrixUtils.addTo(2, 4,  2.0f, byRow, byCol);
+    MatrixUtils.addTo(3, 0,  3.0f, byRow, byCol);
+    MatrixUtils.addTo(3, 2,  1.0f, byRow, byCol);
+    MatrixUtils.addTo(3, 4,  5.0f, byRow, byCol);
+    MatrixUtils.addTo(4, 1,  2.0f, byRow, byCol);
+    MatrixUtils.addTo(4, 2,  2.0f, byRow, byCol);
+    MatrixUtils.addTo(4, 3,  2.0f, byRow, byCol);
+    CompressedSparseMatrix R = CompressedSparseMatrix.fromRows(byRow);
+
+    MatrixFactorizer direct = new AlternatingLeastSquares(R, 2, 0.00001, 100);
+    direct.setPreviousY(initialY());
+    direct.call();
+    RealMatrix expected = MatrixUtils.multiplyXYT(direct.getX(), direct.getY());
+
+    // With as many steps as features, conjugate gradient solves each row exactly
+    MatrixFactorizer cg = new ConjugateGradientAlternatingLeastSquares(R, 2, 0.00001, 100, 2);
+    cg.setPreviousY(initialY());
+    cg.call();
+    RealMatrix actual = MatrixUtils.multiplyXYT(cg.getX(), cg.getY());
+
+    for (int row = 0; row < expected.getRowDimension(); row++) {
+      for (int col = 0; col < expected.getColumnDimension(); col++) {
+        assertEquals(expected.getEntry(row, col), actual.getEntry(row, col), 0.001);
+      }
+    }
+  }
+
+  private static FastByIDMap<float[]> initialY() {
+    FastByIDMap<float[]> previousY = new FastByIDMap<float[]>();
+    previousY.put(0L, new float[] {0.1f, 0.2f});
+    previousY.put(1L, new float[] {0.2f, 0.5f});
+    previousY.put(2L, new float[] {0.3f, 0.1f});
+    previousY.put(3L, new float[] {0.2f, 0.2f});
+    previousY.put(4L, new float[] {0.5f, 0.4f});
+    return previousY;
+  }
+
+}
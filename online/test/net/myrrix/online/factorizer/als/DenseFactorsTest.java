@@ -0,0 +1,54 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.factorizer.als;
+
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+
+public final class DenseFactorsTest extends MyrrixTest {
+
+  @Test
+  public void testRowsAcrossPages() {
+    // 4 rows per page, so 3 pages with the last partly full
+    DenseFactors factors = new DenseFactors(10, 3, 2);
+    assertEquals(10, factors.getNumRows());
+    assertEquals(3, factors.getFeatures());
+    for (int row = 0; row < 10; row++) {
+      factors.setRow(row, new float[] {row, row + 0.5f, -row});
+    }
+    for (int row = 0; row < 10; row++) {
+      assertArrayEquals(new float[] {row, row + 0.5f, -row}, factors.getRow(row));
+      assertEquals(row, factors.getPage(row)[factors.getOffset(row)]);
+    }
+    assertSame(factors.getPage(4), factors.getPage(7));
+    assertNotSame(factors.getPage(3), factors.getPage(4));
+    assertEquals(2 * 3, factors.getPage(9).length);
+  }
+
+  @Test
+  public void testDotAndTransposeTimesSelf() {
+    DenseFactors factors = new DenseFactors(3, 2, 1);
+    factors.setRow(0, new float[] {1.0f, 2.0f});
+    factors.setRow(1, new float[] {3.0f, -1.0f});
+    factors.setRow(2, new float[] {0.5f, 0.0f});
+    assertEquals(1.0, factors.dot(0, factors, 1));
+    double[] MTM = factors.transposeTimesSelf();
+    assertArrayEquals(new double[] {10.25, -1.0, -1.0, 5.0}, MTM);
+  }
+
+}
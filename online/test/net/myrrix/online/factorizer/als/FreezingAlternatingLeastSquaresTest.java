@@ -0,0 +1,124 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.factorizer.als;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.collection.FastByIDFloatMap;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.math.MatrixUtils;
+import net.myrrix.common.math.SimpleVectorMath;
+import net.myrrix.online.factorizer.CompressedSparseMatrix;
+import net.myrrix.online.factorizer.MatrixFactorizer;
+
+public final class FreezingAlternatingLeastSquaresTest extends MyrrixTest {
+
+  @Test
+  public void testFreezingMatchesFull() throws Exception {
+    FastByIDMap<FastByIDFloatMap> byRow = new FastByIDMap<FastByIDFloatMap>();
+    FastByIDMap<FastByIDFloatMap> byCol = new FastByIDMap<FastByIDFloatMap>();
+    buildGroups(byRow, byCol);
+
+    MatrixFactorizer full = new AlternatingLeastSquares(byRow, byCol, 3, 0.00001, 30);
+    full.call();
+
+    System.setProperty("model.als.freezeThreshold", "0.001");
+    MatrixFactorizer freezing;
+    try {
+      freezing = new AlternatingLeastSquares(byRow, byCol, 3, 0.00001, 30);
+      freezing.call();
+    } finally {
+      System.clearProperty("model.als.freezeThreshold");
+    }
+
+    assertSameEstimates(full, freezing);
+  }
+
+  @Test
+  public void testResumedYNotFrozenBeforeSolved() throws Exception {
+    FastByIDMap<FastByIDFloatMap> byRow = new FastByIDMap<FastByIDFloatMap>();
+    FastByIDMap<FastByIDFloatMap> byCol = new FastByIDMap<FastByIDFloatMap>();
+    buildGroups(byRow, byCol);
+    CompressedSparseMatrix R = CompressedSparseMatrix.fromRows(byRow);
+
+    MatrixFactorizer full = new AlternatingLeastSquares(R, 3, 0.00001, 30);
+    full.call();
+
+    // A Y far from converged, and the X solved from it, so that X will not move at all in the first iteration
+    MatrixFactorizer early = new AlternatingLeastSquares(R, 3, 0.00001, 1);
+    early.call();
+    System.setProperty("model.als.iterate", "false");
+    MatrixFactorizer xFromY;
+    try {
+      xFromY = new AlternatingLeastSquares(R, 3, 0.00001, 1);
+      xFromY.setPreviousY(early.getY());
+      xFromY.call();
+    } finally {
+      System.clearProperty("model.als.iterate");
+    }
+
+    File file = new File(getTestTempDir(), "checkpoint.bin");
+    CompressedSparseMatrix RbyColumn = R.transpose();
+    DenseFactors X = new DenseFactors(R.getNumRows(), 3);
+    for (int row = 0; row < R.getNumRows(); row++) {
+      X.setRow(row, xFromY.getX().get(R.getRowIDs().idAt(row)));
+    }
+    DenseFactors Y = new DenseFactors(RbyColumn.getNumRows(), 3);
+    for (int row = 0; row < RbyColumn.getNumRows(); row++) {
+      Y.setRow(row, early.getY().get(RbyColumn.getRowIDs().idAt(row)));
+    }
+    Checkpoint.write(file, 1L, 1, X, R.getRowIDs(), Y, RbyColumn.getRowIDs(), new long[0]);
+
+    System.setProperty("model.als.freezeThreshold", "0.001");
+    MatrixFactorizer resumed;
+    try {
+      resumed = new AlternatingLeastSquares(R, 3, 0.00001, 30);
+      resumed.setCheckpoint(file, 1L);
+      resumed.call();
+    } finally {
+      System.clearProperty("model.als.freezeThreshold");
+    }
+
+    assertSameEstimates(full, resumed);
+  }
+
+  private static void buildGroups(FastByIDMap<FastByIDFloatMap> byRow, FastByIDMap<FastByIDFloatMap> byCol) {
+    for (long user = 0L; user < 20L; user++) {
+      for (long item = 0L; item < 20L; item++) {
+        // Two groups of users, each mostly interested in one group of items
+        if ((user + item) % 3 == 0 && (user < 10L) == (item < 10L)) {
+          MatrixUtils.addTo(user, item, 1.0f + (item % 2), byRow, byCol);
+        }
+      }
+    }
+  }
+
+  private static void assertSameEstimates(MatrixFactorizer expectedFactorizer, MatrixFactorizer actualFactorizer) {
+    for (long user = 0L; user < 20L; user++) {
+      for (long item = 0L; item < 20L; item++) {
+        double expected =
+            SimpleVectorMath.dot(expectedFactorizer.getX().get(user), expectedFactorizer.getY().get(item));
+        double actual = SimpleVectorMath.dot(actualFactorizer.getX().get(user), actualFactorizer.getY().get(item));
+        assertEquals(expected, actual, 0.05);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.factorizer.als;
+
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.collection.FastByIDFloatMap;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.collection.FastIDSet;
+import net.myrrix.common.math.MatrixUtils;
+import net.myrrix.common.math.SimpleVectorMath;
+import net.myrrix.online.factorizer.MatrixFactorizer;
+
+public final class IncrementalAlternatingLeastSquaresTest extends MyrrixTest {
+
+  @Test
+  public void testIncremental() throws Exception {
+    FastByIDMap<FastByIDFloatMap> byRow = new FastByIDMap<FastByIDFloatMap>();
+    FastByIDMap<FastByIDFloatMap> byCol = new FastByIDMap<FastByIDFloatMap>();
+    // Two blocks of users and items that share no input
+    addBlock(0L, 0L, byRow, byCol);
+    addBlock(10L, 10L, byRow, byCol);
+
+    MatrixFactorizer als = new AlternatingLeastSquares(byRow, byCol, 2, 0.0001, 40);
+    als.call();
+    FastByIDMap<float[]> previousX = als.getX();
+    FastByIDMap<float[]> previousY = als.getY();
+
+    // New user 3, like user 0
+    MatrixUtils.addTo(3L, 0L, 1.0f, byRow, byCol);
+    MatrixUtils.addTo(3L, 1L, 2.0f, byRow, byCol);
+    FastIDSet changedUsers = new FastIDSet();
+    changedUsers.add(3L);
+    FastIDSet changedItems = new FastIDSet();
+    changedItems.add(0L);
+    changedItems.add(1L);
+
+    MatrixFactorizer incremental = new AlternatingLeastSquares(byRow, byCol, 2, 0.0001, 40);
+    incremental.setPreviousX(copy(previousX));
+    incremental.setPreviousY(copy(previousY));
+    incremental.setChangedIDs(changedUsers, changedItems);
+    incremental.call();
+    FastByIDMap<float[]> X = incremental.getX();
+    FastByIDMap<float[]> Y = incremental.getY();
+    assertEquals(previousX.size() + 1, X.size());
+    assertEquals(previousY.size(), Y.size());
+
+    // The other block is untouched
+    for (long id = 10L; id < 13L; id++) {
+      assertArrayEquals(previousX.get(id), X.get(id));
+      assertArrayEquals(previousY.get(id), Y.get(id));
+    }
+    // The new user looks like user 0
+    assertTrue(SimpleVectorMath.dot(X.get(3L), Y.get(1L)) > 0.5);
+    assertTrue(SimpleVectorMath.dot(X.get(3L), Y.get(10L)) < 0.1);
+    assertEquals(SimpleVectorMath.dot(X.get(0L), Y.get(1L)), SimpleVectorMath.dot(X.get(3L), Y.get(1L)), 0.1);
+  }
+
+  @Test
+  public void testNoPreviousIsFull() throws Exception {
+    FastByIDMap<FastByIDFloatMap> byRow = new FastByIDMap<FastByIDFloatMap>();
+    FastByIDMap<FastByIDFloatMap> byCol = new FastByIDMap<FastByIDFloatMap>();
+    addBlock(0L, 0L, byRow, byCol);
+    MatrixFactorizer als = new AlternatingLeastSquares(byRow, byCol, 2, 0.0001, 40);
+    als.setChangedIDs(new FastIDSet(), new FastIDSet());
+    als.call();
+    assertEquals(3, als.getX().size());
+    assertEquals(3, als.getY().size());
+  }
+
+  private static void addBlock(long firstUser,
+                               long firstItem,
+                               FastByIDMap<FastByIDFloatMap> byRow,
+                               FastByIDMap<FastByIDFloatMap> byCol) {
+    MatrixUtils.addTo(firstUser, firstItem, 1.0f, byRow, byCol);
+    MatrixUtils.addTo(firstUser, firstItem + 1, 2.0f, byRow, byCol);
+    MatrixUtils.addTo(firstUser + 1, firstItem + 1, 1.0f, byRow, byCol);
+    MatrixUtils.addTo(firstUser + 1, firstItem + 2, 3.0f, byRow, byCol);
+    MatrixUtils.addTo(firstUser + 2, firstItem, 2.0f, byRow, byCol);
+    MatrixUtils.addTo(firstUser + 2, firstItem + 2, 1.0f, byRow, byCol);
+  }
+
+  private static FastByIDMap<float[]> copy(FastByIDMap<float[]> M) {
+    FastByIDMap<float[]> copy = new FastByIDMap<float[]>(M.size());
+    for (FastByIDMap.MapEntry<float[]> entry : M.entrySet()) {
+      copy.put(entry.getKey(), entry.getValue().clone());
+    }
+    return copy;
+  }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.factorizer.sgd;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.collection.FastByIDMap;
+import net.myrrix.common.math.SimpleVectorMath;
+import net.myrrix.common.random.RandomManager;
+import net.myrrix.common.random.RandomUtils;
+import net.myrrix.online.generation.Generation;
+
+public final class StreamingFactorizerTest extends MyrrixTest {
+
+  private static Generation emptyGeneration() {
+    return new Generation(null, new FastByIDMap<float[]>(), new FastByIDMap<float[]>());
+  }
+
+  @Test
+  public void testPositiveMovesTowardsOne() {
+    RandomGenerator random = RandomManager.getRandom();
+    Generation generation = emptyGeneration();
+    float[] x = RandomUtils.randomUnitVector(10, random);
+    float[] y = RandomUtils.randomUnitVector(10, random);
+    StreamingFactorizer factorizer = new StreamingFactorizer();
+    try {
+      double before = SimpleVectorMath.dot(x, y);
+      long versionBefore = generation.getVersion();
+      for (int i = 0; i < 100; i++) {
+        factorizer.update(generation, x, y, 1.0f, random);
+      }
+      double after = SimpleVectorMath.dot(x, y);
+      assertTrue(after > before);
+      assertEquals(1.0, after, 0.2);
+      assertEquals(100, factorizer.getUpdateCount());
+      assertTrue(generation.getVersion() > versionBefore);
+    } finally {
+      factorizer.close();
+    }
+  }
+
+  @Test
+  public void testNegativeMovesTowardsZero() {
+    RandomGenerator random = RandomManager.getRandom();
+    Generation generation = emptyGeneration();
+    float[] x = RandomUtils.randomUnitVector(10, random);
+    float[] y = x.clone();
+    StreamingFactorizer factorizer = new StreamingFactorizer();
+    try {
+      for (int i = 0; i < 100; i++) {
+        factorizer.update(generation, x, y, -1.0f, random);
+      }
+      assertEquals(0.0, SimpleVectorMath.dot(x, y), 0.2);
+    } finally {
+      factorizer.close();
+    }
+  }
+
+  @Test
+  public void testNewUserAndItem() {
+    RandomGenerator random = RandomManager.getRandom();
+    float[] x = new float[10];
+    float[] y = new float[10];
+    StreamingFactorizer factorizer = new StreamingFactorizer();
+    try {
+      factorizer.update(emptyGeneration(), x, y, 1.0f, random);
+      assertTrue(SimpleVectorMath.norm(x) > 0.0);
+      assertTrue(SimpleVectorMath.norm(y) > 0.0);
+      assertTrue(SimpleVectorMath.dot(x, y) > 0.0);
+    } finally {
+      factorizer.close();
+    }
+  }
+
+  @Test
+  public void testQueuedUpdates() throws Exception {
+    RandomGenerator random = RandomManager.getRandom();
+    Generation generation = emptyGeneration();
+    StreamingFactorizer factorizer = new StreamingFactorizer();
+    final AtomicInteger afterUpdateCount = new AtomicInteger();
+    Runnable afterUpdate = new Runnable() {
+      @Override
+      public void run() {
+        afterUpdateCount.incrementAndGet();
+      }
+    };
+    try {
+      for (int i = 0; i < 10; i++) {
+        assertTrue(factorizer.offer(generation,
+                                    RandomUtils.randomUnitVector(10, random),
+                                    RandomUtils.randomUnitVector(10, random),
+                                    1.0f,
+                                    afterUpdate));
+      }
+      for (int i = 0; i < 100 && afterUpdateCount.get() < 10; i++) {
+        Thread.sleep(10L);
+      }
+      assertEquals(10, factorizer.getUpdateCount());
+      assertEquals(10, afterUpdateCount.get());
+    } finally {
+      factorizer.close();
+    }
+  }
+
+}
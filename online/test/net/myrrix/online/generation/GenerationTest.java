@@ -0,0 +1,65 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.online.generation;
+
+import org.junit.Test;
+
+import net.myrrix.common.MyrrixTest;
+import net.myrrix.common.collection.FastByIDMap;
+
+public final class GenerationTest extends MyrrixTest {
+
+  private static Generation emptyGeneration() {
+    return new Generation(null, new FastByIDMap<float[]>(), new FastByIDMap<float[]>());
+  }
+
+  @Test
+  public void testVersionIncreases() {
+    long beforeMS = System.currentTimeMillis();
+    Generation generation = emptyGeneration();
+    long version = generation.getVersion();
+    assertTrue(version > 0L);
+    assertTrue(generation.getLastModified() >= beforeMS);
+    generation.bumpVersion();
+    assertTrue(generation.getVersion() > version);
+  }
+
+  @Test
+  public void testLaterGenerationHasGreaterVersion() {
+    Generation first = emptyGeneration();
+    first.bumpVersion();
+    first.bumpVersion();
+    Generation second = emptyGeneration();
+    assertTrue(second.getVersion() > first.getVersion());
+    first.bumpVersion();
+    assertTrue(first.getVersion() > second.getVersion());
+  }
+
+  @Test
+  public void testLastModifiedAmbiguous() throws Exception {
+    Generation generation = emptyGeneration();
+    assertFalse(generation.isLastModifiedAmbiguous());
+    // Of these three changes, at least the last two are in the same second
+    generation.bumpVersion();
+    generation.bumpVersion();
+    assertTrue(generation.isLastModifiedAmbiguous());
+    Thread.sleep(1000L - generation.getLastModified() % 1000L + 10L);
+    generation.bumpVersion();
+    assertFalse(generation.isLastModifiedAmbiguous());
+  }
+
+}
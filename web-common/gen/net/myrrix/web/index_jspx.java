@@ -16,7 +16,7 @@ import java.util.Map;
 import net.myrrix.common.stats.JVMEnvironment;
 import net.myrrix.web.common.stats.ServletStats;
 import net.myrrix.common.stats.RunningStatistics;
-import net.myrrix.common.stats.RunningStatisticsPerTime;
+import net.myrrix.common.stats.StripedRunningStatisticsPerTime;
 import net.myrrix.web.servlets.AbstractMyrrixServlet;
 import net.myrrix.common.ReloadingReference;
 import net.myrrix.online.ServerRecommender;
@@ -308,7 +308,7 @@ pageContext.setAttribute("numPartitions", numPartitions);
         RunningStatistics allTimeNanosec = entry.getValue().getAllTimeNanosec();
         pageContext.setAttribute("averageMicroSec", (long) (allTimeNanosec.getAverage() / 1000.0));
         pageContext.setAttribute("maxMicroSec", (long) (allTimeNanosec.getMax() / 1000.0));
-        RunningStatisticsPerTime lastHourNanosec = entry.getValue().getLastHourNanosec();
+        StripedRunningStatisticsPerTime lastHourNanosec = entry.getValue().getLastHourNanosec();
         pageContext.setAttribute("averageLastHourMicroSec", (long) (lastHourNanosec.getMean() / 1000.0));
         pageContext.setAttribute("maxLastHourMicroSec", (long) (lastHourNanosec.getMax() / 1000.0));
         pageContext.setAttribute("clientErrors", entry.getValue().getNumClientErrors());
@@ -20,7 +20,10 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Handler;
 import java.util.regex.Pattern;
@@ -31,6 +34,7 @@ import javax.servlet.ServletContextListener;
 import com.google.common.base.Preconditions;
 import com.google.common.io.Files;
 import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +44,7 @@ import net.myrrix.common.io.IOUtils;
 import net.myrrix.common.MyrrixRecommender;
 import net.myrrix.common.PartitionsUtils;
 import net.myrrix.common.log.MemoryHandler;
+import net.myrrix.common.parallel.ExecutorUtils;
 import net.myrrix.online.AbstractRescorerProvider;
 import net.myrrix.online.ClientThread;
 import net.myrrix.online.RescorerProvider;
@@ -52,6 +57,16 @@ import net.myrrix.web.servlets.AbstractMyrrixServlet;
  * <p>This servlet lifecycle listener makes sure that the shared {@link MyrrixRecommender} instance
  * is initialized at startup, along with related objects, and shut down when the container is destroyed.</p>
  *
+ * <p>Among these is the executor on which compute-intensive requests run, apart from the container's
+ * threads. Its size can be set with system properties:</p>
+ *
+ * <ul>
+ *   <li>{@code web.compute.threads}: number of requests computed at once. Defaults to twice the number
+ *    of cores.</li>
+ *   <li>{@code web.compute.queueSize}: number of requests that may wait to be computed. Further requests are
+ *    refused with {@code 503 Service Unavailable} until there is room. Defaults to 1000.</li>
+ * </ul>
+ *
  * @author Sean Owen
  * @since 1.0
  */
@@ -72,6 +87,11 @@ public final class InitListener implements ServletContextListener {
   public static final String PARTITION_KEY = KEY_PREFIX + ".PARTITION";
 
   private static final Pattern COMMA = Pattern.compile(",");
+  private static final int COMPUTE_THREADS =
+      Integer.parseInt(System.getProperty("web.compute.threads",
+                                          Integer.toString(2 * Runtime.getRuntime().availableProcessors())));
+  private static final int COMPUTE_QUEUE_SIZE =
+      Integer.parseInt(System.getProperty("web.compute.queueSize", "1000"));
 
   private File tempDirToDelete;
   private ClientThread clientThread;
@@ -102,6 +122,8 @@ public final class InitListener implements ServletContextListener {
     
     configureClientThread(context, bucket, instanceID, recommender);
 
+    configureComputeExecutor(context);
+
     log.info("Myrrix is initialized");
   }
 
@@ -328,6 +350,19 @@ public final class InitListener implements ServletContextListener {
     return clientThreadRunnable;
   }
 
+  private static void configureComputeExecutor(ServletContext context) {
+    Preconditions.checkArgument(COMPUTE_THREADS > 0, "Bad web.compute.threads: %s", COMPUTE_THREADS);
+    Preconditions.checkArgument(COMPUTE_QUEUE_SIZE > 0, "Bad web.compute.queueSize: %s", COMPUTE_QUEUE_SIZE);
+    ExecutorService computeExecutor =
+        new ThreadPoolExecutor(COMPUTE_THREADS,
+                               COMPUTE_THREADS,
+                               0L,
+                               TimeUnit.MILLISECONDS,
+                               new ArrayBlockingQueue<Runnable>(COMPUTE_QUEUE_SIZE),
+                               new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Compute-%d").build());
+    context.setAttribute(AbstractMyrrixServlet.COMPUTE_EXECUTOR_KEY, computeExecutor);
+  }
+
   @Override
   public void contextDestroyed(ServletContextEvent event) {
     log.info("Uninitializing Myrrix in servlet context...");
@@ -342,6 +377,12 @@ public final class InitListener implements ServletContextListener {
     }
     
     ServletContext context = event.getServletContext();
+    ExecutorService computeExecutor =
+        (ExecutorService) context.getAttribute(AbstractMyrrixServlet.COMPUTE_EXECUTOR_KEY);
+    if (computeExecutor != null) {
+      ExecutorUtils.shutdownNowAndAwait(computeExecutor);
+    }
+
     Closeable recommender = (Closeable) context.getAttribute(AbstractMyrrixServlet.RECOMMENDER_KEY);
     if (recommender != null) {
       try {
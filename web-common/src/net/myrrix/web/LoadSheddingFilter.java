@@ -0,0 +1,143 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.web;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Maps;
+import com.google.common.net.HttpHeaders;
+
+import net.myrrix.common.parallel.AdaptiveConcurrencyLimit;
+
+/**
+ * <p>A {@link Filter} that sheds load by limiting how many requests to each endpoint are in progress at once,
+ * across all clients, with an {@link AdaptiveConcurrencyLimit} per servlet path. Each limit follows the measured
+ * latency of its endpoint, and falls as requests start to wait on each other. Requests beyond it are rejected
+ * right away with HTTP status {@code 503 Service Unavailable} and {@code Retry-After}, rather than queued until
+ * they time out.</p>
+ *
+ * <p>It is meant for compute-intensive endpoints only, like {@code /recommend}. Cheap ones, and health checks
+ * like {@code /ready}, should not be mapped to it, since they need no protection and should answer even when
+ * the server is overloaded. It is not enabled by default; see {@link Runner}.</p>
+ *
+ * <p>Each limit stays between the values of system properties {@code web.concurrency.min} (default 10) and
+ * {@code web.concurrency.max} (default 1000). A request in progress includes one processed asynchronously,
+ * until it completes.</p>
+ */
+public final class LoadSheddingFilter implements Filter {
+
+  private static final int INITIAL_LIMIT = 100;
+
+  private int minLimit;
+  private int maxLimit;
+  private ConcurrentMap<String,AdaptiveConcurrencyLimit> concurrencyLimits;
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    minLimit = Integer.parseInt(System.getProperty("web.concurrency.min", "10"));
+    maxLimit = Integer.parseInt(System.getProperty("web.concurrency.max", "1000"));
+    concurrencyLimits = Maps.newConcurrentMap();
+  }
+
+  @Override
+  public void doFilter(ServletRequest request,
+                       ServletResponse response,
+                       FilterChain chain) throws IOException, ServletException {
+    AdaptiveConcurrencyLimit concurrencyLimit = getConcurrencyLimit(((HttpServletRequest) request).getServletPath());
+    if (!concurrencyLimit.tryAcquire()) {
+      HttpServletResponse servletResponse = (HttpServletResponse) response;
+      servletResponse.setHeader(HttpHeaders.RETRY_AFTER, "1");
+      servletResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server overloaded");
+      return;
+    }
+    long start = System.nanoTime();
+    boolean async = false;
+    try {
+      chain.doFilter(request, response);
+      if (request.isAsyncStarted()) {
+        // Completion is only reported once this thread returns, so the listener can't miss it
+        request.getAsyncContext().addListener(new ReleasingAsyncListener(concurrencyLimit, start));
+        async = true;
+      }
+    } finally {
+      if (!async) {
+        concurrencyLimit.release(System.nanoTime() - start);
+      }
+    }
+  }
+
+  private AdaptiveConcurrencyLimit getConcurrencyLimit(String servletPath) {
+    AdaptiveConcurrencyLimit concurrencyLimit = concurrencyLimits.get(servletPath);
+    if (concurrencyLimit == null) {
+      int initialLimit = Math.max(minLimit, Math.min(maxLimit, INITIAL_LIMIT));
+      concurrencyLimit = new AdaptiveConcurrencyLimit(initialLimit, minLimit, maxLimit);
+      AdaptiveConcurrencyLimit existing = concurrencyLimits.putIfAbsent(servletPath, concurrencyLimit);
+      if (existing != null) {
+        concurrencyLimit = existing;
+      }
+    }
+    return concurrencyLimit;
+  }
+
+  @Override
+  public void destroy() {
+    // do nothing
+  }
+
+  private static final class ReleasingAsyncListener implements AsyncListener {
+
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final long start;
+
+    ReleasingAsyncListener(AdaptiveConcurrencyLimit concurrencyLimit, long start) {
+      this.concurrencyLimit = concurrencyLimit;
+      this.start = start;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      concurrencyLimit.release(System.nanoTime() - start);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      // onComplete follows
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      // onComplete follows
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      // Requests are not restarted asynchronously
+    }
+  }
+
+}
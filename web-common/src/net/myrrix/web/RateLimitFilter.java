@@ -0,0 +1,99 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.web;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.net.HttpHeaders;
+
+import net.myrrix.common.parallel.TokenBucket;
+
+/**
+ * <p>A {@link Filter} that limits the rate of requests from each host with a {@link TokenBucket}. A host may make
+ * up to the configured number of requests per minute on average, and a burst of that many at once. Requests
+ * beyond that are rejected with HTTP status {@code 429 Too Many Requests}, and a {@code Retry-After} header
+ * giving the seconds until one more will be accepted.</p>
+ *
+ * <p>Buckets are kept for at most {@link #MAX_TRACKED_HOSTS} recently active hosts, so memory use is bounded.
+ * A bucket idle for a minute is full again and is simply discarded.</p>
+ */
+public final class RateLimitFilter implements Filter {
+
+  public static final String MAX_ACCESS_PER_HOST_PER_MIN_KEY = "maxAccessPerHostPerMin";
+  private static final int DEFAULT_MAX_ACCESS_PER_HOST_PER_MIN = 1000;
+  private static final int MAX_TRACKED_HOSTS = 10000;
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+
+  private LoadingCache<String,TokenBucket> buckets;
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    String maxAccessPerHostPerMinString = filterConfig.getInitParameter(MAX_ACCESS_PER_HOST_PER_MIN_KEY);
+    final int maxAccessPerHostPerMin =
+        maxAccessPerHostPerMinString == null ?
+        DEFAULT_MAX_ACCESS_PER_HOST_PER_MIN :
+        Integer.parseInt(maxAccessPerHostPerMinString);
+    Preconditions.checkArgument(maxAccessPerHostPerMin > 0,
+                                "Bad max accesses per host per min: %s",
+                                maxAccessPerHostPerMin);
+
+    buckets = CacheBuilder.newBuilder()
+        .maximumSize(MAX_TRACKED_HOSTS)
+        .expireAfterAccess(1, TimeUnit.MINUTES)
+        .build(new CacheLoader<String,TokenBucket>() {
+          @Override
+          public TokenBucket load(String remoteAddress) {
+            return new TokenBucket(maxAccessPerHostPerMin, maxAccessPerHostPerMin / 60.0);
+          }
+        });
+  }
+
+  @Override
+  public void doFilter(ServletRequest request,
+                       ServletResponse response,
+                       FilterChain chain) throws IOException, ServletException {
+    TokenBucket bucket = buckets.getUnchecked(request.getRemoteAddr());
+    if (bucket.tryAcquire()) {
+      chain.doFilter(request, response);
+    } else {
+      long retryAfterSec = Math.max(1L, TimeUnit.NANOSECONDS.toSeconds(bucket.getNanosUntilAvailable()) + 1L);
+      HttpServletResponse servletResponse = (HttpServletResponse) response;
+      servletResponse.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSec));
+      servletResponse.sendError(SC_TOO_MANY_REQUESTS);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (buckets != null) {
+      buckets.invalidateAll();
+    }
+  }
+
+}
@@ -68,12 +68,14 @@ import net.myrrix.common.signal.SignalType;
 import net.myrrix.online.io.ResourceRetriever;
 import net.myrrix.web.servlets.AllItemIDsServlet;
 import net.myrrix.web.servlets.AllUserIDsServlet;
+import net.myrrix.web.servlets.BatchServlet;
 import net.myrrix.web.servlets.BecauseServlet;
 import net.myrrix.web.servlets.EstimateForAnonymousServlet;
 import net.myrrix.web.servlets.EstimateServlet;
 import net.myrrix.web.servlets.IngestServlet;
 import net.myrrix.web.servlets.ItemClusterServlet;
 import net.myrrix.web.servlets.LogServlet;
+import net.myrrix.web.servlets.MetricsServlet;
 import net.myrrix.web.servlets.MostPopularItemsServlet;
 import net.myrrix.web.servlets.PreferenceServlet;
 import net.myrrix.web.servlets.ReadyServlet;
@@ -125,8 +127,10 @@ import net.myrrix.web.servlets.UserClusterServlet;
  *   HTTP DIGEST authentication. Requires password to be set.</li>
  *   <li>{@code --password}: Password for HTTP DIGEST authentication. Requires userName to be set.</li>
  *   <li>{@code --consoleOnlyPassword}: Only apply username and password to admin / console pages.</li>
- *   <li>{@code --hostRequestLimit}: max number of requests per minute from a host before it is temporarily blocked 
- *    This provides only a basic attempt to deny requests and is not guaranteed to block any DoS attack.</li>
+ *   <li>{@code --hostRequestLimit}: max number of requests per minute, on average, from a host. Requests beyond
+ *    this are refused with status {@code 429}. See {@link RateLimitFilter}.</li>
+ *   <li>{@code --shedLoad}: If set, compute-intensive requests, like those for recommendations, beyond a limit
+ *    that adapts to their latency are refused with status {@code 503}. See {@link LoadSheddingFilter}.</li>
  *   <li>{@code --rescorerProviderClass}: Optional. Name of an implementation of
  *     {@code RescorerProvider} to use to rescore recommendations and similarities, if any. The class
  *     must be added to the server classpath. Or, in distributed mode, if not found in the classpath, it
@@ -278,6 +282,7 @@ public final class Runner implements Callable<Boolean>, Closeable {
     config.setKeystorePassword(runnerArgs.getKeystorePassword());
     
     config.setHostRequestLimit(runnerArgs.getHostRequestLimit());
+    config.setShedLoad(runnerArgs.isShedLoad());
     
     config.setRescorerProviderClassName(runnerArgs.getRescorerProviderClass());
     config.setClientThreadClassName(runnerArgs.getClientThreadClass());
@@ -311,25 +316,38 @@ public final class Runner implements Callable<Boolean>, Closeable {
     Context context = makeContext(tomcat, noSuchBaseDir, connector.getPort());
     
     if (config.getHostRequestLimit() != null) {
-      addFilter(context, new DoSFilter(), "/*", 
-                Collections.singletonMap(DoSFilter.MAX_ACCESS_PER_HOST_PER_MIN_KEY, 
-                                         config.getHostRequestLimit().toString()));
+      addFilter(context, new RateLimitFilter(),
+                Collections.singletonMap(RateLimitFilter.MAX_ACCESS_PER_HOST_PER_MIN_KEY, 
+                                         config.getHostRequestLimit().toString()),
+                "/*");
+    }
+    if (config.isShedLoad()) {
+      addFilter(context, new LoadSheddingFilter(), Collections.<String,String>emptyMap(),
+                "/recommend/*",
+                "/recommendToMany/*",
+                "/recommendToAnonymous/*",
+                "/similarity/*",
+                "/similarityToItem/*",
+                "/because/*",
+                "/mostPopularItems/*",
+                "/batch/*");
     }
 
-    addServlet(context, new RecommendServlet(), "/recommend/*");
-    addServlet(context, new RecommendToManyServlet(), "/recommendToMany/*");
-    addServlet(context, new RecommendToAnonymousServlet(), "/recommendToAnonymous/*");
-    addServlet(context, new SimilarityServlet(), "/similarity/*");
+    addServlet(context, new RecommendServlet(), "/recommend/*").setAsyncSupported(true);
+    addServlet(context, new RecommendToManyServlet(), "/recommendToMany/*").setAsyncSupported(true);
+    addServlet(context, new RecommendToAnonymousServlet(), "/recommendToAnonymous/*").setAsyncSupported(true);
+    addServlet(context, new SimilarityServlet(), "/similarity/*").setAsyncSupported(true);
     addServlet(context, new SimilarityToItemServlet(), "/similarityToItem/*");
     addServlet(context, new EstimateServlet(), "/estimate/*");
     addServlet(context, new EstimateForAnonymousServlet(), "/estimateForAnonymous/*");    
-    addServlet(context, new BecauseServlet(), "/because/*");
+    addServlet(context, new BecauseServlet(), "/because/*").setAsyncSupported(true);
     addServlet(context, new ReadyServlet(), "/ready/*");
     addServlet(context, new AllUserIDsServlet(), "/user/allIDs/*");
     addServlet(context, new AllItemIDsServlet(), "/item/allIDs/*");
     addServlet(context, new UserClusterServlet(), "/user/clusters/*");
     addServlet(context, new ItemClusterServlet(), "/item/clusters/*");
     addServlet(context, new MostPopularItemsServlet(), "/mostPopularItems/*");
+    addServlet(context, new BatchServlet(), "/batch/*");
 
     if (!config.isReadOnly()) {
       addServlet(context, new PreferenceServlet(), "/pref/*");
@@ -345,6 +363,7 @@ public final class Runner implements Callable<Boolean>, Closeable {
     addServlet(context, new error_jspx(), "/error.jspx");
     addServlet(context, new som_jspx(), "/som.jspx");
     addServlet(context, new LogServlet(), "/log.txt");
+    addServlet(context, new MetricsServlet(), "/metrics");
 
     try {
       tomcat.start();
@@ -559,20 +578,24 @@ public final class Runner implements Callable<Boolean>, Closeable {
     return context;
   }
   
-  private static void addFilter(Context context, Filter filter, String path, Map<String,String> args) {
+  private static void addFilter(Context context, Filter filter, Map<String,String> args, String... paths) {
     String name = filter.getClass().getSimpleName();
-    FilterDef dosFilterDef = new FilterDef();
-    dosFilterDef.setFilter(filter);
-    dosFilterDef.setFilterName(name);
+    FilterDef filterDef = new FilterDef();
+    filterDef.setFilter(filter);
+    filterDef.setFilterName(name);
+    // Must allow asynchronous processing in servlets behind it
+    filterDef.setAsyncSupported(Boolean.TRUE.toString());
     for (Map.Entry<String,String> entry : args.entrySet()) {
-      dosFilterDef.addInitParameter(entry.getKey(), entry.getValue());
+      filterDef.addInitParameter(entry.getKey(), entry.getValue());
     }
-    context.addFilterDef(dosFilterDef); 
+    context.addFilterDef(filterDef); 
     
-    FilterMap dosFilterMap = new FilterMap();
-    dosFilterMap.setFilterName(name);
-    dosFilterMap.addURLPattern(path);
-    context.addFilterMap(dosFilterMap);
+    FilterMap filterMap = new FilterMap();
+    filterMap.setFilterName(name);
+    for (String path : paths) {
+      filterMap.addURLPattern(path);
+    }
+    context.addFilterMap(filterMap);
   }
 
   private static Wrapper addServlet(Context context, Servlet servlet, String path) {
@@ -65,9 +65,12 @@ public interface RunnerArgs {
   String getKeystorePassword();
   
   @Option(defaultToNull = true, 
-          description = "Max number of requests per minute from a host before it is temporarily blocked")
+          description = "Max number of requests per minute from a host, on average, before more are refused")
   Integer getHostRequestLimit();
 
+  @Option(description = "Refuses compute-intensive requests beyond a limit that adapts to their latency")
+  boolean isShedLoad();
+
   @Option(defaultToNull = true, description = "RescorerProvider implementation class")
   String getRescorerProviderClass();
 
@@ -45,6 +45,7 @@ public final class RunnerConfiguration {
   private String password;
   private boolean consoleOnlyPassword;
   private Integer hostRequestLimit;
+  private boolean shedLoad;
   private String rescorerProviderClassName;
   private String clientThreadClassName;  
   private Integer partition;
@@ -199,9 +200,9 @@ public final class RunnerConfiguration {
   }
 
   /**
-   * @return max number of requests per minute from a host before it is temporarily blocked 
-   *  or {@code null} for no limit. This provides only a basic attempt to deny requests and is not 
-   *  guaranteed to block any DoS attack.
+   * @return max number of requests per minute from a host, on average, before more are refused,
+   *  or {@code null} for no limit. A host may also send a burst of this many at once.
+   * @see RateLimitFilter
    */
   public Integer getHostRequestLimit() {
     return hostRequestLimit;
@@ -211,6 +212,18 @@ public final class RunnerConfiguration {
     this.hostRequestLimit = hostRequestLimit;
   }
 
+  /**
+   * @return true if compute-intensive requests beyond a limit that adapts to their latency should be refused
+   * @see LoadSheddingFilter
+   */
+  public boolean isShedLoad() {
+    return shedLoad;
+  }
+
+  public void setShedLoad(boolean shedLoad) {
+    this.shedLoad = shedLoad;
+  }
+
   /**
    * @return the name of an implementation of {@link net.myrrix.online.RescorerProvider}, if one should be
    *  used to modify the results of the recommendations and similarity computations, or {@code null} if
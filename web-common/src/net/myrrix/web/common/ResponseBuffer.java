@@ -0,0 +1,178 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.web.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.google.common.base.Charsets;
+
+import net.myrrix.common.io.AsciiNumbers;
+
+/**
+ * <p>Buffers a response body as bytes, formatting numbers directly into the buffer with
+ * {@link AsciiNumbers}, and writes it to an {@link OutputStream} when full. Compared to a {@link java.io.Writer},
+ * this creates no {@link String} per number and needs no character encoding. Text is written as UTF-8.</p>
+ *
+ * <p>Each thread has one instance, reused across responses. Get it with {@link #forOutput(OutputStream)}
+ * and call {@link #finish()} when done. Instances are not thread-safe.</p>
+ */
+public final class ResponseBuffer {
+
+  private static final int CAPACITY = 8192;
+
+  private static final ThreadLocal<ResponseBuffer> BUFFERS = new ThreadLocal<ResponseBuffer>() {
+    @Override
+    protected ResponseBuffer initialValue() {
+      return new ResponseBuffer();
+    }
+  };
+
+  private final byte[] buffer;
+  private int position;
+  private OutputStream out;
+
+  private ResponseBuffer() {
+    buffer = new byte[CAPACITY];
+  }
+
+  /**
+   * @param out stream to write to
+   * @return this thread's instance, emptied, and writing to {@code out}
+   */
+  public static ResponseBuffer forOutput(OutputStream out) {
+    ResponseBuffer responseBuffer = BUFFERS.get();
+    responseBuffer.out = out;
+    responseBuffer.position = 0;
+    return responseBuffer;
+  }
+
+  /**
+   * Appends one ASCII character.
+   */
+  public ResponseBuffer append(char c) throws IOException {
+    ensureFree(1);
+    buffer[position++] = (byte) c;
+    return this;
+  }
+
+  /**
+   * Appends text as UTF-8.
+   */
+  public ResponseBuffer append(CharSequence s) throws IOException {
+    int length = s.length();
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c >= 0x80) {
+        put(s.subSequence(i, length).toString().getBytes(Charsets.UTF_8));
+        break;
+      }
+      ensureFree(1);
+      buffer[position++] = (byte) c;
+    }
+    return this;
+  }
+
+  /**
+   * Appends a {@code long} in decimal.
+   */
+  public ResponseBuffer append(long value) throws IOException {
+    ensureFree(AsciiNumbers.MAX_LONG_LENGTH);
+    position = AsciiNumbers.writeLong(value, buffer, position);
+    return this;
+  }
+
+  /**
+   * Appends a {@code float} in the fewest digits that identify it, as {@link AsciiNumbers} does.
+   */
+  public ResponseBuffer append(float value) throws IOException {
+    ensureFree(AsciiNumbers.MAX_FLOAT_LENGTH);
+    position = AsciiNumbers.writeFloat(value, buffer, position);
+    return this;
+  }
+
+  /**
+   * Writes bytes as is.
+   */
+  public ResponseBuffer put(byte[] bytes) throws IOException {
+    if (bytes.length > buffer.length) {
+      flushBuffer();
+      out.write(bytes);
+    } else {
+      ensureFree(bytes.length);
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+    return this;
+  }
+
+  /**
+   * Writes a {@code long} as 8 big-endian bytes.
+   */
+  public ResponseBuffer putLong(long value) throws IOException {
+    ensureFree(8);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      buffer[position++] = (byte) (value >>> shift);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a {@code float} as 4 big-endian bytes.
+   */
+  public ResponseBuffer putFloat(float value) throws IOException {
+    ensureFree(4);
+    int bits = Float.floatToIntBits(value);
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      buffer[position++] = (byte) (bits >>> shift);
+    }
+    return this;
+  }
+
+  /**
+   * Writes everything buffered so far and flushes the stream, so that it reaches the client.
+   */
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  /**
+   * Writes everything buffered and releases the stream. The stream is not closed.
+   */
+  public void finish() throws IOException {
+    try {
+      flushBuffer();
+    } finally {
+      out = null;
+    }
+  }
+
+  private void ensureFree(int bytes) throws IOException {
+    if (position + bytes > buffer.length) {
+      flushBuffer();
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (position > 0) {
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+  }
+
+}
@@ -20,8 +20,9 @@ import java.io.Serializable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import net.myrrix.common.stats.LatencyTimer;
 import net.myrrix.common.stats.RunningStatistics;
-import net.myrrix.common.stats.RunningStatisticsPerTime;
+import net.myrrix.common.stats.StripedRunningStatisticsPerTime;
 
 /**
  * @author Sean Owen
@@ -30,13 +31,15 @@ import net.myrrix.common.stats.RunningStatisticsPerTime;
 public final class ServletStats implements Serializable {
 
   private final RunningStatistics allTimeNanosec;
-  private final RunningStatisticsPerTime lastHourNanosec;
+  private final StripedRunningStatisticsPerTime lastHourNanosec;
+  private final LatencyTimer latency;
   private final AtomicInteger numClientErrors;
   private final AtomicInteger numServerErrors;
 
   public ServletStats() {
     allTimeNanosec = new RunningStatistics();
-    lastHourNanosec = new RunningStatisticsPerTime(TimeUnit.HOURS);
+    lastHourNanosec = new StripedRunningStatisticsPerTime(TimeUnit.HOURS);
+    latency = new LatencyTimer();
     numClientErrors = new AtomicInteger();
     numServerErrors = new AtomicInteger();
   }
@@ -44,16 +47,24 @@ public final class ServletStats implements Serializable {
   public void addTimingNanosec(long timingNanosec) {
     allTimeNanosec.addDatum(timingNanosec);
     lastHourNanosec.increment(timingNanosec);
+    latency.addNanosec(timingNanosec);
   }
 
   public RunningStatistics getAllTimeNanosec() {
     return allTimeNanosec;
   }
 
-  public RunningStatisticsPerTime getLastHourNanosec() {
+  public StripedRunningStatisticsPerTime getLastHourNanosec() {
     return lastHourNanosec;
   }
 
+  /**
+   * @return histograms of latency, for all time and recently, from which percentiles can be read
+   */
+  public LatencyTimer getLatency() {
+    return latency;
+  }
+
   public int getNumClientErrors() {
     return numClientErrors.get();
   }
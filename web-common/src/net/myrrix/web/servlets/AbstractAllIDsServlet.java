@@ -17,42 +17,99 @@
 package net.myrrix.web.servlets;
 
 import java.io.IOException;
+import java.util.Iterator;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 
+import net.myrrix.common.IDPage;
 import net.myrrix.common.MyrrixRecommender;
 import net.myrrix.common.NotReadyException;
 import net.myrrix.common.collection.FastIDSet;
+import net.myrrix.online.ServerRecommender;
 
 /**
  * <p>Responds to a GET request to {@code /user/allIDs} or {@code /item/allIDs}, and in turn calls
- * {@link MyrrixRecommender#getAllUserIDs()} or {@link MyrrixRecommender#getAllItemIDs()}, depending on
- * {@link #isUserIDs()}.</p>
+ * {@link MyrrixRecommender#getUserIDs(String, int)} or {@link MyrrixRecommender#getItemIDs(String, int)},
+ * depending on {@link #isUserIDs()}.</p>
  *
  * <p>Outputs IDs in CSV or JSON format. When outputting CSV, one ID is written per line. When outputting
  * JSON, the output is an array of IDs.</p>
  *
+ * <p>With no arguments, all IDs are output. They are read from the model and written a page at a time, so
+ * IDs added or removed meanwhile may or may not be output, but each is output once, even if the model is
+ * rehashed meanwhile.</p>
+ *
+ * <p>With argument {@code howMany} or {@code cursor}, as in {@code /user/allIDs?howMany=n&cursor=c},
+ * only one page of at most {@code n} IDs, default {@link #DEFAULT_PAGE_SIZE}, is output, starting from
+ * cursor {@code c}, or from the start if absent. Unless it is the last page, the response has header
+ * {@code X-Myrrix-Next-Cursor}, whose value is the cursor for the next page. An invalid cursor, or one made
+ * invalid by changes to the model, results in {@code 400 Bad Request}.</p>
+ *
  * @author Sean Owen
  * @since 1.0
  */
 public abstract class AbstractAllIDsServlet extends AbstractMyrrixServlet {
 
+  static final int DEFAULT_PAGE_SIZE = 10000;
+  static final String NEXT_CURSOR_HEADER = "X-Myrrix-Next-Cursor";
+
   protected abstract boolean isUserIDs();
 
   @Override
   protected final void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     MyrrixRecommender recommender = getRecommender();
     try {
-      FastIDSet ids = isUserIDs() ? recommender.getAllUserIDs() : recommender.getAllItemIDs();
-      outputIDs(request, response, ids);
+      String cursor = request.getParameter("cursor");
+      if (cursor == null && request.getParameter("howMany") == null) {
+        outputAllIDs(request, response, recommender);
+      } else {
+        int howMany = request.getParameter("howMany") == null ? DEFAULT_PAGE_SIZE : getHowMany(request);
+        IDPage page = getIDs(recommender, cursor, howMany);
+        if (page.getNextCursor() != null) {
+          response.setHeader(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        outputIDs(request, response, page.getIDs());
+      }
     } catch (NotReadyException nre) {
       response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, nre.toString());
     } catch (TasteException te) {
       response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, te.toString());
       getServletContext().log("Unexpected error in " + getClass().getSimpleName(), te);
+    } catch (IllegalArgumentException iae) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, iae.toString());
+    }
+  }
+
+  private void outputAllIDs(HttpServletRequest request,
+                            HttpServletResponse response,
+                            MyrrixRecommender recommender) throws TasteException, IOException {
+    if (!(recommender instanceof ServerRecommender)) {
+      outputIDs(request, response, isUserIDs() ? recommender.getAllUserIDs() : recommender.getAllItemIDs());
+      return;
     }
+    ServerRecommender serverRecommender = (ServerRecommender) recommender;
+    // Errors reading the first page can still be reported with a status
+    Iterator<FastIDSet> pages = isUserIDs() ?
+        serverRecommender.getUserIDPages(DEFAULT_PAGE_SIZE) :
+        serverRecommender.getItemIDPages(DEFAULT_PAGE_SIZE);
+    FastIDSet firstPage = pages.hasNext() ? pages.next() : new FastIDSet();
+    IDWriter writer = startIDs(request, response);
+    writer.write(firstPage);
+    while (pages.hasNext()) {
+      writer.write(pages.next());
+    }
+    writer.finish();
+  }
+
+  private IDPage getIDs(MyrrixRecommender recommender, String cursor, int howMany) throws TasteException {
+    return isUserIDs() ? recommender.getUserIDs(cursor, howMany) : recommender.getItemIDs(cursor, howMany);
+  }
+
+  @Override
+  protected boolean isCacheable() {
+    return true;
   }
 
 }
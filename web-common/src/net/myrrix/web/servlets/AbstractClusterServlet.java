@@ -101,5 +101,9 @@ public abstract class AbstractClusterServlet extends AbstractMyrrixServlet {
     }
   }
 
+  @Override
+  protected boolean isCacheable() {
+    return true;
+  }
 
 }
@@ -17,12 +17,15 @@
 package net.myrrix.web.servlets;
 
 import java.io.IOException;
-import java.io.Writer;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -34,6 +37,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.net.HostAndPort;
 import com.google.common.net.HttpHeaders;
@@ -44,8 +48,12 @@ import net.myrrix.common.LangUtils;
 import net.myrrix.common.MyrrixRecommender;
 import net.myrrix.common.ReloadingReference;
 import net.myrrix.common.collection.FastIDSet;
+import net.myrrix.common.random.RandomManager;
 import net.myrrix.common.random.RandomUtils;
 import net.myrrix.online.RescorerProvider;
+import net.myrrix.online.ServerRecommender;
+import net.myrrix.online.generation.Generation;
+import net.myrrix.web.common.ResponseBuffer;
 import net.myrrix.web.common.stats.ServletStats;
 
 /**
@@ -55,15 +63,34 @@ import net.myrrix.web.common.stats.ServletStats;
  * <ul>
  *  <li>{@code 302 Temporary Redirect} if, in a distributed environment, another partition should 
  *  handle the request</li>
+ *  <li>{@code 304 Not Modified} if the response may be cached, and the caller already has it, as below</li>
  *  <li>{@code 400 Bad Request} if the arguments are invalid, like a non-numeric ID</li>
  *  <li>{@code 401 Unauthorized} if a username/password is required, but not supplied correctly 
  *  in the request via HTTP DIGEST</li>
  *  <li>{@code 405 Method Not Allowed} if an incorrect HTTP method is used, like {@code GET} 
  *  where {@code POST} is required</li>
  *  <li>{@code 500 Internal Server Error} if an unexpected server-side exception occurs</li>
- *  <li>{@code 503 Service Unavailable} if no model is yet available to serve requests</li>
+ *  <li>{@code 502 Bad Gateway} if the request was forwarded to another partition, but no replica of it
+ *  could be reached</li>
+ *  <li>{@code 503 Service Unavailable} if no model is yet available to serve requests, or if too many
+ *  compute-intensive requests are already waiting</li>
  * </ul>
  *
+ * <p>Compute-intensive requests, like those for recommendations, are processed asynchronously on a
+ * bounded executor, so that the container's threads are free to handle I/O meanwhile.</p>
+ *
+ * <p>When system property {@code web.partition.forward} is {@code true}, a request that another partition
+ * should handle is forwarded to it by this server, and its response returned, rather than redirected. This
+ * saves the caller a round trip, and lets it reuse one connection, but is not compatible with HTTP DIGEST
+ * authentication. See {@link PartitionForwarder} for how connections to other partitions are pooled.</p>
+ *
+ * <p>Responses that depend only on the model, like those for {@code /item/allIDs} or {@code /similarity},
+ * carry an {@code ETag} derived from the current {@link Generation}'s version, and a {@code Last-Modified}
+ * time. A {@code GET} with a matching {@code If-None-Match}, or else a {@code If-Modified-Since} no earlier
+ * than the last change, is answered with {@code 304 Not Modified} without computing anything. Since HTTP dates
+ * are to the second, {@code If-Modified-Since} is ignored when the model changed more than once in the second
+ * of its last change. Rescorers are assumed to depend only on the request's parameters.</p>
+ *
  * @author Sean Owen
  * @since 1.0
  */
@@ -72,6 +99,7 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
   private static final Splitter COMMA = Splitter.on(',').omitEmptyStrings().trimResults();
   static final Splitter SLASH = Splitter.on('/').omitEmptyStrings();
   static final int DEFAULT_HOW_MANY = 10;
+  static final String BINARY_CONTENT_TYPE = "application/octet-stream";
 
   private static final String KEY_PREFIX = AbstractMyrrixServlet.class.getName();
   public static final String READ_ONLY_KEY = KEY_PREFIX + ".READ_ONLY";
@@ -81,15 +109,29 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
   public static final String LOCAL_INPUT_DIR_KEY = KEY_PREFIX + ".LOCAL_INPUT_DIR";
   public static final String ALL_PARTITIONS_REF_KEY = KEY_PREFIX + ".ALL_PARTITIONS";
   public static final String PARTITION_KEY = KEY_PREFIX + ".PARTITION";
+  public static final String COMPUTE_EXECUTOR_KEY = KEY_PREFIX + ".COMPUTE_EXECUTOR";
 
   private static final String[] NO_PARAMS = new String[0];
 
+  /** Distinguishes this server's versions from those of another, or of an earlier run */
+  private static final String ETAG_PREFIX = Long.toHexString(RandomManager.getRandom().nextLong()) + '-';
+
+  private static final boolean FORWARD_TO_PARTITION =
+      Boolean.parseBoolean(System.getProperty("web.partition.forward", "false"));
+
+  static {
+    if (FORWARD_TO_PARTITION) {
+      PartitionForwarder.configureConnectionPool();
+    }
+  }
+
   private MyrrixRecommender recommender;
   private RescorerProvider rescorerProvider;
   private ServletStats timing;
   private ReloadingReference<List<List<HostAndPort>>> allPartitions;
   private int thisPartition;
   private ConcurrentMap<String,ResponseContentType> responseTypeCache;
+  private Executor computeExecutor;
 
   @Override
   public void init(ServletConfig config) throws ServletException {
@@ -106,6 +148,7 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
 
     thisPartition = (Integer) context.getAttribute(PARTITION_KEY);
     responseTypeCache = Maps.newConcurrentMap();
+    computeExecutor = (Executor) context.getAttribute(COMPUTE_EXECUTOR_KEY);
 
     Map<String,ServletStats> timings;
     synchronized (context) {
@@ -137,11 +180,13 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
       if (unnormalizedPartitionToServe != null) {
         int partitionToServe = LangUtils.mod(unnormalizedPartitionToServe, thePartitions.size());
         if (partitionToServe != thisPartition) {
-          String redirectURL = buildRedirectToPartitionURL(request,
-                                                           partitionToServe,
-                                                           unnormalizedPartitionToServe,
-                                                           thePartitions);
-          response.sendRedirect(redirectURL);
+          List<HostAndPort> replicas = orderReplicas(thePartitions.get(partitionToServe), unnormalizedPartitionToServe);
+          if (FORWARD_TO_PARTITION && request.getHeader(PartitionForwarder.FORWARDED_HEADER) == null) {
+            PartitionForwarder.forward(request, response, replicas);
+          } else {
+            // Forwarded requests are not forwarded again, in case partitions disagree about the layout
+            response.sendRedirect(buildRedirectToPartitionURL(request, replicas.get(0)));
+          }
           return;
         }
       }
@@ -152,10 +197,25 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
     }
 
     long start = System.nanoTime();
+    if (isCacheable() && checkNotModified(request, response)) {
+      timing.addTimingNanosec(System.nanoTime() - start);
+      return;
+    }
+    if (computeExecutor != null && isComputeIntensive() && request.isAsyncSupported()) {
+      serviceAsync(request, response, start);
+    } else {
+      serviceAndRecord(request, response, start);
+    }
+  }
+
+  private void serviceAndRecord(HttpServletRequest request, HttpServletResponse response, long start)
+      throws ServletException, IOException {
     super.service(request, response);
     timing.addTimingNanosec(System.nanoTime() - start);
+    recordStatus(response.getStatus());
+  }
 
-    int status = response.getStatus();
+  private void recordStatus(int status) {
     if (status >= 400) {
       if (status >= 500) {
         timing.incrementServerErrors();
@@ -165,17 +225,131 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
     }
   }
 
-  private static String buildRedirectToPartitionURL(HttpServletRequest request,
-                                                    int toPartition,
-                                                    long unnormalizedPartitionToServe,
-                                                    List<List<HostAndPort>> thePartitions) {
+  /**
+   * Releases the container's thread, and services the request on the compute executor instead. If that
+   * executor's queue is full, the request is refused right away.
+   */
+  private void serviceAsync(final HttpServletRequest request, final HttpServletResponse response, final long start)
+      throws IOException {
+    final AsyncContext asyncContext = request.startAsync(request, response);
+    // Requests may legitimately wait in the queue a while; they always complete below
+    asyncContext.setTimeout(0L);
+    try {
+      computeExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            serviceAndRecord(request, response, start);
+          } catch (ServletException se) {
+            handleAsyncError(response, se);
+          } catch (IOException ioe) {
+            handleAsyncError(response, ioe);
+          } catch (RuntimeException re) {
+            handleAsyncError(response, re);
+          } finally {
+            asyncContext.complete();
+          }
+        }
+      });
+    } catch (RejectedExecutionException ignored) {
+      response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many requests waiting");
+      recordStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      asyncContext.complete();
+    }
+  }
 
-    List<HostAndPort> replicas = thePartitions.get(toPartition);
-    // Also determine (first) replica by hashing to preserve a predictable order of access
-    // through the replicas for a given ID
-    int chosenReplica = LangUtils.mod(RandomUtils.md5HashToLong(unnormalizedPartitionToServe), replicas.size());
-    HostAndPort hostPort = replicas.get(chosenReplica);
+  private void handleAsyncError(HttpServletResponse response, Exception e) {
+    getServletContext().log("Unexpected error in " + getClass().getSimpleName(), e);
+    recordStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    if (!response.isCommitted()) {
+      try {
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.toString());
+      } catch (IOException ioe) {
+        getServletContext().log("Unable to send error", ioe);
+      }
+    }
+  }
 
+  /**
+   * Sets headers that let the response be cached and validated, and answers {@code 304 Not Modified} if the
+   * caller already has the response for the current model.
+   *
+   * @return true if {@code 304 Not Modified} was sent, and the request needs no more processing
+   */
+  private boolean checkNotModified(HttpServletRequest request, HttpServletResponse response) {
+    String method = request.getMethod();
+    if (!("GET".equals(method) || "HEAD".equals(method)) || !(recommender instanceof ServerRecommender)) {
+      return false;
+    }
+    Generation generation = ((ServerRecommender) recommender).getGenerationManager().getCurrentGeneration();
+    if (generation == null) {
+      return false;
+    }
+    // Read before computing the response, so that it never reflects older data than its version
+    long version = generation.getVersion();
+    long lastModified = generation.getLastModified();
+    boolean lastModifiedAmbiguous = generation.isLastModifiedAmbiguous();
+    // The same model gives different responses in different formats
+    String eTag = '"' + ETAG_PREFIX + Long.toHexString(version) + '-' +
+        determineResponseType(request).name().toLowerCase(Locale.ENGLISH) + '"';
+    response.setHeader(HttpHeaders.ETAG, eTag);
+    response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+    response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+    // Caches may keep the response, but must check it is current before using it
+    response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+
+    boolean notModified;
+    String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+    if (ifNoneMatch == null) {
+      if (lastModifiedAmbiguous) {
+        // HTTP dates are to the second, and can't say whether the caller saw the last of several changes in it
+        return false;
+      }
+      long ifModifiedSince;
+      try {
+        ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+      } catch (IllegalArgumentException ignored) {
+        ifModifiedSince = -1L;
+      }
+      // HTTP dates are to the second
+      notModified = ifModifiedSince >= 0L && lastModified / 1000L * 1000L <= ifModifiedSince;
+    } else {
+      notModified = matchesETag(ifNoneMatch, eTag);
+    }
+    if (notModified) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+    return notModified;
+  }
+
+  private static boolean matchesETag(String ifNoneMatch, String eTag) {
+    for (String candidate : COMMA.split(ifNoneMatch)) {
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if ("*".equals(candidate) || eTag.equals(candidate)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return replicas in the order they should be tried for the given value. The first is chosen by hashing
+   *  to preserve a predictable order of access through the replicas for a given ID, and the rest follow it in turn.
+   */
+  private static List<HostAndPort> orderReplicas(List<HostAndPort> replicas, long unnormalizedPartitionToServe) {
+    int numReplicas = replicas.size();
+    int chosenReplica = LangUtils.mod(RandomUtils.md5HashToLong(unnormalizedPartitionToServe), numReplicas);
+    List<HostAndPort> ordered = Lists.newArrayListWithCapacity(numReplicas);
+    for (int i = 0; i < numReplicas; i++) {
+      ordered.add(replicas.get((chosenReplica + i) % numReplicas));
+    }
+    return ordered;
+  }
+
+  private static String buildRedirectToPartitionURL(HttpServletRequest request, HostAndPort hostPort) {
     StringBuilder redirectURL = new StringBuilder();
     redirectURL.append(request.isSecure() ? "https" : "http").append("://");
     redirectURL.append(hostPort.getHostText()).append(':').append(hostPort.getPort());
@@ -198,6 +372,36 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
     return null; // Default: any partition is OK
   }
 
+  /**
+   * @return true if requests to this servlet take significant computation, and should be processed
+   *  asynchronously on the compute executor rather than on the container's thread
+   */
+  protected boolean isComputeIntensive() {
+    return false;
+  }
+
+  /**
+   * @return true if responses from this servlet depend only on the model and the request, so that they
+   *  may be cached and validated against the model's version
+   */
+  protected boolean isCacheable() {
+    return false;
+  }
+
+  /**
+   * @param unnormalizedPartitionToServe value that determines the partition, as returned by
+   *  {@link #getUnnormalizedPartitionToServe(HttpServletRequest)}
+   * @return true if this partition should serve requests for the value, which is always the case
+   *  when not partitioned
+   */
+  final boolean isPartitionToServe(long unnormalizedPartitionToServe) {
+    if (allPartitions == null) {
+      return true;
+    }
+    List<List<HostAndPort>> thePartitions = allPartitions.get(1, TimeUnit.SECONDS);
+    return LangUtils.mod(unnormalizedPartitionToServe, thePartitions.size()) == thisPartition;
+  }
+
   protected final MyrrixRecommender getRecommender() {
     return recommender;
   }
@@ -206,6 +410,14 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
     return rescorerProvider;
   }
 
+  /**
+   * @return bounded executor for compute-intensive work, which rejects tasks when its queue is full,
+   *  or null if there is none
+   */
+  final Executor getComputeExecutor() {
+    return computeExecutor;
+  }
+
   /**
    * @return timing information for requests directed at this servlet instance
    */
@@ -240,35 +452,52 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
    *
    * <p>JSON output is an array of arrays, with each sub-array containing an item ID and strength.
    * Example: {@code [[325, 0.53], [98, 0.499]]}.</p>
+   *
+   * <p>Binary output, of type {@code application/octet-stream}, contains each item ID as a big-endian
+   * 8-byte {@code long} followed by its strength as a big-endian 4-byte {@code float}, with nothing
+   * in between.</p>
    */
   protected final void output(HttpServletRequest request,
                               ServletResponse response,
                               Iterable<RecommendedItem> items) throws IOException {  
-    Writer writer = response.getWriter();
-    switch (determineResponseType(request)) {
+    ResponseContentType responseType = determineResponseType(request);
+    if (responseType == ResponseContentType.BINARY) {
+      response.setContentType(BINARY_CONTENT_TYPE);
+    }
+    ResponseBuffer out = ResponseBuffer.forOutput(response.getOutputStream());
+    writeItems(responseType, out, items);
+    out.finish();
+  }
+
+  /**
+   * Writes items in the given format, as described in
+   * {@link #output(HttpServletRequest, ServletResponse, Iterable)}.
+   */
+  static void writeItems(ResponseContentType responseType,
+                         ResponseBuffer out,
+                         Iterable<RecommendedItem> items) throws IOException {
+    switch (responseType) {
       case JSON:
-        writer.write('[');
+        out.append('[');
         boolean first = true;
         for (RecommendedItem item : items) {
           if (first) {
             first = false;
           } else {
-            writer.write(',');
+            out.append(',');
           }
-          writer.write('[');
-          writer.write(Long.toString(item.getItemID()));
-          writer.write(',');
-          writer.write(Float.toString(item.getValue()));
-          writer.write(']');
+          out.append('[').append(item.getItemID()).append(',').append(item.getValue()).append(']');
         }
-        writer.write(']');
+        out.append(']');
         break;
       case CSV:
         for (RecommendedItem item : items) {
-          writer.write(Long.toString(item.getItemID()));
-          writer.write(',');
-          writer.write(Float.toString(item.getValue()));
-          writer.write('\n');
+          out.append(item.getItemID()).append(',').append(item.getValue()).append('\n');
+        }
+        break;
+      case BINARY:
+        for (RecommendedItem item : items) {
+          out.putLong(item.getItemID()).putFloat(item.getValue());
         }
         break;
       default:
@@ -276,6 +505,17 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
     }
   }
 
+  /**
+   * Outputs values one per line, as from {@link MyrrixRecommender#estimatePreferences(long, long...)}.
+   */
+  static void outputValues(ServletResponse response, float... values) throws IOException {
+    ResponseBuffer out = ResponseBuffer.forOutput(response.getOutputStream());
+    for (float value : values) {
+      out.append(value).append('\n');
+    }
+    out.finish();
+  }
+
   /**
    * Determines the appropriate content type for the response based on request headers. At the moment these
    * are chosen from the values in {@link ResponseContentType}.
@@ -309,15 +549,18 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
         } catch (IllegalArgumentException ignored) {
           preference = 1.0;
         }
-        type = accept.substring(semiColon);
+        type = accept.substring(0, semiColon).trim();
       }
       ResponseContentType parsedType = null;
       if ("text/csv".equals(type) || "text/plain".equals(type)) {
         parsedType = ResponseContentType.CSV;
       } else if ("application/json".equals(type)) {
         parsedType = ResponseContentType.JSON;
+      } else if (BINARY_CONTENT_TYPE.equals(type)) {
+        parsedType = ResponseContentType.BINARY;
       }
-      if (parsedType != null) {
+      // Of equally preferred types, the first listed wins
+      if (parsedType != null && !types.containsKey(preference)) {
         types.put(preference, parsedType);
       }
     }
@@ -326,7 +569,7 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
     if (types.isEmpty()) {
       finalType = ResponseContentType.JSON;
     } else {
-      finalType = types.values().iterator().next();
+      finalType = types.get(types.lastKey());
     }
 
     responseTypeCache.putIfAbsent(acceptHeader, finalType);
@@ -334,35 +577,81 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
   }
 
   /**
-   * Outputs IDs in CSV or JSON format. When outputting CSV, one ID is written per line. When outputting
-   * JSON, the output is an array of IDs.
+   * Outputs IDs in CSV, JSON or binary format. When outputting CSV, one ID is written per line. When outputting
+   * JSON, the output is an array of IDs. When outputting binary, each ID is written as a big-endian 8-byte
+   * {@code long}.
    */
   final void outputIDs(HttpServletRequest request, ServletResponse response, FastIDSet ids) throws IOException {
-    Writer writer = response.getWriter();
-    LongPrimitiveIterator it = ids.iterator();
-    switch (determineResponseType(request)) {
-      case JSON:
-        writer.write('[');
-        boolean first = true;
-        while (it.hasNext()) {
-          if (first) {
-            first = false;
-          } else {
-            writer.write(',');
+    IDWriter writer = startIDs(request, response);
+    writer.write(ids);
+    writer.finish();
+  }
+
+  /**
+   * @return {@link IDWriter} that outputs IDs in several batches, in the format described in
+   *  {@link #outputIDs(HttpServletRequest, ServletResponse, FastIDSet)}
+   */
+  final IDWriter startIDs(HttpServletRequest request, ServletResponse response) throws IOException {
+    ResponseContentType responseType = determineResponseType(request);
+    if (responseType == ResponseContentType.BINARY) {
+      response.setContentType(BINARY_CONTENT_TYPE);
+    }
+    return new IDWriter(responseType, ResponseBuffer.forOutput(response.getOutputStream()));
+  }
+
+  /**
+   * Writes IDs to a response as they become available, so that they need not all be held at once.
+   */
+  static final class IDWriter {
+
+    private final ResponseContentType responseType;
+    private final ResponseBuffer out;
+    private boolean first;
+
+    IDWriter(ResponseContentType responseType, ResponseBuffer out) throws IOException {
+      this.responseType = responseType;
+      this.out = out;
+      first = true;
+      if (responseType == ResponseContentType.JSON) {
+        out.append('[');
+      }
+    }
+
+    void write(FastIDSet ids) throws IOException {
+      LongPrimitiveIterator it = ids.iterator();
+      switch (responseType) {
+        case JSON:
+          while (it.hasNext()) {
+            if (first) {
+              first = false;
+            } else {
+              out.append(',');
+            }
+            out.append(it.nextLong());
           }
-          writer.write(Long.toString(it.nextLong()));
-        }
-        writer.write(']');
-        break;
-      case CSV:
-        while (it.hasNext()) {
-          writer.write(Long.toString(it.nextLong()));
-          writer.write('\n');
-        }
-        break;
-      default:
-        throw new IllegalStateException("Unknown response type");
+          break;
+        case CSV:
+          while (it.hasNext()) {
+            out.append(it.nextLong()).append('\n');
+          }
+          break;
+        case BINARY:
+          while (it.hasNext()) {
+            out.putLong(it.nextLong());
+          }
+          break;
+        default:
+          throw new IllegalStateException("Unknown response type");
+      }
+    }
+
+    void finish() throws IOException {
+      if (responseType == ResponseContentType.JSON) {
+        out.append(']');
+      }
+      out.finish();
     }
+
   }
 
   /**
@@ -371,6 +660,7 @@ public abstract class AbstractMyrrixServlet extends HttpServlet {
   enum ResponseContentType {
     JSON,
     CSV,
+    BINARY,
   }
 
 }
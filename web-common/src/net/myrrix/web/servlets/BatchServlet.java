@@ -0,0 +1,377 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.web.servlets;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.Futures;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Rescorer;
+import org.apache.mahout.common.LongPair;
+
+import net.myrrix.common.MyrrixRecommender;
+import net.myrrix.common.NotReadyException;
+import net.myrrix.common.collection.FastIDSet;
+import net.myrrix.common.random.RandomManager;
+import net.myrrix.online.RescorerProvider;
+import net.myrrix.web.common.ResponseBuffer;
+
+/**
+ * <p>Responds to a POST request to {@code /batch}, whose body contains several queries, one per line.
+ * Each is the path and query string that would be requested from {@link RecommendServlet},
+ * {@link SimilarityServlet} or {@link EstimateServlet}, like:</p>
+ *
+ * <p>{@code
+ * /recommend/123?howMany=5
+ * /similarity/1/2?howMany=3
+ * /estimate/123/4/5
+ * }</p>
+ *
+ * <p>The queries are executed concurrently, on the same bounded executor as individual compute-intensive
+ * requests. A query that finds its queue full is not executed, and is given status {@code 503}, as the
+ * individual request would be. The response is of type {@code multipart/mixed}, and contains
+ * one part per query, in the order the queries were given. Each part's {@code Content-Type} header
+ * gives the format of its body, which is the same as the corresponding servlet would output, and its
+ * {@code X-Status} header gives the HTTP status the corresponding servlet would have returned. The body
+ * of a part whose status is not {@code 200} is a description of the error.</p>
+ *
+ * <p>Queries for a user that another partition should serve are not answered, and are given status
+ * {@code 302}. Clients should group queries by partition as for the individual requests.</p>
+ */
+public final class BatchServlet extends AbstractMyrrixServlet {
+
+  /** Header in each part of the response that gives the HTTP status of its query. */
+  public static final String STATUS_HEADER = "X-Status";
+
+  private static final int MAX_QUERIES = 1000;
+  private static final Splitter AMPERSAND = Splitter.on('&').omitEmptyStrings();
+  private static final String CRLF = "\r\n";
+
+  @Override
+  protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+    List<String> queries = Lists.newArrayList();
+    BufferedReader reader = request.getReader();
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.charAt(0) == '#') {
+          continue;
+        }
+        if (queries.size() == MAX_QUERIES) {
+          response.sendError(HttpServletResponse.SC_BAD_REQUEST, "More than " + MAX_QUERIES + " queries");
+          return;
+        }
+        queries.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+
+    ResponseContentType itemsType = determineResponseType(request);
+    if (itemsType == ResponseContentType.BINARY) {
+      // Parts are text
+      itemsType = ResponseContentType.CSV;
+    }
+    // This servlet is not itself run on the compute executor, so it can wait on tasks in it
+    Executor computeExecutor = getComputeExecutor();
+    List<Future<Part>> futures = Lists.newArrayListWithCapacity(queries.size());
+    for (String query : queries) {
+      FutureTask<Part> future = new FutureTask<Part>(new QueryCallable(query, itemsType));
+      if (computeExecutor == null) {
+        future.run();
+        futures.add(future);
+      } else {
+        try {
+          computeExecutor.execute(future);
+          futures.add(future);
+        } catch (RejectedExecutionException ignored) {
+          futures.add(Futures.immediateFuture(
+              new Part(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many requests waiting")));
+        }
+      }
+    }
+
+    String boundary = "myrrix-" + Long.toHexString(RandomManager.getRandom().nextLong());
+    response.setContentType("multipart/mixed; boundary=" + boundary);
+    ResponseBuffer out = ResponseBuffer.forOutput(response.getOutputStream());
+    for (Future<Part> future : futures) {
+      Part part;
+      try {
+        part = future.get();
+      } catch (InterruptedException ie) {
+        part = new Part(HttpServletResponse.SC_SERVICE_UNAVAILABLE, ie.toString());
+      } catch (ExecutionException ee) {
+        Throwable cause = ee.getCause();
+        getServletContext().log("Unexpected error in " + getClass().getSimpleName(), cause);
+        part = new Part(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, cause.toString());
+      }
+      out.append("--").append(boundary).append(CRLF);
+      out.append("Content-Type: ").append(part.getContentType()).append(CRLF);
+      out.append(STATUS_HEADER).append(": ").append(part.getStatus()).append(CRLF);
+      out.append(CRLF);
+      out.put(part.getBody());
+      out.append(CRLF);
+      // Let finished parts reach the client while later ones are still computing
+      out.flush();
+    }
+    out.append("--").append(boundary).append("--").append(CRLF);
+    out.finish();
+  }
+
+  private static String contentTypeOf(ResponseContentType responseType) {
+    switch (responseType) {
+      case JSON:
+        return "application/json";
+      case CSV:
+        return "text/csv";
+      default:
+        throw new IllegalStateException("Unknown response type");
+    }
+  }
+
+  private static String urlDecode(String encoded) {
+    try {
+      return URLDecoder.decode(encoded, "UTF-8");
+    } catch (UnsupportedEncodingException uee) {
+      // can't happen
+      throw new IllegalStateException(uee);
+    }
+  }
+
+  private static int parseHowMany(List<String> values) {
+    if (values.isEmpty()) {
+      return DEFAULT_HOW_MANY;
+    }
+    int howMany = Integer.parseInt(values.get(0));
+    Preconditions.checkArgument(howMany > 0, "howMany must be positive");
+    return howMany;
+  }
+
+  /**
+   * The result of one query: an HTTP status, and body in the given content type.
+   */
+  private static final class Part {
+
+    private final int status;
+    private final String contentType;
+    private final byte[] body;
+
+    private Part(int status, String errorMessage) {
+      this(status, "text/plain", errorMessage.getBytes(Charsets.UTF_8));
+    }
+
+    private Part(int status, String contentType, byte[] body) {
+      this.status = status;
+      this.contentType = contentType;
+      this.body = body;
+    }
+
+    int getStatus() {
+      return status;
+    }
+
+    String getContentType() {
+      return contentType;
+    }
+
+    byte[] getBody() {
+      return body;
+    }
+
+  }
+
+  /**
+   * Parses and executes one query, recording its result or error as a {@link Part}.
+   */
+  private final class QueryCallable implements Callable<Part> {
+
+    private final String query;
+    private final ResponseContentType itemsType;
+
+    private QueryCallable(String query, ResponseContentType itemsType) {
+      this.query = query;
+      this.itemsType = itemsType;
+    }
+
+    @Override
+    public Part call() throws IOException {
+      String path;
+      ListMultimap<String,String> params = ArrayListMultimap.create();
+      int questionMark = query.indexOf('?');
+      if (questionMark < 0) {
+        path = query;
+      } else {
+        path = query.substring(0, questionMark);
+        for (String param : AMPERSAND.split(query.substring(questionMark + 1))) {
+          int equals = param.indexOf('=');
+          if (equals < 0) {
+            params.put(urlDecode(param), "");
+          } else {
+            params.put(urlDecode(param.substring(0, equals)), urlDecode(param.substring(equals + 1)));
+          }
+        }
+      }
+
+      Iterator<String> pathComponents = SLASH.split(path).iterator();
+      if (!pathComponents.hasNext()) {
+        return new Part(HttpServletResponse.SC_BAD_REQUEST, "No path");
+      }
+      String method = pathComponents.next();
+      try {
+        if ("recommend".equals(method)) {
+          return recommend(pathComponents, params);
+        }
+        if ("similarity".equals(method)) {
+          return similarity(pathComponents, params);
+        }
+        if ("estimate".equals(method)) {
+          return estimate(pathComponents);
+        }
+        return new Part(HttpServletResponse.SC_NOT_FOUND, "Unknown query: " + method);
+      } catch (NoSuchUserException nsue) {
+        return new Part(HttpServletResponse.SC_NOT_FOUND, nsue.toString());
+      } catch (NoSuchItemException nsie) {
+        return new Part(HttpServletResponse.SC_NOT_FOUND, nsie.toString());
+      } catch (NotReadyException nre) {
+        return new Part(HttpServletResponse.SC_SERVICE_UNAVAILABLE, nre.toString());
+      } catch (TasteException te) {
+        getServletContext().log("Unexpected error in " + BatchServlet.class.getSimpleName(), te);
+        return new Part(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, te.toString());
+      } catch (IllegalArgumentException iae) {
+        // Includes NumberFormatException
+        return new Part(HttpServletResponse.SC_BAD_REQUEST, iae.toString());
+      } catch (UnsupportedOperationException uoe) {
+        return new Part(HttpServletResponse.SC_BAD_REQUEST, uoe.toString());
+      }
+    }
+
+    private Part recommend(Iterator<String> pathComponents, ListMultimap<String,String> params)
+        throws TasteException, IOException {
+      if (!pathComponents.hasNext()) {
+        return new Part(HttpServletResponse.SC_BAD_REQUEST, "No user");
+      }
+      long userID = Long.parseLong(pathComponents.next());
+      if (pathComponents.hasNext()) {
+        return new Part(HttpServletResponse.SC_BAD_REQUEST, "Path too long");
+      }
+      if (!isPartitionToServe(userID)) {
+        return new Part(HttpServletResponse.SC_MOVED_TEMPORARILY, "Wrong partition for user " + userID);
+      }
+      MyrrixRecommender recommender = getRecommender();
+      RescorerProvider rescorerProvider = getRescorerProvider();
+      IDRescorer rescorer = rescorerProvider == null ? null :
+          rescorerProvider.getRecommendRescorer(new long[] {userID}, recommender, rescorerParams(params));
+      List<String> considerKnownItems = params.get("considerKnownItems");
+      Iterable<RecommendedItem> recommended =
+          recommender.recommend(userID,
+                                parseHowMany(params.get("howMany")),
+                                !considerKnownItems.isEmpty() && Boolean.valueOf(considerKnownItems.get(0)),
+                                rescorer);
+      return itemsPart(recommended);
+    }
+
+    private Part similarity(Iterator<String> pathComponents, ListMultimap<String,String> params)
+        throws TasteException, IOException {
+      FastIDSet itemIDSet = new FastIDSet();
+      while (pathComponents.hasNext()) {
+        itemIDSet.add(Long.parseLong(pathComponents.next()));
+      }
+      if (itemIDSet.isEmpty()) {
+        return new Part(HttpServletResponse.SC_BAD_REQUEST, "No items");
+      }
+      MyrrixRecommender recommender = getRecommender();
+      RescorerProvider rescorerProvider = getRescorerProvider();
+      int howMany = parseHowMany(params.get("howMany"));
+      Iterable<RecommendedItem> similar;
+      if (rescorerProvider == null) {
+        similar = recommender.mostSimilarItems(itemIDSet.toArray(), howMany);
+      } else {
+        Rescorer<LongPair> rescorer =
+            rescorerProvider.getMostSimilarItemsRescorer(recommender, rescorerParams(params));
+        similar = recommender.mostSimilarItems(itemIDSet.toArray(), howMany, rescorer);
+      }
+      return itemsPart(similar);
+    }
+
+    private Part estimate(Iterator<String> pathComponents) throws TasteException, IOException {
+      if (!pathComponents.hasNext()) {
+        return new Part(HttpServletResponse.SC_BAD_REQUEST, "No user");
+      }
+      long userID = Long.parseLong(pathComponents.next());
+      List<Long> itemIDsList = Lists.newArrayList();
+      while (pathComponents.hasNext()) {
+        itemIDsList.add(Long.parseLong(pathComponents.next()));
+      }
+      if (!isPartitionToServe(userID)) {
+        return new Part(HttpServletResponse.SC_MOVED_TEMPORARILY, "Wrong partition for user " + userID);
+      }
+      long[] itemIDs = new long[itemIDsList.size()];
+      for (int i = 0; i < itemIDs.length; i++) {
+        itemIDs[i] = itemIDsList.get(i);
+      }
+      float[] estimates = getRecommender().estimatePreferences(userID, itemIDs);
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      ResponseBuffer out = ResponseBuffer.forOutput(body);
+      for (float estimate : estimates) {
+        out.append(estimate).append('\n');
+      }
+      out.finish();
+      return new Part(HttpServletResponse.SC_OK, "text/plain", body.toByteArray());
+    }
+
+    private Part itemsPart(Iterable<RecommendedItem> items) throws IOException {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      ResponseBuffer out = ResponseBuffer.forOutput(body);
+      writeItems(itemsType, out, items);
+      out.finish();
+      return new Part(HttpServletResponse.SC_OK, contentTypeOf(itemsType), body.toByteArray());
+    }
+
+    private String[] rescorerParams(ListMultimap<String,String> params) {
+      List<String> values = params.get("rescorerParams");
+      return values.toArray(new String[values.size()]);
+    }
+
+  }
+
+}
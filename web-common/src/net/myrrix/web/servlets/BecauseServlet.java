@@ -106,4 +106,9 @@ public final class BecauseServlet extends AbstractMyrrixServlet {
     return userID;
   }
 
+  @Override
+  protected boolean isComputeIntensive() {
+    return true;
+  }
+
 }
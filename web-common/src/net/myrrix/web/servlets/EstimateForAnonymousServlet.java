@@ -17,7 +17,6 @@
 package net.myrrix.web.servlets;
 
 import java.io.IOException;
-import java.io.Writer;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import javax.servlet.http.HttpServletRequest;
@@ -79,10 +78,7 @@ public final class EstimateForAnonymousServlet extends AbstractMyrrixServlet {
     
     MyrrixRecommender recommender = getRecommender();
     try {
-      float estimate = recommender.estimateForAnonymous(toItemID, itemIDs, values);
-      Writer out = response.getWriter();
-      out.write(Float.toString(estimate));
-      out.write('\n');
+      outputValues(response, recommender.estimateForAnonymous(toItemID, itemIDs, values));
     } catch (NotReadyException nre) {
       response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, nre.toString());
     } catch (NoSuchItemException nsie) {
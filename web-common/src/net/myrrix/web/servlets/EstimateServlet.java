@@ -17,7 +17,6 @@
 package net.myrrix.web.servlets;
 
 import java.io.IOException;
-import java.io.Writer;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -77,12 +76,7 @@ public final class EstimateServlet extends AbstractMyrrixServlet {
 
     MyrrixRecommender recommender = getRecommender();
     try {
-      float[] estimates = recommender.estimatePreferences(userID, itemIDs);
-      Writer out = response.getWriter();
-      for (float estimate : estimates) {
-        out.write(Float.toString(estimate));
-        out.write('\n');
-      }
+      outputValues(response, recommender.estimatePreferences(userID, itemIDs));
     } catch (NotReadyException nre) {
       response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, nre.toString());
     } catch (TasteException te) {
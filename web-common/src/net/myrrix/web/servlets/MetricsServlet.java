@@ -0,0 +1,137 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.web.servlets;
+
+import java.io.IOException;
+import java.util.Map;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.base.Charsets;
+
+import net.myrrix.common.stats.LatencyHistogram;
+import net.myrrix.common.stats.LatencyTimer;
+import net.myrrix.web.common.ResponseBuffer;
+import net.myrrix.web.common.stats.ServletStats;
+
+/**
+ * <p>Prints metrics about request latency and rates, and about internal operations, in the
+ * Prometheus text format, which is plain text that monitoring systems can poll cheaply. For example:</p>
+ *
+ * <p>{@code
+ * myrrix_requests_total{endpoint="RecommendServlet"} 1042
+ * myrrix_request_latency_microseconds{endpoint="RecommendServlet",quantile="0.99"} 8191
+ * myrrix_timer_latency_microseconds{timer="recommend.scan",quantile="0.99"} 7935
+ * }</p>
+ *
+ * <p>Quantiles are over the last minute or two. Sums and counts are over all time, and rates are
+ * over the last minute or two. Endpoints report requests, errors, and requests per second; internal timers,
+ * like {@code recommend.scan}, {@code lock.wait}, {@code foldIn} and {@code rebuild}, report latency.</p>
+ */
+public final class MetricsServlet extends HttpServlet {
+
+  private static final double[] QUANTILES = { 0.5, 0.95, 0.99, 0.999 };
+  private static final String[] QUANTILE_LABELS = { "0.5", "0.95", "0.99", "0.999" };
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    @SuppressWarnings("unchecked")
+    Map<String,ServletStats> timings =
+        (Map<String,ServletStats>) getServletContext().getAttribute(AbstractMyrrixServlet.TIMINGS_KEY);
+
+    response.setContentType("text/plain; version=0.0.4");
+    response.setCharacterEncoding(Charsets.UTF_8.name());
+    ResponseBuffer out = ResponseBuffer.forOutput(response.getOutputStream());
+    try {
+      if (timings != null) {
+        writeEndpointMetrics(out, timings);
+      }
+      writeTimerMetrics(out, LatencyTimer.getNamedTimers());
+    } finally {
+      out.finish();
+    }
+  }
+
+  private static void writeEndpointMetrics(ResponseBuffer out, Map<String,ServletStats> timings) throws IOException {
+    out.append("# TYPE myrrix_requests_total counter\n");
+    for (Map.Entry<String,ServletStats> entry : timings.entrySet()) {
+      writeSample(out, "myrrix_requests_total", "endpoint", entry.getKey(),
+                  entry.getValue().getLatency().getAllTime().getCount());
+    }
+    out.append("# TYPE myrrix_client_errors_total counter\n");
+    for (Map.Entry<String,ServletStats> entry : timings.entrySet()) {
+      writeSample(out, "myrrix_client_errors_total", "endpoint", entry.getKey(),
+                  entry.getValue().getNumClientErrors());
+    }
+    out.append("# TYPE myrrix_server_errors_total counter\n");
+    for (Map.Entry<String,ServletStats> entry : timings.entrySet()) {
+      writeSample(out, "myrrix_server_errors_total", "endpoint", entry.getKey(),
+                  entry.getValue().getNumServerErrors());
+    }
+    out.append("# TYPE myrrix_requests_per_second gauge\n");
+    for (Map.Entry<String,ServletStats> entry : timings.entrySet()) {
+      LatencyTimer latency = entry.getValue().getLatency();
+      double seconds = latency.getRecentSeconds();
+      float rate = seconds > 0.0 ? (float) (latency.getRecent().getCount() / seconds) : 0.0f;
+      out.append("myrrix_requests_per_second{endpoint=\"").append(entry.getKey()).append("\"} ");
+      out.append(rate).append('\n');
+    }
+    out.append("# TYPE myrrix_request_latency_microseconds summary\n");
+    for (Map.Entry<String,ServletStats> entry : timings.entrySet()) {
+      writeSummary(out, "myrrix_request_latency_microseconds", "endpoint", entry.getKey(),
+                   entry.getValue().getLatency());
+    }
+  }
+
+  private static void writeTimerMetrics(ResponseBuffer out, Map<String,LatencyTimer> timers) throws IOException {
+    out.append("# TYPE myrrix_timer_latency_microseconds summary\n");
+    for (Map.Entry<String,LatencyTimer> entry : timers.entrySet()) {
+      writeSummary(out, "myrrix_timer_latency_microseconds", "timer", entry.getKey(), entry.getValue());
+    }
+  }
+
+  private static void writeSummary(ResponseBuffer out,
+                                   String metric,
+                                   String labelName,
+                                   String labelValue,
+                                   LatencyTimer timer) throws IOException {
+    LatencyHistogram recent = timer.getRecent();
+    for (int i = 0; i < QUANTILES.length; i++) {
+      out.append(metric).append('{').append(labelName).append("=\"").append(labelValue);
+      out.append("\",quantile=\"").append(QUANTILE_LABELS[i]).append("\"} ");
+      if (recent.getCount() == 0L) {
+        out.append("NaN\n");
+      } else {
+        out.append(recent.getQuantile(QUANTILES[i])).append('\n');
+      }
+    }
+    LatencyHistogram allTime = timer.getAllTime();
+    writeSample(out, metric + "_sum", labelName, labelValue, allTime.getSum());
+    writeSample(out, metric + "_count", labelName, labelValue, allTime.getCount());
+  }
+
+  private static void writeSample(ResponseBuffer out,
+                                  String metric,
+                                  String labelName,
+                                  String labelValue,
+                                  long value) throws IOException {
+    out.append(metric).append('{').append(labelName).append("=\"").append(labelValue).append("\"} ");
+    out.append(value).append('\n');
+  }
+
+}
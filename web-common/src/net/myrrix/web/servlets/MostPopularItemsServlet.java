@@ -58,4 +58,9 @@ public final class MostPopularItemsServlet extends AbstractMyrrixServlet {
     }
   }
 
+  @Override
+  protected boolean isCacheable() {
+    return true;
+  }
+
 }
@@ -0,0 +1,297 @@
+/*
+ * Copyright Myrrix Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.myrrix.web.servlets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSession;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HostAndPort;
+import com.google.common.net.HttpHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Forwards a request that another partition should serve to a replica of that partition, and streams
+ * its response back, as an alternative to redirecting the caller there. Replicas are tried in the given
+ * order until one can be reached and is ready.</p>
+ *
+ * <p>Connections are made with {@link HttpURLConnection}, whose persistent connections are kept by the JVM
+ * and reused across requests. At most {@code web.partition.forward.maxConnections} requests, default 32, are
+ * forwarded to one replica at once; more wait for one to finish, for up to the connect timeout. The JVM keeps
+ * idle connections per host up to the standard {@code http.maxConnections} system property, which is set to
+ * the same size unless already set, so that each forwarded request finds a connection to reuse. If set
+ * explicitly, it should be no smaller.</p>
+ *
+ * <p>When forwarding over HTTPS, the replica's certificate must match its host name unless the host is
+ * the local host, or system property {@code client.https.ignoreHost} is {@code true}, as for the client.</p>
+ *
+ * <p>This does not work with HTTP DIGEST authentication, since the credentials for one server are not
+ * accepted by another.</p>
+ */
+final class PartitionForwarder {
+
+  private static final Logger log = LoggerFactory.getLogger(PartitionForwarder.class);
+
+  /** Marks a request as already forwarded, so that it is never forwarded again. */
+  static final String FORWARDED_HEADER = "X-Myrrix-Forwarded";
+
+  private static final int CONNECT_TIMEOUT_MSEC = 5000;
+  private static final int READ_TIMEOUT_MSEC = 120000;
+
+  private static final int MAX_CONNECTIONS =
+      Integer.parseInt(System.getProperty("web.partition.forward.maxConnections", "32"));
+  private static final boolean IGNORE_HTTPS_HOST = Boolean.parseBoolean(System.getProperty("client.https.ignoreHost"));
+
+  private static final ConcurrentMap<HostAndPort,Semaphore> CONNECTION_PERMITS = Maps.newConcurrentMap();
+
+  private static final HostnameVerifier HOSTNAME_VERIFIER = new HostnameVerifier() {
+    @Override
+    public boolean verify(String hostname, SSLSession sslSession) {
+      return IGNORE_HTTPS_HOST
+          || "localhost".equals(hostname)
+          || "127.0.0.1".equals(hostname)
+          || HttpsURLConnection.getDefaultHostnameVerifier().verify(hostname, sslSession);
+    }
+  };
+
+  /** Headers that apply to one connection only, or that the connection sets itself, lower-cased */
+  private static final Set<String> HOP_BY_HOP_HEADERS = ImmutableSet.of(
+      "connection",
+      "keep-alive",
+      "proxy-authenticate",
+      "proxy-authorization",
+      "te",
+      "trailer",
+      "transfer-encoding",
+      "upgrade");
+  private static final Set<String> NOT_FORWARDED_REQUEST_HEADERS = ImmutableSet.of(
+      "host",
+      "content-length");
+  private static final Set<String> NOT_RETURNED_RESPONSE_HEADERS = ImmutableSet.of(
+      "date",
+      "server");
+
+  private PartitionForwarder() {
+  }
+
+  /**
+   * Sizes the JVM's pool of idle connections per host to match {@code web.partition.forward.maxConnections},
+   * unless {@code http.maxConnections} is already set. This must be called before the first connection is made.
+   */
+  static void configureConnectionPool() {
+    if (System.getProperty("http.maxConnections") == null) {
+      System.setProperty("http.maxConnections", Integer.toString(MAX_CONNECTIONS));
+    }
+    log.info("Forwarding at most {} requests at once to each replica", MAX_CONNECTIONS);
+  }
+
+  /**
+   * @param request request to forward
+   * @param response response to write the replica's response into
+   * @param replicas replicas of the partition that should serve the request, in the order to try them
+   */
+  static void forward(HttpServletRequest request,
+                      HttpServletResponse response,
+                      Iterable<HostAndPort> replicas) throws IOException {
+    // Buffered, so that it can be sent again to another replica
+    byte[] body = readBody(request);
+
+    IOException savedException = null;
+    Iterator<HostAndPort> replicaIterator = replicas.iterator();
+    while (replicaIterator.hasNext()) {
+      HostAndPort replica = replicaIterator.next();
+      Semaphore permits = getPermits(replica);
+      try {
+        if (!permits.tryAcquire(CONNECT_TIMEOUT_MSEC, TimeUnit.MILLISECONDS)) {
+          log.info("Too many requests forwarded to {}", replica);
+          savedException = new IOException("Too many requests forwarded to " + replica);
+          continue;
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new IOException(ie);
+      }
+      try {
+        HttpURLConnection connection = null;
+        int status;
+        try {
+          connection = send(request, body, replica);
+          status = connection.getResponseCode();
+        } catch (IOException ioe) {
+          log.info("Can't forward to {}: ({})", replica, ioe.toString());
+          savedException = ioe;
+          if (connection != null) {
+            connection.disconnect();
+          }
+          continue;
+        }
+        if (status == HttpServletResponse.SC_SERVICE_UNAVAILABLE && replicaIterator.hasNext()) {
+          log.info("{} is not ready; trying another replica", replica);
+          discard(connection);
+          continue;
+        }
+        relay(connection, status, response);
+        return;
+      } finally {
+        permits.release();
+      }
+    }
+    response.sendError(HttpServletResponse.SC_BAD_GATEWAY, String.valueOf(savedException));
+  }
+
+  private static Semaphore getPermits(HostAndPort replica) {
+    Semaphore permits = CONNECTION_PERMITS.get(replica);
+    if (permits == null) {
+      permits = new Semaphore(MAX_CONNECTIONS);
+      Semaphore existing = CONNECTION_PERMITS.putIfAbsent(replica, permits);
+      if (existing != null) {
+        permits = existing;
+      }
+    }
+    return permits;
+  }
+
+  private static byte[] readBody(HttpServletRequest request) throws IOException {
+    int contentLength = request.getContentLength();
+    if (contentLength == 0 || (contentLength < 0 && request.getHeader(HttpHeaders.TRANSFER_ENCODING) == null)) {
+      return null;
+    }
+    InputStream in = request.getInputStream();
+    try {
+      return ByteStreams.toByteArray(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static HttpURLConnection send(HttpServletRequest request, byte[] body, HostAndPort replica)
+      throws IOException {
+    StringBuilder path = new StringBuilder(request.getRequestURI());
+    String query = request.getQueryString();
+    if (query != null) {
+      path.append('?').append(query);
+    }
+    String protocol = request.isSecure() ? "https" : "http";
+    URL url = new URL(protocol, replica.getHostText(), replica.getPort(), path.toString());
+    log.debug("Forwarding {} {}", request.getMethod(), url);
+
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    if (connection instanceof HttpsURLConnection) {
+      ((HttpsURLConnection) connection).setHostnameVerifier(HOSTNAME_VERIFIER);
+    }
+    connection.setRequestMethod(request.getMethod());
+    connection.setInstanceFollowRedirects(false);
+    connection.setUseCaches(false);
+    connection.setAllowUserInteraction(false);
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MSEC);
+    connection.setReadTimeout(READ_TIMEOUT_MSEC);
+
+    Enumeration<String> headerNames = request.getHeaderNames();
+    while (headerNames.hasMoreElements()) {
+      String name = headerNames.nextElement();
+      String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+      if (HOP_BY_HOP_HEADERS.contains(lowerCaseName) || NOT_FORWARDED_REQUEST_HEADERS.contains(lowerCaseName)) {
+        continue;
+      }
+      Enumeration<String> values = request.getHeaders(name);
+      while (values.hasMoreElements()) {
+        connection.addRequestProperty(name, values.nextElement());
+      }
+    }
+    connection.setRequestProperty(FORWARDED_HEADER, Boolean.TRUE.toString());
+
+    if (body != null) {
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(body.length);
+      OutputStream out = connection.getOutputStream();
+      try {
+        out.write(body);
+      } finally {
+        out.close();
+      }
+    }
+    return connection;
+  }
+
+  private static void relay(HttpURLConnection connection, int status, HttpServletResponse response)
+      throws IOException {
+    response.setStatus(status);
+    for (Map.Entry<String,List<String>> header : connection.getHeaderFields().entrySet()) {
+      String name = header.getKey();
+      if (name == null) {
+        // Status line
+        continue;
+      }
+      String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+      if (HOP_BY_HOP_HEADERS.contains(lowerCaseName) || NOT_RETURNED_RESPONSE_HEADERS.contains(lowerCaseName)) {
+        continue;
+      }
+      for (String value : header.getValue()) {
+        response.addHeader(name, value);
+      }
+    }
+    InputStream in = responseBody(connection, status);
+    if (in != null) {
+      // Reading to the end and closing, rather than disconnecting, returns the connection to the pool
+      try {
+        ByteStreams.copy(in, response.getOutputStream());
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+  private static void discard(HttpURLConnection connection) {
+    try {
+      InputStream in = responseBody(connection, connection.getResponseCode());
+      if (in != null) {
+        try {
+          ByteStreams.copy(in, ByteStreams.nullOutputStream());
+        } finally {
+          in.close();
+        }
+      }
+    } catch (IOException ignored) {
+      connection.disconnect();
+    }
+  }
+
+  private static InputStream responseBody(HttpURLConnection connection, int status) throws IOException {
+    return status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+  }
+
+}
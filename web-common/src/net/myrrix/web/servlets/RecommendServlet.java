@@ -116,4 +116,9 @@ public final class RecommendServlet extends AbstractMyrrixServlet {
     return userID;
   }
 
+  @Override
+  protected boolean isComputeIntensive() {
+    return true;
+  }
+
 }
@@ -129,4 +129,9 @@ public final class RecommendToAnonymousServlet extends AbstractMyrrixServlet {
                                 LangUtils.parseFloat(s.substring(equals + 1)));
   }
 
+  @Override
+  protected boolean isComputeIntensive() {
+    return true;
+  }
+
 }
@@ -121,4 +121,9 @@ public final class RecommendToManyServlet extends AbstractMyrrixServlet {
     // NoSuchUserException as the partition for user 1 won't have the others.
   }
 
+  @Override
+  protected boolean isComputeIntensive() {
+    return true;
+  }
+
 }
@@ -102,4 +102,14 @@ public final class SimilarityServlet extends AbstractMyrrixServlet {
     }
   }
 
+  @Override
+  protected boolean isComputeIntensive() {
+    return true;
+  }
+
+  @Override
+  protected boolean isCacheable() {
+    return true;
+  }
+
 }
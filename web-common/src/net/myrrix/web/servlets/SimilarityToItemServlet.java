@@ -17,7 +17,6 @@
 package net.myrrix.web.servlets;
 
 import java.io.IOException;
-import java.io.Writer;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -79,12 +78,7 @@ public final class SimilarityToItemServlet extends AbstractMyrrixServlet {
 
     MyrrixRecommender recommender = getRecommender();
     try {
-      float[] similarities = recommender.similarityToItem(toItemID, itemIDs);
-      Writer out = response.getWriter();
-      for (float similarity : similarities) {
-        out.write(Float.toString(similarity));
-        out.write('\n');        
-      }
+      outputValues(response, recommender.similarityToItem(toItemID, itemIDs));
     } catch (NoSuchItemException nsie) {
       response.sendError(HttpServletResponse.SC_NOT_FOUND, nsie.toString());
     } catch (NotReadyException nre) {
@@ -95,4 +89,9 @@ public final class SimilarityToItemServlet extends AbstractMyrrixServlet {
     }
   }
 
+  @Override
+  protected boolean isCacheable() {
+    return true;
+  }
+
 }